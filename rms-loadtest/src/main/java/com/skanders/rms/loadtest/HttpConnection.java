@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Minimal blocking HTTP/1.1 keep-alive client. Requests are encoded once
+ * per {@link RequestSpec}, responses are read with a Content-Length, chunked
+ * or until the server closes the connection, their bodies discarded.
+ */
+final class HttpConnection implements Closeable
+{
+    private static final int BUFFER_SIZE  = 16 * 1024;
+    private static final int READ_TIMEOUT = 60_000;
+
+    private final Socket       socket;
+    private final InputStream  in;
+    private final OutputStream out;
+    private final byte[]       skip = new byte[BUFFER_SIZE];
+
+    private boolean open = true;
+
+    HttpConnection(URI target) throws IOException
+    {
+        this.socket = new Socket();
+        this.socket.setTcpNoDelay(true);
+        this.socket.setSoTimeout(READ_TIMEOUT);
+        this.socket.connect(new InetSocketAddress(target.getHost(), target.getPort()));
+
+        this.in  = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+    }
+
+    /**
+     * Encodes a request of the spec for the target.
+     */
+    static byte[] encode(URI target, RequestSpec spec)
+    {
+        byte[]        body    = spec.getBodyBytes();
+        StringBuilder request = new StringBuilder(256);
+
+        request.append(spec.getMethod()).append(' ').append(pathOf(target, spec)).append(" HTTP/1.1\r\n")
+               .append("Host: ").append(target.getHost()).append(':').append(target.getPort()).append("\r\n");
+
+        for (Map.Entry<String, String> header : spec.getHeaders().entrySet())
+            request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+
+        if (body.length > 0 || !"GET".equals(spec.getMethod()) && !"HEAD".equals(spec.getMethod()))
+            request.append("Content-Length: ").append(body.length).append("\r\n");
+
+        request.append("\r\n");
+
+        byte[] head    = request.toString().getBytes(StandardCharsets.ISO_8859_1);
+        byte[] encoded = new byte[head.length + body.length];
+
+        System.arraycopy(head, 0, encoded, 0, head.length);
+        System.arraycopy(body, 0, encoded, head.length, body.length);
+
+        return encoded;
+    }
+
+    /**
+     * Resolves the path of the spec against the path of the target, so a
+     * target of {@code http://host:port/api} prefixes every request path.
+     */
+    static String pathOf(URI target, RequestSpec spec)
+    {
+        String base = target.getRawPath();
+
+        if (base == null || base.isEmpty() || base.equals("/"))
+            return spec.getPath();
+
+        return (base.endsWith("/") ? base.substring(0, base.length() - 1) : base) + spec.getPath();
+    }
+
+    /**
+     * @return false once the server asked to close the connection
+     */
+    boolean isOpen()
+    {
+        return open;
+    }
+
+    /**
+     * Sends an encoded request and reads its response.
+     *
+     * @param request a request built by {@link #encode(URI, RequestSpec)}
+     * @param head    true if the request is a HEAD request
+     * @return the response status
+     * @throws IOException if the connection fails
+     */
+    int exchange(byte[] request, boolean head) throws IOException
+    {
+        out.write(request);
+        out.flush();
+
+        String statusLine = readLine();
+
+        if (statusLine == null)
+            throw new IOException("Connection closed by server");
+
+        int  status   = Integer.parseInt(statusLine.substring(9, 12));
+        long length   = -1;
+        boolean chunked = false;
+
+        String line;
+        while ((line = readLine()) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+
+            if (colon < 0)
+                continue;
+
+            String name  = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+
+            if (name.equalsIgnoreCase("Content-Length"))
+                length = Long.parseLong(value);
+            else if (name.equalsIgnoreCase("Transfer-Encoding"))
+                chunked = value.equalsIgnoreCase("chunked");
+            else if (name.equalsIgnoreCase("Connection"))
+                open = !value.equalsIgnoreCase("close");
+        }
+
+        if (head || status == 204 || status == 304 || status / 100 == 1)
+            return status;
+
+        if (chunked)
+            readChunked();
+        else if (length >= 0)
+            skipFully(length);
+        else
+            readUntilClose();
+
+        return status;
+    }
+
+    private void readChunked() throws IOException
+    {
+        while (true) {
+            String size = readLine();
+
+            if (size == null)
+                throw new IOException("Connection closed inside a chunked body");
+
+            int  extension = size.indexOf(';');
+            long length    = Long.parseLong((extension < 0 ? size : size.substring(0, extension)).trim(), 16);
+
+            if (length == 0) {
+                String trailer;
+                while ((trailer = readLine()) != null && !trailer.isEmpty())
+                    ; // Trailers are ignored
+
+                return;
+            }
+
+            skipFully(length);
+            readLine();
+        }
+    }
+
+    private void readUntilClose() throws IOException
+    {
+        while (in.read(skip) != -1)
+            ; // Body is discarded
+
+        open = false;
+    }
+
+    private void skipFully(long length) throws IOException
+    {
+        while (length > 0) {
+            int read = in.read(skip, 0, (int) Math.min(skip.length, length));
+
+            if (read == -1)
+                throw new IOException("Connection closed inside a body");
+
+            length -= read;
+        }
+    }
+
+    private String readLine() throws IOException
+    {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                byte[] bytes  = line.toByteArray();
+                int    length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+
+                return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+            }
+
+            line.write(b);
+        }
+
+        return line.size() == 0 ? null : line.toString("ISO-8859-1");
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        open = false;
+        socket.close();
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.loadtest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the request mix of a scenario against a target, one thread and one
+ * connection per configured connection.
+ * <p>
+ * In an open loop requests are scheduled at the configured rate regardless
+ * of how fast the target answers, each latency is measured from the
+ * request's scheduled time. In a closed loop each connection sends its next
+ * request as soon as the last one is answered, latencies are corrected with
+ * the scenario's expected interval if one is given.
+ * <p>
+ * Requests scheduled during the warmup are sent but not recorded.
+ */
+public class LoadDriver
+{
+    private static final Logger LOG = LoggerFactory.getLogger(LoadDriver.class);
+
+    private final Scenario          scenario;
+    private final URI               target;
+    private final List<RequestSpec> specs;
+    private final byte[][]          encoded;
+    private final int[]             weights;
+
+    /**
+     * @param scenario the scenario to run
+     * @param target   scheme, host, port and base path of the service
+     */
+    public LoadDriver(Scenario scenario, URI target)
+    {
+        this.scenario = scenario;
+        this.target   = target;
+        this.specs    = scenario.getRequests();
+        this.encoded  = new byte[specs.size()][];
+        this.weights  = new int[specs.size()];
+
+        int total = 0;
+
+        for (int i = 0; i < specs.size(); i++) {
+            RequestSpec spec = specs.get(i);
+
+            encoded[i] = spec.isWebSocket() ? spec.getBodyBytes() : HttpConnection.encode(target, spec);
+            weights[i] = total += spec.getWeight();
+        }
+    }
+
+    /**
+     * Runs the warmup and the measured duration of the scenario.
+     *
+     * @return the report of the measured duration
+     * @throws InterruptedException if interrupted while waiting on workers
+     */
+    public LoadReport run() throws InterruptedException
+    {
+        Instant startedAt = Instant.now();
+
+        long start     = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureAt = start + TimeUnit.SECONDS.toNanos(scenario.getWarmup());
+        long end       = measureAt + TimeUnit.SECONDS.toNanos(scenario.getDuration());
+
+        Clock        clock   = new Clock(start, measureAt, end);
+        List<Worker> workers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < scenario.getConnections(); i++) {
+            Worker worker = new Worker(clock);
+            Thread thread = new Thread(worker, "rms-loadtest-" + i);
+
+            thread.setDaemon(true);
+            workers.add(worker);
+            threads.add(thread);
+        }
+
+        LOG.info("Running '{}' against {}: {} loop, {} connections, {}s warmup, {}s measured.",
+                scenario.getName(), target, scenario.getMode(), scenario.getConnections(),
+                scenario.getWarmup(), scenario.getDuration());
+
+        for (Thread thread : threads)
+            thread.start();
+
+        for (Thread thread : threads)
+            thread.join();
+
+        List<RequestStats> merged = new ArrayList<>();
+
+        for (int i = 0; i < specs.size(); i++) {
+            RequestStats stats = new RequestStats(specs.get(i).getName());
+
+            for (Worker worker : workers)
+                stats.merge(worker.stats[i]);
+
+            merged.add(stats);
+        }
+
+        return new LoadReport(scenario, target, startedAt, end - measureAt, merged);
+    }
+
+    private int pick()
+    {
+        if (weights.length == 1)
+            return 0;
+
+        int index = Arrays.binarySearch(weights, ThreadLocalRandom.current().nextInt(weights[weights.length - 1]) + 1);
+
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static final class Clock
+    {
+        private final long       start;
+        private final long       measureAt;
+        private final long       end;
+        private final AtomicLong sequence = new AtomicLong();
+
+        private Clock(long start, long measureAt, long end)
+        {
+            this.start     = start;
+            this.measureAt = measureAt;
+            this.end       = end;
+        }
+    }
+
+    private final class Worker implements Runnable
+    {
+        private final Clock          clock;
+        private final RequestStats[] stats   = new RequestStats[specs.size()];
+        private final RequestStats[] discard = new RequestStats[specs.size()];
+
+        private final Map<String, WebSocketConnection> sockets = new HashMap<>();
+
+        private HttpConnection http;
+
+        private Worker(Clock clock)
+        {
+            this.clock = clock;
+
+            for (int i = 0; i < specs.size(); i++) {
+                stats[i]   = new RequestStats(specs.get(i).getName());
+                discard[i] = new RequestStats(specs.get(i).getName());
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                if (scenario.isOpenLoop())
+                    runOpen();
+                else
+                    runClosed();
+
+            } finally {
+                closeQuietly(http);
+
+                for (WebSocketConnection socket : sockets.values())
+                    closeQuietly(socket);
+
+            }
+        }
+
+        private void runOpen()
+        {
+            double interval = TimeUnit.SECONDS.toNanos(1) / scenario.getRate();
+
+            while (true) {
+                long intended = clock.start + (long) (clock.sequence.getAndIncrement() * interval);
+
+                if (intended - clock.end >= 0)
+                    return;
+
+                long wait;
+                while ((wait = intended - System.nanoTime()) > 0)
+                    LockSupport.parkNanos(wait);
+
+                send(intended, 0);
+            }
+        }
+
+        private void runClosed()
+        {
+            long expectedInterval = TimeUnit.MICROSECONDS.toNanos(scenario.getExpectedInterval());
+
+            long wait;
+            while ((wait = clock.start - System.nanoTime()) > 0)
+                LockSupport.parkNanos(wait);
+
+            while (System.nanoTime() - clock.end < 0)
+                send(System.nanoTime(), expectedInterval);
+        }
+
+        private void send(long intended, long expectedInterval)
+        {
+            int         index   = pick();
+            RequestSpec spec    = specs.get(index);
+            long        sent    = System.nanoTime();
+            String      outcome = exchange(spec, encoded[index]);
+            long        done    = System.nanoTime();
+
+            RequestStats[] into = intended - clock.measureAt >= 0 ? stats : discard;
+
+            into[index].record(outcome, done - intended, done - sent, expectedInterval);
+        }
+
+        private String exchange(RequestSpec spec, byte[] request)
+        {
+            try {
+                if (spec.isWebSocket()) {
+                    String              path   = HttpConnection.pathOf(target, spec);
+                    WebSocketConnection socket = sockets.get(path);
+
+                    if (socket == null)
+                        sockets.put(path, socket = new WebSocketConnection(target, path));
+
+                    try {
+                        socket.exchange(request);
+
+                    } catch (IOException e) {
+                        sockets.remove(path);
+                        closeQuietly(socket);
+                        throw e;
+
+                    }
+
+                    return RequestStats.WEBSOCKET;
+                }
+
+                if (http == null || !http.isOpen()) {
+                    closeQuietly(http);
+                    http = new HttpConnection(target);
+                }
+
+                try {
+                    return Integer.toString(http.exchange(request, "HEAD".equals(spec.getMethod())));
+
+                } catch (IOException e) {
+                    closeQuietly(http);
+                    http = null;
+                    throw e;
+
+                }
+
+            } catch (IOException | RuntimeException e) {
+                LOG.debug("Request '{}' failed: {}", spec.getName(), e.toString());
+                return RequestStats.ERROR;
+
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable)
+    {
+        if (closeable == null)
+            return;
+
+        try {
+            closeable.close();
+
+        } catch (IOException e) {
+            LOG.trace("Closing connection failed", e);
+
+        }
+    }
+}
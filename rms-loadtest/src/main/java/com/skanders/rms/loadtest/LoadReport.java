@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.skanders.rms.service.RapidMicroService;
+import org.HdrHistogram.Histogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of a run, written as JSON so runs of different builds can be
+ * compared. Percentiles are given in milliseconds, each histogram is also
+ * kept whole as a base64 compressed HdrHistogram for further analysis.
+ */
+public class LoadReport
+{
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+    private static final String[] COMPARED    = {"p50", "p99", "p99.9"};
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Scenario           scenario;
+    private final URI                target;
+    private final Instant            startedAt;
+    private final long               measuredNanos;
+    private final List<RequestStats> requests;
+
+    LoadReport(Scenario scenario, URI target, Instant startedAt, long measuredNanos, List<RequestStats> requests)
+    {
+        this.scenario      = scenario;
+        this.target        = target;
+        this.startedAt     = startedAt;
+        this.measuredNanos = measuredNanos;
+        this.requests      = requests;
+    }
+
+    /**
+     * @return stats of each request of the scenario
+     */
+    public List<RequestStats> getRequests()
+    {
+        return requests;
+    }
+
+    /**
+     * @return completed requests per second over the measured duration
+     */
+    public double getThroughput()
+    {
+        long total = 0;
+
+        for (RequestStats stats : requests)
+            total += stats.getRequests();
+
+        return total / (measuredNanos / 1e9);
+    }
+
+    /**
+     * Builds the machine readable report.
+     *
+     * @return the report as a JSON tree
+     */
+    public ObjectNode toJson()
+    {
+        ObjectNode report = MAPPER.createObjectNode();
+
+        report.put("scenario", scenario.getName());
+        report.put("target", target.toString());
+        report.put("mode", scenario.getMode());
+
+        if (scenario.isOpenLoop())
+            report.put("rate", scenario.getRate());
+
+        report.put("connections", scenario.getConnections());
+        report.put("warmup", scenario.getWarmup());
+        report.put("duration", scenario.getDuration());
+        report.put("startedAt", startedAt.toString());
+        report.put("java", System.getProperty("java.version"));
+        report.put("rms", RapidMicroService.class.getPackage().getImplementationVersion());
+
+        long total  = 0;
+        long errors = 0;
+
+        ObjectNode perRequest = report.putObject("requests");
+
+        for (RequestStats stats : requests) {
+            ObjectNode node = perRequest.putObject(stats.getName());
+
+            node.put("count", stats.getRequests());
+            node.put("errors", stats.getErrors());
+
+            ObjectNode outcomes = node.putObject("outcomes");
+            for (Map.Entry<String, Long> outcome : stats.getOutcomes().entrySet())
+                outcomes.put(outcome.getKey(), outcome.getValue());
+
+            node.set("latency", histogram(stats.getLatency()));
+            node.set("serviceTime", histogram(stats.getServiceTime()));
+
+            total  += stats.getRequests();
+            errors += stats.getErrors();
+        }
+
+        ObjectNode totals = report.putObject("totals");
+
+        totals.put("requests", total);
+        totals.put("errors", errors);
+        totals.put("throughput", getThroughput());
+
+        return report;
+    }
+
+    /**
+     * Writes the machine readable report.
+     *
+     * @param file the file to write to
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file) throws IOException
+    {
+        MAPPER.writeValue(file, toJson());
+    }
+
+    /**
+     * Prints a summary of latencies and throughput.
+     *
+     * @param out the stream to print to
+     */
+    public void print(PrintStream out)
+    {
+        out.printf("%n%s: %s loop against %s, %.1f requests/s%n", scenario.getName(), scenario.getMode(), target,
+                getThroughput());
+        out.printf("%-24s %10s %8s %10s %10s %10s %10s %10s%n",
+                "request", "count", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+
+        for (RequestStats stats : requests) {
+            Histogram latency = stats.getLatency();
+
+            out.printf("%-24s %10d %8d %10.3f %10.3f %10.3f %10.3f %10.3f%n", stats.getName(), stats.getRequests(),
+                    stats.getErrors(), millis(latency.getValueAtPercentile(50)),
+                    millis(latency.getValueAtPercentile(90)), millis(latency.getValueAtPercentile(99)),
+                    millis(latency.getValueAtPercentile(99.9)), millis(latency.getMaxValue()));
+        }
+    }
+
+    /**
+     * Compares this run to a baseline report. A request regresses if one of
+     * its p50, p99 or p99.9 latencies grew by more than the tolerance, the
+     * run regresses if its throughput dropped by more than the tolerance.
+     *
+     * @param baseline  a report written by an earlier run
+     * @param tolerance allowed change in percent
+     * @return a description of each regression, empty if there are none
+     * @throws IOException if the baseline cannot be read
+     */
+    public List<String> compare(File baseline, double tolerance) throws IOException
+    {
+        JsonNode     before      = MAPPER.readTree(baseline);
+        ObjectNode   after       = toJson();
+        List<String> regressions = new ArrayList<>();
+        double       factor      = 1 + tolerance / 100;
+
+        double throughputBefore = before.path("totals").path("throughput").asDouble();
+        double throughputAfter  = after.path("totals").path("throughput").asDouble();
+
+        if (throughputAfter * factor < throughputBefore)
+            regressions.add(String.format("throughput dropped from %.1f to %.1f requests/s",
+                    throughputBefore, throughputAfter));
+
+        for (RequestStats stats : requests) {
+            JsonNode latencyBefore = before.path("requests").path(stats.getName()).path("latency");
+            JsonNode latencyAfter  = after.path("requests").path(stats.getName()).path("latency");
+
+            if (latencyBefore.isMissingNode())
+                continue;
+
+            for (String percentile : COMPARED) {
+                double valueBefore = latencyBefore.path(percentile).asDouble();
+                double valueAfter  = latencyAfter.path(percentile).asDouble();
+
+                if (valueAfter > valueBefore * factor)
+                    regressions.add(String.format("%s %s latency grew from %.3f to %.3f ms",
+                            stats.getName(), percentile, valueBefore, valueAfter));
+            }
+        }
+
+        return regressions;
+    }
+
+    private static ObjectNode histogram(Histogram histogram)
+    {
+        ObjectNode node = MAPPER.createObjectNode();
+
+        for (double percentile : PERCENTILES)
+            node.put("p" + format(percentile), millis(histogram.getValueAtPercentile(percentile)));
+
+        node.put("max", millis(histogram.getMaxValue()));
+        node.put("mean", histogram.getTotalCount() == 0 ? 0 : histogram.getMean() / NANOS_PER_MILLI);
+
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int        length = histogram.encodeIntoCompressedByteBuffer(buffer);
+
+        node.put("histogram", Base64.getEncoder().encodeToString(Arrays.copyOf(buffer.array(), length)));
+
+        return node;
+    }
+
+    private static String format(double percentile)
+    {
+        return percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile);
+    }
+
+    private static double millis(long nanos)
+    {
+        return nanos / NANOS_PER_MILLI;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.loadtest;
+
+import com.skanders.rms.service.RapidMicroService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.net.URI;
+import java.util.List;
+
+/**
+ * Runs a scenario and reports its latencies:
+ * <pre>
+ * java -jar rms-loadtest.jar scenario.json [--report report.json] [--baseline baseline.json] [--tolerance 10]
+ * </pre>
+ * If the scenario names a {@link ServiceFactory} the service is started on
+ * loopback with an embedded database, the scenario's target, if given, is
+ * then resolved against the service's address, e.g. {@code /api}. Otherwise
+ * the scenario's target is used as is.
+ * <p>
+ * With a baseline the run exits with status 2 if it regressed beyond the
+ * tolerance, in percent, 10 if not given.
+ */
+public class LoadTest
+{
+    private static final Logger LOG = LoggerFactory.getLogger(LoadTest.class);
+
+    private static final int EXIT_USAGE      = 1;
+    private static final int EXIT_REGRESSION = 2;
+
+    private LoadTest()
+    {
+
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        File   scenarioFile = null;
+        File   reportFile   = null;
+        File   baseline     = null;
+        double tolerance    = 10;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--report":
+                    reportFile = new File(value(args, ++i));
+                    break;
+
+                case "--baseline":
+                    baseline = new File(value(args, ++i));
+                    break;
+
+                case "--tolerance":
+                    tolerance = Double.parseDouble(value(args, ++i));
+                    break;
+
+                default:
+                    scenarioFile = new File(args[i]);
+            }
+        }
+
+        if (scenarioFile == null)
+            usage();
+
+        LoadReport report = run(Scenario.read(scenarioFile));
+
+        report.print(System.out);
+
+        if (reportFile != null) {
+            report.write(reportFile);
+            LOG.info("Report written to '{}'.", reportFile);
+        }
+
+        if (baseline == null)
+            return;
+
+        List<String> regressions = report.compare(baseline, tolerance);
+
+        for (String regression : regressions)
+            System.out.println("REGRESSION: " + regression);
+
+        if (!regressions.isEmpty())
+            System.exit(EXIT_REGRESSION);
+    }
+
+    /**
+     * Runs a scenario, starting and stopping its service if it names one.
+     *
+     * @param scenario the scenario to run
+     * @return the report of the run
+     * @throws Exception if the service fails to start or the run is
+     *                   interrupted
+     */
+    public static LoadReport run(Scenario scenario) throws Exception
+    {
+        if (scenario.getService() == null)
+            return new LoadDriver(scenario, URI.create(scenario.getTarget())).run();
+
+        ServiceFactory factory = Class.forName(scenario.getService())
+                .asSubclass(ServiceFactory.class)
+                .getDeclaredConstructor()
+                .newInstance();
+
+        try (LoopbackEnvironment environment = new LoopbackEnvironment(scenario)) {
+            return run(scenario, environment, factory.create(environment));
+
+        }
+    }
+
+    /**
+     * Runs a scenario against a service built for the given environment. The
+     * service is started and shut down by this call.
+     *
+     * @param scenario    the scenario to run
+     * @param environment the environment the service was built for
+     * @param service     the service, not yet started
+     * @return the report of the run
+     * @throws InterruptedException if interrupted while running
+     */
+    public static LoadReport run(Scenario scenario, LoopbackEnvironment environment, RapidMicroService service)
+            throws InterruptedException
+    {
+        URI target = scenario.getTarget() == null
+                ? environment.getBaseUri()
+                : environment.getBaseUri().resolve(scenario.getTarget());
+
+        service.start();
+
+        try {
+            return new LoadDriver(scenario, target).run();
+
+        } finally {
+            service.shutdownNow();
+
+        }
+    }
+
+    private static String value(String[] args, int index)
+    {
+        if (index >= args.length)
+            usage();
+
+        return args[index];
+    }
+
+    private static void usage()
+    {
+        System.err.println("Usage: LoadTest <scenario.json> [--report file] [--baseline file] [--tolerance percent]");
+        System.exit(EXIT_USAGE);
+    }
+}
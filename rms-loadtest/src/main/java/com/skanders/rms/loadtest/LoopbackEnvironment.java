@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.loadtest;
+
+import org.h2.tools.RunScript;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A free loopback port and an in-memory H2 database standing in for the
+ * service's own database during a run. The database lives until {@link
+ * #close()}.
+ */
+public class LoopbackEnvironment implements AutoCloseable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(LoopbackEnvironment.class);
+
+    private static final String HOSTNAME = "127.0.0.1";
+    private static final String USERNAME = "sa";
+    private static final String PASSWORD = "";
+
+    private final int        port;
+    private final String     jdbcUrl;
+    private final Connection keeper;
+
+    /**
+     * Picks a free port and creates the database, running the scenario's
+     * schema script if it has one.
+     *
+     * @param scenario the scenario being run
+     * @throws IOException  if no port is free or the schema cannot be read
+     * @throws SQLException if the database cannot be created
+     */
+    public LoopbackEnvironment(Scenario scenario) throws IOException, SQLException
+    {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getByName(HOSTNAME))) {
+            this.port = socket.getLocalPort();
+
+        }
+
+        String mode = scenario.getDatabase().getMode();
+
+        this.jdbcUrl = "jdbc:h2:mem:" + scenario.getName() + ";DB_CLOSE_DELAY=-1" +
+                (mode != null ? ";MODE=" + mode : "");
+        this.keeper  = DriverManager.getConnection(jdbcUrl, USERNAME, PASSWORD);
+
+        String schema = scenario.getDatabase().getSchema();
+
+        if (schema != null)
+            try (Reader reader = Files.newBufferedReader(Paths.get(schema), StandardCharsets.UTF_8)) {
+                RunScript.execute(keeper, reader);
+                LOG.info("Ran schema script '{}'.", schema);
+
+            }
+    }
+
+    /**
+     * @return the loopback address the service is to listen on
+     */
+    public String getHostname()
+    {
+        return HOSTNAME;
+    }
+
+    /**
+     * @return a free port for the service's uri listener
+     */
+    public int getPort()
+    {
+        return port;
+    }
+
+    /**
+     * @return scheme, host and port of the service
+     */
+    public URI getBaseUri()
+    {
+        return URI.create("http://" + HOSTNAME + ":" + port);
+    }
+
+    /**
+     * @return jdbc url of the embedded database, for the service's db.url
+     */
+    public String getJdbcUrl()
+    {
+        return jdbcUrl;
+    }
+
+    /**
+     * @return database username, for the service's db.username
+     */
+    public String getDbUsername()
+    {
+        return USERNAME;
+    }
+
+    /**
+     * @return database password, for the service's db.password
+     */
+    public String getDbPassword()
+    {
+        return PASSWORD;
+    }
+
+    /**
+     * Opens a connection to the embedded database, to seed it from code.
+     *
+     * @return a new connection, to be closed by the caller
+     * @throws SQLException if the connection fails
+     */
+    public Connection getConnection() throws SQLException
+    {
+        return DriverManager.getConnection(jdbcUrl, USERNAME, PASSWORD);
+    }
+
+    /**
+     * Drops the embedded database.
+     *
+     * @throws SQLException if the database fails to shut down
+     */
+    @Override
+    public void close() throws SQLException
+    {
+        try (Statement statement = keeper.createStatement()) {
+            statement.execute("SHUTDOWN");
+
+        } finally {
+            keeper.close();
+
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.loadtest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One entry of a scenario's request mix. An http request is sent on the
+ * worker's keep-alive connection, a websocket request sends its body as a
+ * text message on the worker's connection to the path and waits for one
+ * message back.
+ */
+public class RequestSpec
+{
+    /** Sent as an HTTP/1.1 request */
+    public static final String HTTP = "http";
+    /** Sent as a WebSocket message */
+    public static final String WEBSOCKET = "websocket";
+
+    @JsonProperty
+    private String name;
+
+    @JsonProperty
+    private String type = HTTP;
+
+    @JsonProperty
+    private String method = "GET";
+
+    @JsonProperty
+    private String path;
+
+    @JsonProperty
+    private Map<String, String> headers = new LinkedHashMap<>();
+
+    @JsonProperty
+    private String body;
+
+    @JsonProperty
+    private int weight = 1;
+
+    /**
+     * @return name the request is reported under, its path if not given
+     */
+    public String getName()
+    {
+        return name != null ? name : path;
+    }
+
+    /**
+     * @return http or websocket
+     */
+    public String getType()
+    {
+        return type;
+    }
+
+    /**
+     * @return true if sent as a WebSocket message
+     */
+    public boolean isWebSocket()
+    {
+        return WEBSOCKET.equalsIgnoreCase(type);
+    }
+
+    /**
+     * @return the HTTP method
+     */
+    public String getMethod()
+    {
+        return method;
+    }
+
+    /**
+     * @return the request path including the service's uri.path
+     */
+    public String getPath()
+    {
+        return path;
+    }
+
+    /**
+     * @return additional request headers
+     */
+    public Map<String, String> getHeaders()
+    {
+        return headers == null ? Collections.emptyMap() : headers;
+    }
+
+    /**
+     * @return the request body or WebSocket message as UTF-8, empty if none
+     */
+    public byte[] getBodyBytes()
+    {
+        return body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return relative share of the mix
+     */
+    public int getWeight()
+    {
+        return weight;
+    }
+
+    void verify()
+    {
+        if (path == null || !path.startsWith("/"))
+            throw new IllegalArgumentException("Request '" + name + "' needs a path starting with '/'.");
+
+        if (weight <= 0)
+            throw new IllegalArgumentException("Request '" + getName() + "' needs a positive weight.");
+
+        if (!HTTP.equalsIgnoreCase(type) && !isWebSocket())
+            throw new IllegalArgumentException("Request '" + getName() + "' has an invalid type: " + type);
+    }
+}
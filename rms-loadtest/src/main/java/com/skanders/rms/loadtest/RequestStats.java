@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencies and outcomes of one request of a scenario. Each worker records
+ * into its own instance, which are merged once the run is over.
+ * <p>
+ * Latency is measured from the time a request was meant to be sent, service
+ * time from the time it actually was. In an open loop the two differ by the
+ * time requests queued behind a slow response, which is the coordinated
+ * omission a service time histogram alone hides.
+ */
+public class RequestStats
+{
+    static final long HIGHEST_TRACKABLE = TimeUnit.MINUTES.toNanos(5);
+    static final int  SIGNIFICANT_DIGITS = 3;
+
+    static final String WEBSOCKET = "ws";
+    static final String ERROR     = "error";
+
+    private final String    name;
+    private final Histogram latency;
+    private final Histogram serviceTime;
+
+    private final Map<String, Long> outcomes = new TreeMap<>();
+
+    private long requests;
+    private long errors;
+
+    RequestStats(String name)
+    {
+        this.name        = name;
+        this.latency     = new Histogram(HIGHEST_TRACKABLE, SIGNIFICANT_DIGITS);
+        this.serviceTime = new Histogram(HIGHEST_TRACKABLE, SIGNIFICANT_DIGITS);
+    }
+
+    /**
+     * Records a completed request.
+     *
+     * @param outcome          status code, {@link #WEBSOCKET} or {@link #ERROR}
+     * @param latencyNanos     time since the request was meant to be sent
+     * @param serviceNanos     time since the request was sent
+     * @param expectedInterval expected nanos between requests of a closed
+     *                         loop to correct for, 0 for none
+     */
+    void record(String outcome, long latencyNanos, long serviceNanos, long expectedInterval)
+    {
+        requests++;
+
+        if (ERROR.equals(outcome) || outcome.charAt(0) == '5')
+            errors++;
+
+        outcomes.merge(outcome, 1L, Long::sum);
+
+        if (expectedInterval > 0)
+            latency.recordValueWithExpectedInterval(clamp(latencyNanos), expectedInterval);
+        else
+            latency.recordValue(clamp(latencyNanos));
+
+        serviceTime.recordValue(clamp(serviceNanos));
+    }
+
+    /**
+     * Adds the recordings of another instance for the same request.
+     *
+     * @param other stats recorded by another worker
+     */
+    void merge(RequestStats other)
+    {
+        requests += other.requests;
+        errors   += other.errors;
+
+        latency.add(other.latency);
+        serviceTime.add(other.serviceTime);
+
+        for (Map.Entry<String, Long> outcome : other.outcomes.entrySet())
+            outcomes.merge(outcome.getKey(), outcome.getValue(), Long::sum);
+    }
+
+    private static long clamp(long nanos)
+    {
+        return Math.max(1, Math.min(nanos, HIGHEST_TRACKABLE));
+    }
+
+    /**
+     * @return name of the request
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return requests sent, including failed ones
+     */
+    public long getRequests()
+    {
+        return requests;
+    }
+
+    /**
+     * @return requests that failed to complete or were answered with a 5xx
+     */
+    public long getErrors()
+    {
+        return errors;
+    }
+
+    /**
+     * @return count of each outcome, keyed by status code
+     */
+    public Map<String, Long> getOutcomes()
+    {
+        return outcomes;
+    }
+
+    /**
+     * @return latency histogram in nanos, corrected for coordinated omission
+     */
+    public Histogram getLatency()
+    {
+        return latency;
+    }
+
+    /**
+     * @return service time histogram in nanos
+     */
+    public Histogram getServiceTime()
+    {
+        return serviceTime;
+    }
+}
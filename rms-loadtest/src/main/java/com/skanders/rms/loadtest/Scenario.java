@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.loadtest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A load test run, read from JSON:
+ * <pre>
+ * {
+ *   "name": "orders",
+ *   "service": "com.example.OrdersServiceFactory",
+ *   "database": {"schema": "schema.sql", "mode": "MySQL"},
+ *   "mode": "open",
+ *   "rate": 2000,
+ *   "connections": 16,
+ *   "warmup": 10,
+ *   "duration": 60,
+ *   "requests": [
+ *     {"name": "get", "path": "/api/orders/1", "weight": 8},
+ *     {"name": "create", "method": "POST", "path": "/api/orders",
+ *      "headers": {"Content-Type": "application/json"}, "body": "{}", "weight": 2},
+ *     {"name": "echo", "type": "websocket", "path": "/api/ws", "body": "ping"}
+ *   ]
+ * }
+ * </pre>
+ * service names a {@link ServiceFactory} booted on loopback for the run,
+ * without it the requests are sent to target, a running service.
+ * <p>
+ * In open mode requests are scheduled at a fixed rate regardless of how
+ * fast the service answers, latency counts from when a request was due so
+ * queueing behind a slow response is measured. In closed mode each
+ * connection sends its next request once the previous one is answered,
+ * expectedInterval in microseconds corrects the recorded latencies for the
+ * requests a stalled connection did not send.
+ */
+public class Scenario
+{
+    /** Requests at a fixed rate */
+    public static final String OPEN = "open";
+    /** Requests back to back per connection */
+    public static final String CLOSED = "closed";
+
+    @JsonProperty
+    private String name = "rms";
+
+    @JsonProperty
+    private String service;
+
+    @JsonProperty
+    private String target;
+
+    @JsonProperty
+    private Database database = new Database();
+
+    @JsonProperty
+    private String mode = OPEN;
+
+    @JsonProperty
+    private double rate = 1000;
+
+    @JsonProperty
+    private int connections = 8;
+
+    @JsonProperty
+    private int warmup = 10;
+
+    @JsonProperty
+    private int duration = 30;
+
+    @JsonProperty
+    private long expectedInterval;
+
+    @JsonProperty
+    private List<RequestSpec> requests = new ArrayList<>();
+
+    /**
+     * Reads and verifies a scenario file.
+     *
+     * @param file the JSON scenario
+     * @return the scenario
+     * @throws IOException if the file cannot be read or parsed
+     */
+    public static Scenario read(File file) throws IOException
+    {
+        Scenario scenario = new ObjectMapper().readValue(file, Scenario.class);
+        scenario.verify();
+
+        return scenario;
+    }
+
+    /**
+     * @return name the report is written under
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return class name of the ServiceFactory booted for the run, null to
+     * load a running service
+     */
+    public String getService()
+    {
+        return service;
+    }
+
+    /**
+     * @return base uri of a running service, used when no service is given
+     */
+    public String getTarget()
+    {
+        return target;
+    }
+
+    /**
+     * @return the embedded database settings
+     */
+    public Database getDatabase()
+    {
+        return database;
+    }
+
+    /**
+     * @return true if requests are sent at a fixed rate
+     */
+    public boolean isOpenLoop()
+    {
+        return OPEN.equalsIgnoreCase(mode);
+    }
+
+    /**
+     * @return open or closed
+     */
+    public String getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * @return requests per second of an open loop run
+     */
+    public double getRate()
+    {
+        return rate;
+    }
+
+    /**
+     * @return number of connections, each driven by its own thread
+     */
+    public int getConnections()
+    {
+        return connections;
+    }
+
+    /**
+     * @return seconds of load before measuring
+     */
+    public int getWarmup()
+    {
+        return warmup;
+    }
+
+    /**
+     * @return seconds of measured load
+     */
+    public int getDuration()
+    {
+        return duration;
+    }
+
+    /**
+     * @return expected microseconds between requests of a closed loop
+     * connection, 0 to record latencies uncorrected
+     */
+    public long getExpectedInterval()
+    {
+        return expectedInterval;
+    }
+
+    /**
+     * @return the request mix
+     */
+    public List<RequestSpec> getRequests()
+    {
+        return requests;
+    }
+
+    void verify()
+    {
+        if (!isOpenLoop() && !CLOSED.equalsIgnoreCase(mode))
+            throw new IllegalArgumentException("Invalid mode given: " + mode);
+
+        if (service == null && target == null)
+            throw new IllegalArgumentException("A scenario needs a service or a target.");
+
+        if (connections <= 0 || duration <= 0 || warmup < 0 || isOpenLoop() && rate <= 0)
+            throw new IllegalArgumentException("connections, duration and rate must be positive.");
+
+        if (requests == null || requests.isEmpty())
+            throw new IllegalArgumentException("A scenario needs at least one request.");
+
+        for (RequestSpec request : requests)
+            request.verify();
+    }
+
+    /**
+     * The embedded H2 database handed to a booted service in place of its
+     * own database.
+     */
+    public static class Database
+    {
+        @JsonProperty
+        private String schema;
+
+        @JsonProperty
+        private String mode;
+
+        /**
+         * @return path of a SQL script run before the service starts, null
+         * for none
+         */
+        public String getSchema()
+        {
+            return schema;
+        }
+
+        /**
+         * @return H2 compatibility mode, such as MySQL, null for none
+         */
+        public String getMode()
+        {
+            return mode;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.loadtest;
+
+import com.skanders.rms.service.RapidMicroService;
+
+/**
+ * Builds the service under test. Implementations need a public no argument
+ * constructor to be named by a scenario, and should build the service's
+ * RMSConfig from its usual config with the uri and db sections pointed at
+ * the environment:
+ * <pre>
+ * uri: hostname environment.getHostname(), port environment.getPort()
+ * db:  type url, url environment.getJdbcUrl(),
+ *      username environment.getDbUsername(), password environment.getDbPassword()
+ * </pre>
+ */
+@FunctionalInterface
+public interface ServiceFactory
+{
+    /**
+     * @param environment the loopback port and embedded database of the run
+     * @return the service, not yet started
+     * @throws Exception if the service cannot be built
+     */
+    RapidMicroService create(LoopbackEnvironment environment) throws Exception;
+}
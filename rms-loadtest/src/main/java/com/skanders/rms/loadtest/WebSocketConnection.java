@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Minimal blocking RFC 6455 client: opens the connection with the upgrade
+ * handshake, sends masked text messages and reads whole messages back,
+ * answering pings on the way.
+ */
+final class WebSocketConnection implements Closeable
+{
+    private static final String GUID         = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int    READ_TIMEOUT = 60_000;
+
+    private static final int TEXT  = 0x1;
+    private static final int CLOSE = 0x8;
+    private static final int PING  = 0x9;
+    private static final int PONG  = 0xA;
+
+    private final Socket          socket;
+    private final DataInputStream in;
+    private final OutputStream    out;
+
+    WebSocketConnection(URI target, String path) throws IOException
+    {
+        this.socket = new Socket();
+        this.socket.setTcpNoDelay(true);
+        this.socket.setSoTimeout(READ_TIMEOUT);
+        this.socket.connect(new InetSocketAddress(target.getHost(), target.getPort()));
+
+        this.in  = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = socket.getOutputStream();
+
+        handshake(target, path);
+    }
+
+    /**
+     * Sends a text message and waits for the next message from the server.
+     *
+     * @param message the UTF-8 payload
+     * @throws IOException if the connection fails or is closed by the server
+     */
+    void exchange(byte[] message) throws IOException
+    {
+        writeFrame(TEXT, message);
+        readMessage();
+    }
+
+    private void handshake(URI target, String path) throws IOException
+    {
+        byte[] nonce = new byte[16];
+        ThreadLocalRandom.current().nextBytes(nonce);
+
+        String key = Base64.getEncoder().encodeToString(nonce);
+
+        String request = "GET " + path + " HTTP/1.1\r\n" +
+                "Host: " + target.getHost() + ":" + target.getPort() + "\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Key: " + key + "\r\n" +
+                "Sec-WebSocket-Version: 13\r\n\r\n";
+
+        out.write(request.getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+
+        String statusLine = readLine();
+
+        if (statusLine == null || !statusLine.startsWith("HTTP/1.1 101"))
+            throw new IOException("WebSocket upgrade of '" + path + "' refused: " + statusLine);
+
+        String accept = null;
+        String line;
+
+        while ((line = readLine()) != null && !line.isEmpty())
+            if (line.regionMatches(true, 0, "Sec-WebSocket-Accept:", 0, 21))
+                accept = line.substring(21).trim();
+
+        if (!expectedAccept(key).equals(accept))
+            throw new IOException("WebSocket upgrade of '" + path + "' answered with an invalid accept key");
+    }
+
+    private static String expectedAccept(String key) throws IOException
+    {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest((key + GUID).getBytes(StandardCharsets.ISO_8859_1));
+
+            return Base64.getEncoder().encodeToString(digest);
+
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+
+        }
+    }
+
+    private void readMessage() throws IOException
+    {
+        while (true) {
+            int  first  = in.readUnsignedByte();
+            int  second = in.readUnsignedByte();
+            int  opcode = first & 0x0F;
+            long length = second & 0x7F;
+
+            if (length == 126)
+                length = in.readUnsignedShort();
+            else if (length == 127)
+                length = in.readLong();
+
+            byte[] mask = null;
+
+            if ((second & 0x80) != 0) {
+                mask = new byte[4];
+                in.readFully(mask);
+            }
+
+            byte[] payload = new byte[(int) length];
+            in.readFully(payload);
+
+            if (mask != null)
+                for (int i = 0; i < payload.length; i++)
+                    payload[i] ^= mask[i & 3];
+
+            switch (opcode) {
+                case PING:
+                    writeFrame(PONG, payload);
+                    break;
+
+                case PONG:
+                    break;
+
+                case CLOSE:
+                    throw new IOException("WebSocket closed by server");
+
+                default:
+                    // Text, binary or continuation, done on the final fragment
+                    if ((first & 0x80) != 0)
+                        return;
+            }
+        }
+    }
+
+    private void writeFrame(int opcode, byte[] payload) throws IOException
+    {
+        byte[] header = new byte[14];
+        int    length = 0;
+
+        header[length++] = (byte) (0x80 | opcode);
+
+        if (payload.length < 126) {
+            header[length++] = (byte) (0x80 | payload.length);
+
+        } else if (payload.length <= 0xFFFF) {
+            header[length++] = (byte) (0x80 | 126);
+            header[length++] = (byte) (payload.length >>> 8);
+            header[length++] = (byte) payload.length;
+
+        } else {
+            header[length++] = (byte) (0x80 | 127);
+
+            for (int shift = 56; shift >= 0; shift -= 8)
+                header[length++] = (byte) ((long) payload.length >>> shift);
+
+        }
+
+        byte[] mask = new byte[4];
+        ThreadLocalRandom.current().nextBytes(mask);
+
+        System.arraycopy(mask, 0, header, length, 4);
+        length += 4;
+
+        byte[] frame = new byte[length + payload.length];
+        System.arraycopy(header, 0, frame, 0, length);
+
+        for (int i = 0; i < payload.length; i++)
+            frame[length + i] = (byte) (payload[i] ^ mask[i & 3]);
+
+        out.write(frame);
+        out.flush();
+    }
+
+    private String readLine() throws IOException
+    {
+        StringBuilder line = new StringBuilder(64);
+
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n')
+                return line.length() > 0 && line.charAt(line.length() - 1) == '\r'
+                        ? line.substring(0, line.length() - 1)
+                        : line.toString();
+
+            line.append((char) b);
+        }
+
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            writeFrame(CLOSE, new byte[0]);
+
+        } finally {
+            socket.close();
+
+        }
+    }
+}
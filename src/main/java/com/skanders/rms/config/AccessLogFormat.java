@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.config;
+
+
+import com.skanders.rms.def.RMSException;
+
+/**
+ * Helper enum for RMSConfig to select the accessLog.format option from the
+ * config file
+ *
+ * @see RMSConfig
+ */
+public enum AccessLogFormat
+{
+    NONE,
+    COMMON,
+    COMBINED,
+    JSON;
+
+    /**
+     * Gets enum type from String value. if value is null {@link
+     * AccessLogFormat#NONE} is returned
+     *
+     * @param value string stating the desired format
+     * @return an AccessLogFormat corresponding with the value
+     */
+    static AccessLogFormat getType(String value)
+    {
+        if (value == null)
+            return AccessLogFormat.NONE;
+
+        switch (value.toLowerCase()) {
+            case "none":
+                return AccessLogFormat.NONE;
+            case "common":
+                return AccessLogFormat.COMMON;
+            case "combined":
+                return AccessLogFormat.COMBINED;
+            case "json":
+                return AccessLogFormat.JSON;
+            default:
+                throw new RMSException("Invalid AccessLogFormat given.");
+        }
+    }
+}
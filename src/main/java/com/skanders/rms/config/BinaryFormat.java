@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.config;
+
+
+import com.skanders.rms.def.RMSException;
+
+/**
+ * Helper enum for RMSConfig to select the formats.binary option from the
+ * config file. Each format needs its Jackson dataformat module on the
+ * classpath.
+ *
+ * @see RMSConfig
+ */
+public enum BinaryFormat
+{
+    SMILE("application/x-jackson-smile"),
+    CBOR("application/cbor"),
+    MSGPACK("application/x-msgpack");
+
+    private final String mediaType;
+
+    BinaryFormat(String mediaType)
+    {
+        this.mediaType = mediaType;
+    }
+
+    /**
+     * @return the media type the format is negotiated with
+     */
+    public String getMediaType()
+    {
+        return mediaType;
+    }
+
+    /**
+     * Gets enum type from String value.
+     *
+     * @param value string stating the desired format
+     * @return an BinaryFormat corresponding with the value
+     */
+    static BinaryFormat getType(String value)
+    {
+        switch (value.trim().toLowerCase()) {
+            case "smile":
+                return BinaryFormat.SMILE;
+            case "cbor":
+                return BinaryFormat.CBOR;
+            case "msgpack":
+            case "messagepack":
+                return BinaryFormat.MSGPACK;
+            default:
+                throw new RMSException("Invalid BinaryFormat given.");
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.config;
+
+
+import com.skanders.rms.def.RMSException;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Settings for a bulkhead, a thread pool of its own that the resources
+ * assigned to it run on. Pools are declared by name under bulkheads.pools,
+ * each may set:
+ * <pre>
+ * threads    threads running requests (default 8)
+ * queueSize  requests waiting for a thread (default 64)
+ * rejection  reject (503) or callerRuns (run on the server's worker) once
+ *            the queue is full (default reject)
+ * </pre>
+ *
+ * @see RMSConfig
+ */
+public class BulkheadPool
+{
+    private final String            name;
+    private final int               threads;
+    private final int               queueSize;
+    private final BulkheadRejection rejection;
+
+    /**
+     * Constructor for BulkheadPool
+     *
+     * @param name   the pool name
+     * @param values the pool section
+     */
+    BulkheadPool(@Nonnull String name, @Nonnull ConfigMap values)
+    {
+        this.name      = name;
+        this.threads   = values.getInt("threads", 8);
+        this.queueSize = values.getInt("queueSize", 64);
+        this.rejection = BulkheadRejection.getType(values.getStr("rejection"));
+
+        if (threads <= 0 || queueSize < 0)
+            throw new RMSException("bulkheads.pools." + name + " needs positive threads and a queueSize of 0 or more.");
+    }
+
+    /**
+     * @return the pool name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return threads running requests
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * @return requests waiting for a thread before the rejection applies
+     */
+    public int getQueueSize()
+    {
+        return queueSize;
+    }
+
+    /**
+     * @return what is done with a request once the queue is full
+     */
+    public BulkheadRejection getRejection()
+    {
+        return rejection;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + " [" + threads + "+" + queueSize + " " + rejection.name() + "]";
+    }
+}
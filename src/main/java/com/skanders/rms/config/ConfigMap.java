@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.config;
+
+
+import com.skanders.jbel.config.Config;
+import com.skanders.rms.def.RMSException;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Helper for reading nested sections of the config file, such as the entries
+ * of a named map section, where {@link Config}'s dotted key lookups do not
+ * reach.
+ * <p>
+ * Values are accepted as either their native type or as a String so that
+ * both quoted and unquoted entries in the config file are read the same.
+ */
+class ConfigMap
+{
+    private final String              prefix;
+    private final Map<String, Object> values;
+
+    /**
+     * Constructor for ConfigMap
+     *
+     * @param prefix the key of the section, used in error messages
+     * @param values the raw section values
+     */
+    ConfigMap(@Nonnull String prefix, Map<String, Object> values)
+    {
+        this.prefix = prefix;
+        this.values = values == null ? Collections.emptyMap() : values;
+    }
+
+    /**
+     * Reads a map section from the config and splits it into a ConfigMap per
+     * entry, keeping the order the entries were declared in.
+     *
+     * @param prop an instance of Config
+     * @param key  the key of the map section
+     * @return a map of entry name to ConfigMap, empty if the section is absent
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, ConfigMap> sectionsOf(@Nonnull Config prop, @Nonnull String key)
+    {
+        Map<String, Object> section = prop.getMap(key, String.class, Object.class);
+
+        Map<String, ConfigMap> sections = new LinkedHashMap<>();
+
+        if (section == null)
+            return sections;
+
+        for (Map.Entry<String, Object> entry : section.entrySet()) {
+            if (!(entry.getValue() instanceof Map))
+                throw new RMSException("Invalid section given for: " + key + "." + entry.getKey());
+
+            sections.put(entry.getKey(),
+                    new ConfigMap(key + "." + entry.getKey(), (Map<String, Object>) entry.getValue()));
+        }
+
+        return sections;
+    }
+
+    /**
+     * Reads a map section from the config as a single ConfigMap.
+     *
+     * @param prop an instance of Config
+     * @param key  the key of the map section
+     * @return a ConfigMap of the section, empty if the section is absent
+     */
+    static ConfigMap of(@Nonnull Config prop, @Nonnull String key)
+    {
+        return new ConfigMap(key, prop.getMap(key, String.class, Object.class));
+    }
+
+    boolean contains(String key)
+    {
+        return values.get(key) != null;
+    }
+
+    String getStr(String key)
+    {
+        Object value = values.get(key);
+
+        return value == null ? null : value.toString();
+    }
+
+    String getReqStr(String key)
+    {
+        String value = getStr(key);
+
+        if (value == null)
+            throw new RMSException("Missing required config value: " + prefix + "." + key);
+
+        return value;
+    }
+
+    String getStr(String key, String defaultValue)
+    {
+        String value = getStr(key);
+
+        return value == null ? defaultValue : value;
+    }
+
+    int getReqInt(String key)
+    {
+        return (int) toLong(key, getReqStr(key));
+    }
+
+    int getInt(String key, int defaultValue)
+    {
+        String value = getStr(key);
+
+        return value == null ? defaultValue : (int) toLong(key, value);
+    }
+
+    long getLong(String key, long defaultValue)
+    {
+        String value = getStr(key);
+
+        return value == null ? defaultValue : toLong(key, value);
+    }
+
+    double getDouble(String key, double defaultValue)
+    {
+        String value = getStr(key);
+
+        if (value == null)
+            return defaultValue;
+
+        try {
+            return Double.parseDouble(value);
+
+        } catch (NumberFormatException e) {
+            throw new RMSException("Invalid number given for: " + prefix + "." + key);
+
+        }
+    }
+
+    boolean getBool(String key, boolean defaultValue)
+    {
+        String value = getStr(key);
+
+        if (value == null)
+            return defaultValue;
+
+        switch (value.toLowerCase()) {
+            case "true":
+                return true;
+            case "false":
+                return false;
+            default:
+                throw new RMSException("Invalid boolean given for: " + prefix + "." + key);
+        }
+    }
+
+    private long toLong(String key, String value)
+    {
+        try {
+            return Long.parseLong(value.trim());
+
+        } catch (NumberFormatException e) {
+            throw new RMSException("Invalid number given for: " + prefix + "." + key);
+
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.config;
+
+import com.skanders.rms.def.RMSException;
+
+/**
+ * Helper enum for RMSConfig to select the journal.fsync option from the
+ * config file. An append is acknowledged once it is forced to disk, ALWAYS
+ * forcing as soon as the previous force finished and INTERVAL every
+ * journal.fsyncInterval, or at once with NONE, surviving a crash of the
+ * process but not of the machine.
+ */
+public enum JournalSync
+{
+    ALWAYS,
+    INTERVAL,
+    NONE;
+
+    /**
+     * Gets enum type from String value. if value is null {@link
+     * JournalSync#ALWAYS} is returned
+     *
+     * @param value string stating the desired fsync policy
+     * @return an JournalSync corresponding with the value
+     */
+    static JournalSync getType(String value)
+    {
+        if (value == null)
+            return JournalSync.ALWAYS;
+
+        switch (value.toLowerCase()) {
+            case "always":
+                return JournalSync.ALWAYS;
+            case "interval":
+                return JournalSync.INTERVAL;
+            case "none":
+                return JournalSync.NONE;
+            default:
+                throw new RMSException("Invalid JournalSync given.");
+        }
+    }
+}
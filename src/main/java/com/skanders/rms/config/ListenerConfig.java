@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.config;
+
+
+import com.skanders.rms.def.RMSException;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Settings for a single network listener of RapidMicroService.
+ * <p>
+ * The primary listener is built from the uri section, additional listeners
+ * are declared by name under the listeners section. Each may set:
+ * <pre>
+ * role              public | admin (default public)
+ * scheme            http | unix (default http)
+ * socketPath        socket file of a unix listener
+ * hostname          bind address (default uri.hostname)
+ * port              bind port (required for listeners.* unless unix)
+ * secure            true to use the ssl section (default false)
+ * acceptors         listeners bound to the same port with SO_REUSEPORT
+ * selectorThreads   selector runners of the transport
+ * workerThreads     core and max size of the worker pool
+ * workerQueueLimit  bound of the worker queue, -1 for unbounded
+ * tcpNoDelay        TCP_NODELAY on accepted sockets (default true)
+ * backlog           accept backlog of the server socket
+ * keepAliveTimeout  idle keep-alive timeout in seconds
+ * keepAliveRequests max requests per keep-alive connection
+ * </pre>
+ * Unset tuning values are left at Grizzly's defaults. A thread count or
+ * backlog below one counts as unset, while -1 for workerQueueLimit or the
+ * keep-alive values is passed on as unbounded.
+ *
+ * @see RMSConfig
+ */
+public class ListenerConfig
+{
+    /** Marks a tuning value that was not set, distinct from -1 for unbounded */
+    public static final int DEFAULT = Integer.MIN_VALUE;
+
+    private final String       name;
+    private final ListenerRole role;
+    private final boolean      unixSocket;
+    private final String       socketPath;
+    private final String       hostname;
+    private final int          port;
+    private final boolean      secure;
+
+    private final int     acceptors;
+    private final int     selectorThreads;
+    private final int     workerThreads;
+    private final int     workerQueueLimit;
+    private final boolean tcpNoDelay;
+    private final int     backlog;
+    private final int     keepAliveTimeout;
+    private final int     keepAliveRequests;
+
+    /**
+     * Constructor for ListenerConfig
+     *
+     * @param name     the listener name
+     * @param values   the listener section
+     * @param hostname the hostname used when none is given
+     * @param port     the port used when none is given, null if required
+     * @param secure   the secure value used when none is given
+     */
+    ListenerConfig(
+            @Nonnull String name, @Nonnull ConfigMap values,
+            @Nonnull String hostname, Integer port, boolean secure)
+    {
+        this.name       = name;
+        this.role       = ListenerRole.getType(values.getStr("role"));
+        this.unixSocket = isUnixScheme(values.getStr("scheme"));
+        this.socketPath = unixSocket ? values.getReqStr("socketPath") : null;
+        this.hostname   = values.getStr("hostname", hostname);
+        this.port       = port != null ? values.getInt("port", port) :
+                unixSocket ? values.getInt("port", 0) : values.getReqInt("port");
+        this.secure     = values.getBool("secure", secure);
+
+        this.acceptors         = Math.max(1, values.getInt("acceptors", 1));
+        this.selectorThreads   = atLeastOne(values.getInt("selectorThreads", DEFAULT));
+        this.workerThreads     = atLeastOne(values.getInt("workerThreads", DEFAULT));
+        this.workerQueueLimit  = values.getInt("workerQueueLimit", DEFAULT);
+        this.tcpNoDelay        = values.getBool("tcpNoDelay", true);
+        this.backlog           = atLeastOne(values.getInt("backlog", DEFAULT));
+        this.keepAliveTimeout  = values.getInt("keepAliveTimeout", DEFAULT);
+        this.keepAliveRequests = values.getInt("keepAliveRequests", DEFAULT);
+
+        if (unixSocket && (this.secure || isAdmin()))
+            throw new RMSException("Unix socket listener '" + name + "' must be a public non-secure listener.");
+    }
+
+    /**
+     * @param value a configured count
+     * @return the value, or {@link #DEFAULT} if it is below one
+     */
+    private static int atLeastOne(int value)
+    {
+        return value < 1 ? DEFAULT : value;
+    }
+
+    /**
+     * @param scheme a scheme value from the config, with or without "://"
+     * @return true if the scheme selects a unix domain socket
+     */
+    static boolean isUnixScheme(String scheme)
+    {
+        return scheme != null && scheme.toLowerCase().startsWith("unix");
+    }
+
+    /**
+     * @return the listener name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the listener role
+     */
+    public ListenerRole getRole()
+    {
+        return role;
+    }
+
+    /**
+     * @return true if the listener binds a unix domain socket
+     */
+    public boolean isUnixSocket()
+    {
+        return unixSocket;
+    }
+
+    /**
+     * @return the socket file of a unix listener
+     */
+    public String getSocketPath()
+    {
+        return socketPath;
+    }
+
+    /**
+     * @return the bind address
+     */
+    public String getHostname()
+    {
+        return hostname;
+    }
+
+    /**
+     * @return the bind port
+     */
+    public int getPort()
+    {
+        return port;
+    }
+
+    /**
+     * @return true if the listener is created with the SSLContext
+     */
+    public boolean isSecure()
+    {
+        return secure;
+    }
+
+    /**
+     * @return number of listeners bound to the port, more than one enables
+     * SO_REUSEPORT
+     */
+    public int getAcceptors()
+    {
+        return acceptors;
+    }
+
+    /**
+     * @return selector runner count or {@link #DEFAULT}
+     */
+    public int getSelectorThreads()
+    {
+        return selectorThreads;
+    }
+
+    /**
+     * @return worker pool size or {@link #DEFAULT}
+     */
+    public int getWorkerThreads()
+    {
+        return workerThreads;
+    }
+
+    /**
+     * @return worker queue limit, -1 for unbounded, or {@link #DEFAULT}
+     */
+    public int getWorkerQueueLimit()
+    {
+        return workerQueueLimit;
+    }
+
+    /**
+     * @return true if TCP_NODELAY is set on accepted sockets
+     */
+    public boolean isTcpNoDelay()
+    {
+        return tcpNoDelay;
+    }
+
+    /**
+     * @return server socket backlog or {@link #DEFAULT}
+     */
+    public int getBacklog()
+    {
+        return backlog;
+    }
+
+    /**
+     * @return keep-alive idle timeout in seconds or {@link #DEFAULT}
+     */
+    public int getKeepAliveTimeout()
+    {
+        return keepAliveTimeout;
+    }
+
+    /**
+     * @return max requests per keep-alive connection or {@link #DEFAULT}
+     */
+    public int getKeepAliveRequests()
+    {
+        return keepAliveRequests;
+    }
+
+    /**
+     * @return true if the listener serves admin endpoints only
+     */
+    public boolean isAdmin()
+    {
+        return role == ListenerRole.ADMIN;
+    }
+
+    /**
+     * @return true if SO_REUSEPORT is to be used for the listener
+     */
+    public boolean isReusePort()
+    {
+        return !unixSocket && acceptors > 1;
+    }
+
+    @Override
+    public String toString()
+    {
+        if (unixSocket)
+            return name + " [" + role.name() + " unix:" + socketPath + "]";
+
+        return name + " [" + role.name() + (secure ? " SSL " : " ") + hostname + ":" + port +
+                (isReusePort() ? " x" + acceptors : "") + "]";
+    }
+}
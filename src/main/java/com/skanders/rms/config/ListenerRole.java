@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.config;
+
+
+import com.skanders.rms.def.RMSException;
+
+/**
+ * Helper enum for ListenerConfig to select the listeners.*.role option from
+ * the config file for RMSConfig
+ *
+ * @see ListenerConfig
+ */
+public enum ListenerRole
+{
+    PUBLIC,
+    ADMIN;
+
+    /**
+     * Gets enum type from String value. if value is null {@link
+     * ListenerRole#PUBLIC} is returned
+     *
+     * @param value string stating the desired role
+     * @return an ListenerRole corresponding with the value
+     */
+    static ListenerRole getType(String value)
+    {
+        if (value == null)
+            return ListenerRole.PUBLIC;
+
+        switch (value.toLowerCase()) {
+            case "public":
+                return ListenerRole.PUBLIC;
+            case "admin":
+                return ListenerRole.ADMIN;
+            default:
+                throw new RMSException("Invalid ListenerRole given.");
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.config;
+
+
+import com.skanders.rms.def.RMSException;
+
+/**
+ * Helper enum for RMSConfig to select the server.memory.type option from the
+ * config file
+ *
+ * @see RMSConfig
+ */
+public enum MemoryType
+{
+    DEFAULT,
+    HEAP,
+    POOLED,
+    POOLED_DIRECT;
+
+    /**
+     * Gets enum type from String value. if value is null {@link
+     * MemoryType#DEFAULT} is returned
+     *
+     * @param value string stating the desired memory manager
+     * @return a MemoryType corresponding with the value
+     */
+    static MemoryType getType(String value)
+    {
+        if (value == null)
+            return MemoryType.DEFAULT;
+
+        switch (value.toLowerCase()) {
+            case "default":
+                return MemoryType.DEFAULT;
+            case "heap":
+                return MemoryType.HEAP;
+            case "pooled":
+                return MemoryType.POOLED;
+            case "direct":
+                return MemoryType.POOLED_DIRECT;
+            default:
+                throw new RMSException("Invalid MemoryType given.");
+        }
+    }
+}
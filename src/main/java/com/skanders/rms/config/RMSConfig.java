@@ -20,14 +20,20 @@ package com.skanders.rms.config;
 
 import com.skanders.jbel.config.Config;
 import com.skanders.jbel.def.Verify;
+import com.skanders.rms.def.RMSException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.ws.rs.core.UriBuilder;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Configuration object for RapidMicroService to set its initial state.
@@ -43,11 +49,26 @@ public class RMSConfig
 {
     private static final Logger LOG = LoggerFactory.getLogger(RMSConfig.class);
 
+    /**
+     * Name of the listener built from the uri section, matches the name given
+     * by Jersey's GrizzlyHttpServerFactory
+     */
+    public static final String PRIMARY_LISTENER = "grizzly";
+
+    /**
+     * Placeholder replaced by the tenant in db.url or db.name when tenants
+     * are enabled
+     */
+    public static final String TENANT_PLACEHOLDER = "{tenant}";
+
     private String  uriScheme;
     private String  uriHostName;
     private Integer uriPort;
     private String  uriPath;
 
+    private ListenerConfig       uriListener;
+    private List<ListenerConfig> listeners;
+
 
     private String sslKeyStoreFile;
     private String sslKeyStorePass;
@@ -67,6 +88,52 @@ public class RMSConfig
 
     private HashMap<String, Object> dbProperties;
 
+    private boolean dbBreakerEnabled;
+    private int     dbBreakerWindow;
+    private int     dbBreakerMinimumCalls;
+    private int     dbBreakerFailureRate;
+    private int     dbBreakerSlowCallRate;
+    private long    dbBreakerSlowCallThreshold;
+    private long    dbBreakerOpenDuration;
+    private int     dbBreakerHalfOpenProbes;
+    private int     dbBreakerMaxWaiting;
+    private String  dbBreakerAdminPath;
+
+    private int     dbPoolMinIdle;
+    private long    dbPoolWarmupTimeout;
+    private int     dbPoolLifetimeJitter;
+    private long    dbPoolKeepAliveInterval;
+    private boolean dbPoolAdaptive;
+    private int     dbPoolMinSize;
+    private long    dbPoolTargetWait;
+    private int     dbPoolWaitPercentile;
+    private long    dbPoolAdjustInterval;
+    private long    dbPoolMaxWait;
+
+    private boolean dbBindingEnabled;
+    private boolean dbBindingAll;
+    private boolean dbBindingTransaction;
+    private String  dbBindingAdminPath;
+
+    private boolean tenantEnabled;
+    private String  tenantHeader;
+    private String  tenantPattern;
+    private int     tenantPoolSize;
+    private int     tenantMaxConnections;
+    private long    tenantIdleTimeout;
+    private String  tenantAdminPath;
+
+    private boolean     journalEnabled;
+    private String      journalDirectory;
+    private int         journalSegmentSize;
+    private JournalSync journalFsync;
+    private long        journalFsyncInterval;
+    private int         journalBatchSize;
+    private long        journalDrainInterval;
+    private long        journalMaxBacklog;
+    private long        journalBackpressureTimeout;
+    private String      journalAdminPath;
+
 
     private String corsOrigin;
     private String corsMethods;
@@ -76,10 +143,108 @@ public class RMSConfig
     private String corsMaxAge;
 
 
+    private boolean timingEnabled;
+    private boolean timingServerTiming;
+    private int     timingSampleSize;
+    private int     timingSampleRate;
+    private long    timingSlowThreshold;
+    private String  timingAdminPath;
+
+
+    private String accessLogPath;
+    private int    accessLogBufferSize;
+    private long   accessLogRotateSize;
+    private long   accessLogRotateInterval;
+    private long   accessLogFlushInterval;
+
+
+    private boolean deadlineEnabled;
+    private String  deadlineHeader;
+    private long    deadlineDefaultTimeout;
+
+
+    private long streamMaxBodySize;
+    private int  streamMaxRecordSize;
+
+
+    private int  coalesceMaxBodySize;
+    private long coalesceTimeout;
+
+
+    private List<StaticMount> staticMounts;
+    private long              staticCacheSize;
+    private int               staticCacheMaxFileSize;
+    private long              staticSendFileThreshold;
+    private long              staticMaxAge;
+    private boolean           staticImmutable;
+    private boolean           staticPrecompressed;
+
+
+    private boolean sseEnabled;
+    private int     sseReplaySize;
+    private long    sseHeartbeat;
+    private int     sseMaxQueued;
+    private int     sseWriterThreads;
+    private long    sseWriteTimeout;
+    private long    sseRetry;
+    private String  sseAdminPath;
+
+
+    private boolean clientEnabled;
+    private int     clientConnectTimeout;
+    private int     clientReadTimeout;
+    private int     clientMaxConnectionsPerHost;
+    private int     clientThreads;
+    private double  clientHedgePercentile;
+    private long    clientHedgeMinDelay;
+    private String  clientAdminPath;
+
+    private boolean batchEnabled;
+    private String  batchPath;
+    private int     batchMaxRequests;
+    private int     batchMaxBodySize;
+    private int     batchMaxResponseSize;
+    private int     batchMaxParallel;
+    private int     batchThreads;
+    private int     batchQueueSize;
+    private long    batchTimeout;
+
+    private List<BulkheadPool> bulkheadPools;
+    private String             bulkheadAdminPath;
+
+
+    private Set<BinaryFormat> binaryFormats;
+
+
+    private int    memoryThreadCacheSize;
+    private int    memoryBufferSize;
+    private int    memoryPools;
+    private int    memoryGrowthFactor;
+    private int    memorySlices;
+    private float  memoryHeapPercent;
+    private float  memoryPreallocatePercent;
+    private String memoryAdminPath;
+
+
+    private boolean startupTraining;
+    private String  startupArchive;
+    private int     startupWarmupIterations;
+    private boolean startupJit;
+    private int     startupJitIterations;
+    private long    startupJitTimeBudget;
+    private int     startupJitThreads;
+    private boolean startupJitGenerate;
+    private String  startupJitAdminPath;
+    private long    parseNanos;
+
+
     private DBType   dbType;
     private SSLType  sslType;
     private CORSType corsType;
 
+    private AccessLogFormat accessLogFormat;
+    private MemoryType      memoryType;
+
 
     /**
      * Constructor for RMSConfig
@@ -90,16 +255,87 @@ public class RMSConfig
     {
         Verify.notNull(prop, "prop cannot be null");
 
+        long started = System.nanoTime();
+
         setUriConfigs(prop);
         setSSLEngineConfig(prop);
+        setListenerConfig(prop);
         setDatabaseConfig(prop);
         setCORSConfig(prop);
+        setTimingConfig(prop);
+        setDeadlineConfig(prop);
+        setAccessLogConfig(prop);
+        setStreamConfig(prop);
+        setCoalesceConfig(prop);
+        setStaticConfig(prop);
+        setSseConfig(prop);
+        setClientConfig(prop);
+        setBatchConfig(prop);
+        setBulkheadConfig(prop);
+        setFormatConfig(prop);
+        setMemoryConfig(prop);
+        setStartupConfig(prop);
+
+        parseNanos = System.nanoTime() - started;
 
         LOG.info("Config Options");
         LOG.info("URI : " + buildServiceUri());
+        LOG.info("LSTN: " + getAllListeners());
         LOG.info("SSL : " + sslType.name());
         LOG.info("DB  : " + dbType.name());
+
+        if (isDbBreakerService())
+            LOG.info("BRK : failureRate=" + dbBreakerFailureRate + "% slowCallRate=" + dbBreakerSlowCallRate +
+                    "% window=" + dbBreakerWindow + "s");
+
+        if (isDbService())
+            LOG.info("POOL: minIdle=" + dbPoolMinIdle + " jitter=" + dbPoolLifetimeJitter + "% keepAlive=" +
+                    dbPoolKeepAliveInterval + "ms" + (dbPoolAdaptive ? " adaptive=" + dbPoolMinSize + ".." +
+                    dbMaxPoolSize + " targetWait=" + dbPoolTargetWait + "ms" : ""));
+
+        if (isDbBindingService())
+            LOG.info("BIND: " + (dbBindingAll ? "all" : "annotated") + " transaction=" + dbBindingTransaction);
+
+        if (isJournalService())
+            LOG.info("JRNL: " + journalDirectory + " fsync=" + journalFsync.name() + " batchSize=" +
+                    journalBatchSize + " maxBacklog=" + journalMaxBacklog);
+
+        if (isTenantService())
+            LOG.info("TNNT: header=" + tenantHeader + " poolSize=" + tenantPoolSize + " maxConnections=" +
+                    tenantMaxConnections + " idleTimeout=" + tenantIdleTimeout + "ms");
+
         LOG.info("CORS: " + corsType.name());
+        LOG.info("ALOG: " + accessLogFormat.name());
+
+        if (deadlineEnabled)
+            LOG.info("DDLN: " + deadlineHeader + " default=" + deadlineDefaultTimeout + "ms");
+
+        if (isStaticService())
+            LOG.info("STAT: " + staticMounts);
+
+        if (sseEnabled)
+            LOG.info("SSE : replay=" + sseReplaySize + " heartbeat=" + sseHeartbeat + "ms writeTimeout=" +
+                    sseWriteTimeout + "ms");
+
+        if (clientEnabled)
+            LOG.info("CLNT: timeout=" + clientReadTimeout + "ms" +
+                    (isClientHedging() ? " hedge=p" + clientHedgePercentile : ""));
+
+        if (batchEnabled)
+            LOG.info("BTCH: " + batchPath + " max=" + batchMaxRequests + " parallel=" + batchMaxParallel);
+
+        if (isBulkheadService())
+            LOG.info("BLKH: " + bulkheadPools);
+
+        LOG.info("FMT : " + binaryFormats);
+        LOG.info("MEM : " + memoryType.name());
+
+        if (startupTraining)
+            LOG.info("TRN : " + startupArchive);
+
+        if (startupJit)
+            LOG.info("JIT : iterations=" + startupJitIterations + " timeBudget=" + startupJitTimeBudget + "ms" +
+                    " threads=" + startupJitThreads + (startupJitGenerate ? " generate" : ""));
     }
 
     /**
@@ -166,6 +402,32 @@ public class RMSConfig
         prop.checkIgnored("ssl.keyStorePass");
     }
 
+    /**
+     * Sets RMS's listener settings. The uri section tunes the primary
+     * listener, extra listeners are declared by name under listeners.
+     *
+     * @param prop an instance of Config
+     */
+    private void setListenerConfig(@Nonnull Config prop)
+    {
+        uriListener = new ListenerConfig(
+                PRIMARY_LISTENER, ConfigMap.of(prop, "uri"), uriHostName, uriPort, isSslSecure());
+
+        if (uriListener.isAdmin())
+            throw new RMSException("The uri listener cannot be an admin listener.");
+
+        List<ListenerConfig> extra = new ArrayList<>();
+
+        for (Map.Entry<String, ConfigMap> entry : ConfigMap.sectionsOf(prop, "listeners").entrySet())
+            extra.add(new ListenerConfig(entry.getKey(), entry.getValue(), uriHostName, null, false));
+
+        listeners = Collections.unmodifiableList(extra);
+
+        for (ListenerConfig listener : getAllListeners())
+            if (listener.isSecure() && !isSslSecure())
+                throw new RMSException("Listener '" + listener.getName() + "' is secure but ssl.type is not set.");
+    }
+
     /**
      * Sets RMS's Database settings
      *
@@ -190,6 +452,171 @@ public class RMSConfig
 
         if (dpProp != null)
             dbProperties = new HashMap<>(dpProp);
+
+        setDbBreakerConfig(prop);
+        setDbPoolConfig(prop);
+        setTenantConfig(prop);
+        setDbBindingConfig(prop);
+        setJournalConfig(prop);
+    }
+
+    /**
+     * Sets the circuit breaker guarding the connection pool. Rates are given
+     * out of 100, the window in seconds and durations in milliseconds.
+     *
+     * @param prop an instance of Config
+     */
+    private void setDbBreakerConfig(@Nonnull Config prop)
+    {
+        ConfigMap breaker = ConfigMap.of(prop, "db.breaker");
+
+        dbBreakerEnabled           = breaker.getBool("enabled", true);
+        dbBreakerWindow            = breaker.getInt("window", 10);
+        dbBreakerMinimumCalls      = breaker.getInt("minimumCalls", 20);
+        dbBreakerFailureRate       = breaker.getInt("failureRate", 50);
+        dbBreakerSlowCallRate      = breaker.getInt("slowCallRate", 50);
+        dbBreakerSlowCallThreshold = breaker.getLong("slowCallThreshold", 1000);
+        dbBreakerOpenDuration      = breaker.getLong("openDuration", 5000);
+        dbBreakerHalfOpenProbes    = breaker.getInt("halfOpenProbes", 3);
+        dbBreakerMaxWaiting        = breaker.getInt("maxWaiting", dbMaxPoolSize);
+        dbBreakerAdminPath         = breaker.getStr("adminPath", "/rms/db");
+
+        if (dbBreakerWindow <= 0 || dbBreakerMinimumCalls <= 0 || dbBreakerHalfOpenProbes <= 0)
+            throw new RMSException("db.breaker window, minimumCalls and halfOpenProbes must be positive.");
+
+        if (dbBreakerFailureRate <= 0 || dbBreakerFailureRate > 100 ||
+                dbBreakerSlowCallRate <= 0 || dbBreakerSlowCallRate > 100)
+            throw new RMSException("db.breaker failureRate and slowCallRate must be between 1 and 100.");
+
+        if (dbBreakerMaxWaiting < 0)
+            throw new RMSException("db.breaker.maxWaiting cannot be negative.");
+    }
+
+    /**
+     * Sets the warm-up, keep-alive and adaptive sizing of the connection
+     * pool. The jitter is given out of 100, durations in milliseconds.
+     *
+     * @param prop an instance of Config
+     */
+    private void setDbPoolConfig(@Nonnull Config prop)
+    {
+        ConfigMap pool = ConfigMap.of(prop, "db.pool");
+
+        dbPoolMinIdle           = pool.getInt("minIdle", 0);
+        dbPoolWarmupTimeout     = pool.getLong("warmupTimeout", 30000);
+        dbPoolLifetimeJitter    = pool.getInt("lifetimeJitter", 10);
+        dbPoolKeepAliveInterval = pool.getLong("keepAliveInterval", 0);
+        dbPoolAdaptive          = pool.getBool("adaptive", false);
+        dbPoolMinSize           = pool.getInt("minSize", Math.max(dbPoolMinIdle, 1));
+        dbPoolTargetWait        = pool.getLong("targetWait", 5);
+        dbPoolWaitPercentile    = pool.getInt("waitPercentile", 95);
+        dbPoolAdjustInterval    = pool.getLong("adjustInterval", 1000);
+        dbPoolMaxWait           = pool.getLong("maxWait", 30000);
+
+        if (dbPoolMinIdle < 0 || dbPoolMinIdle > dbMaxPoolSize)
+            throw new RMSException("db.pool.minIdle must be between 0 and db.maxPoolSize.");
+
+        if (dbPoolLifetimeJitter < 0 || dbPoolLifetimeJitter >= 100)
+            throw new RMSException("db.pool.lifetimeJitter must be between 0 and 99.");
+
+        if (dbPoolKeepAliveInterval < 0)
+            throw new RMSException("db.pool.keepAliveInterval cannot be negative.");
+
+        if (dbPoolMinSize <= 0 || dbPoolMinSize > dbMaxPoolSize)
+            throw new RMSException("db.pool.minSize must be between 1 and db.maxPoolSize.");
+
+        if (dbPoolWaitPercentile <= 0 || dbPoolWaitPercentile > 100)
+            throw new RMSException("db.pool.waitPercentile must be between 1 and 100.");
+
+        if (dbPoolWarmupTimeout <= 0 || dbPoolAdjustInterval <= 0 || dbPoolMaxWait <= 0)
+            throw new RMSException("db.pool warmupTimeout, adjustInterval and maxWait must be positive.");
+    }
+
+    /**
+     * Sets the per tenant connection pools. The db section is their
+     * template, with {tenant} in db.url or db.name replaced by the tenant.
+     * The idle timeout is given in milliseconds.
+     *
+     * @param prop an instance of Config
+     */
+    private void setTenantConfig(@Nonnull Config prop)
+    {
+        ConfigMap tenants = ConfigMap.of(prop, "tenants");
+
+        tenantEnabled        = tenants.getBool("enabled", false);
+        tenantHeader         = tenants.getStr("header", "X-Tenant-ID");
+        tenantPattern        = tenants.getStr("pattern", "[A-Za-z0-9_-]{1,64}");
+        tenantPoolSize       = tenants.getInt("poolSize", 4);
+        tenantMaxConnections = tenants.getInt("maxConnections", 64);
+        tenantIdleTimeout    = tenants.getLong("idleTimeout", 300000);
+        tenantAdminPath      = tenants.getStr("adminPath", "/rms/tenants");
+
+        if (!tenantEnabled)
+            return;
+
+        String template = dbType == DBType.URL ? dbUrl : dbName;
+
+        if (!template.contains(TENANT_PLACEHOLDER))
+            throw new RMSException("tenants need " + TENANT_PLACEHOLDER + " in db.url or db.name.");
+
+        if (tenantPoolSize <= 0 || tenantMaxConnections < tenantPoolSize)
+            throw new RMSException("tenants.poolSize must be positive and at most tenants.maxConnections.");
+
+        if (tenantIdleTimeout <= 0)
+            throw new RMSException("tenants.idleTimeout must be positive.");
+    }
+
+    /**
+     * Sets the binding of one connection of the service's pool to each
+     * request, for resource methods annotated with BindConnection or, with
+     * db.binding.all, for every resource method.
+     *
+     * @param prop an instance of Config
+     */
+    private void setDbBindingConfig(@Nonnull Config prop)
+    {
+        ConfigMap binding = ConfigMap.of(prop, "db.binding");
+
+        dbBindingEnabled     = binding.getBool("enabled", false);
+        dbBindingAll         = binding.getBool("all", false);
+        dbBindingTransaction = binding.getBool("transaction", false);
+        dbBindingAdminPath   = binding.getStr("adminPath", "/rms/db/binding");
+
+        if (dbBindingEnabled && tenantEnabled)
+            throw new RMSException("db.binding binds the service's pool and cannot be used with tenants.");
+    }
+
+    /**
+     * Sets the write-behind journal draining to the service's pool. Sizes
+     * are given in bytes, intervals and timeouts in milliseconds.
+     *
+     * @param prop an instance of Config
+     */
+    private void setJournalConfig(@Nonnull Config prop)
+    {
+        ConfigMap journal = ConfigMap.of(prop, "journal");
+
+        journalEnabled = journal.getBool("enabled", false);
+
+        if (!journalEnabled)
+            return;
+
+        journalDirectory           = journal.getStr("directory", "journal");
+        journalSegmentSize         = journal.getInt("segmentSize", 64 * 1024 * 1024);
+        journalFsync               = JournalSync.getType(journal.getStr("fsync"));
+        journalFsyncInterval       = journal.getLong("fsyncInterval", 10);
+        journalBatchSize           = journal.getInt("batchSize", 500);
+        journalDrainInterval       = journal.getLong("drainInterval", 100);
+        journalMaxBacklog          = journal.getLong("maxBacklog", 256L * 1024 * 1024);
+        journalBackpressureTimeout = journal.getLong("backpressureTimeout", 1000);
+        journalAdminPath           = journal.getStr("adminPath", "/rms/journal");
+
+        if (tenantEnabled)
+            throw new RMSException("journal drains to the service's pool and cannot be used with tenants.");
+
+        if (journalSegmentSize < 4096 || journalFsyncInterval <= 0 || journalBatchSize <= 0 ||
+                journalDrainInterval <= 0 || journalMaxBacklog <= 0 || journalBackpressureTimeout < 0)
+            throw new RMSException("journal sizes and intervals must be positive, segmentSize at least 4096.");
     }
 
     /**
@@ -244,209 +671,1439 @@ public class RMSConfig
 
 
     /**
-     * @return an enum representing the users declared SSL Type
+     * Sets RMS's request timing settings
+     *
+     * @param prop an instance of Config
      */
-    SSLType getSSLType(Config config)
+    private void setTimingConfig(@Nonnull Config prop)
     {
-        String type = config.getStr("ssl.type");
+        ConfigMap timing = ConfigMap.of(prop, "timing");
 
-        if (type == null) {
-            config.checkIgnored("ssl");
-            return SSLType.NONE;
-        }
+        timingEnabled = timing.getBool("enabled", false);
 
-        return SSLType.getType(type);
+        if (!timingEnabled)
+            return;
+
+        timingServerTiming  = timing.getBool("serverTiming", false);
+        timingSampleSize    = timing.getInt("sampleSize", 64);
+        timingSampleRate    = Math.max(1, timing.getInt("sampleRate", 1));
+        timingSlowThreshold = timing.getLong("slowThreshold", 0);
+        timingAdminPath     = timing.getStr("adminPath", "/rms/timing");
     }
 
+
     /**
-     * @return an enum representing the users declared DB Type
+     * Sets RMS's request deadline settings. The header carries the client's
+     * budget in milliseconds, defaultTimeout applies to resources without a
+     * Deadline annotation, 0 for none.
+     *
+     * @param prop an instance of Config
      */
-    DBType getDBType(Config config)
+    private void setDeadlineConfig(@Nonnull Config prop)
     {
-        String type = config.getStr("db.type");
+        ConfigMap deadline = ConfigMap.of(prop, "deadline");
 
-        if (type == null) {
-            config.checkIgnored("db");
-            return DBType.NONE;
-        }
+        deadlineEnabled = deadline.getBool("enabled", false);
 
-        return DBType.getType(type);
+        if (!deadlineEnabled)
+            return;
+
+        deadlineHeader         = deadline.getStr("header", "X-Request-Timeout");
+        deadlineDefaultTimeout = deadline.getLong("defaultTimeout", 0);
+
+        if (deadlineDefaultTimeout < 0)
+            throw new RMSException("deadline.defaultTimeout cannot be negative.");
     }
 
     /**
-     * @return an enum representing the users declared CORS Type
+     * Sets RMS's access log settings
+     *
+     * @param prop an instance of Config
      */
-    CORSType getCORSType(Config config)
+    private void setAccessLogConfig(@Nonnull Config prop)
     {
-        String type = config.getStr("cors.type");
+        ConfigMap accessLog = ConfigMap.of(prop, "accessLog");
 
-        if (type == null) {
-            config.checkIgnored("cors");
-            return CORSType.NONE;
-        }
+        if ((accessLogFormat = AccessLogFormat.getType(accessLog.getStr("format"))) == AccessLogFormat.NONE)
+            return;
 
-        return CORSType.getType(type);
+        accessLogPath           = accessLog.getReqStr("path");
+        accessLogBufferSize     = accessLog.getInt("bufferSize", 8192);
+        accessLogRotateSize     = accessLog.getLong("rotateSize", 0);
+        accessLogRotateInterval = accessLog.getLong("rotateInterval", 0);
+        accessLogFlushInterval  = accessLog.getLong("flushInterval", 100);
+
+        if (accessLogBufferSize <= 0 || accessLogFlushInterval <= 0)
+            throw new RMSException("accessLog.bufferSize and accessLog.flushInterval must be positive.");
     }
 
 
     /**
-     * @return SSL keystore file location
+     * Sets RMS's streaming request body settings
+     *
+     * @param prop an instance of Config
      */
-    public String getSslKeyStoreFile()
+    private void setStreamConfig(@Nonnull Config prop)
     {
-        return sslKeyStoreFile;
-    }
+        ConfigMap stream = ConfigMap.of(prop, "stream");
 
-    /**
-     * @return SSL keystore file pass
-     */
-    public String getSslKeyStorePass()
-    {
-        return sslKeyStorePass;
+        streamMaxBodySize   = stream.getLong("maxBodySize", 100L * 1024 * 1024);
+        streamMaxRecordSize = stream.getInt("maxRecordSize", 1024 * 1024);
+
+        if (streamMaxRecordSize <= 0)
+            throw new RMSException("stream.maxRecordSize must be positive.");
     }
 
     /**
-     * @return SSL truststore file location
+     * Sets the limits of request coalescing on resources annotated with
+     * Coalesce. Larger responses are not shared, waiting requests run the
+     * resource themselves, as they do once the timeout in milliseconds
+     * passes.
+     *
+     * @param prop an instance of Config
      */
-    public String getSslTrustStoreFile()
+    private void setCoalesceConfig(@Nonnull Config prop)
     {
-        return sslTrustStoreFile;
+        ConfigMap coalesce = ConfigMap.of(prop, "coalesce");
+
+        coalesceMaxBodySize = coalesce.getInt("maxBodySize", 1024 * 1024);
+        coalesceTimeout     = coalesce.getLong("timeout", 5000);
+
+        if (coalesceMaxBodySize <= 0 || coalesceTimeout <= 0)
+            throw new RMSException("coalesce.maxBodySize and coalesce.timeout must be positive.");
     }
 
     /**
-     * @return SSL truststore file pass
+     * Sets the static file mounts, declared by name under static.mounts, and
+     * how their files are served. Files up to cacheMaxFileSize bytes are kept
+     * in a cache of cacheSize bytes, files from sendFileThreshold bytes are
+     * sent with sendfile on non-secure listeners. maxAge is given in seconds.
+     *
+     * @param prop an instance of Config
      */
-    public String getSslTrustStorePass()
+    private void setStaticConfig(@Nonnull Config prop)
     {
-        return sslTrustStorePass;
+        ConfigMap staticFiles = ConfigMap.of(prop, "static");
+
+        List<StaticMount> mounts = new ArrayList<>();
+
+        for (Map.Entry<String, ConfigMap> entry : ConfigMap.sectionsOf(prop, "static.mounts").entrySet())
+            mounts.add(new StaticMount(entry.getKey(), entry.getValue()));
+
+        staticMounts            = Collections.unmodifiableList(mounts);
+        staticCacheSize         = staticFiles.getLong("cacheSize", 32L * 1024 * 1024);
+        staticCacheMaxFileSize  = staticFiles.getInt("cacheMaxFileSize", 64 * 1024);
+        staticSendFileThreshold = staticFiles.getLong("sendFileThreshold", 64 * 1024);
+        staticMaxAge            = staticFiles.getLong("maxAge", 365L * 24 * 60 * 60);
+        staticImmutable         = staticFiles.getBool("immutable", false);
+        staticPrecompressed     = staticFiles.getBool("precompressed", true);
+
+        if (staticCacheSize < 0 || staticCacheMaxFileSize < 0 || staticSendFileThreshold < 0 || staticMaxAge < 0)
+            throw new RMSException("static sizes and maxAge cannot be negative.");
     }
 
     /**
-     * @return Database url
+     * Sets RMS's server-sent events settings. Each channel keeps its last
+     * replaySize events for clients resuming with Last-Event-ID. Idle streams
+     * get a comment every heartbeat milliseconds, 0 for none, a client with
+     * more than maxQueued unsent events is disconnected. A write to a client
+     * blocked for writeTimeout milliseconds is abandoned and the client
+     * disconnected, freeing its writer thread.
+     *
+     * @param prop an instance of Config
      */
-    public String getDbUrl()
+    private void setSseConfig(@Nonnull Config prop)
     {
-        return dbUrl;
+        ConfigMap sse = ConfigMap.of(prop, "sse");
+
+        sseEnabled = sse.getBool("enabled", false);
+
+        if (!sseEnabled)
+            return;
+
+        sseReplaySize    = sse.getInt("replaySize", 256);
+        sseHeartbeat     = sse.getLong("heartbeat", 15000);
+        sseMaxQueued     = sse.getInt("maxQueued", 1024);
+        sseWriterThreads = sse.getInt("writerThreads", Runtime.getRuntime().availableProcessors());
+        sseWriteTimeout  = sse.getLong("writeTimeout", 10000);
+        sseRetry         = sse.getLong("retry", 0);
+        sseAdminPath     = sse.getStr("adminPath", "/rms/sse");
+
+        if (sseReplaySize < 0 || sseHeartbeat < 0 || sseRetry < 0)
+            throw new RMSException("sse.replaySize, sse.heartbeat and sse.retry cannot be negative.");
+
+        if (sseMaxQueued <= 0 || sseWriterThreads <= 0 || sseWriteTimeout <= 0)
+            throw new RMSException("sse.maxQueued, sse.writerThreads and sse.writeTimeout must be positive.");
     }
 
     /**
-     * @return Database driver
+     * Sets the outbound client settings. readTimeout is the deadline of a
+     * call that sets none, in milliseconds. With hedgePercentile set, a GET
+     * still unanswered after that percentile of the host's recent latencies,
+     * and at least hedgeMinDelay milliseconds, is sent a second time.
+     *
+     * @param prop an instance of Config
      */
-    public String getDbDriver()
+    private void setClientConfig(@Nonnull Config prop)
     {
-        return dbDriver;
+        ConfigMap client = ConfigMap.of(prop, "client");
+
+        clientEnabled = client.getBool("enabled", false);
+
+        if (!clientEnabled)
+            return;
+
+        clientConnectTimeout        = client.getInt("connectTimeout", 1000);
+        clientReadTimeout           = client.getInt("readTimeout", 10000);
+        clientMaxConnectionsPerHost = client.getInt("maxConnectionsPerHost", 32);
+        clientThreads               = client.getInt("threads", 64);
+        clientHedgePercentile       = client.getDouble("hedgePercentile", 0);
+        clientHedgeMinDelay         = client.getLong("hedgeMinDelay", 5);
+        clientAdminPath             = client.getStr("adminPath", "/rms/client");
+
+        if (clientConnectTimeout <= 0 || clientReadTimeout <= 0 || clientMaxConnectionsPerHost <= 0 ||
+                clientThreads <= 0)
+            throw new RMSException("client timeouts, maxConnectionsPerHost and threads must be positive.");
+
+        if (clientHedgePercentile < 0 || clientHedgePercentile >= 100 || clientHedgeMinDelay < 0)
+            throw new RMSException("client.hedgePercentile must be within [0, 100), hedgeMinDelay positive.");
     }
 
     /**
-     * @return Database hostname
+     * Sets the batch endpoint settings. A batch of at most maxRequests
+     * sub-requests, maxBodySize bytes in all, runs maxParallel sub-requests
+     * at a time on a pool of threads shared by every batch, with queueSize
+     * waiting. A sub-request's response body is limited to maxResponseSize
+     * bytes and the whole batch to timeout milliseconds.
+     *
+     * @param prop an instance of Config
      */
-    public String getDbHostname()
+    private void setBatchConfig(@Nonnull Config prop)
     {
-        return dbHostname;
+        ConfigMap batch = ConfigMap.of(prop, "batch");
+
+        batchEnabled = batch.getBool("enabled", false);
+
+        if (!batchEnabled)
+            return;
+
+        batchPath            = batch.getStr("path", "batch");
+        batchMaxRequests     = batch.getInt("maxRequests", 20);
+        batchMaxBodySize     = batch.getInt("maxBodySize", 256 * 1024);
+        batchMaxResponseSize = batch.getInt("maxResponseSize", 1024 * 1024);
+        batchMaxParallel     = batch.getInt("maxParallel", 4);
+        batchThreads         = batch.getInt("threads", 32);
+        batchQueueSize       = batch.getInt("queueSize", 256);
+        batchTimeout         = batch.getLong("timeout", 10000);
+
+        if (batchMaxRequests <= 0 || batchMaxBodySize <= 0 || batchMaxResponseSize <= 0 ||
+                batchMaxParallel <= 0 || batchThreads <= 0 || batchQueueSize <= 0 || batchTimeout <= 0)
+            throw new RMSException("batch limits, threads, queueSize and timeout must be positive.");
     }
 
     /**
-     * @return Database port
+     * Sets the bulkhead pools, declared by name under bulkheads.pools.
+     * Resources are assigned to a pool with the Bulkhead annotation.
+     *
+     * @param prop an instance of Config
      */
-    public Integer getDbPort()
+    private void setBulkheadConfig(@Nonnull Config prop)
     {
-        return dbPort;
+        ConfigMap bulkheads = ConfigMap.of(prop, "bulkheads");
+
+        List<BulkheadPool> pools = new ArrayList<>();
+
+        for (Map.Entry<String, ConfigMap> entry : ConfigMap.sectionsOf(prop, "bulkheads.pools").entrySet())
+            pools.add(new BulkheadPool(entry.getKey(), entry.getValue()));
+
+        bulkheadPools     = Collections.unmodifiableList(pools);
+        bulkheadAdminPath = bulkheads.getStr("adminPath", "/rms/bulkheads");
     }
 
+
     /**
-     * @return Database name
+     * Sets RMS's binary content formats, given as a comma separated list
+     *
+     * @param prop an instance of Config
      */
-    public String getDbName()
+    private void setFormatConfig(@Nonnull Config prop)
     {
-        return dbName;
+        String            formats  = ConfigMap.of(prop, "formats").getStr("binary");
+        Set<BinaryFormat> selected = EnumSet.noneOf(BinaryFormat.class);
+
+        if (formats != null)
+            for (String format : formats.split(","))
+                if (!format.trim().isEmpty())
+                    selected.add(BinaryFormat.getType(format));
+
+        binaryFormats = Collections.unmodifiableSet(selected);
     }
 
+
     /**
-     * @return Database url
+     * Sets the Grizzly MemoryManager settings. threadCacheSize applies to the
+     * heap manager, the remaining sizes to the pooled managers. Percentages
+     * are given out of 100.
+     *
+     * @param prop an instance of Config
      */
-    public String getDbUsername()
+    private void setMemoryConfig(@Nonnull Config prop)
     {
-        return dbUsername;
+        ConfigMap memory = ConfigMap.of(prop, "server.memory");
+
+        if ((memoryType = MemoryType.getType(memory.getStr("type"))) == MemoryType.DEFAULT)
+            return;
+
+        memoryThreadCacheSize    = memory.getInt("threadCacheSize", 64 * 1024);
+        memoryBufferSize         = memory.getInt("bufferSize", 4 * 1024);
+        memoryPools              = memory.getInt("pools", 3);
+        memoryGrowthFactor       = memory.getInt("growthFactor", 2);
+        memorySlices             = memory.getInt("slices", Runtime.getRuntime().availableProcessors());
+        memoryHeapPercent        = (float) memory.getDouble("heapPercent", 3) / 100;
+        memoryPreallocatePercent = (float) memory.getDouble("preallocatePercent", 100) / 100;
+        memoryAdminPath          = memory.getStr("adminPath", "/rms/memory");
+
+        if (memoryThreadCacheSize <= 0)
+            throw new RMSException("server.memory.threadCacheSize must be positive.");
     }
 
+
     /**
-     * @return Database password
+     * Sets RMS's startup settings. A training run boots the service, runs
+     * its warm-up requests, writes a class data sharing archive and exits.
+     * A JIT warm-up replays the warm-up requests in-process before the
+     * service starts listening, its time budget is given in milliseconds.
+     *
+     * @param prop an instance of Config
      */
-    public String getDbPassword()
+    private void setStartupConfig(@Nonnull Config prop)
     {
-        return dbPassword;
+        ConfigMap startup = ConfigMap.of(prop, "startup");
+
+        startupTraining         = startup.getBool("training", false);
+        startupArchive          = startup.getStr("archive", "rms.jsa");
+        startupWarmupIterations = Math.max(1, startup.getInt("warmupIterations", 3));
+
+        ConfigMap jit = ConfigMap.of(prop, "startup.jit");
+
+        startupJit           = jit.getBool("enabled", false);
+        startupJitIterations = jit.getInt("iterations", 10000);
+        startupJitTimeBudget = jit.getLong("timeBudget", 30000);
+        startupJitThreads    = jit.getInt("threads", Runtime.getRuntime().availableProcessors());
+        startupJitGenerate   = jit.getBool("generate", false);
+        startupJitAdminPath  = jit.getStr("adminPath", "/rms/startup/jit");
+
+        if (startupJit && (startupJitIterations <= 0 || startupJitTimeBudget <= 0 || startupJitThreads <= 0))
+            throw new RMSException("startup.jit iterations, timeBudget and threads must be positive.");
     }
 
+
     /**
-     * @return Database connection max lifetime for HikariCP
+     * @return an enum representing the users declared SSL Type
      */
-    public Long getDbMaxLifetime()
+    SSLType getSSLType(Config config)
     {
-        return dbMaxLifetime;
+        String type = config.getStr("ssl.type");
+
+        if (type == null) {
+            config.checkIgnored("ssl");
+            return SSLType.NONE;
+        }
+
+        return SSLType.getType(type);
+    }
+
+    /**
+     * @return an enum representing the users declared DB Type
+     */
+    DBType getDBType(Config config)
+    {
+        String type = config.getStr("db.type");
+
+        if (type == null) {
+            config.checkIgnored("db");
+            return DBType.NONE;
+        }
+
+        return DBType.getType(type);
+    }
+
+    /**
+     * @return an enum representing the users declared CORS Type
+     */
+    CORSType getCORSType(Config config)
+    {
+        String type = config.getStr("cors.type");
+
+        if (type == null) {
+            config.checkIgnored("cors");
+            return CORSType.NONE;
+        }
+
+        return CORSType.getType(type);
+    }
+
+
+    /**
+     * @return settings of the primary listener built from the uri section
+     */
+    public ListenerConfig getUriListener()
+    {
+        return uriListener;
+    }
+
+    /**
+     * @return settings of the listeners declared under listeners
+     */
+    public List<ListenerConfig> getListeners()
+    {
+        return listeners;
+    }
+
+    /**
+     * @return the primary listener followed by the declared listeners
+     */
+    public List<ListenerConfig> getAllListeners()
+    {
+        List<ListenerConfig> all = new ArrayList<>(listeners.size() + 1);
+
+        all.add(uriListener);
+        all.addAll(listeners);
+
+        return all;
+    }
+
+    /**
+     * @return true if any listener serves the admin role
+     */
+    public boolean hasAdminListener()
+    {
+        for (ListenerConfig listener : listeners)
+            if (listener.isAdmin())
+                return true;
+
+        return false;
+    }
+
+    /**
+     * @return SSL keystore file location
+     */
+    public String getSslKeyStoreFile()
+    {
+        return sslKeyStoreFile;
+    }
+
+    /**
+     * @return SSL keystore file pass
+     */
+    public String getSslKeyStorePass()
+    {
+        return sslKeyStorePass;
+    }
+
+    /**
+     * @return SSL truststore file location
+     */
+    public String getSslTrustStoreFile()
+    {
+        return sslTrustStoreFile;
+    }
+
+    /**
+     * @return SSL truststore file pass
+     */
+    public String getSslTrustStorePass()
+    {
+        return sslTrustStorePass;
+    }
+
+    /**
+     * @return Database url
+     */
+    public String getDbUrl()
+    {
+        return dbUrl;
+    }
+
+    /**
+     * @return Database driver
+     */
+    public String getDbDriver()
+    {
+        return dbDriver;
+    }
+
+    /**
+     * @return Database hostname
+     */
+    public String getDbHostname()
+    {
+        return dbHostname;
+    }
+
+    /**
+     * @return Database port
+     */
+    public Integer getDbPort()
+    {
+        return dbPort;
+    }
+
+    /**
+     * @return Database name
+     */
+    public String getDbName()
+    {
+        return dbName;
+    }
+
+    /**
+     * @return Database url
+     */
+    public String getDbUsername()
+    {
+        return dbUsername;
+    }
+
+    /**
+     * @return Database password
+     */
+    public String getDbPassword()
+    {
+        return dbPassword;
+    }
+
+    /**
+     * @return Database connection max lifetime for HikariCP
+     */
+    public Long getDbMaxLifetime()
+    {
+        return dbMaxLifetime;
+    }
+
+    /**
+     * @return Database pool max size for HikariCP
+     */
+    public Integer getDbMaxPoolSize()
+    {
+        return dbMaxPoolSize;
+    }
+
+    /**
+     * @return Database properties in a HashMap to give to HikariCP
+     */
+    public HashMap<String, Object> getDbProperties()
+    {
+        return dbProperties;
+    }
+
+    /**
+     * @return length of the circuit breaker's sliding window in seconds
+     */
+    public int getDbBreakerWindow()
+    {
+        return dbBreakerWindow;
+    }
+
+    /**
+     * @return calls needed within the window before the breaker may open
+     */
+    public int getDbBreakerMinimumCalls()
+    {
+        return dbBreakerMinimumCalls;
+    }
+
+    /**
+     * @return percentage of failed calls within the window that opens the
+     * breaker
+     */
+    public int getDbBreakerFailureRate()
+    {
+        return dbBreakerFailureRate;
+    }
+
+    /**
+     * @return percentage of slow calls within the window that opens the
+     * breaker
+     */
+    public int getDbBreakerSlowCallRate()
+    {
+        return dbBreakerSlowCallRate;
+    }
+
+    /**
+     * @return milliseconds after which a call counts as slow
+     */
+    public long getDbBreakerSlowCallThreshold()
+    {
+        return dbBreakerSlowCallThreshold;
+    }
+
+    /**
+     * @return milliseconds the breaker stays open before probing
+     */
+    public long getDbBreakerOpenDuration()
+    {
+        return dbBreakerOpenDuration;
+    }
+
+    /**
+     * @return number of probe calls let through while half open
+     */
+    public int getDbBreakerHalfOpenProbes()
+    {
+        return dbBreakerHalfOpenProbes;
+    }
+
+    /**
+     * @return calls allowed to wait for a connection beyond the pool size
+     * before further calls are rejected
+     */
+    public int getDbBreakerMaxWaiting()
+    {
+        return dbBreakerMaxWaiting;
+    }
+
+    /**
+     * @return the admin listener path serving the circuit breaker state
+     */
+    public String getDbBreakerAdminPath()
+    {
+        return dbBreakerAdminPath;
+    }
+
+    /**
+     * @return connections opened by warm-up calls before the service starts
+     */
+    public int getDbPoolMinIdle()
+    {
+        return dbPoolMinIdle;
+    }
+
+    /**
+     * @return milliseconds the warm-up may take before the service starts
+     * anyway
+     */
+    public long getDbPoolWarmupTimeout()
+    {
+        return dbPoolWarmupTimeout;
+    }
+
+    /**
+     * @return percentage of db.maxLifetime the lifetime is randomly
+     * shortened by
+     */
+    public int getDbPoolLifetimeJitter()
+    {
+        return dbPoolLifetimeJitter;
+    }
+
+    /**
+     * @return milliseconds between validation calls keeping the pool's
+     * connections alive, 0 if disabled
+     */
+    public long getDbPoolKeepAliveInterval()
+    {
+        return dbPoolKeepAliveInterval;
+    }
+
+    /**
+     * @return lower bound of the adaptive pool size
+     */
+    public int getDbPoolMinSize()
+    {
+        return dbPoolMinSize;
+    }
+
+    /**
+     * @return milliseconds of acquire wait above which the adaptive pool
+     * grows, and within which a warm-up call counts as warm
+     */
+    public long getDbPoolTargetWait()
+    {
+        return dbPoolTargetWait;
+    }
+
+    /**
+     * @return percentile of acquire waits compared with the target wait
+     */
+    public int getDbPoolWaitPercentile()
+    {
+        return dbPoolWaitPercentile;
+    }
+
+    /**
+     * @return milliseconds between adjustments of the adaptive pool size
+     */
+    public long getDbPoolAdjustInterval()
+    {
+        return dbPoolAdjustInterval;
+    }
+
+    /**
+     * @return milliseconds a call may wait on the adaptive pool before
+     * failing
+     */
+    public long getDbPoolMaxWait()
+    {
+        return dbPoolMaxWait;
+    }
+
+    /**
+     * @return true if every resource method is bound a connection, not only
+     * those annotated with BindConnection
+     */
+    public boolean isDbBindingAll()
+    {
+        return dbBindingAll;
+    }
+
+    /**
+     * @return true if resource methods bound by db.binding.all run in a
+     * transaction
+     */
+    public boolean isDbBindingTransaction()
+    {
+        return dbBindingTransaction;
+    }
+
+    /**
+     * @return the admin listener path serving the connection binding counts
+     */
+    public String getDbBindingAdminPath()
+    {
+        return dbBindingAdminPath;
+    }
+
+    /**
+     * @return header the default tenant resolver reads the tenant from
+     */
+    public String getTenantHeader()
+    {
+        return tenantHeader;
+    }
+
+    /**
+     * @return regular expression a tenant must match
+     */
+    public String getTenantPattern()
+    {
+        return tenantPattern;
+    }
+
+    /**
+     * @return connections of each tenant's pool
+     */
+    public int getTenantPoolSize()
+    {
+        return tenantPoolSize;
+    }
+
+    /**
+     * @return connections shared by all tenant pools
+     */
+    public int getTenantMaxConnections()
+    {
+        return tenantMaxConnections;
+    }
+
+    /**
+     * @return milliseconds after which an unused tenant pool is closed
+     */
+    public long getTenantIdleTimeout()
+    {
+        return tenantIdleTimeout;
+    }
+
+    /**
+     * @return the admin listener path serving the tenant pools' usage
+     */
+    public String getTenantAdminPath()
+    {
+        return tenantAdminPath;
+    }
+
+    /**
+     * @return directory of the journal's segment files
+     */
+    public String getJournalDirectory()
+    {
+        return journalDirectory;
+    }
+
+    /**
+     * @return size in bytes of each memory-mapped segment file
+     */
+    public int getJournalSegmentSize()
+    {
+        return journalSegmentSize;
+    }
+
+    /**
+     * @return when appends are forced to disk before they are acknowledged
+     */
+    public JournalSync getJournalFsync()
+    {
+        return journalFsync;
+    }
+
+    /**
+     * @return milliseconds between forces with the interval fsync policy
+     */
+    public long getJournalFsyncInterval()
+    {
+        return journalFsyncInterval;
+    }
+
+    /**
+     * @return records written to the database per drain call
+     */
+    public int getJournalBatchSize()
+    {
+        return journalBatchSize;
+    }
+
+    /**
+     * @return milliseconds the drain waits for records once caught up
+     */
+    public long getJournalDrainInterval()
+    {
+        return journalDrainInterval;
+    }
+
+    /**
+     * @return bytes not yet drained above which appends wait
+     */
+    public long getJournalMaxBacklog()
+    {
+        return journalMaxBacklog;
+    }
+
+    /**
+     * @return milliseconds an append waits on a full backlog before it is
+     * rejected
+     */
+    public long getJournalBackpressureTimeout()
+    {
+        return journalBackpressureTimeout;
+    }
+
+    /**
+     * @return the admin listener path serving the journal's state
+     */
+    public String getJournalAdminPath()
+    {
+        return journalAdminPath;
+    }
+
+    /**
+     * @return CORS expose header list (', ' delimited)
+     */
+    public String getCorsExposeHeaders()
+    {
+        return corsExposeHeaders;
+    }
+
+    /**
+     * @return CORS origin
+     */
+    public String getCorsOrigin()
+    {
+        return corsOrigin;
+    }
+
+    /**
+     * @return CORS method list (', ' delimited)
+     */
+    public String getCorsMethods()
+    {
+        return corsMethods;
+    }
+
+    /**
+     * @return CORS header list (', ' delimited)
+     */
+    public String getCorsHeaders()
+    {
+        return corsHeaders;
+    }
+
+    /**
+     * @return CORS credential list (', ' delimited)
+     */
+    public String getCorsCredentials()
+    {
+        return corsCredentials;
+    }
+
+    /**
+     * @return CORS max age argument
+     */
+    public String getCorsMaxAge()
+    {
+        return corsMaxAge;
+    }
+
+    /**
+     * @return true if a Server-Timing header is added to responses
+     */
+    public boolean isTimingServerTiming()
+    {
+        return timingServerTiming;
+    }
+
+    /**
+     * @return number of slow requests kept by the sampler
+     */
+    public int getTimingSampleSize()
+    {
+        return timingSampleSize;
+    }
+
+    /**
+     * @return one in how many slow requests is sampled
+     */
+    public int getTimingSampleRate()
+    {
+        return timingSampleRate;
+    }
+
+    /**
+     * @return minimum total time in milliseconds for a request to be sampled
+     */
+    public long getTimingSlowThreshold()
+    {
+        return timingSlowThreshold;
+    }
+
+    /**
+     * @return admin path the slow request samples are served at
+     */
+    public String getTimingAdminPath()
+    {
+        return timingAdminPath;
+    }
+
+    /**
+     * @return name of the header carrying the client's budget in milliseconds
+     */
+    public String getDeadlineHeader()
+    {
+        return deadlineHeader;
+    }
+
+    /**
+     * @return budget in milliseconds of resources without a Deadline
+     * annotation, 0 for none
+     */
+    public long getDeadlineDefaultTimeout()
+    {
+        return deadlineDefaultTimeout;
+    }
+
+    /**
+     * @return events each server-sent event channel keeps for replay
+     */
+    public int getSseReplaySize()
+    {
+        return sseReplaySize;
+    }
+
+    /**
+     * @return milliseconds between heartbeats on idle event streams, 0 for
+     * none
+     */
+    public long getSseHeartbeat()
+    {
+        return sseHeartbeat;
+    }
+
+    /**
+     * @return unsent events a client may fall behind before it is
+     * disconnected
+     */
+    public int getSseMaxQueued()
+    {
+        return sseMaxQueued;
+    }
+
+    /**
+     * @return threads writing events to client streams
+     */
+    public int getSseWriterThreads()
+    {
+        return sseWriterThreads;
+    }
+
+    /**
+     * @return milliseconds a write to a client may block before the client
+     * is disconnected
+     */
+    public long getSseWriteTimeout()
+    {
+        return sseWriteTimeout;
+    }
+
+    /**
+     * @return reconnect delay in milliseconds sent to clients, 0 for the
+     * client's default
+     */
+    public long getSseRetry()
+    {
+        return sseRetry;
+    }
+
+    /**
+     * @return the admin listener path serving the event channel statistics
+     */
+    public String getSseAdminPath()
+    {
+        return sseAdminPath;
+    }
+
+    /**
+     * @return milliseconds an outbound call waits for a connection
+     */
+    public int getClientConnectTimeout()
+    {
+        return clientConnectTimeout;
+    }
+
+    /**
+     * @return milliseconds an outbound call without its own deadline may
+     * take
+     */
+    public int getClientReadTimeout()
+    {
+        return clientReadTimeout;
+    }
+
+    /**
+     * @return connections the outbound client pools per host
+     */
+    public int getClientMaxConnectionsPerHost()
+    {
+        return clientMaxConnectionsPerHost;
+    }
+
+    /**
+     * @return threads running outbound calls
+     */
+    public int getClientThreads()
+    {
+        return clientThreads;
+    }
+
+    /**
+     * @return latency percentile after which a GET is hedged, 0 for none
+     */
+    public double getClientHedgePercentile()
+    {
+        return clientHedgePercentile;
+    }
+
+    /**
+     * @return minimum milliseconds before a GET is hedged
+     */
+    public long getClientHedgeMinDelay()
+    {
+        return clientHedgeMinDelay;
+    }
+
+    /**
+     * @return the admin listener path serving the outbound call statistics
+     */
+    public String getClientAdminPath()
+    {
+        return clientAdminPath;
+    }
+
+    /**
+     * @return path of the batch endpoint within the service
+     */
+    public String getBatchPath()
+    {
+        return batchPath;
+    }
+
+    /**
+     * @return maximum sub-requests in a batch
+     */
+    public int getBatchMaxRequests()
+    {
+        return batchMaxRequests;
+    }
+
+    /**
+     * @return maximum bytes of a batch request body
+     */
+    public int getBatchMaxBodySize()
+    {
+        return batchMaxBodySize;
+    }
+
+    /**
+     * @return maximum bytes of a sub-request's response body
+     */
+    public int getBatchMaxResponseSize()
+    {
+        return batchMaxResponseSize;
+    }
+
+    /**
+     * @return sub-requests of one batch run at the same time
+     */
+    public int getBatchMaxParallel()
+    {
+        return batchMaxParallel;
+    }
+
+    /**
+     * @return threads running sub-requests of every batch
+     */
+    public int getBatchThreads()
+    {
+        return batchThreads;
+    }
+
+    /**
+     * @return sub-requests waiting for a thread before new ones are refused
+     */
+    public int getBatchQueueSize()
+    {
+        return batchQueueSize;
+    }
+
+    /**
+     * @return milliseconds a whole batch may take
+     */
+    public long getBatchTimeout()
+    {
+        return batchTimeout;
     }
 
     /**
-     * @return Database pool max size for HikariCP
+     * @return the bulkhead pools, empty if none are declared
      */
-    public Integer getDbMaxPoolSize()
+    public List<BulkheadPool> getBulkheadPools()
     {
-        return dbMaxPoolSize;
+        return bulkheadPools;
     }
 
     /**
-     * @return Database properties in a HashMap to give to HikariCP
+     * @return the admin listener path serving the bulkhead pool statistics
      */
-    public HashMap<String, Object> getDbProperties()
+    public String getBulkheadAdminPath()
     {
-        return dbProperties;
+        return bulkheadAdminPath;
     }
 
     /**
-     * @return CORS expose header list (', ' delimited)
+     * @return an enum representing the users declared access log format
      */
-    public String getCorsExposeHeaders()
+    public AccessLogFormat getAccessLogFormat()
     {
-        return corsExposeHeaders;
+        return accessLogFormat;
     }
 
     /**
-     * @return CORS origin
+     * @return path of the access log file
      */
-    public String getCorsOrigin()
+    public String getAccessLogPath()
     {
-        return corsOrigin;
+        return accessLogPath;
     }
 
     /**
-     * @return CORS method list (', ' delimited)
+     * @return number of entries the access log buffers before dropping
      */
-    public String getCorsMethods()
+    public int getAccessLogBufferSize()
     {
-        return corsMethods;
+        return accessLogBufferSize;
     }
 
     /**
-     * @return CORS header list (', ' delimited)
+     * @return size in bytes at which the access log is rotated, 0 if never
      */
-    public String getCorsHeaders()
+    public long getAccessLogRotateSize()
     {
-        return corsHeaders;
+        return accessLogRotateSize;
     }
 
     /**
-     * @return CORS credential list (', ' delimited)
+     * @return minutes after which the access log is rotated, 0 if never
      */
-    public String getCorsCredentials()
+    public long getAccessLogRotateInterval()
     {
-        return corsCredentials;
+        return accessLogRotateInterval;
     }
 
     /**
-     * @return CORS max age argument
+     * @return milliseconds the access log writer waits when idle
      */
-    public String getCorsMaxAge()
+    public long getAccessLogFlushInterval()
     {
-        return corsMaxAge;
+        return accessLogFlushInterval;
+    }
+
+    /**
+     * @return maximum size in bytes of a streamed request body, 0 if
+     * unlimited
+     */
+    public long getStreamMaxBodySize()
+    {
+        return streamMaxBodySize;
+    }
+
+    /**
+     * @return maximum size in bytes of a single record of a streamed request
+     * body
+     */
+    public int getStreamMaxRecordSize()
+    {
+        return streamMaxRecordSize;
+    }
+
+    /**
+     * @return maximum size in bytes of a response shared by coalesced
+     * requests
+     */
+    public int getCoalesceMaxBodySize()
+    {
+        return coalesceMaxBodySize;
+    }
+
+    /**
+     * @return milliseconds a coalesced request waits on the shared response
+     */
+    public long getCoalesceTimeout()
+    {
+        return coalesceTimeout;
+    }
+
+    /**
+     * @return directories of static files served next to the resources
+     */
+    public List<StaticMount> getStaticMounts()
+    {
+        return staticMounts;
+    }
+
+    /**
+     * @return maximum bytes of static files kept in memory, 0 to disable the
+     * cache
+     */
+    public long getStaticCacheSize()
+    {
+        return staticCacheSize;
+    }
+
+    /**
+     * @return maximum size in bytes of a static file kept in memory
+     */
+    public int getStaticCacheMaxFileSize()
+    {
+        return staticCacheMaxFileSize;
+    }
+
+    /**
+     * @return minimum size in bytes of a static file sent with sendfile
+     */
+    public long getStaticSendFileThreshold()
+    {
+        return staticSendFileThreshold;
+    }
+
+    /**
+     * @return seconds static files may be cached by clients
+     */
+    public long getStaticMaxAge()
+    {
+        return staticMaxAge;
+    }
+
+    /**
+     * @return true if static files are marked immutable, for fingerprinted
+     * file names
+     */
+    public boolean isStaticImmutable()
+    {
+        return staticImmutable;
+    }
+
+    /**
+     * @return true if .br and .gz variants of static files are served to
+     * clients accepting them
+     */
+    public boolean isStaticPrecompressed()
+    {
+        return staticPrecompressed;
+    }
+
+    /**
+     * @return the binary formats offered next to JSON, empty if none
+     */
+    public Set<BinaryFormat> getBinaryFormats()
+    {
+        return binaryFormats;
+    }
+
+    /**
+     * @return true if start() is to run a training run and exit
+     */
+    public boolean isStartupTraining()
+    {
+        return startupTraining;
+    }
+
+    /**
+     * @return the class data sharing archive a training run writes
+     */
+    public String getStartupArchive()
+    {
+        return startupArchive;
+    }
+
+    /**
+     * @return how many times a training run sends each warm-up request
+     */
+    public int getStartupWarmupIterations()
+    {
+        return startupWarmupIterations;
+    }
+
+    /**
+     * @return true if start() replays the warm-up requests in-process until
+     * the JIT compiled them before the service is ready
+     */
+    public boolean isStartupJit()
+    {
+        return startupJit;
+    }
+
+    /**
+     * @return how many times the JIT warm-up replays each request at most
+     */
+    public int getStartupJitIterations()
+    {
+        return startupJitIterations;
+    }
+
+    /**
+     * @return milliseconds the JIT warm-up may run before it is cut short
+     */
+    public long getStartupJitTimeBudget()
+    {
+        return startupJitTimeBudget;
+    }
+
+    /**
+     * @return threads replaying requests during the JIT warm-up, all cores
+     * by default
+     */
+    public int getStartupJitThreads()
+    {
+        return startupJitThreads;
+    }
+
+    /**
+     * @return true if the JIT warm-up also replays a GET of each resource
+     * method without path parameters
+     */
+    public boolean isStartupJitGenerate()
+    {
+        return startupJitGenerate;
+    }
+
+    /**
+     * @return the admin listener path serving the JIT warm-up's results
+     */
+    public String getStartupJitAdminPath()
+    {
+        return startupJitAdminPath;
+    }
+
+    /**
+     * @return time spent reading the Config into this RMSConfig in
+     * nanoseconds
+     */
+    public long getParseNanos()
+    {
+        return parseNanos;
+    }
+
+    /**
+     * @return the declared Grizzly MemoryManager type
+     */
+    public MemoryType getMemoryType()
+    {
+        return memoryType;
+    }
+
+    /**
+     * @return the size of each worker thread's buffer cache in bytes for the
+     * heap manager
+     */
+    public int getMemoryThreadCacheSize()
+    {
+        return memoryThreadCacheSize;
+    }
+
+    /**
+     * @return the buffer size of the first pool in bytes
+     */
+    public int getMemoryBufferSize()
+    {
+        return memoryBufferSize;
+    }
+
+    /**
+     * @return the number of buffer pools, each of a larger buffer size
+     */
+    public int getMemoryPools()
+    {
+        return memoryPools;
+    }
+
+    /**
+     * @return the power of two each pool's buffer size is shifted by over the
+     * previous pool
+     */
+    public int getMemoryGrowthFactor()
+    {
+        return memoryGrowthFactor;
+    }
+
+    /**
+     * @return the number of slices each pool stripes allocations across
+     */
+    public int getMemorySlices()
+    {
+        return memorySlices;
+    }
+
+    /**
+     * @return the fraction of the heap the pools may hold
+     */
+    public float getMemoryHeapPercent()
+    {
+        return memoryHeapPercent;
+    }
+
+    /**
+     * @return the fraction of the pools allocated at startup
+     */
+    public float getMemoryPreallocatePercent()
+    {
+        return memoryPreallocatePercent;
+    }
+
+    /**
+     * @return the admin listener path serving the memory statistics
+     */
+    public String getMemoryAdminPath()
+    {
+        return memoryAdminPath;
     }
 
     /**
@@ -499,6 +2156,50 @@ public class RMSConfig
         return dbType != DBType.NONE;
     }
 
+    /**
+     * @return true if the connection pool is to be guarded by a circuit
+     * breaker
+     */
+    public boolean isDbBreakerService()
+    {
+        return isDbService() && dbBreakerEnabled;
+    }
+
+    /**
+     * @return true if the pool is sized between db.pool.minSize and
+     * db.maxPoolSize by its acquire waits
+     */
+    public boolean isDbPoolAdaptiveService()
+    {
+        return isDbService() && dbPoolAdaptive;
+    }
+
+    /**
+     * @return true if each tenant gets its own connection pool instead of
+     * the service sharing one
+     */
+    public boolean isTenantService()
+    {
+        return isDbService() && tenantEnabled;
+    }
+
+    /**
+     * @return true if requests are bound one connection of the pool
+     */
+    public boolean isDbBindingService()
+    {
+        return isDbService() && dbBindingEnabled;
+    }
+
+    /**
+     * @return true if writes can be journaled and drained to the database
+     * in the background
+     */
+    public boolean isJournalService()
+    {
+        return isDbService() && journalEnabled;
+    }
+
     /**
      * @return true if the jdbc is a mysql instance
      */
@@ -508,6 +2209,86 @@ public class RMSConfig
                 dbType == DBType.DRIVER && dbDriver.toLowerCase().startsWith("com.mysql");
     }
 
+    /**
+     * @return true if static files are to be served
+     */
+    public boolean isStaticService()
+    {
+        return !staticMounts.isEmpty();
+    }
+
+    /**
+     * @return true if request phase timing is to be enabled
+     */
+    public boolean isTimingService()
+    {
+        return timingEnabled;
+    }
+
+    /**
+     * @return true if the outbound client is to be enabled
+     */
+    public boolean isClientService()
+    {
+        return clientEnabled;
+    }
+
+    /**
+     * @return true if outbound GETs are to be hedged
+     */
+    public boolean isClientHedging()
+    {
+        return clientEnabled && clientHedgePercentile > 0;
+    }
+
+    /**
+     * @return true if the batch endpoint is to be enabled
+     */
+    public boolean isBatchService()
+    {
+        return batchEnabled;
+    }
+
+    /**
+     * @return true if bulkhead pools are declared
+     */
+    public boolean isBulkheadService()
+    {
+        return !bulkheadPools.isEmpty();
+    }
+
+    /**
+     * @return true if server-sent event channels are to be enabled
+     */
+    public boolean isSseService()
+    {
+        return sseEnabled;
+    }
+
+    /**
+     * @return true if request deadlines are to be enabled
+     */
+    public boolean isDeadlineService()
+    {
+        return deadlineEnabled;
+    }
+
+    /**
+     * @return true if the access log is to be enabled
+     */
+    public boolean isAccessLogService()
+    {
+        return accessLogFormat != AccessLogFormat.NONE;
+    }
+
+    /**
+     * @return true if a MemoryManager other than Grizzly's default is used
+     */
+    public boolean isMemoryService()
+    {
+        return memoryType != MemoryType.DEFAULT;
+    }
+
     /**
      * @return true if cors is to be enabled
      */
@@ -517,10 +2298,15 @@ public class RMSConfig
     }
 
     /**
+     * A unix uri.scheme is served over plain http, the hostname and port then
+     * only form the base URI resources see.
+     *
      * @return a URI instance built from the base values given
      */
     public URI buildServiceUri()
     {
-        return UriBuilder.fromUri(uriScheme + uriHostName + uriPath).port(uriPort).build();
+        String scheme = ListenerConfig.isUnixScheme(uriScheme) ? "http://" : uriScheme;
+
+        return UriBuilder.fromUri(scheme + uriHostName + uriPath).port(uriPort).build();
     }
 }
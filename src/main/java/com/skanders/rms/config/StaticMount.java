@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.config;
+
+
+import com.skanders.rms.def.RMSException;
+
+import javax.annotation.Nonnull;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Settings for a directory of static files served next to the Jersey
+ * application. Mounts are declared by name under static.mounts, each may
+ * set:
+ * <pre>
+ * path   context path the files are served under (required)
+ * root   directory holding the files (required)
+ * index  file served for a directory (default index.html)
+ * </pre>
+ *
+ * @see RMSConfig
+ */
+public class StaticMount
+{
+    private final String name;
+    private final String path;
+    private final Path   root;
+    private final String index;
+
+    /**
+     * Constructor for StaticMount
+     *
+     * @param name   the mount name
+     * @param values the mount section
+     */
+    StaticMount(@Nonnull String name, @Nonnull ConfigMap values)
+    {
+        String path = values.getReqStr("path").replaceAll("/{2,}", "/");
+
+        if (!path.startsWith("/"))
+            throw new RMSException("static.mounts." + name + ".path must start with '/'.");
+
+        this.name  = name;
+        this.path  = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        this.root  = Paths.get(values.getReqStr("root")).toAbsolutePath().normalize();
+        this.index = values.getStr("index", "index.html");
+
+        if (!Files.isDirectory(root))
+            throw new RMSException("static.mounts." + name + ".root is not a directory: " + root);
+    }
+
+    /**
+     * @return the mount name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the context path, without trailing slash, empty for the root
+     */
+    public String getPath()
+    {
+        return path;
+    }
+
+    /**
+     * @return the absolute, normalized directory holding the files
+     */
+    public Path getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * @return the file served for a directory
+     */
+    public String getIndex()
+    {
+        return index;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + " [" + path + " " + root + "]";
+    }
+}
@@ -17,6 +17,9 @@
 package com.skanders.rms.service;
 
 import com.skanders.rms.config.RMSConfig;
+import com.skanders.rms.service.jfr.RMSEvents;
+import com.skanders.rms.service.timing.Phase;
+import com.skanders.rms.service.timing.RequestTiming;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,6 +40,9 @@ public class CORSFilter implements ContainerRequestFilter, ContainerResponseFilt
     private enum CORSType
     {NON_VALID_CORS, ACTUAL, NON_VALID_PREFLIGHT, PREFLIGHT}
 
+    // Decision of the request filter, the response filter reuses it
+    private static final String PROPERTY = CORSType.class.getName();
+
     private static final String ORIGIN     = "Origin";
     private static final String LIST_DELIM = ", ";
     private static final String OPTIONS    = "OPTIONS";
@@ -54,36 +60,46 @@ public class CORSFilter implements ContainerRequestFilter, ContainerResponseFilt
     private static final String MAX_AGE           = "Access-Control-Max-Age";
 
 
-    private static String corsOrigin;
-    private static String corsMethods;
-    private static String corsHeaders;
-
-    private static String corsExposeHeaders;
-    private static String corsCredentials;
-    private static String corsMaxAge;
-
-    private static List<String> corsMethodsList;
-    private static List<String> corsHeadersList;
+    private volatile Settings settings;
 
-    static void setConfig(RMSConfig config)
+    /**
+     * Constructs an instance of CORSFilter with the CORS settings of the
+     * config. Each service registers its own instance.
+     *
+     * @param config a RMSConfig instance
+     */
+    CORSFilter(RMSConfig config)
     {
-        corsOrigin  = config.getCorsOrigin();
-        corsMethods = config.getCorsMethods();
-        corsHeaders = config.getCorsHeaders();
-
-        corsExposeHeaders = config.getCorsExposeHeaders();
-        corsCredentials   = config.getCorsCredentials();
-        corsMaxAge        = config.getCorsMaxAge();
+        setConfig(config);
+    }
 
-        corsMethodsList = Arrays.asList(corsMethods.split(LIST_DELIM));
-        corsHeadersList = Arrays.asList(corsHeaders.split(LIST_DELIM));
+    /**
+     * Sets the CORS settings. May be called while requests are being served,
+     * the settings are swapped as a whole.
+     *
+     * @param config a RMSConfig instance
+     */
+    void setConfig(RMSConfig config)
+    {
+        settings = new Settings(config);
     }
 
     @Override
     public void filter(ContainerRequestContext requestContext)
     {
+        RequestTiming timing = RequestTiming.of(requestContext);
 
-        switch (getType(requestContext)) {
+        if (timing != null)
+            timing.start(Phase.CORS);
+
+        CORSType type = getType(requestContext, settings);
+
+        if (timing != null)
+            timing.stop(Phase.CORS);
+
+        requestContext.setProperty(PROPERTY, type);
+
+        switch (type) {
             case PREFLIGHT:
                 requestContext.abortWith(Response.status(Status.OK).build());
                 break;
@@ -101,25 +117,33 @@ public class CORSFilter implements ContainerRequestFilter, ContainerResponseFilt
     public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext)
     {
         MultivaluedMap<String, Object> headers = responseContext.getHeaders();
+        RequestTiming                  timing  = RequestTiming.of(requestContext);
+        Settings                       cors    = settings;
+
+        if (timing != null)
+            timing.start(Phase.CORS);
+
+        Object   decided = requestContext.getProperty(PROPERTY);
+        CORSType type    = decided != null ? (CORSType) decided : getType(requestContext, cors);
 
-        switch (getType(requestContext)) {
+        switch (type) {
             case PREFLIGHT:
-                headers.add(ALLOW_METHODS, corsMethods);
-                headers.add(ALLOW_HEADERS, corsHeaders);
+                headers.add(ALLOW_METHODS, cors.methods);
+                headers.add(ALLOW_HEADERS, cors.headers);
 
-                if (corsMaxAge != null)
-                    headers.add(MAX_AGE, corsMaxAge);
+                if (cors.maxAge != null)
+                    headers.add(MAX_AGE, cors.maxAge);
 
                 // Fall through
 
             case ACTUAL:
-                if (corsExposeHeaders != null)
-                    headers.add(EXPOSE_HEADERS, corsExposeHeaders);
+                if (cors.exposeHeaders != null)
+                    headers.add(EXPOSE_HEADERS, cors.exposeHeaders);
 
-                headers.add(ALLOW_ORIGIN, corsOrigin);
+                headers.add(ALLOW_ORIGIN, cors.origin);
 
-                if (corsMaxAge != null)
-                    headers.add(ALLOW_CREDENTIALS, corsCredentials);
+                if (cors.maxAge != null)
+                    headers.add(ALLOW_CREDENTIALS, cors.credentials);
 
                 break;
 
@@ -127,13 +151,22 @@ public class CORSFilter implements ContainerRequestFilter, ContainerResponseFilt
                 // Continue
         }
 
+        if (timing != null)
+            timing.stop(Phase.CORS);
     }
 
-    private CORSType getType(ContainerRequestContext requestContext)
+    private CORSType getType(ContainerRequestContext requestContext, Settings cors)
     {
-        CORSType type = verifyType(requestContext);
+        Object   event = RMSEvents.beginCorsDecision();
+        CORSType type  = verifyType(requestContext);
 
-        return type != CORSType.PREFLIGHT ? type : verifyPreflight(requestContext);
+        if (type == CORSType.PREFLIGHT)
+            type = verifyPreflight(requestContext, cors);
+
+        RMSEvents.endCorsDecision(event, requestContext.getHeaderString(ORIGIN), requestContext.getMethod(),
+                type.name());
+
+        return type;
     }
 
     private CORSType verifyType(ContainerRequestContext requestContext)
@@ -153,19 +186,47 @@ public class CORSFilter implements ContainerRequestFilter, ContainerResponseFilt
 
     }
 
-    private CORSType verifyPreflight(ContainerRequestContext requestContext)
+    private CORSType verifyPreflight(ContainerRequestContext requestContext, Settings cors)
     {
         MultivaluedMap<String, String> requestHeaders = requestContext.getHeaders();
 
-        if (!corsMethodsList.contains(requestHeaders.getFirst(REQUEST_METHOD)))
+        if (!cors.methodsList.contains(requestHeaders.getFirst(REQUEST_METHOD)))
             return CORSType.NON_VALID_PREFLIGHT;
 
         if (requestHeaders.getFirst(REQUEST_HEADER) == null)
             return CORSType.PREFLIGHT;
 
-        if (!corsHeadersList.contains(requestHeaders.getFirst(REQUEST_HEADER)))
+        if (!cors.headersList.contains(requestHeaders.getFirst(REQUEST_HEADER)))
             return CORSType.NON_VALID_PREFLIGHT;
         else
             return CORSType.PREFLIGHT;
     }
+
+    private static class Settings
+    {
+        private final String origin;
+        private final String methods;
+        private final String headers;
+
+        private final String exposeHeaders;
+        private final String credentials;
+        private final String maxAge;
+
+        private final List<String> methodsList;
+        private final List<String> headersList;
+
+        private Settings(RMSConfig config)
+        {
+            origin  = config.getCorsOrigin();
+            methods = config.getCorsMethods();
+            headers = config.getCorsHeaders();
+
+            exposeHeaders = config.getCorsExposeHeaders();
+            credentials   = config.getCorsCredentials();
+            maxAge        = config.getCorsMaxAge();
+
+            methodsList = Arrays.asList(methods.split(LIST_DELIM));
+            headersList = Arrays.asList(headers.split(LIST_DELIM));
+        }
+    }
 }
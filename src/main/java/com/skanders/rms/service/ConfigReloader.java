@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service;
+
+import com.skanders.jbel.def.LogPattern;
+import com.skanders.jbel.def.Verify;
+import com.skanders.rms.config.RMSConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Applies a changed RMSConfig to a running RapidMicroService.
+ * <p>
+ * Every tracked setting is either adjustable, with an action applying the new
+ * value in place, or fixed, in which case a change is rejected and the
+ * running value kept. Each applied or rejected change is logged as a diff
+ * against the values currently in effect.
+ */
+final class ConfigReloader
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigReloader.class);
+
+    private static final String RESTART = "requires a restart";
+    private static final String SECRET  = "****";
+
+    private static final long DEBOUNCE_MILLIS = 200;
+
+    private final List<Setting>       settings  = new ArrayList<>();
+    private final Map<String, Object> effective = new HashMap<>();
+
+    private WatchService watchService;
+
+    /**
+     * Tracks a setting that can only change with a restart.
+     *
+     * @param key   the config key logged in the diff
+     * @param value reads the setting from a config
+     * @return this
+     */
+    ConfigReloader fixed(String key, Function<RMSConfig, Object> value)
+    {
+        return fixed(key, value, RESTART);
+    }
+
+    /**
+     * Tracks a setting that can only change with a restart.
+     *
+     * @param key    the config key logged in the diff
+     * @param value  reads the setting from a config
+     * @param reason logged when a change is rejected
+     * @return this
+     */
+    ConfigReloader fixed(String key, Function<RMSConfig, Object> value, String reason)
+    {
+        settings.add(new Setting(key, value, null, reason, false));
+
+        return this;
+    }
+
+    /**
+     * Tracks a secret setting that can only change with a restart, its
+     * values are never logged.
+     *
+     * @param key   the config key logged in the diff
+     * @param value reads the setting from a config
+     * @return this
+     */
+    ConfigReloader secret(String key, Function<RMSConfig, Object> value)
+    {
+        settings.add(new Setting(key, value, null, RESTART, true));
+
+        return this;
+    }
+
+    /**
+     * Tracks a setting that can change at runtime.
+     *
+     * @param key    the config key logged in the diff
+     * @param value  reads the setting from a config
+     * @param apply  applies the setting of the new config, returns false if
+     *               the new value cannot be applied
+     * @param reason logged when apply returns false
+     * @return this
+     */
+    ConfigReloader adjustable(
+            String key, Function<RMSConfig, Object> value, Predicate<RMSConfig> apply, String reason)
+    {
+        settings.add(new Setting(key, value, apply, reason, false));
+
+        return this;
+    }
+
+    /**
+     * Records the values in effect at startup.
+     *
+     * @param config the config the service was started with
+     * @return this
+     */
+    ConfigReloader init(RMSConfig config)
+    {
+        for (Setting setting : settings)
+            effective.put(setting.key, setting.value.apply(config));
+
+        return this;
+    }
+
+    /**
+     * Applies the changed adjustable settings of the new config and rejects
+     * the changed fixed ones.
+     *
+     * @param config the new config
+     * @return number of settings applied
+     */
+    synchronized int reload(RMSConfig config)
+    {
+        LOG.info(LogPattern.ENTER, "Config Reload");
+
+        int applied  = 0;
+        int rejected = 0;
+
+        for (Setting setting : settings) {
+            Object current = effective.get(setting.key);
+            Object next    = setting.value.apply(config);
+
+            if (Objects.equals(current, next))
+                continue;
+
+            String diff = setting.secret ? SECRET + " -> " + SECRET : "'" + current + "' -> '" + next + "'";
+
+            if (setting.apply != null && setting.apply.test(config)) {
+                effective.put(setting.key, next);
+                applied++;
+
+                LOG.info("Config reload applied '{}': {}.", setting.key, diff);
+
+            } else {
+                rejected++;
+
+                LOG.warn("Config reload rejected '{}': {}, {}. Keeping the running value.",
+                        setting.key, diff, setting.reason);
+
+            }
+        }
+
+        LOG.info("Config reload finished, {} applied, {} rejected.", applied, rejected);
+
+        return applied;
+    }
+
+    /**
+     * Watches the config file and reloads whenever it is written. The loader
+     * is called on the watcher thread, a config that fails to load is logged
+     * and ignored.
+     *
+     * @param path   the config file
+     * @param loader reads the config file into a RMSConfig
+     * @throws IOException if the file's directory cannot be watched
+     */
+    synchronized void watch(Path path, Supplier<RMSConfig> loader) throws IOException
+    {
+        Verify.isTrue(watchService == null, "Config is already being watched");
+
+        Path file      = path.toAbsolutePath();
+        Path directory = file.getParent();
+
+        watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        WatchService watcher = watchService;
+        Thread       thread  = new Thread(() -> watchLoop(watcher, file, loader), "rms-config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+
+        LOG.info("Config reload watching: " + file);
+    }
+
+    /**
+     * Stops watching the config file.
+     */
+    synchronized void stop()
+    {
+        if (watchService == null)
+            return;
+
+        try {
+            watchService.close();
+
+        } catch (IOException e) {
+            LOG.warn("Config watcher failed to close, caused by '{}'.", e.getMessage());
+
+        }
+
+        watchService = null;
+    }
+
+    private void watchLoop(WatchService watcher, Path file, Supplier<RMSConfig> loader)
+    {
+        try {
+            while (true) {
+                WatchKey key     = watcher.take();
+                boolean  changed = false;
+
+                for (WatchEvent<?> event : key.pollEvents())
+                    if (file.getFileName().equals(event.context()))
+                        changed = true;
+
+                key.reset();
+
+                if (!changed)
+                    continue;
+
+                // Editors write in several steps, wait for the file to settle
+                Thread.sleep(DEBOUNCE_MILLIS);
+
+                for (WatchKey pending = watcher.poll(); pending != null; pending = watcher.poll()) {
+                    pending.pollEvents();
+                    pending.reset();
+                }
+
+                reloadFrom(loader);
+            }
+
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            LOG.trace("Config watcher stopped.");
+
+        }
+    }
+
+    private void reloadFrom(Supplier<RMSConfig> loader)
+    {
+        try {
+            reload(loader.get());
+
+        } catch (RuntimeException e) {
+            LOG.error("Config reload raised an '{}' exception, caused by '{}'.", e.getClass(), e.getMessage());
+
+        }
+    }
+
+    private static class Setting
+    {
+        private final String                      key;
+        private final Function<RMSConfig, Object> value;
+        private final Predicate<RMSConfig>        apply;
+        private final String                      reason;
+        private final boolean                     secret;
+
+        private Setting(
+                String key, Function<RMSConfig, Object> value, Predicate<RMSConfig> apply, String reason,
+                boolean secret)
+        {
+            this.key    = key;
+            this.value  = value;
+            this.apply  = apply;
+            this.reason = reason;
+            this.secret = secret;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service;
+
+import com.skanders.rms.config.ListenerConfig;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.ssl.SSLEngineConfigurator;
+import org.glassfish.grizzly.threadpool.GrizzlyExecutorService;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Builds and tunes Grizzly {@link NetworkListener}s from {@link
+ * ListenerConfig}s.
+ * <p>
+ * Every NetworkListener owns its own transport, so each listener gets its own
+ * selector and worker pool and a busy listener never holds up another.
+ */
+final class ListenerFactory
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ListenerFactory.class);
+
+    private ListenerFactory()
+    {
+    }
+
+    /**
+     * Creates the listeners for the given config, one per acceptor.
+     *
+     * @param config    a ListenerConfig instance
+     * @param sslConfig the SSLEngineConfigurator used if the listener is
+     *                  secure
+     * @return the created listeners
+     */
+    static List<NetworkListener> create(@Nonnull ListenerConfig config, SSLEngineConfigurator sslConfig)
+    {
+        List<NetworkListener> listeners = new ArrayList<>();
+
+        NetworkListener first = new NetworkListener(config.getName(), config.getHostname(), config.getPort());
+
+        if (config.isSecure()) {
+            first.setSecure(true);
+            first.setSSLEngineConfig(sslConfig);
+        }
+
+        configure(first, config);
+
+        listeners.add(first);
+        listeners.addAll(createAcceptors(first, config));
+
+        return listeners;
+    }
+
+    /**
+     * Creates the extra listeners needed to run the configured number of
+     * accept loops on the port of an existing listener.
+     *
+     * @param first  the listener the acceptors are added next to
+     * @param config a ListenerConfig instance
+     * @return the extra listeners, empty if SO_REUSEPORT is not used
+     */
+    static List<NetworkListener> createAcceptors(@Nonnull NetworkListener first, @Nonnull ListenerConfig config)
+    {
+        List<NetworkListener> acceptors = new ArrayList<>();
+
+        if (!config.isReusePort())
+            return acceptors;
+
+        for (int i = 1; i < config.getAcceptors(); i++) {
+            NetworkListener acceptor = new NetworkListener(
+                    config.getName() + "-" + i, config.getHostname(), config.getPort());
+
+            if (first.isSecure()) {
+                acceptor.setSecure(true);
+                acceptor.setSSLEngineConfig(first.getSslEngineConfig());
+            }
+
+            configure(acceptor, config);
+
+            acceptors.add(acceptor);
+        }
+
+        return acceptors;
+    }
+
+    /**
+     * Applies the transport tuning of the config to a listener.
+     *
+     * @param listener a NetworkListener instance
+     * @param config   a ListenerConfig instance
+     */
+    static void configure(@Nonnull NetworkListener listener, @Nonnull ListenerConfig config)
+    {
+        TCPNIOTransport  transport  = listener.getTransport();
+        ThreadPoolConfig workerPool = transport.getWorkerThreadPoolConfig();
+
+        if (config.isReusePort()) {
+            if (ReusePortConfigurator.isSupported())
+                transport.setChannelConfigurator(ReusePortConfigurator.INSTANCE);
+            else
+                LOG.warn("SO_REUSEPORT is not supported on this JVM, listener '{}' will fail to bind " +
+                        "more than one acceptor.", config.getName());
+        }
+
+        if (config.getSelectorThreads() != ListenerConfig.DEFAULT)
+            transport.setSelectorRunnersCount(config.getSelectorThreads());
+
+        if (config.getBacklog() != ListenerConfig.DEFAULT)
+            transport.setServerConnectionBackLog(config.getBacklog());
+
+        transport.setTcpNoDelay(config.isTcpNoDelay());
+
+        if (workerPool != null) {
+            workerPool.setPoolName(config.getName() + "-worker");
+            configureWorkerPool(workerPool, config);
+        }
+
+        configureKeepAlive(listener, config);
+    }
+
+    /**
+     * Applies the worker pool and keep-alive settings of the config to a
+     * listener that may already be running. A running worker pool is
+     * replaced by one of the new size, queued tasks are moved over.
+     *
+     * @param listener a NetworkListener instance
+     * @param config   a ListenerConfig instance
+     */
+    static void reconfigure(@Nonnull NetworkListener listener, @Nonnull ListenerConfig config)
+    {
+        TCPNIOTransport transport  = listener.getTransport();
+        ExecutorService workerPool = transport.getWorkerThreadPool();
+
+        if (workerPool instanceof GrizzlyExecutorService) {
+            GrizzlyExecutorService executor   = (GrizzlyExecutorService) workerPool;
+            ThreadPoolConfig       poolConfig = executor.getConfiguration();
+
+            configureWorkerPool(poolConfig, config);
+            executor.reconfigure(poolConfig);
+
+        } else if (transport.getWorkerThreadPoolConfig() != null) {
+            configureWorkerPool(transport.getWorkerThreadPoolConfig(), config);
+
+        }
+
+        configureKeepAlive(listener, config);
+    }
+
+    private static void configureWorkerPool(ThreadPoolConfig workerPool, ListenerConfig config)
+    {
+        if (config.getWorkerThreads() != ListenerConfig.DEFAULT) {
+            workerPool.setCorePoolSize(config.getWorkerThreads());
+            workerPool.setMaxPoolSize(config.getWorkerThreads());
+        }
+
+        if (config.getWorkerQueueLimit() != ListenerConfig.DEFAULT)
+            workerPool.setQueueLimit(config.getWorkerQueueLimit());
+    }
+
+    private static void configureKeepAlive(NetworkListener listener, ListenerConfig config)
+    {
+        if (config.getKeepAliveTimeout() != ListenerConfig.DEFAULT)
+            listener.getKeepAlive().setIdleTimeoutInSeconds(config.getKeepAliveTimeout());
+
+        if (config.getKeepAliveRequests() != ListenerConfig.DEFAULT)
+            listener.getKeepAlive().setMaxRequestsCount(config.getKeepAliveRequests());
+    }
+}
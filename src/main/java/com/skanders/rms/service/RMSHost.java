@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service;
+
+import com.skanders.rms.config.RMSConfig;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Shared server for running many RapidMicroServices in one JVM. The host
+ * owns the listeners, their transports and worker pools, the memory manager,
+ * the admin listeners, request timing and the access log, all configured by
+ * the host's RMSConfig. Services built with {@link
+ * RapidMicroService#RapidMicroService(RMSHost, RMSConfig, String...)} are
+ * served under their uri.path, each with its own resources, CORS policy,
+ * database pool and WebSocket apps.
+ * <p>
+ * Services are mounted by their {@link #start()} and unmounted by their
+ * shutdown, while the host keeps running.
+ * <pre>
+ *   RMSHost host = new RMSHost(hostConfig);
+ *   host.start();
+ *
+ *   new OrderService(host, orderConfig).start();
+ *   new StockService(host, stockConfig).start();
+ * </pre>
+ */
+public final class RMSHost extends RapidMicroService
+{
+    /**
+     * Constructs an instance of RMSHost. Only the uri, listeners, ssl,
+     * server.memory, timing and accessLog settings of the config are used.
+     *
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    public RMSHost(@Nonnull RMSConfig config)
+    {
+        super(config);
+    }
+}
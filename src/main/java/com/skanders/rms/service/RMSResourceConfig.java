@@ -16,17 +16,58 @@
 
 package com.skanders.rms.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.skanders.jbel.def.Verify;
+import com.skanders.rms.config.BinaryFormat;
 import com.skanders.rms.config.RMSConfig;
+import com.skanders.rms.service.batch.BatchEndpoint;
+import com.skanders.rms.service.bulkhead.Bulkheads;
+import com.skanders.rms.service.client.ServiceClient;
+import com.skanders.rms.service.coalesce.CoalescingFeature;
+import com.skanders.rms.service.db.ConnectionBinder;
+import com.skanders.rms.service.deadline.DeadlineFilter;
+import com.skanders.rms.service.format.BinaryNegotiation;
+import com.skanders.rms.service.format.BinaryProvider;
+import com.skanders.rms.service.format.ObjectMapperResolver;
+import com.skanders.rms.service.jfr.JfrRequestListener;
+import com.skanders.rms.service.jfr.RMSEvents;
+import com.skanders.rms.service.mapper.RMSBodyLimitException;
+import com.skanders.rms.service.mapper.RMSDatabaseUnavailableException;
+import com.skanders.rms.service.mapper.RMSDeadlineExceededException;
 import com.skanders.rms.service.mapper.RMSJsonMappingException;
 import com.skanders.rms.service.mapper.RMSJsonParseException;
+import com.skanders.rms.service.mapper.RMSRecordParseException;
+import com.skanders.rms.service.mapper.RMSTenantRequiredException;
 import com.skanders.rms.service.mapper.RMSThrowable;
+import com.skanders.rms.service.sse.EventChannels;
+import com.skanders.rms.service.sse.EventStreamFilter;
+import com.skanders.rms.service.stream.RecordStreamReader;
+import com.skanders.rms.service.tenant.TenantDataSources;
+import com.skanders.rms.service.tenant.TenantFilter;
+import com.skanders.rms.service.timing.RequestTimer;
+import org.glassfish.jersey.internal.inject.AbstractBinder;
 import org.glassfish.jersey.server.ResourceConfig;
 
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
 public class RMSResourceConfig extends ResourceConfig
 {
     private static final String DISABLE_WADL = "jersey.config.server.wadl.disableWadl";
 
+    private final List<Consumer<ObjectMapper>> mapperConfigurers = new ArrayList<>();
+
+    private CORSFilter    corsFilter;
+    private EventChannels eventChannels;
+    private ServiceClient serviceClient;
+    private BatchEndpoint batchEndpoint;
+    private Bulkheads     bulkheads;
+
     public RMSResourceConfig(String... resourcePath)
     {
         super();
@@ -34,24 +75,205 @@ public class RMSResourceConfig extends ResourceConfig
         packages(resourcePath);
     }
 
+    /**
+     * Adds a step configuring the ObjectMappers RMS creates, the JSON one and
+     * one per binary format, so every format binds entities alike.
+     *
+     * @param configurer called with each ObjectMapper before first use
+     * @return this RMSResourceConfig
+     */
+    public RMSResourceConfig configureObjectMapper(@Nonnull Consumer<ObjectMapper> configurer)
+    {
+        Verify.notNull(configurer, "configurer cannot be null");
+
+        mapperConfigurers.add(configurer);
+
+        return this;
+    }
+
     RMSResourceConfig withRMSSettings(RMSConfig config)
     {
-        register(JacksonJsonProvider.class);
+        ObjectMapper jsonMapper = configure(new ObjectMapper());
+
+        register(new JacksonJsonProvider(jsonMapper));
+        register(new ObjectMapperResolver(jsonMapper));
         register(RMSJsonMappingException.class);
         register(RMSJsonParseException.class);
+        register(RMSRecordParseException.class);
+        register(RMSBodyLimitException.class);
+        register(RMSDatabaseUnavailableException.class);
+        register(RMSDeadlineExceededException.class);
+        register(RMSTenantRequiredException.class);
         register(RMSThrowable.class);
 
+        register(new RecordStreamReader(config.getStreamMaxBodySize(), config.getStreamMaxRecordSize()));
+        register(new CoalescingFeature(config));
+
+        if (RMSEvents.isSupported())
+            register(new JfrRequestListener());
+
         property(DISABLE_WADL, "true");
 
         if (config.isCorsService())
             setCORSFilter(config);
 
+        if (config.isDeadlineService())
+            register(new DeadlineFilter(config));
+
+        if (config.isSseService())
+            setEventChannels(config);
+
+        Map<BinaryFormat, ObjectMapper> binaryMappers = new EnumMap<>(BinaryFormat.class);
+
+        if (!config.getBinaryFormats().isEmpty())
+            setBinaryFormats(config, binaryMappers);
+
+        if (config.isClientService())
+            setServiceClient(config, jsonMapper, binaryMappers);
+
+        if (config.isBatchService())
+            setBatchEndpoint(config, jsonMapper);
+
+        if (config.isBulkheadService())
+            setBulkheads(config);
+
         return this;
     }
 
+    RMSResourceConfig withRequestTimer(RequestTimer requestTimer)
+    {
+        requestTimer.register(this);
+
+        return this;
+    }
+
+    RMSResourceConfig withTenantDataSources(TenantDataSources tenantDataSources)
+    {
+        register(new TenantFilter(tenantDataSources));
+
+        return this;
+    }
+
+    RMSResourceConfig withConnectionBinder(ConnectionBinder connectionBinder)
+    {
+        register(connectionBinder);
+
+        return this;
+    }
+
+    private void setBinaryFormats(RMSConfig config, Map<BinaryFormat, ObjectMapper> mappers)
+    {
+        for (BinaryFormat format : config.getBinaryFormats())
+            mappers.put(format, configure(BinaryProvider.newMapper(format)));
+
+        register(new BinaryProvider(mappers));
+        register(new BinaryNegotiation(config.getBinaryFormats()));
+    }
+
+    private ObjectMapper configure(ObjectMapper mapper)
+    {
+        for (Consumer<ObjectMapper> configurer : mapperConfigurers)
+            configurer.accept(mapper);
+
+        return mapper;
+    }
+
+    /**
+     * @return this application's CORSFilter, null if CORS is not enabled
+     */
+    CORSFilter getCORSFilter()
+    {
+        return corsFilter;
+    }
+
+    /**
+     * @return this application's EventChannels, null if SSE is not enabled
+     */
+    EventChannels getEventChannels()
+    {
+        return eventChannels;
+    }
+
+    private void setEventChannels(RMSConfig config)
+    {
+        EventChannels channels = new EventChannels(config);
+
+        register(new AbstractBinder()
+        {
+            @Override
+            protected void configure()
+            {
+                bind(channels).to(EventChannels.class);
+            }
+        });
+
+        register(new EventStreamFilter());
+
+        eventChannels = channels;
+    }
+
+    /**
+     * @return this application's ServiceClient, null if the client is not
+     * enabled
+     */
+    ServiceClient getServiceClient()
+    {
+        return serviceClient;
+    }
+
+    private void setServiceClient(
+            RMSConfig config, ObjectMapper jsonMapper, Map<BinaryFormat, ObjectMapper> binaryMappers)
+    {
+        ServiceClient client = new ServiceClient(config, jsonMapper, binaryMappers);
+
+        register(new AbstractBinder()
+        {
+            @Override
+            protected void configure()
+            {
+                bind(client).to(ServiceClient.class);
+            }
+        });
+
+        serviceClient = client;
+    }
+
+    /**
+     * @return this application's BatchEndpoint, null if batches are not
+     * enabled
+     */
+    BatchEndpoint getBatchEndpoint()
+    {
+        return batchEndpoint;
+    }
+
+    private void setBatchEndpoint(RMSConfig config, ObjectMapper jsonMapper)
+    {
+        batchEndpoint = new BatchEndpoint(config, jsonMapper);
+
+        registerResources(batchEndpoint.getResource());
+    }
+
+    /**
+     * @return this application's Bulkheads, null if no pools are declared
+     */
+    Bulkheads getBulkheads()
+    {
+        return bulkheads;
+    }
+
+    private void setBulkheads(RMSConfig config)
+    {
+        bulkheads = new Bulkheads(config);
+
+        register(bulkheads);
+        register(bulkheads.getModelProcessor());
+        register(bulkheads.getExecutorProvider());
+    }
+
     private void setCORSFilter(RMSConfig config)
     {
-        CORSFilter.setConfig(config);
-        register(CORSFilter.class);
+        corsFilter = new CORSFilter(config);
+        register(corsFilter);
     }
 }
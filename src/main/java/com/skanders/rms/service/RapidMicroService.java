@@ -21,33 +21,107 @@ import com.skanders.jbel.atsql.AtSQL;
 import com.skanders.jbel.atsql.AtSQLFactory;
 import com.skanders.jbel.def.LogPattern;
 import com.skanders.jbel.def.Verify;
+import com.skanders.rms.config.ListenerConfig;
 import com.skanders.rms.config.RMSConfig;
 import com.skanders.rms.def.RMSException;
+import com.skanders.rms.service.accesslog.AccessLog;
+import com.skanders.rms.service.admin.AdminJsonHandler;
+import com.skanders.rms.service.batch.BatchEndpoint;
+import com.skanders.rms.service.bulkhead.Bulkheads;
+import com.skanders.rms.service.client.ServiceClient;
+import com.skanders.rms.service.db.ConnectionBinder;
+import com.skanders.rms.service.db.DatabaseBreaker;
+import com.skanders.rms.service.db.PoolKeeper;
+import com.skanders.rms.service.files.StaticFileHandler;
+import com.skanders.rms.service.journal.WriteBehindJournal;
+import com.skanders.rms.service.memory.MemoryManagerFactory;
+import com.skanders.rms.service.memory.MemoryStats;
+import com.skanders.rms.service.sse.EventChannels;
+import com.skanders.rms.service.startup.JitWarmup;
+import com.skanders.rms.service.startup.StartupProfiler;
+import com.skanders.rms.service.startup.TrainingRun;
+import com.skanders.rms.service.startup.WarmupRequest;
+import com.skanders.rms.service.tenant.TenantDataSources;
+import com.skanders.rms.service.timing.RequestTimer;
+import com.skanders.rms.service.timing.SlowRequestSampler;
+import com.skanders.rms.service.unix.UnixSocketListener;
+import org.glassfish.grizzly.EmptyCompletionHandler;
 import org.glassfish.grizzly.GrizzlyFuture;
+import org.glassfish.grizzly.http.server.HttpHandler;
+import org.glassfish.grizzly.http.server.HttpHandlerRegistration;
 import org.glassfish.grizzly.http.server.HttpServer;
 import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.memory.MemoryManager;
 import org.glassfish.grizzly.ssl.SSLContextConfigurator;
 import org.glassfish.grizzly.ssl.SSLEngineConfigurator;
-import org.glassfish.grizzly.websockets.WebSocketAddOn;
+import org.glassfish.grizzly.utils.Futures;
 import org.glassfish.grizzly.websockets.WebSocketApplication;
-import org.glassfish.grizzly.websockets.WebSocketEngine;
+import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpContainer;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.regex.Pattern;
 
 public abstract class RapidMicroService
 {
     private static final Logger LOG = LoggerFactory.getLogger(RapidMicroService.class);
 
-    private AtSQL      atSQL;
+    private AtSQL           atSQL;
+    private DatabaseBreaker databaseBreaker;
+    private PoolKeeper      poolKeeper;
+
+    private ConnectionBinder connectionBinder;
+
+    private WriteBehindJournal journal;
+
+    private TenantDataSources tenantDataSources;
     private HttpServer server;
+    private HttpServer adminServer;
     private boolean    webSocketEnabled = false;
 
+    private RMSHost              host;
+    private GrizzlyHttpContainer container;
+    private CORSFilter           corsFilter;
+    private EventChannels        eventChannels;
+    private ServiceClient        serviceClient;
+    private BatchEndpoint        batchEndpoint;
+    private Bulkheads            bulkheads;
+    private String               contextPath;
+
+    private SSLEngineConfigurator sslEngineConfigurator;
+    private RequestTimer          requestTimer;
+    private AccessLog             accessLog;
+    private MemoryStats           memoryStats;
+    private ConfigReloader        configReloader;
+
+    private final List<UnixSocketListener> unixListeners = new ArrayList<>();
+    private final WebSocketRegistry        webSockets    = new WebSocketRegistry();
+    private final StartupProfiler          profiler      = new StartupProfiler();
+    private final List<WarmupRequest>      warmups       = new ArrayList<>();
+    private final List<WarmupRequest>      jitRequests   = new ArrayList<>();
+
+    private List<StaticFileHandler> staticHandlers = Collections.emptyList();
+
+    private TrainingRun trainingRun;
+    private JitWarmup   jitWarmup;
+
     /**
      * Constructs an instance of RapidMicroService.
      *
@@ -62,16 +136,30 @@ public abstract class RapidMicroService
 
         LOG.info(LogPattern.INIT, "RapidMicroService");
 
+        profiler.record("config", config.getParseNanos());
+
         if (config.isDbService())
             initConnectionPool(config);
 
         RMSResourceConfig rmsResourceConfig = new RMSResourceConfig(resourcePath)
                 .withRMSSettings(config);
 
-        if (config.isSslSecure())
-            initHTTPSecureServer(config, rmsResourceConfig);
-        else
-            initHTTPServer(config, rmsResourceConfig);
+        if (config.isTimingService()) {
+            requestTimer = new RequestTimer(config);
+            rmsResourceConfig.withRequestTimer(requestTimer);
+        }
+
+        initContainer(rmsResourceConfig);
+        initServer(config);
+        initConfigReloader(config);
+
+        if (config.isStaticService())
+            initStaticFiles(config);
+
+        initAdminHandlers(config);
+
+        if (config.isStartupJit())
+            initJitWarmup(config);
 
         LOG.info(LogPattern.INIT_DONE, "RapidMicroService");
     }
@@ -90,35 +178,147 @@ public abstract class RapidMicroService
 
         LOG.info(LogPattern.INIT, "RapidMicroService");
 
+        profiler.record("config", config.getParseNanos());
+
         if (config.isDbService())
             initConnectionPool(config);
 
         RMSResourceConfig rmsResourceConfig = resourceConfig.withRMSSettings(config);
 
-        if (config.isSslSecure())
-            initHTTPSecureServer(config, rmsResourceConfig);
-        else
-            initHTTPServer(config, rmsResourceConfig);
+        if (config.isTimingService()) {
+            requestTimer = new RequestTimer(config);
+            rmsResourceConfig.withRequestTimer(requestTimer);
+        }
+
+        initContainer(rmsResourceConfig);
+        initServer(config);
+        initConfigReloader(config);
+
+        if (config.isStaticService())
+            initStaticFiles(config);
+
+        initAdminHandlers(config);
+
+        if (config.isStartupJit())
+            initJitWarmup(config);
 
         LOG.info(LogPattern.INIT_DONE, "RapidMicroService");
     }
 
     /**
-     * Enables WebSocket attachment
+     * Constructs a RapidMicroService hosted on a {@link RMSHost}. The service
+     * is served under its uri.path on the host's listeners, transports,
+     * worker pools and memory manager. Its resources, CORS policy, database
+     * pool and WebSocket apps are its own. The listener, ssl, timing, access
+     * log and memory settings of its config are ignored, they belong to the
+     * host's config.
+     *
+     * @param host         the RMSHost serving the service
+     * @param config       a RMSConfig instance
+     * @param resourcePath package names for jersey to find components
+     * @see RMSConfig
      */
-    public void enableWebSocket()
+    protected RapidMicroService(
+            @Nonnull RMSHost host, @Nonnull RMSConfig config, @Nonnull String... resourcePath)
+    {
+        this(host, config, new RMSResourceConfig(resourcePath));
+    }
+
+    /**
+     * Constructs a RapidMicroService hosted on a {@link RMSHost}.
+     *
+     * @param host           the RMSHost serving the service
+     * @param config         a RMSConfig instance
+     * @param resourceConfig a RMSResourceConfig instance
+     * @see #RapidMicroService(RMSHost, RMSConfig, String...)
+     */
+    protected RapidMicroService(
+            @Nonnull RMSHost host, @Nonnull RMSConfig config, @Nonnull RMSResourceConfig resourceConfig)
+    {
+        Verify.notNull(host, "host cannot be null");
+        Verify.notNull(config, "config cannot be null");
+        Verify.notNull(resourceConfig, "resourceConfig cannot be null");
+
+        LOG.info(LogPattern.INIT, "Hosted RapidMicroService");
+
+        profiler.record("config", config.getParseNanos());
+
+        this.host = host;
+
+        if (config.isDbService())
+            initConnectionPool(config);
+
+        RMSResourceConfig rmsResourceConfig = resourceConfig.withRMSSettings(config);
+
+        if (host.getRequestTimer() != null)
+            rmsResourceConfig.withRequestTimer(host.getRequestTimer());
+
+        initContainer(rmsResourceConfig);
+        initConfigReloader(config);
+
+        if (config.isStaticService())
+            initStaticFiles(config);
+
+        initAdminHandlers(config);
+
+        contextPath = getContextPath(config.buildServiceUri());
+        webSockets.setPrefix(contextPath);
+
+        if (config.isStartupJit())
+            initJitWarmup(config);
+
+        LOG.info("Hosted RapidMicroService path: " + contextPath);
+        LOG.info(LogPattern.INIT_DONE, "Hosted RapidMicroService");
+    }
+
+    /**
+     * Constructs the shared server of a {@link RMSHost}: listeners, memory
+     * manager, admin listeners, request timing and access log, without a
+     * Jersey application of its own.
+     *
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    RapidMicroService(@Nonnull RMSConfig config)
     {
-        WebSocketAddOn webSocketAddOn = new WebSocketAddOn();
+        Verify.notNull(config, "config cannot be null");
+
+        LOG.info(LogPattern.INIT, "RMSHost");
+
+        profiler.record("config", config.getParseNanos());
 
-        for (NetworkListener networkListener : server.getListeners())
-            networkListener.registerAddOn(webSocketAddOn);
+        if (config.isDbService())
+            LOG.warn("Database settings of a RMSHost are ignored, each hosted service owns its connection pool.");
+
+        if (config.isTimingService())
+            requestTimer = new RequestTimer(config);
+
+        initServer(config);
+        initConfigReloader(config);
+
+        LOG.info(LogPattern.INIT_DONE, "RMSHost");
+    }
+
+    /**
+     * Enables WebSocket attachment. A hosted service enables it on its host,
+     * which must not be started yet.
+     */
+    public void enableWebSocket()
+    {
+        if (host != null)
+            host.enableWebSocket();
+        else if (!webSocketEnabled)
+            for (NetworkListener networkListener : server.getListeners())
+                webSockets.attach(networkListener);
 
         this.webSocketEnabled = true;
     }
 
     /**
      * Registers {@link WebSocketApplication} with the server at the given
-     * contextPath and urlLogPattern
+     * contextPath and urlLogPattern. Apps are kept per service, two services
+     * in one JVM may use the same paths. The contextPath of a hosted service
+     * is below its own, so services on one host may use the same paths too.
      *
      * @param contextPath the context path for the WebSocket
      * @param urlPattern  the url pattern for the WebSocket
@@ -134,7 +334,7 @@ public abstract class RapidMicroService
         Verify.notNull(urlPattern, "urlLogPattern cannot be null");
         Verify.notNull(app, "app cannot be null");
 
-        WebSocketEngine.getEngine().register(contextPath, urlPattern, app);
+        webSockets.register(contextPath, urlPattern, app);
     }
 
     /**
@@ -149,25 +349,262 @@ public abstract class RapidMicroService
 
         Verify.notNull(app, "app cannot be null");
 
-        WebSocketEngine.getEngine().unregister(app);
+        webSockets.unregister(app);
+    }
+
+    /**
+     * Registers a {@link HttpHandler} on the admin listeners at the given
+     * context path. Admin listeners run on their own transport and worker
+     * pool so admin requests never queue behind public traffic.
+     * <p>
+     * If no admin listener is configured the handler is not served. A hosted
+     * service registers the handler on its host's admin listeners.
+     *
+     * @param handler     an instance of HttpHandler
+     * @param contextPath the context path for the handler
+     * @see HttpHandler
+     */
+    public void registerAdminHandler(@Nonnull HttpHandler handler, @Nonnull String contextPath)
+    {
+        Verify.notNull(handler, "handler cannot be null");
+        Verify.notNull(contextPath, "contextPath cannot be null");
+
+        if (host != null) {
+            host.registerAdminHandler(handler, contextPath);
+            return;
+        }
+
+        if (adminServer == null) {
+            LOG.warn("No admin listener configured, admin handler at '{}' will not be served.", contextPath);
+            return;
+        }
+
+        adminServer.getServerConfiguration().addHttpHandler(handler, contextPath);
+    }
+
+    /**
+     * @return true if an admin listener is configured
+     */
+    public boolean isAdminEnabled()
+    {
+        return host != null ? host.isAdminEnabled() : adminServer != null;
+    }
+
+    /**
+     * Applies the runtime adjustable settings of the given config to the
+     * running service: listener worker pools and keep-alive, CORS values and
+     * the slow request sampling. Changes to any other setting are rejected
+     * and logged, they require a restart.
+     *
+     * @param config the new RMSConfig
+     * @return number of settings applied
+     * @see RMSConfig
+     */
+    public int reloadConfig(@Nonnull RMSConfig config)
+    {
+        Verify.notNull(config, "config cannot be null");
+
+        return configReloader.reload(config);
+    }
+
+    /**
+     * Watches the config file and calls {@link #reloadConfig(RMSConfig)}
+     * whenever it is written.
+     *
+     * @param path   the config file
+     * @param loader reads the config file into a RMSConfig
+     */
+    public void watchConfig(@Nonnull Path path, @Nonnull Supplier<RMSConfig> loader)
+    {
+        Verify.notNull(path, "path cannot be null");
+        Verify.notNull(loader, "loader cannot be null");
+
+        try {
+            configReloader.watch(path, loader);
+
+        } catch (IOException e) {
+            LOG.error(LogPattern.EXIT_FAIL, "Config Watch", e.getClass(), e.getMessage());
+
+            throw new RMSException("Config failed to be watched: IOException");
+
+        }
+    }
+
+    /**
+     * Registers a warm-up request. A training run sends it to the started
+     * service over HTTP. With startup.jit it is also replayed in-process
+     * through the service's application before the service reports ready. A
+     * hosted service registers it on its host for the training run and
+     * replays it through its own application.
+     *
+     * @param method the HTTP method
+     * @param path   the path below the service uri, with any query
+     * @see #registerWarmupRequest(String, String, String, String)
+     */
+    public void registerWarmupRequest(@Nonnull String method, @Nonnull String path)
+    {
+        registerWarmupRequest(method, path, null, null);
+    }
+
+    /**
+     * Registers a warm-up request with a body, sent by a training run and
+     * replayed in-process by the JIT warm-up before the service is ready.
+     *
+     * @param method      the HTTP method
+     * @param path        the path below the service uri, with any query
+     * @param contentType the content type of the body
+     * @param body        the request body
+     */
+    public void registerWarmupRequest(
+            @Nonnull String method, @Nonnull String path, String contentType, String body)
+    {
+        Verify.notNull(method, "method cannot be null");
+        Verify.notNull(path, "path cannot be null");
+
+        WarmupRequest request = new WarmupRequest(
+                method, contextPath + (path.startsWith("/") ? path : "/" + path), contentType, body);
+
+        RapidMicroService target = host != null ? host : this;
+
+        target.warmups.add(request);
+        jitRequests.add(request);
+    }
+
+    /**
+     * @return the startup phase durations of the service
+     */
+    public StartupProfiler getStartupProfiler()
+    {
+        return profiler;
+    }
+
+    /**
+     * @return the request timer, null if timing is not enabled
+     */
+    public RequestTimer getRequestTimer()
+    {
+        return host != null ? host.getRequestTimer() : requestTimer;
+    }
+
+    /**
+     * @return the access log, null if the access log is not enabled
+     */
+    public AccessLog getAccessLog()
+    {
+        return host != null ? host.getAccessLog() : accessLog;
+    }
+
+    /**
+     * @return the buffer statistics of the memory manager, null if Grizzly's
+     * default memory manager is used
+     */
+    public MemoryStats getMemoryStats()
+    {
+        return host != null ? host.getMemoryStats() : memoryStats;
     }
 
     /**
-     * Starts the server.
+     * Starts the server. With startup.training set, runs the warm-up
+     * requests, writes the class data sharing archive, shuts down and exits
+     * the JVM instead of returning.
+     *
+     * @see TrainingRun
      */
     public void start()
     {
         LOG.trace(LogPattern.ENTER, "Grizzly Server Start");
 
+        if (poolKeeper != null)
+            warmUpConnectionPool();
+
+        if (journal != null)
+            journal.start();
+
+        if (jitWarmup != null)
+            warmUpJit();
+
+        long started = System.nanoTime();
+
+        if (host != null) {
+            mount();
+
+            profiler.recordSince("mount", started);
+            profiler.ready();
+            return;
+        }
+
         try {
+            if (accessLog != null)
+                accessLog.start();
+
             server.start();
 
+            if (adminServer != null)
+                adminServer.start();
+
+            for (UnixSocketListener unixListener : unixListeners)
+                unixListener.start();
+
         } catch (IOException e) {
             LOG.error(LogPattern.EXIT_FAIL, "Grizzly Server Start", e.getClass(), e.getMessage());
 
             throw new RMSException("Server failed to start: IOException");
 
         }
+
+        profiler.recordSince("bind", started);
+        profiler.ready();
+
+        if (trainingRun != null)
+            train();
+    }
+
+    /**
+     * Warms the connection pool up before the service binds and starts its
+     * keep-alive and adaptive sizing.
+     */
+    private void warmUpConnectionPool()
+    {
+        long started = System.nanoTime();
+
+        poolKeeper.warmUp();
+        poolKeeper.start();
+
+        profiler.recordSince("dbwarmup", started);
+    }
+
+    /**
+     * Replays the warm-up requests in-process before the service binds, or
+     * is mounted on its host, so it only serves once they are compiled.
+     */
+    private void warmUpJit()
+    {
+        LOG.info(LogPattern.INIT, "JIT Warm-up");
+
+        long started = System.nanoTime();
+
+        jitWarmup.warmUp(getApplicationHandler(), contextPath, jitRequests);
+
+        profiler.recordSince("jit", started);
+
+        LOG.info(LogPattern.INIT_DONE, "JIT Warm-up");
+    }
+
+    /**
+     * Runs the training run of a started service and exits the JVM, with
+     * status 1 if a warm-up request failed or the archive was not written.
+     */
+    private void train()
+    {
+        LOG.info(LogPattern.INIT, "Training Run");
+
+        int     failures = trainingRun.warmUp();
+        boolean written  = trainingRun.writeArchive();
+
+        LOG.info(LogPattern.INIT_DONE, "Training Run");
+
+        shutdownNow();
+        System.exit(failures == 0 && written ? 0 : 1);
     }
 
     /**
@@ -179,7 +616,18 @@ public abstract class RapidMicroService
     {
         LOG.trace(LogPattern.ENTER, "Grizzly Server Shutdown");
 
-        return server.shutdown();
+        beginShutdown();
+
+        if (host != null)
+            return unmount();
+
+        if (adminServer != null)
+            adminServer.shutdown();
+
+        for (UnixSocketListener unixListener : unixListeners)
+            unixListener.shutdownNow();
+
+        return shutdownAfter(server.shutdown());
     }
 
     /**
@@ -194,7 +642,18 @@ public abstract class RapidMicroService
     {
         LOG.trace(LogPattern.ENTER, "Grizzly Server Shutdown");
 
-        return server.shutdown(gracePeriod, timeUnit);
+        beginShutdown();
+
+        if (host != null)
+            return unmount();
+
+        if (adminServer != null)
+            adminServer.shutdown(gracePeriod, timeUnit);
+
+        for (UnixSocketListener unixListener : unixListeners)
+            unixListener.shutdownNow();
+
+        return shutdownAfter(server.shutdown(gracePeriod, timeUnit));
     }
 
     /**
@@ -204,99 +663,820 @@ public abstract class RapidMicroService
     {
         LOG.trace(LogPattern.ENTER, "Grizzly Server Shutdown");
 
+        beginShutdown();
+
+        if (host != null) {
+            unmount();
+            return;
+        }
+
+        if (adminServer != null)
+            adminServer.shutdownNow();
+
+        for (UnixSocketListener unixListener : unixListeners)
+            unixListener.shutdownNow();
+
         server.shutdown();
+
+        closeServices();
     }
 
     /**
-     * Initializes the connection pool stored within the MicroService.
-     * Initializes using the type of connection stated in RMSConfig
-     *
-     * @param config a RMSConfig instance
-     * @see RMSConfig
+     * Adds a hosted service's Jersey application and WebSocket apps to its
+     * host. The host may already be running.
      */
-    private void initConnectionPool(@Nonnull RMSConfig config)
+    private void mount()
     {
-        LOG.info(LogPattern.INIT, "Connection Pool");
+        RapidMicroService hostService = host;
 
-        AtSQLFactory factory = AtSQLFactory.newInstance(
-                config.getDbUsername(),
-                config.getDbPassword(),
-                config.getDbMaxLifetime(),
-                config.getDbMaxPoolSize());
+        hostService.server.getServerConfiguration().addHttpHandler(
+                container, HttpHandlerRegistration.builder().contextPath(contextPath).build());
+        hostService.webSockets.addChild(webSockets);
 
-        if (config.isDbTypeUrl())
-            factory = factory.withJdbcUrl(config.getDbUrl());
-        else
-            factory = factory.withDriver(
-                    config.getDbDriver(),
-                    config.getDbHostname(),
-                    config.getDbPort(),
-                    config.getDbName());
+        for (StaticFileHandler handler : staticHandlers)
+            hostService.server.getServerConfiguration().addHttpHandler(handler, staticRegistration(handler));
 
-        if (config.isMySQLService())
-            factory.withMySQLPerformanceSettings();
+        LOG.info("Hosted RapidMicroService mounted at: " + contextPath);
+    }
 
-        if (config.getDbProperties() != null)
-            factory.withDataSourceProperties(config.getDbProperties());
+    /**
+     * Removes a hosted service from its host, shutting its Jersey application
+     * down. The host keeps serving its other services.
+     *
+     * @return a future completed with the host's server
+     */
+    private GrizzlyFuture<HttpServer> unmount()
+    {
+        RapidMicroService hostService = host;
 
-        atSQL = factory.build();
+        hostService.webSockets.removeChild(webSockets);
+        hostService.server.getServerConfiguration().removeHttpHandler(container);
 
-        LOG.info(LogPattern.INIT_DONE, "Connection Pool");
+        for (StaticFileHandler handler : staticHandlers)
+            hostService.server.getServerConfiguration().removeHttpHandler(handler);
+
+        closeServices();
+
+        LOG.info("Hosted RapidMicroService unmounted from: " + contextPath);
+
+        return Futures.createReadyFuture(hostService.server);
     }
 
     /**
-     * Creates a none-secure instance of the Grizzly server setting it to use
-     * Jackson and to find components in the given resourcePath
+     * Closes the services once the server has finished its graceful
+     * shutdown, so requests completing during the grace period are logged and
+     * can still run sub-requests, on their pools, call other services, append
+     * to the journal and reach their tenant's database.
      *
-     * @param config            a RMSConfig instance
-     * @param rmsResourceConfig a RMSResourceConfig instance
-     * @see RMSConfig
+     * @param future the server's shutdown future
+     * @return the given future
      */
-    private void initHTTPServer(@Nonnull RMSConfig config, @Nonnull RMSResourceConfig rmsResourceConfig)
+    private GrizzlyFuture<HttpServer> shutdownAfter(GrizzlyFuture<HttpServer> future)
     {
-        LOG.info(LogPattern.INIT, "HTTP Server");
+        future.addCompletionHandler(new EmptyCompletionHandler<HttpServer>()
+        {
+            @Override
+            public void completed(HttpServer result)
+            {
+                closeServices();
+            }
 
-        URI uri = config.buildServiceUri();
-        LOG.info("HTTP Server URI: " + uri);
+            @Override
+            public void failed(Throwable throwable)
+            {
+                closeServices();
+            }
+        });
 
-        server = GrizzlyHttpServerFactory.createHttpServer(uri, rmsResourceConfig, false);
+        return future;
+    }
 
-        LOG.info(LogPattern.INIT_DONE, "HTTP Server");
+    /**
+     * Stops config reloads, event streams and pool keep-alive, the first
+     * step of every shutdown.
+     */
+    private void beginShutdown()
+    {
+        configReloader.stop();
+
+        if (eventChannels != null)
+            eventChannels.close();
+
+        if (poolKeeper != null)
+            poolKeeper.close();
     }
 
     /**
-     * Creates a secure instance of the Grizzly server setting it to use Jackson
-     * and to find components in the given resourcePath.
-     *
-     * @param config            a RMSConfig instance
-     * @param rmsResourceConfig a RMSResourceConfig instance
-     * @see RMSConfig
+     * Closes the batch endpoint, bulkheads, service client, journal, tenant
+     * pools and access log, the last step of every shutdown.
      */
-    private void initHTTPSecureServer(@Nonnull RMSConfig config, @Nonnull RMSResourceConfig rmsResourceConfig)
+    private void closeServices()
     {
-        LOG.info(LogPattern.INIT, "HTTP Secure Server");
+        if (batchEndpoint != null)
+            batchEndpoint.close();
 
-        URI uri = config.buildServiceUri();
-        LOG.info("HTTP Secure Server URI: " + uri);
+        if (bulkheads != null)
+            bulkheads.close();
 
-        SSLEngineConfigurator sslEngineConfigurator = createSSLEngineConfigurator(config);
+        if (serviceClient != null)
+            serviceClient.close();
 
-        server = GrizzlyHttpServerFactory.createHttpServer(uri, rmsResourceConfig, true, sslEngineConfigurator, false);
+        if (journal != null)
+            journal.close();
 
-        LOG.info(LogPattern.INIT_DONE, "HTTP Secure Server");
+        if (tenantDataSources != null)
+            tenantDataSources.close();
+
+        if (accessLog != null)
+            accessLog.shutdown();
     }
 
     /**
-     * Creates an instance of SSLEngineConfigurator with the KeyStore and
-     * TrustStore properties given in the RMSConfig
+     * Registers the admin handlers of the services the config enabled.
      *
      * @param config a RMSConfig instance
-     * @return an SSLEngineConfigurator with the KeyStore and TrustStore file
-     * and pass
-     * @see RMSConfig
+     */
+    private void initAdminHandlers(@Nonnull RMSConfig config)
+    {
+        if (databaseBreaker != null && config.isDbBreakerService())
+            registerAdminHandler(new AdminJsonHandler(databaseBreaker::snapshot), config.getDbBreakerAdminPath());
+
+        if (connectionBinder != null)
+            registerAdminHandler(new AdminJsonHandler(connectionBinder::snapshot), config.getDbBindingAdminPath());
+
+        if (tenantDataSources != null)
+            registerAdminHandler(new AdminJsonHandler(tenantDataSources::snapshot), config.getTenantAdminPath());
+
+        if (journal != null)
+            registerAdminHandler(new AdminJsonHandler(journal::snapshot), config.getJournalAdminPath());
+
+        if (eventChannels != null)
+            registerAdminHandler(new AdminJsonHandler(eventChannels::snapshot), config.getSseAdminPath());
+
+        if (serviceClient != null)
+            registerAdminHandler(new AdminJsonHandler(serviceClient::snapshot), config.getClientAdminPath());
+
+        if (bulkheads != null)
+            registerAdminHandler(new AdminJsonHandler(bulkheads::snapshot), config.getBulkheadAdminPath());
+    }
+
+    /**
+     * Initializes the connection pool stored within the MicroService.
+     * Initializes using the type of connection stated in RMSConfig
+     *
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    private void initConnectionPool(@Nonnull RMSConfig config)
+    {
+        LOG.info(LogPattern.INIT, "Connection Pool");
+
+        long started = System.nanoTime();
+
+        if (config.isTenantService()) {
+            tenantDataSources = new TenantDataSources(config,
+                    tenant -> buildConnectionPool(config, tenant, config.getTenantPoolSize()));
+
+        } else {
+            atSQL           = buildConnectionPool(config, null, config.getDbMaxPoolSize());
+            databaseBreaker = new DatabaseBreaker(atSQL, config);
+            poolKeeper      = new PoolKeeper(databaseBreaker, config);
+
+            if (config.isDbBindingService())
+                connectionBinder = new ConnectionBinder(databaseBreaker, config);
+
+            if (config.isJournalService())
+                journal = new WriteBehindJournal(databaseBreaker, config);
+
+        }
+
+        profiler.recordSince("db", started);
+
+        LOG.info(LogPattern.INIT_DONE, "Connection Pool");
+    }
+
+    /**
+     * Builds a connection pool from the db section of the config. A tenant's
+     * pool has the tenant in place of {tenant} in db.url or db.name.
+     *
+     * @param config   a RMSConfig instance
+     * @param tenant   the tenant of the pool, null for the service's pool
+     * @param poolSize the maximum size of the pool
+     * @return the connection pool
+     */
+    private static AtSQL buildConnectionPool(@Nonnull RMSConfig config, String tenant, int poolSize)
+    {
+        AtSQLFactory factory = AtSQLFactory.newInstance(
+                config.getDbUsername(),
+                config.getDbPassword(),
+                PoolKeeper.jitterLifetime(config.getDbMaxLifetime(), config.getDbPoolLifetimeJitter()),
+                poolSize);
+
+        if (config.isDbTypeUrl())
+            factory = factory.withJdbcUrl(forTenant(config.getDbUrl(), tenant));
+        else
+            factory = factory.withDriver(
+                    config.getDbDriver(),
+                    config.getDbHostname(),
+                    config.getDbPort(),
+                    forTenant(config.getDbName(), tenant));
+
+        if (config.isMySQLService())
+            factory.withMySQLPerformanceSettings();
+
+        if (config.getDbProperties() != null)
+            factory.withDataSourceProperties(config.getDbProperties());
+
+        return factory.build();
+    }
+
+    private static String forTenant(String template, String tenant)
+    {
+        return tenant == null ? template : template.replace(RMSConfig.TENANT_PLACEHOLDER, tenant);
+    }
+
+    /**
+     * Attaches the request timer to the server and exposes the slow request
+     * samples on the admin listeners.
+     *
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    private void initRequestTimer(@Nonnull RMSConfig config)
+    {
+        LOG.info(LogPattern.INIT, "Request Timer");
+
+        requestTimer.attach(server);
+
+        SlowRequestSampler sampler = requestTimer.getSampler();
+
+        registerAdminHandler(new AdminJsonHandler(() -> {
+            Map<String, Object> timing = new LinkedHashMap<>();
+            timing.put("slowCount", sampler.getSlowCount());
+            timing.put("samples", sampler.snapshot());
+            return timing;
+        }), config.getTimingAdminPath());
+
+        LOG.info(LogPattern.INIT_DONE, "Request Timer");
+    }
+
+    /**
+     * Replaces the memory manager of every listener's transport with the one
+     * declared in the config and exposes its statistics on the admin
+     * listeners. The listeners share the one manager and its pools.
+     *
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    private void initMemoryManager(@Nonnull RMSConfig config)
+    {
+        LOG.info(LogPattern.INIT, "Memory Manager");
+
+        MemoryManager<?> memoryManager = MemoryManagerFactory.create(config);
+
+        memoryStats = new MemoryStats(config.getMemoryType());
+        memoryStats.attach(memoryManager);
+
+        for (NetworkListener listener : server.getListeners())
+            listener.getTransport().setMemoryManager(memoryManager);
+
+        if (adminServer != null)
+            for (NetworkListener listener : adminServer.getListeners())
+                listener.getTransport().setMemoryManager(memoryManager);
+
+        registerAdminHandler(new AdminJsonHandler(memoryStats::snapshot), config.getMemoryAdminPath());
+
+        LOG.info("Memory Manager type: " + config.getMemoryType().name());
+        LOG.info(LogPattern.INIT_DONE, "Memory Manager");
+    }
+
+    /**
+     * Declares which settings a config reload may change at runtime and how
+     * they are applied.
+     *
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    private void initConfigReloader(@Nonnull RMSConfig config)
+    {
+        boolean corsEnabled = corsFilter != null;
+
+        configReloader = new ConfigReloader()
+                .fixed("uri", RMSConfig::buildServiceUri)
+                .fixed("db", c -> Arrays.asList(c.isDbService(), c.getDbUrl(), c.getDbDriver(), c.getDbHostname(),
+                        c.getDbPort(), c.getDbName(), c.getDbUsername(), c.getDbMaxLifetime(), c.getDbProperties()))
+                .secret("db.password", RMSConfig::getDbPassword)
+                .fixed("db.breaker", c -> Arrays.asList(c.isDbBreakerService(), c.getDbBreakerWindow(),
+                        c.getDbBreakerMinimumCalls(), c.getDbBreakerFailureRate(), c.getDbBreakerSlowCallRate(),
+                        c.getDbBreakerSlowCallThreshold(), c.getDbBreakerOpenDuration(),
+                        c.getDbBreakerHalfOpenProbes(), c.getDbBreakerMaxWaiting(), c.getDbBreakerAdminPath()))
+                .fixed("db.pool", c -> Arrays.asList(c.getDbPoolMinIdle(), c.getDbPoolWarmupTimeout(),
+                        c.getDbPoolLifetimeJitter(), c.getDbPoolKeepAliveInterval(), c.isDbPoolAdaptiveService(),
+                        c.getDbPoolMinSize(), c.getDbPoolTargetWait(), c.getDbPoolWaitPercentile(),
+                        c.getDbPoolAdjustInterval(), c.getDbPoolMaxWait()))
+                .fixed("db.binding", c -> Arrays.asList(c.isDbBindingService(), c.isDbBindingAll(),
+                        c.isDbBindingTransaction(), c.getDbBindingAdminPath()))
+                .fixed("tenants", c -> Arrays.asList(c.isTenantService(), c.getTenantHeader(), c.getTenantPattern(),
+                        c.getTenantPoolSize(), c.getTenantMaxConnections(), c.getTenantIdleTimeout(),
+                        c.getTenantAdminPath()))
+                .fixed("journal", c -> Arrays.asList(c.isJournalService(), c.getJournalDirectory(),
+                        c.getJournalSegmentSize(), c.getJournalFsync(), c.getJournalFsyncInterval(),
+                        c.getJournalBatchSize(), c.getJournalDrainInterval(), c.getJournalMaxBacklog(),
+                        c.getJournalBackpressureTimeout(), c.getJournalAdminPath()))
+                .fixed("cors.type", RMSConfig::isCorsService)
+                .fixed("formats.binary", RMSConfig::getBinaryFormats)
+                .fixed("static", c -> Arrays.asList(c.getStaticMounts().toString(), c.getStaticCacheSize(),
+                        c.getStaticCacheMaxFileSize(), c.getStaticSendFileThreshold(), c.getStaticMaxAge(),
+                        c.isStaticImmutable(), c.isStaticPrecompressed()))
+                .fixed("sse", c -> Arrays.asList(c.isSseService(), c.getSseReplaySize(), c.getSseHeartbeat(),
+                        c.getSseMaxQueued(), c.getSseWriterThreads(), c.getSseWriteTimeout(), c.getSseRetry(),
+                        c.getSseAdminPath()))
+                .fixed("client", c -> Arrays.asList(c.isClientService(), c.getClientConnectTimeout(),
+                        c.getClientReadTimeout(), c.getClientMaxConnectionsPerHost(), c.getClientThreads(),
+                        c.getClientHedgePercentile(), c.getClientHedgeMinDelay(), c.getClientAdminPath()))
+                .fixed("batch", c -> Arrays.asList(c.isBatchService(), c.getBatchPath(), c.getBatchMaxRequests(),
+                        c.getBatchMaxBodySize(), c.getBatchMaxResponseSize(), c.getBatchMaxParallel(),
+                        c.getBatchThreads(), c.getBatchQueueSize(), c.getBatchTimeout()))
+                .fixed("bulkheads", c -> Arrays.asList(c.getBulkheadPools().toString(), c.getBulkheadAdminPath()))
+                .fixed("coalesce", c -> Arrays.asList(c.getCoalesceMaxBodySize(), c.getCoalesceTimeout()))
+                .fixed("deadline", c -> Arrays.asList(c.isDeadlineService(), c.getDeadlineHeader(),
+                        c.getDeadlineDefaultTimeout()));
+
+        Predicate<RMSConfig> applyCors = c -> {
+            if (!corsEnabled || !c.isCorsService())
+                return false;
+
+            corsFilter.setConfig(c);
+            return true;
+        };
+
+        String corsReason = "cors was not enabled at startup";
+
+        configReloader
+                .adjustable("cors.origin", RMSConfig::getCorsOrigin, applyCors, corsReason)
+                .adjustable("cors.methods", RMSConfig::getCorsMethods, applyCors, corsReason)
+                .adjustable("cors.headers", RMSConfig::getCorsHeaders, applyCors, corsReason)
+                .adjustable("cors.exposeHeaders", RMSConfig::getCorsExposeHeaders, applyCors, corsReason)
+                .adjustable("cors.credentials", RMSConfig::getCorsCredentials, applyCors, corsReason)
+                .adjustable("cors.maxAge", RMSConfig::getCorsMaxAge, applyCors, corsReason);
+
+        configReloader.adjustable("db.maxPoolSize", RMSConfig::getDbMaxPoolSize,
+                c -> databaseBreaker != null && databaseBreaker.setMaxPoolSize(c.getDbMaxPoolSize()),
+                "the AtSQL pool is sized when it is built, with db.pool.adaptive only the gate's limit below " +
+                        "that size can move");
+
+        if (server != null)
+            initServerReloads(config);
+
+        configReloader.init(config);
+    }
+
+    /**
+     * Declares the reloadable settings of the server: listeners, ssl, timing,
+     * access log and memory. Hosted services have no server of their own,
+     * these settings are reloaded through their host.
+     *
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    private void initServerReloads(@Nonnull RMSConfig config)
+    {
+        configReloader
+                .fixed("listeners", c -> c.getAllListeners().toString())
+                .fixed("ssl", c -> Arrays.asList(c.isSslSecure(), c.getSslKeyStoreFile(), c.getSslTrustStoreFile()))
+                .secret("ssl.passwords", c -> Arrays.asList(c.getSslKeyStorePass(), c.getSslTrustStorePass()))
+                .fixed("timing", c -> Arrays.asList(c.isTimingService(), c.isTimingServerTiming(),
+                        c.getTimingSampleSize(), c.getTimingAdminPath()))
+                .fixed("accessLog", c -> Arrays.asList(c.getAccessLogFormat(), c.getAccessLogPath(),
+                        c.getAccessLogBufferSize(), c.getAccessLogRotateSize(), c.getAccessLogRotateInterval(),
+                        c.getAccessLogFlushInterval()))
+                .fixed("server.memory", c -> Arrays.asList(c.getMemoryType(), c.getMemoryThreadCacheSize(),
+                        c.getMemoryBufferSize(), c.getMemoryPools(), c.getMemoryGrowthFactor(), c.getMemorySlices(),
+                        c.getMemoryHeapPercent(), c.getMemoryPreallocatePercent()));
+
+        for (ListenerConfig listenerConfig : config.getAllListeners()) {
+            String name   = listenerConfig.getName();
+            String prefix = name.equals(RMSConfig.PRIMARY_LISTENER) ? "uri" : "listeners." + name;
+
+            configReloader
+                    .fixed(prefix + ".selectorThreads", c -> listenerValue(c, name, ListenerConfig::getSelectorThreads))
+                    .fixed(prefix + ".backlog", c -> listenerValue(c, name, ListenerConfig::getBacklog))
+                    .fixed(prefix + ".tcpNoDelay", c -> listenerValue(c, name, l -> l.isTcpNoDelay() ? 1 : 0));
+
+            adjustableListener(prefix + ".workerThreads", name, ListenerConfig::getWorkerThreads);
+            adjustableListener(prefix + ".workerQueueLimit", name, ListenerConfig::getWorkerQueueLimit);
+            adjustableListener(prefix + ".keepAliveTimeout", name, ListenerConfig::getKeepAliveTimeout);
+            adjustableListener(prefix + ".keepAliveRequests", name, ListenerConfig::getKeepAliveRequests);
+        }
+
+        configReloader
+                .adjustable("timing.sampleRate", RMSConfig::getTimingSampleRate, c -> {
+                    if (requestTimer == null || !c.isTimingService())
+                        return false;
+
+                    requestTimer.getSampler().setSampleRate(c.getTimingSampleRate());
+                    return true;
+                }, "timing was not enabled at startup")
+                .adjustable("timing.slowThreshold", RMSConfig::getTimingSlowThreshold, c -> {
+                    if (requestTimer == null || !c.isTimingService())
+                        return false;
+
+                    requestTimer.getSampler().setThreshold(c.getTimingSlowThreshold());
+                    return true;
+                }, "timing was not enabled at startup");
+    }
+
+    private void adjustableListener(String key, String name, ToIntFunction<ListenerConfig> value)
+    {
+        configReloader.adjustable(key, c -> listenerValue(c, name, value), c -> {
+            ListenerConfig listenerConfig = findListener(c, name);
+
+            if (listenerConfig == null || value.applyAsInt(listenerConfig) == ListenerConfig.DEFAULT)
+                return false;
+
+            reconfigureListener(listenerConfig);
+            return true;
+        }, "listener settings cannot be returned to their defaults at runtime");
+    }
+
+    /**
+     * Applies the runtime adjustable settings of a listener to every
+     * acceptor running it.
+     *
+     * @param listenerConfig the new settings of the listener
+     */
+    private void reconfigureListener(ListenerConfig listenerConfig)
+    {
+        String name = listenerConfig.getName();
+
+        for (UnixSocketListener unixListener : unixListeners)
+            if (unixListener.getConfig().getName().equals(name) &&
+                    listenerConfig.getWorkerThreads() != ListenerConfig.DEFAULT)
+                unixListener.setMaxConnections(listenerConfig.getWorkerThreads());
+
+        List<NetworkListener> networkListeners = new ArrayList<>(server.getListeners());
+
+        if (adminServer != null)
+            networkListeners.addAll(adminServer.getListeners());
+
+        Pattern acceptorName = Pattern.compile(Pattern.quote(name) + "-\\d+");
+
+        for (NetworkListener networkListener : networkListeners)
+            if (networkListener.getName().equals(name) || acceptorName.matcher(networkListener.getName()).matches())
+                ListenerFactory.reconfigure(networkListener, listenerConfig);
+    }
+
+    private static ListenerConfig findListener(RMSConfig config, String name)
+    {
+        for (ListenerConfig listenerConfig : config.getAllListeners())
+            if (listenerConfig.getName().equals(name))
+                return listenerConfig;
+
+        return null;
+    }
+
+    private static Object listenerValue(RMSConfig config, String name, ToIntFunction<ListenerConfig> value)
+    {
+        ListenerConfig listenerConfig = findListener(config, name);
+
+        return listenerConfig == null ? null : value.applyAsInt(listenerConfig);
+    }
+
+    /**
+     * Creates the access log and attaches it to the server.
+     *
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    private void initAccessLog(@Nonnull RMSConfig config)
+    {
+        LOG.info(LogPattern.INIT, "Access Log");
+
+        accessLog = new AccessLog(config);
+        accessLog.attach(server);
+
+        LOG.info("Access Log path: " + config.getAccessLogPath());
+        LOG.info(LogPattern.INIT_DONE, "Access Log");
+    }
+
+    /**
+     * Creates the handlers serving the static mounts of the config next to
+     * the Jersey application and enables sendfile on the non-secure
+     * listeners. A hosted service adds them to its host below its context
+     * path when it is mounted, sendfile then follows the host's listeners.
+     * Unix socket listeners only serve the Jersey application.
+     *
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    private void initStaticFiles(@Nonnull RMSConfig config)
+    {
+        LOG.info(LogPattern.INIT, "Static Files");
+
+        staticHandlers = StaticFileHandler.create(config);
+
+        for (StaticFileHandler handler : staticHandlers)
+            if (host != null && handler.getMount().getPath().isEmpty())
+                throw new RMSException("Static mount " + handler.getMount() +
+                        " cannot be the root of a hosted service, it would hide the service's resources.");
+
+        if (host == null) {
+            for (StaticFileHandler handler : staticHandlers)
+                server.getServerConfiguration().addHttpHandler(handler, staticRegistration(handler));
+
+            // Grizzly's own detection leaves sendfile off on newer JDKs
+            for (NetworkListener listener : server.getListeners())
+                if (!listener.isSecure())
+                    listener.setSendFileEnabled(true);
+        }
+
+        for (StaticFileHandler handler : staticHandlers)
+            LOG.info("Static Files mount: " + handler.getMount());
+
+        LOG.info(LogPattern.INIT_DONE, "Static Files");
+    }
+
+    /**
+     * Registers a mount at its path, below the service's context path when
+     * hosted so services mounting the same path do not collide on the host.
+     */
+    private HttpHandlerRegistration staticRegistration(StaticFileHandler handler)
+    {
+        String path = handler.getMount().getPath();
+
+        return HttpHandlerRegistration.builder().contextPath(host != null ? contextPath + path : path).build();
+    }
+
+    /**
+     * Creates the JIT warm-up run by start() and exposes its results on the
+     * admin listeners.
+     *
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    private void initJitWarmup(@Nonnull RMSConfig config)
+    {
+        jitWarmup = new JitWarmup(config);
+
+        registerAdminHandler(new AdminJsonHandler(jitWarmup::snapshot), config.getStartupJitAdminPath());
+    }
+
+    /**
+     * Creates the Jersey container serving the service's resources.
+     *
+     * @param rmsResourceConfig a RMSResourceConfig instance
+     */
+    private void initContainer(@Nonnull RMSResourceConfig rmsResourceConfig)
+    {
+        long started = System.nanoTime();
+
+        if (tenantDataSources != null)
+            rmsResourceConfig.withTenantDataSources(tenantDataSources);
+
+        if (connectionBinder != null)
+            rmsResourceConfig.withConnectionBinder(connectionBinder);
+
+        container     = ContainerFactory.createContainer(GrizzlyHttpContainer.class, rmsResourceConfig);
+        corsFilter    = rmsResourceConfig.getCORSFilter();
+        eventChannels = rmsResourceConfig.getEventChannels();
+        serviceClient = rmsResourceConfig.getServiceClient();
+        batchEndpoint = rmsResourceConfig.getBatchEndpoint();
+        bulkheads     = rmsResourceConfig.getBulkheads();
+
+        if (batchEndpoint != null)
+            batchEndpoint.setApplicationHandler(container.getApplicationHandler());
+
+        profiler.recordSince("jersey", started);
+    }
+
+    /**
+     * Creates the server and everything attached to it: listeners, memory
+     * manager, request timer and access log. The server serves the container
+     * if there is one.
+     *
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    private void initServer(@Nonnull RMSConfig config)
+    {
+        long started = System.nanoTime();
+
+        contextPath = getContextPath(config.buildServiceUri());
+
+        if (config.isSslSecure())
+            initHTTPSecureServer(config);
+        else
+            initHTTPServer(config);
+
+        initListeners(config);
+
+        if (config.isMemoryService())
+            initMemoryManager(config);
+
+        if (requestTimer != null)
+            initRequestTimer(config);
+
+        if (config.isAccessLogService())
+            initAccessLog(config);
+
+        if (config.isStartupTraining())
+            trainingRun = new TrainingRun(getTrainingUri(config), warmups, config.getStartupWarmupIterations(),
+                    config.getStartupArchive());
+
+        profiler.recordSince("server", started);
+    }
+
+    /**
+     * Creates a none-secure instance of the Grizzly server setting it to use
+     * Jackson and to find components in the given resourcePath
+     *
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    private void initHTTPServer(@Nonnull RMSConfig config)
+    {
+        LOG.info(LogPattern.INIT, "HTTP Server");
+
+        URI uri = config.buildServiceUri();
+        LOG.info("HTTP Server URI: " + uri);
+
+        server = GrizzlyHttpServerFactory.createHttpServer(uri, container, false, null, false);
+
+        LOG.info(LogPattern.INIT_DONE, "HTTP Server");
+    }
+
+    /**
+     * Creates a secure instance of the Grizzly server setting it to use Jackson
+     * and to find components in the given resourcePath.
+     *
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    private void initHTTPSecureServer(@Nonnull RMSConfig config)
+    {
+        LOG.info(LogPattern.INIT, "HTTP Secure Server");
+
+        URI uri = config.buildServiceUri();
+        LOG.info("HTTP Secure Server URI: " + uri);
+
+        sslEngineConfigurator = createSSLEngineConfigurator(config);
+
+        server = GrizzlyHttpServerFactory.createHttpServer(uri, container, true, sslEngineConfigurator, false);
+
+        LOG.info(LogPattern.INIT_DONE, "HTTP Secure Server");
+    }
+
+    /**
+     * Tunes the primary listener and adds the declared listeners. Public
+     * listeners are added to the server serving the resources, admin
+     * listeners to a separate admin server that only serves the handlers
+     * given to {@link #registerAdminHandler(HttpHandler, String)}.
+     *
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    private void initListeners(@Nonnull RMSConfig config)
+    {
+        LOG.info(LogPattern.INIT, "Listeners");
+
+        NetworkListener primary = server.getListener(RMSConfig.PRIMARY_LISTENER);
+
+        if (config.getUriListener().isUnixSocket() && UnixSocketListener.isSupported()) {
+            server.removeListener(RMSConfig.PRIMARY_LISTENER);
+            initUnixListener(config, config.getUriListener());
+
+        } else {
+            if (config.getUriListener().isUnixSocket())
+                LOG.warn("Unix domain sockets require Java 16 or newer, serving uri over TCP at: " +
+                        config.buildServiceUri());
+
+            ListenerFactory.configure(primary, config.getUriListener());
+
+            for (NetworkListener acceptor : ListenerFactory.createAcceptors(primary, config.getUriListener()))
+                server.addListener(acceptor);
+        }
+
+        if (config.hasAdminListener())
+            adminServer = new HttpServer();
+
+        if (config.isSslSecure() && sslEngineConfigurator == null)
+            sslEngineConfigurator = createSSLEngineConfigurator(config);
+
+        for (ListenerConfig listenerConfig : config.getListeners()) {
+            LOG.info("Listener: " + listenerConfig);
+
+            if (listenerConfig.isUnixSocket()) {
+                initUnixListener(config, listenerConfig);
+                continue;
+            }
+
+            HttpServer target = listenerConfig.isAdmin() ? adminServer : server;
+
+            for (NetworkListener listener : ListenerFactory.create(listenerConfig, sslEngineConfigurator))
+                target.addListener(listener);
+        }
+
+        LOG.info(LogPattern.INIT_DONE, "Listeners");
+    }
+
+    /**
+     * Adds a unix domain socket listener serving the same Jersey application
+     * as the server. Skipped with a warning on runtimes without unix domain
+     * socket support.
+     *
+     * @param config         a RMSConfig instance
+     * @param listenerConfig a ListenerConfig with a unix scheme
+     */
+    private void initUnixListener(@Nonnull RMSConfig config, @Nonnull ListenerConfig listenerConfig)
+    {
+        if (!UnixSocketListener.isSupported()) {
+            LOG.warn("Unix domain sockets require Java 16 or newer, skipping listener: " + listenerConfig);
+            return;
+        }
+
+        if (container == null) {
+            LOG.warn("Unix domain sockets serve a single service, skipping listener of RMSHost: " + listenerConfig);
+            return;
+        }
+
+        unixListeners.add(new UnixSocketListener(listenerConfig, getApplicationHandler(), config.buildServiceUri()));
+    }
+
+    /**
+     * @return the Jersey application handler behind the server's container
+     */
+    private ApplicationHandler getApplicationHandler()
+    {
+        if (container == null)
+            throw new RMSException("Jersey container has not been initialized.");
+
+        return container.getApplicationHandler();
+    }
+
+    /**
+     * @param uri the service uri
+     * @return the uri without its path, warm-up request paths include it
+     */
+    private static URI getServerUri(URI uri)
+    {
+        return URI.create(uri.getScheme() + "://" + uri.getRawAuthority());
+    }
+
+    /**
+     * Uri the training run sends its warm-up requests to. Null, with a
+     * warning, when the uri is served over a unix socket or SSL, which the
+     * run's HttpURLConnection cannot reach or may not trust. The classes of
+     * requests replayed by startup.jit are archived regardless.
+     *
+     * @param config a RMSConfig instance
+     * @return the uri to send to, or null
+     * @see RMSConfig
+     */
+    private static URI getTrainingUri(RMSConfig config)
+    {
+        String reason = null;
+
+        if (config.getUriListener().isUnixSocket() && UnixSocketListener.isSupported())
+            reason = "a unix socket";
+        else if (config.isSslSecure())
+            reason = "SSL";
+
+        if (reason == null)
+            return getServerUri(config.buildServiceUri());
+
+        LOG.warn("Training run skips its warm-up requests, the service is served over {}. " +
+                "Enable startup.jit to replay them in-process before the archive is written.", reason);
+
+        return null;
+    }
+
+    /**
+     * Context path the service is mounted at, from the path of its uri, the
+     * same way Jersey maps a standalone server.
+     *
+     * @param uri the service uri
+     * @return the context path, without trailing slash
+     */
+    private static String getContextPath(URI uri)
+    {
+        String path = uri.getPath().replaceAll("/{2,}", "/");
+
+        return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    /**
+     * Creates an instance of SSLEngineConfigurator with the KeyStore and
+     * TrustStore properties given in the RMSConfig
+     *
+     * @param config a RMSConfig instance
+     * @return an SSLEngineConfigurator with the KeyStore and TrustStore file
+     * and pass
+     * @see RMSConfig
      */
     private SSLEngineConfigurator createSSLEngineConfigurator(@Nonnull RMSConfig config)
     {
+        long started = System.nanoTime();
+
         SSLContextConfigurator sslContextConfigurator = new SSLContextConfigurator();
 
         if (config.isKeyStore()) {
@@ -309,7 +1489,12 @@ public abstract class RapidMicroService
             sslContextConfigurator.setTrustStorePass(config.getSslTrustStorePass());
         }
 
-        return new SSLEngineConfigurator(sslContextConfigurator.createSSLContext(true), false, false, false);
+        SSLEngineConfigurator sslEngineConfigurator = new SSLEngineConfigurator(
+                sslContextConfigurator.createSSLContext(true), false, false, false);
+
+        profiler.recordSince("ssl", started);
+
+        return sslEngineConfigurator;
 
     }
 
@@ -325,4 +1510,103 @@ public abstract class RapidMicroService
 
         return atSQL;
     }
+
+    /**
+     * Simple getter for the server-sent event channels, also injectable into
+     * resources.
+     *
+     * @return the MicroServices instance of EventChannels
+     * @see EventChannels
+     */
+    public EventChannels getEventChannels()
+    {
+        Verify.notNull(eventChannels, "EventChannels has not been initialized, use: sse.enabled");
+
+        return eventChannels;
+    }
+
+    /**
+     * Simple getter for the outbound client used to call other services, also
+     * injectable into resources.
+     *
+     * @return the MicroServices instance of ServiceClient
+     * @see ServiceClient
+     */
+    public ServiceClient getServiceClient()
+    {
+        Verify.notNull(serviceClient, "ServiceClient has not been initialized, use: client.enabled");
+
+        return serviceClient;
+    }
+
+    /**
+     * Simple getter for the circuit breaker guarding AtSQL. Database calls
+     * made through it fail fast with a 503 while the database is stalled and
+     * are bounded by their request's deadline.
+     *
+     * @return the MicroServices instance of DatabaseBreaker
+     * @see DatabaseBreaker
+     */
+    public DatabaseBreaker getDatabaseBreaker()
+    {
+        Verify.notNull(databaseBreaker, "DatabaseBreaker has not been initialized.");
+
+        return databaseBreaker;
+    }
+
+    /**
+     * Simple getter for the keeper warming up, keeping alive and sizing the
+     * connection pool. Set its validation call before starting the service.
+     *
+     * @return the MicroServices instance of PoolKeeper
+     * @see PoolKeeper
+     */
+    public PoolKeeper getPoolKeeper()
+    {
+        Verify.notNull(poolKeeper, "PoolKeeper has not been initialized.");
+
+        return poolKeeper;
+    }
+
+    /**
+     * Simple getter for the binder of request-scoped connections. Set its
+     * connection source before starting the service.
+     *
+     * @return the MicroServices instance of ConnectionBinder
+     * @see ConnectionBinder
+     */
+    public ConnectionBinder getConnectionBinder()
+    {
+        Verify.notNull(connectionBinder, "ConnectionBinder has not been initialized, use: db.binding.enabled");
+
+        return connectionBinder;
+    }
+
+    /**
+     * Simple getter for the per tenant connection pools, which take the
+     * place of AtSQL with tenants.enabled.
+     *
+     * @return the MicroServices instance of TenantDataSources
+     * @see TenantDataSources
+     */
+    public TenantDataSources getTenantDataSources()
+    {
+        Verify.notNull(tenantDataSources, "TenantDataSources has not been initialized, use: tenants.enabled");
+
+        return tenantDataSources;
+    }
+
+    /**
+     * Simple getter for the write-behind journal draining to AtSQL. Set its
+     * drain before starting the service.
+     *
+     * @return the MicroServices instance of WriteBehindJournal
+     * @see WriteBehindJournal
+     */
+    public WriteBehindJournal getJournal()
+    {
+        Verify.notNull(journal, "WriteBehindJournal has not been initialized, use: journal.enabled");
+
+        return journal;
+    }
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service;
+
+import org.glassfish.grizzly.nio.ChannelConfigurator;
+import org.glassfish.grizzly.nio.NIOTransport;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * Channel configurator that sets SO_REUSEPORT on server channels before they
+ * are bound, so several listeners can each run their own accept loop on the
+ * same port and the kernel balances new connections between them.
+ * <p>
+ * SO_REUSEPORT is only known to the JDK from Java 9 and only on platforms
+ * that support it, it is looked up reflectively so RMS still runs on Java 8
+ * where {@link #isSupported()} reports false.
+ */
+class ReusePortConfigurator implements ChannelConfigurator
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ReusePortConfigurator.class);
+
+    private static final SocketOption<Boolean> SO_REUSEPORT = lookupReusePort();
+
+    static final ReusePortConfigurator INSTANCE = new ReusePortConfigurator();
+
+    private ReusePortConfigurator()
+    {
+    }
+
+    /**
+     * @return true if the running JDK and platform support SO_REUSEPORT
+     */
+    static boolean isSupported()
+    {
+        return SO_REUSEPORT != null;
+    }
+
+    @Override
+    public void preConfigure(NIOTransport transport, SelectableChannel channel) throws IOException
+    {
+        TCPNIOTransport.DEFAULT_CHANNEL_CONFIGURATOR.preConfigure(transport, channel);
+
+        if (channel instanceof ServerSocketChannel)
+            ((ServerSocketChannel) channel).setOption(SO_REUSEPORT, true);
+    }
+
+    @Override
+    public void postConfigure(NIOTransport transport, SelectableChannel channel) throws IOException
+    {
+        TCPNIOTransport.DEFAULT_CHANNEL_CONFIGURATOR.postConfigure(transport, channel);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> lookupReusePort()
+    {
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            SocketOption<Boolean> option =
+                    (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+
+            return channel.supportedOptions().contains(option) ? option : null;
+
+        } catch (NoSuchFieldException | IllegalAccessException | IOException e) {
+            LOG.debug("SO_REUSEPORT unavailable, caused by '{}'.", e.getMessage());
+
+            return null;
+
+        }
+    }
+}
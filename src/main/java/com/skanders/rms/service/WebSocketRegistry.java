@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service;
+
+import com.skanders.jbel.def.Verify;
+import com.skanders.rms.service.jfr.RMSEvents;
+import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.CloseListener;
+import org.glassfish.grizzly.CloseType;
+import org.glassfish.grizzly.Closeable;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.ConnectionProbe;
+import org.glassfish.grizzly.filterchain.FilterChainContext;
+import org.glassfish.grizzly.http.HttpContent;
+import org.glassfish.grizzly.http.HttpRequestPacket;
+import org.glassfish.grizzly.http.HttpResponsePacket;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.http.util.HttpStatus;
+import org.glassfish.grizzly.websockets.ClosingFrame;
+import org.glassfish.grizzly.websockets.Constants;
+import org.glassfish.grizzly.websockets.HandshakeException;
+import org.glassfish.grizzly.websockets.ProtocolHandler;
+import org.glassfish.grizzly.websockets.Version;
+import org.glassfish.grizzly.websockets.WebSocket;
+import org.glassfish.grizzly.websockets.WebSocketAdapter;
+import org.glassfish.grizzly.websockets.WebSocketAddOn;
+import org.glassfish.grizzly.websockets.WebSocketApplication;
+import org.glassfish.grizzly.websockets.WebSocketEngine;
+import org.glassfish.grizzly.websockets.WebSocketFilter;
+import org.glassfish.grizzly.websockets.WebSocketHolder;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Per service replacement for Grizzly's {@link WebSocketEngine} singleton.
+ * Grizzly keeps every WebSocketApplication of the JVM in one engine, so two
+ * services registering the same path would replace each other's apps. Each
+ * RapidMicroService keeps its apps here instead and its listeners upgrade
+ * through a filter bound to its own registry.
+ * <p>
+ * Paths follow the servlet rules the engine uses: exact, prefix ending in
+ * {@code /*} and extension starting with {@code *.}, the most specific match
+ * wins. A registry may have children, which is how an {@link RMSHost} routes
+ * upgrades to the apps of the services it hosts. A hosted service's registry
+ * has the service's context path, its apps are registered below it and
+ * matched on the full path, and the most specific match across the host and
+ * its children wins, so hosted services may use the same paths too.
+ */
+final class WebSocketRegistry
+{
+    private static final int EXACT     = Integer.MAX_VALUE;
+    private static final int EXTENSION = -1;
+    private static final int NO_MATCH  = -2;
+
+    private final List<Registration>      registrations = new CopyOnWriteArrayList<>();
+    private final List<WebSocketRegistry> children      = new CopyOnWriteArrayList<>();
+
+    private volatile String prefix = "";
+
+    /**
+     * Sets the context path of the service the registry belongs to, which
+     * the context paths of its apps are below.
+     *
+     * @param prefix the service's context path
+     */
+    void setPrefix(@Nonnull String prefix)
+    {
+        this.prefix = normalize(prefix);
+    }
+
+    /**
+     * Registers an app, replacing any app at the same path.
+     *
+     * @param contextPath the context path, below the registry's prefix
+     * @param urlPattern  the url pattern within the context, starting with /
+     * @param app         the WebSocketApplication
+     */
+    synchronized void register(@Nonnull String contextPath, @Nonnull String urlPattern,
+            @Nonnull WebSocketApplication app)
+    {
+        Verify.isTrue(urlPattern.startsWith("/") || urlPattern.startsWith("*."),
+                "urlPattern must start with '/' or '*.'");
+
+        Registration registration = new Registration(normalize(prefix + normalize(contextPath)), urlPattern, app);
+
+        for (Registration existing : registrations)
+            if (existing.contextPath.equals(registration.contextPath) && existing.urlPattern.equals(urlPattern))
+                registrations.remove(existing);
+
+        registrations.add(registration);
+    }
+
+    synchronized void unregister(@Nonnull WebSocketApplication app)
+    {
+        registrations.removeIf(registration -> registration.app == app);
+    }
+
+    void addChild(@Nonnull WebSocketRegistry child)
+    {
+        children.add(child);
+    }
+
+    void removeChild(@Nonnull WebSocketRegistry child)
+    {
+        children.remove(child);
+    }
+
+    /**
+     * Adds the upgrade filter bound to this registry to a listener. Must be
+     * called before the listener starts.
+     *
+     * @param listener the listener upgrading WebSocket requests
+     */
+    void attach(@Nonnull NetworkListener listener)
+    {
+        listener.registerAddOn(new RegistryAddOn(this));
+    }
+
+    /**
+     * @param request the upgrade request
+     * @return the app the request maps to, null if none
+     */
+    WebSocketApplication find(HttpRequestPacket request)
+    {
+        Registration best = find(request.getRequestURI(), null);
+
+        return best != null ? best.app : null;
+    }
+
+    /**
+     * @return the most specific match of this registry and its children, or
+     * the given best if none is more specific
+     */
+    private Registration find(String uri, Registration best)
+    {
+        for (Registration registration : registrations)
+            if (registration.isMoreSpecific(uri, best))
+                best = registration;
+
+        for (WebSocketRegistry child : children)
+            best = child.find(uri, best);
+
+        return best;
+    }
+
+    private static String normalize(String contextPath)
+    {
+        if (contextPath.isEmpty() || contextPath.equals("/"))
+            return "";
+
+        String normalized = contextPath.startsWith("/") ? contextPath : "/" + contextPath;
+
+        return normalized.endsWith("/") ? normalized.substring(0, normalized.length() - 1) : normalized;
+    }
+
+    private static class Registration
+    {
+        private final String               contextPath;
+        private final String               urlPattern;
+        private final WebSocketApplication app;
+
+        private Registration(String contextPath, String urlPattern, WebSocketApplication app)
+        {
+            this.contextPath = contextPath;
+            this.urlPattern  = urlPattern;
+            this.app         = app;
+        }
+
+        private boolean isMoreSpecific(String uri, Registration best)
+        {
+            int score = match(uri);
+
+            if (score == NO_MATCH || best == null)
+                return score != NO_MATCH;
+
+            int bestScore = best.match(uri);
+
+            return score > bestScore || score == bestScore && contextPath.length() > best.contextPath.length();
+        }
+
+        /**
+         * @return how specific the match is, {@link #NO_MATCH} if the uri does
+         * not map to this registration
+         */
+        private int match(String uri)
+        {
+            if (!uri.startsWith(contextPath))
+                return NO_MATCH;
+
+            String path = uri.substring(contextPath.length());
+
+            if (path.isEmpty())
+                path = "/";
+            else if (path.charAt(0) != '/')
+                return NO_MATCH;
+
+            if (urlPattern.equals(path))
+                return EXACT;
+
+            if (urlPattern.equals("/") || urlPattern.equals("/*"))
+                return 0;
+
+            if (urlPattern.endsWith("/*")) {
+                String prefix = urlPattern.substring(0, urlPattern.length() - 2);
+
+                if (path.equals(prefix) || path.startsWith(prefix + "/"))
+                    return prefix.length();
+                else
+                    return NO_MATCH;
+            }
+
+            if (urlPattern.startsWith("*.") && path.endsWith(urlPattern.substring(1)))
+                return EXTENSION;
+
+            return NO_MATCH;
+        }
+    }
+
+    private static class RegistryAddOn extends WebSocketAddOn
+    {
+        private final WebSocketRegistry registry;
+
+        private RegistryAddOn(WebSocketRegistry registry)
+        {
+            this.registry = registry;
+        }
+
+        @Override
+        protected WebSocketFilter createWebSocketFilter()
+        {
+            return new RegistryFilter(registry, getTimeoutInSeconds());
+        }
+    }
+
+    /**
+     * WebSocketFilter upgrading to the apps of a registry, following the
+     * steps of {@link WebSocketEngine#upgrade(FilterChainContext, HttpContent)}.
+     */
+    private static class RegistryFilter extends WebSocketFilter
+    {
+        private final WebSocketRegistry registry;
+
+        private RegistryFilter(WebSocketRegistry registry, long timeoutInSeconds)
+        {
+            super(timeoutInSeconds);
+
+            this.registry = registry;
+        }
+
+        @Override
+        protected boolean doServerUpgrade(FilterChainContext ctx, HttpContent requestContent) throws IOException
+        {
+            HttpRequestPacket    request = (HttpRequestPacket) requestContent.getHttpHeader();
+            WebSocketApplication app     = registry.find(request);
+
+            if (app == null)
+                return true;
+
+            ProtocolHandler protocolHandler = WebSocketEngine.loadHandler(request.getHeaders());
+
+            if (protocolHandler == null) {
+                ctx.write(HttpResponsePacket.builder(request)
+                        .status(HttpStatus.BAD_REQUEST_400.getStatusCode())
+                        .header(Constants.SEC_WS_VERSION, Version.getSupportedWireProtocolVersions())
+                        .build());
+                return true;
+            }
+
+            Connection connection = ctx.getConnection();
+
+            protocolHandler.setFilterChainContext(ctx);
+            protocolHandler.setConnection(connection);
+
+            ctx.setMessage(null);
+
+            WebSocket socket = app.createSocket(protocolHandler, request, app);
+
+            WebSocketHolder.set(connection, protocolHandler, socket).application = app;
+
+            try {
+                protocolHandler.handshake(ctx, app, requestContent);
+
+            } catch (HandshakeException e) {
+                socket.close();
+                throw e;
+
+            }
+
+            if (RMSEvents.isSupported())
+                recordMessages(connection, socket, request.getRequestURI());
+
+            connection.addCloseListener(new CloseListener<Closeable, CloseType>()
+            {
+                @Override
+                public void onClosed(Closeable closeable, CloseType type)
+                {
+                    WebSocket webSocket = WebSocketHolder.getWebSocket(connection);
+                    webSocket.close();
+                    webSocket.onClose(new ClosingFrame(WebSocket.END_POINT_GOING_DOWN,
+                            "Close detected on connection"));
+                }
+            });
+
+            socket.onConnect();
+
+            return false;
+        }
+
+        /**
+         * Emits flight recorder events for the messages the socket receives
+         * and the bytes written to its connection, frames being encoded
+         * before they reach the connection.
+         */
+        private static void recordMessages(Connection<?> connection, WebSocket socket, String path)
+        {
+            socket.add(new WebSocketAdapter()
+            {
+                @Override
+                public void onMessage(WebSocket socket, String text)
+                {
+                    RMSEvents.webSocketMessage(false, path, "text", text.length());
+                }
+
+                @Override
+                public void onMessage(WebSocket socket, byte[] bytes)
+                {
+                    RMSEvents.webSocketMessage(false, path, "binary", bytes.length);
+                }
+            });
+
+            connection.getMonitoringConfig().addProbes(new ConnectionProbe.Adapter()
+            {
+                @Override
+                public void onWriteEvent(Connection connection, Buffer data, long size)
+                {
+                    RMSEvents.webSocketMessage(true, path, "frames", size);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.accesslog;
+
+import com.skanders.jbel.def.LogPattern;
+import com.skanders.jbel.def.Verify;
+import com.skanders.rms.config.RMSConfig;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.http.Note;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.HttpServerFilter;
+import org.glassfish.grizzly.http.server.HttpServerProbe;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Access log of a RapidMicroService, written off the request path.
+ * <p>
+ * A Grizzly probe formats each completed request into a preallocated buffer
+ * of an {@link AccessLogRing} and a single writer thread writes them to the
+ * file in batches. When the writer falls behind and the ring is full the
+ * entry is dropped and counted, request threads never wait on the log.
+ */
+public class AccessLog
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AccessLog.class);
+
+    private static final Note<long[]> RECEIVED = Request.createNote(AccessLog.class.getName());
+
+    private final AccessLogRing      ring;
+    private final AccessLogFormatter formatter;
+    private final AccessLogWriter    writer;
+    private final AtomicLong         dropped = new AtomicLong();
+
+    /**
+     * Constructs an instance of AccessLog.
+     *
+     * @param config a RMSConfig instance with the access log enabled
+     * @see RMSConfig
+     */
+    public AccessLog(@Nonnull RMSConfig config)
+    {
+        Verify.notNull(config, "config cannot be null");
+        Verify.isTrue(config.isAccessLogService(), "accessLog.format must be set");
+
+        this.ring      = new AccessLogRing(config.getAccessLogBufferSize());
+        this.formatter = new AccessLogFormatter(config.getAccessLogFormat());
+        this.writer    = new AccessLogWriter(ring, config.getAccessLogPath(), config.getAccessLogRotateSize(),
+                config.getAccessLogRotateInterval(), config.getAccessLogFlushInterval());
+    }
+
+    /**
+     * Adds the probe logging the server's requests.
+     *
+     * @param server the server whose requests are logged
+     */
+    public void attach(@Nonnull HttpServer server)
+    {
+        server.getServerConfiguration().getMonitoringConfig().getWebServerConfig().addProbes(new AccessLogProbe());
+    }
+
+    /**
+     * Opens the log file and starts the writer thread.
+     *
+     * @throws IOException if the log file cannot be opened
+     */
+    public void start() throws IOException
+    {
+        writer.start();
+    }
+
+    /**
+     * Writes the entries still buffered and stops the writer thread.
+     */
+    public void shutdown()
+    {
+        LOG.trace(LogPattern.ENTER, "Access Log Shutdown");
+
+        writer.shutdown();
+
+        if (dropped.get() > 0)
+            LOG.warn("Access log dropped {} entries while the writer was behind.", dropped.get());
+    }
+
+    /**
+     * @return number of entries dropped because the buffer was full
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of entries handed to the log file
+     */
+    public long getWritten()
+    {
+        return writer.getWritten();
+    }
+
+    private void log(Request request, Response response, long durationMicros)
+    {
+        AccessLogRing.Slot slot = ring.claim();
+
+        if (slot == null) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        try {
+            formatter.format(slot.buffer, request, response, durationMicros);
+
+        } catch (RuntimeException e) {
+            slot.buffer.reset();
+            LOG.error("Access log format raised an '{}' exception, caused by '{}'.", e.getClass(), e.getMessage());
+
+        } finally {
+            ring.publish(slot);
+
+        }
+    }
+
+    /**
+     * Stamps the receive time on the request, the holder is kept on the
+     * request's notes which Grizzly does not recycle, and logs the request
+     * once its response is complete.
+     */
+    private class AccessLogProbe extends HttpServerProbe.Adapter
+    {
+        @Override
+        public void onRequestReceiveEvent(HttpServerFilter filter, Connection connection, Request request)
+        {
+            long[] received = request.getNote(RECEIVED);
+
+            if (received == null) {
+                received = new long[1];
+                request.setNote(RECEIVED, received);
+            }
+
+            received[0] = System.nanoTime();
+        }
+
+        @Override
+        public void onRequestCompleteEvent(HttpServerFilter filter, Connection connection, Response response)
+        {
+            Request request  = response.getRequest();
+            long[]  received = request.getNote(RECEIVED);
+
+            long durationMicros = received != null ? (System.nanoTime() - received[0]) / 1000 : -1;
+
+            log(request, response, durationMicros);
+        }
+    }
+}
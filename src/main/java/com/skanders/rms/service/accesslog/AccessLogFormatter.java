@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.accesslog;
+
+import com.skanders.rms.config.AccessLogFormat;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Formats a completed request into a {@link LogBuffer}.
+ * <p>
+ * COMMON and COMBINED follow the Apache log formats, JSON writes one compact
+ * object per line with the request duration in microseconds. Times are UTC,
+ * the formatted second is cached so only one entry a second formats a date.
+ */
+final class AccessLogFormatter
+{
+    private static final DateTimeFormatter CLF_FORMAT =
+            DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss '+0000'", Locale.US).withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter ISO_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss", Locale.US).withZone(ZoneOffset.UTC);
+
+    private static final String REFERER    = "Referer";
+    private static final String USER_AGENT = "User-Agent";
+
+    private final AccessLogFormat format;
+
+    private volatile CachedSecond cachedSecond = new CachedSecond(0);
+
+    AccessLogFormatter(AccessLogFormat format)
+    {
+        this.format = format;
+    }
+
+    /**
+     * @param buffer         the buffer to format into
+     * @param request        the completed request
+     * @param response       the response sent
+     * @param durationMicros microseconds from the request being read until
+     *                       the response completed
+     */
+    void format(LogBuffer buffer, Request request, Response response, long durationMicros)
+    {
+        format(buffer, request.getRemoteAddr(), request.getMethod().getMethodString(), request.getRequestURI(),
+                request.getQueryString(), request.getProtocol().getProtocolString(), response.getStatus(),
+                response.getResponse().getContentLength(), durationMicros, request.getHeader(REFERER),
+                request.getHeader(USER_AGENT), System.currentTimeMillis());
+    }
+
+    /**
+     * Formats an entry from the values of a request. An entry longer than
+     * the buffer keeps its line, a JSON entry stays a complete object.
+     *
+     * @param bytes  the response's content length, -1 if unknown
+     * @param millis the time of the entry
+     */
+    void format(
+            LogBuffer buffer, String remote, String method, String uri, String query, String protocol, int status,
+            long bytes, long durationMicros, String referer, String userAgent, long millis)
+    {
+        CachedSecond second = secondOf(millis);
+
+        if (format == AccessLogFormat.JSON)
+            formatJson(buffer, remote, method, uri, query, protocol, status, bytes, durationMicros, referer,
+                    userAgent, second, millis);
+        else
+            formatCommon(buffer, remote, method, uri, query, protocol, status, bytes, referer, userAgent, second);
+
+        buffer.appendTail('\n');
+    }
+
+    private void formatCommon(
+            LogBuffer buffer, String remote, String method, String uri, String query, String protocol, int status,
+            long bytes, String referer, String userAgent, CachedSecond second)
+    {
+        buffer.append(remote).append(" - - [").append(second.clf).append("] \"")
+                .append(method).append(' ')
+                .appendEscaped(uri);
+
+        if (query != null)
+            buffer.append('?').appendEscaped(query);
+
+        buffer.append(' ').append(protocol).append("\" ")
+                .append(status).append(' ');
+
+        if (bytes >= 0)
+            buffer.append(bytes);
+        else
+            buffer.append('-');
+
+        if (format == AccessLogFormat.COMBINED) {
+            buffer.append(" \"").appendEscaped(referer)
+                    .append("\" \"").appendEscaped(userAgent).append('"');
+        }
+    }
+
+    private void formatJson(
+            LogBuffer buffer, String remote, String method, String uri, String query, String protocol, int status,
+            long bytes, long durationMicros, String referer, String userAgent, CachedSecond second, long millis)
+    {
+        buffer.append("{\"time\":\"").append(second.iso).append('.').appendPadded(millis % 1000, 3)
+                .append("Z\"");
+        buffer.mark();
+
+        appendJsonField(buffer, "remote", remote == null ? "-" : remote);
+        appendJsonField(buffer, "method", method);
+        appendJsonField(buffer, "uri", uri);
+        appendJsonField(buffer, "query", query);
+        appendJsonField(buffer, "protocol", protocol);
+        appendJsonField(buffer, "status", status);
+        appendJsonField(buffer, "bytes", bytes);
+        appendJsonField(buffer, "durationUs", durationMicros);
+        appendJsonField(buffer, "referer", referer);
+        appendJsonField(buffer, "userAgent", userAgent);
+
+        // A value cut short is closed, anything else cut short is dropped back to its last whole field
+        if (buffer.isTruncated()) {
+            if (buffer.isTruncatedInValue())
+                buffer.appendTail('"');
+            else
+                buffer.rollback();
+        }
+
+        buffer.appendTail('}');
+    }
+
+    private static void appendJsonField(LogBuffer buffer, String name, String value)
+    {
+        if (value != null) {
+            buffer.append(",\"").append(name).append("\":\"").appendEscaped(value).append('"');
+            buffer.mark();
+        }
+    }
+
+    private static void appendJsonField(LogBuffer buffer, String name, long value)
+    {
+        buffer.append(",\"").append(name).append("\":").append(value);
+        buffer.mark();
+    }
+
+    private CachedSecond secondOf(long millis)
+    {
+        long         epochSecond = millis / 1000;
+        CachedSecond second      = cachedSecond;
+
+        if (second.epochSecond != epochSecond)
+            cachedSecond = second = new CachedSecond(epochSecond);
+
+        return second;
+    }
+
+    private static final class CachedSecond
+    {
+        private final long   epochSecond;
+        private final byte[] clf;
+        private final byte[] iso;
+
+        private CachedSecond(long epochSecond)
+        {
+            Instant instant = Instant.ofEpochSecond(epochSecond);
+
+            this.epochSecond = epochSecond;
+            this.clf         = CLF_FORMAT.format(instant).getBytes(StandardCharsets.US_ASCII);
+            this.iso         = ISO_FORMAT.format(instant).getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+}
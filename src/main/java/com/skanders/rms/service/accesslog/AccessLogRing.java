@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.accesslog;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free ring of preallocated {@link LogBuffer}s, many request
+ * threads formatting entries in and the single writer thread taking them out.
+ * <p>
+ * Each slot carries a sequence telling whose turn it is: a producer owns the
+ * slot when its sequence equals the claimed position, the writer when it is
+ * one past it. A producer finding the slot still unconsumed gets null instead
+ * of waiting, so request threads never block on the log.
+ */
+final class AccessLogRing
+{
+    private final Slot[]     slots;
+    private final int        mask;
+    private final AtomicLong head = new AtomicLong();
+
+    private long tail;
+
+    AccessLogRing(int size)
+    {
+        int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+
+        this.slots = new Slot[capacity];
+        this.mask  = capacity - 1;
+
+        for (int i = 0; i < capacity; i++)
+            slots[i] = new Slot(i);
+    }
+
+    /**
+     * Claims the next slot for a producer. The slot must be handed back with
+     * {@link #publish(Slot)} once its buffer is filled.
+     *
+     * @return the claimed slot, null if the ring is full
+     */
+    Slot claim()
+    {
+        while (true) {
+            long position = head.get();
+            Slot slot     = slots[(int) position & mask];
+            long sequence = slot.sequence;
+
+            if (sequence == position) {
+                if (head.compareAndSet(position, position + 1)) {
+                    slot.position = position;
+                    slot.buffer.reset();
+                    return slot;
+                }
+
+            } else if (sequence < position) {
+                return null;
+
+            }
+        }
+    }
+
+    void publish(Slot slot)
+    {
+        slot.sequence = slot.position + 1;
+    }
+
+    /**
+     * Writer side, returns the oldest published slot without removing it.
+     *
+     * @return the oldest slot, null if it is not published yet
+     */
+    Slot peek()
+    {
+        Slot slot = slots[(int) tail & mask];
+
+        return slot.sequence == tail + 1 ? slot : null;
+    }
+
+    /**
+     * Writer side, hands the slot returned by {@link #peek()} back to the
+     * producers.
+     */
+    void release(Slot slot)
+    {
+        slot.sequence = tail + slots.length;
+        tail++;
+    }
+
+    static final class Slot
+    {
+        final LogBuffer buffer = new LogBuffer();
+
+        private volatile long sequence;
+        private long          position;
+
+        private Slot(long sequence)
+        {
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.accesslog;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single writer thread draining the {@link AccessLogRing} into the log file.
+ * Entries are copied into one direct buffer and written in batches, the
+ * thread parks for the flush interval whenever the ring is empty. The file is
+ * rotated by renaming it with a timestamp suffix once it reaches the rotate
+ * size or the rotate interval passes.
+ */
+final class AccessLogWriter implements Runnable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AccessLogWriter.class);
+
+    private static final int BATCH_SIZE = 64 * 1024;
+
+    private final AccessLogRing ring;
+    private final Path          path;
+    private final long          rotateSize;
+    private final long          rotateIntervalMillis;
+    private final long          flushIntervalNanos;
+    private final ByteBuffer    batch = ByteBuffer.allocateDirect(BATCH_SIZE);
+
+    private FileChannel   channel;
+    private long          fileSize;
+    private long          nextRotation;
+    private volatile long written;
+
+    private volatile boolean running;
+    private volatile Thread  thread;
+
+    AccessLogWriter(AccessLogRing ring, String path, long rotateSize, long rotateMinutes, long flushMillis)
+    {
+        this.ring                 = ring;
+        this.path                 = Paths.get(path);
+        this.rotateSize           = rotateSize;
+        this.rotateIntervalMillis = TimeUnit.MINUTES.toMillis(rotateMinutes);
+        this.flushIntervalNanos   = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+    }
+
+    synchronized void start() throws IOException
+    {
+        if (running)
+            return;
+
+        open();
+
+        running = true;
+        thread  = new Thread(this, "rms-access-log");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the writer once the entries already in the ring are written.
+     */
+    synchronized void shutdown()
+    {
+        Thread writer = thread;
+
+        if (!running || writer == null)
+            return;
+
+        running = false;
+        LockSupport.unpark(writer);
+
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+        }
+    }
+
+    long getWritten()
+    {
+        return written;
+    }
+
+    @Override
+    public void run()
+    {
+        while (true) {
+            boolean stopping = !running;
+            int     drained  = drain();
+
+            if (batch.position() > 0)
+                flush();
+
+            rotateIfDue();
+
+            if (stopping && drained == 0)
+                break;
+
+            if (drained == 0)
+                LockSupport.parkNanos(this, flushIntervalNanos);
+        }
+
+        close();
+    }
+
+    private int drain()
+    {
+        int                drained = 0;
+        AccessLogRing.Slot slot;
+
+        while ((slot = ring.peek()) != null) {
+            if (!slot.buffer.writeTo(batch)) {
+                flush();
+                slot.buffer.writeTo(batch);
+            }
+
+            ring.release(slot);
+            drained++;
+        }
+
+        written += drained;
+
+        return drained;
+    }
+
+    private void flush()
+    {
+        batch.flip();
+
+        try {
+            while (batch.hasRemaining())
+                fileSize += channel.write(batch);
+
+        } catch (IOException e) {
+            LOG.error("Access log write raised an '{}' exception, caused by '{}'.", e.getClass(), e.getMessage());
+
+        }
+
+        batch.clear();
+    }
+
+    private void rotateIfDue()
+    {
+        boolean bySize = rotateSize > 0 && fileSize >= rotateSize;
+        boolean byTime = rotateIntervalMillis > 0 && System.currentTimeMillis() >= nextRotation;
+
+        if (!bySize && !byTime)
+            return;
+
+        close();
+
+        try {
+            if (fileSize > 0)
+                Files.move(path, rotatedPath());
+
+            open();
+
+        } catch (IOException e) {
+            LOG.error("Access log rotate raised an '{}' exception, caused by '{}'.", e.getClass(), e.getMessage());
+
+            reopen();
+
+        }
+    }
+
+    private Path rotatedPath()
+    {
+        String suffix  = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        Path   rotated = Paths.get(path + "." + suffix);
+
+        for (int i = 1; Files.exists(rotated); i++)
+            rotated = Paths.get(path + "." + suffix + "-" + i);
+
+        return rotated;
+    }
+
+    private void open() throws IOException
+    {
+        Path parent = path.toAbsolutePath().getParent();
+
+        if (parent != null)
+            Files.createDirectories(parent);
+
+        channel      = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        fileSize     = channel.size();
+        nextRotation = System.currentTimeMillis() + rotateIntervalMillis;
+    }
+
+    private void reopen()
+    {
+        try {
+            open();
+
+        } catch (IOException e) {
+            LOG.error("Access log open raised an '{}' exception, caused by '{}'.", e.getClass(), e.getMessage());
+
+        }
+    }
+
+    private void close()
+    {
+        if (channel == null)
+            return;
+
+        try {
+            channel.close();
+
+        } catch (IOException e) {
+            LOG.error("Access log close raised an '{}' exception, caused by '{}'.", e.getClass(), e.getMessage());
+
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.accesslog;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable byte buffer an access log entry is formatted into. Strings are
+ * encoded to UTF-8 in place so formatting an entry does not allocate.
+ * <p>
+ * An entry longer than the maximum size is truncated. Appends after the
+ * first one that does not fit are dropped, a character or escape is written
+ * whole or not at all, and the last TAIL_SIZE bytes are kept for {@link
+ * #appendTail(char)} so a truncated entry can still be closed and end its
+ * line.
+ */
+final class LogBuffer
+{
+    static final int MAX_SIZE  = 8192;
+    static final int TAIL_SIZE = 3;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private byte[]  data = new byte[512];
+    private int     length;
+    private int     mark;
+    private boolean escaping;
+    private boolean truncated;
+    private boolean truncatedInValue;
+
+    void reset()
+    {
+        length           = 0;
+        mark             = 0;
+        escaping         = false;
+        truncated        = false;
+        truncatedInValue = false;
+    }
+
+    int length()
+    {
+        return length;
+    }
+
+    LogBuffer append(char c)
+    {
+        if (ensure(1))
+            data[length++] = (byte) c;
+
+        return this;
+    }
+
+    /**
+     * Appends a character into the room kept for the end of the entry,
+     * whether or not the entry was truncated.
+     */
+    LogBuffer appendTail(char c)
+    {
+        if (length < MAX_SIZE) {
+            grow(length + 1);
+            data[length++] = (byte) c;
+        }
+
+        return this;
+    }
+
+    LogBuffer append(byte[] bytes)
+    {
+        if (ensure(bytes.length)) {
+            System.arraycopy(bytes, 0, data, length, bytes.length);
+            length += bytes.length;
+        }
+
+        return this;
+    }
+
+    /**
+     * Appends a value as is, or a dash if it is null.
+     */
+    LogBuffer append(String value)
+    {
+        if (value == null)
+            return append('-');
+
+        for (int i = 0; i < value.length(); i++)
+            appendChar(value.charAt(i));
+
+        return this;
+    }
+
+    /**
+     * Appends a value with quotes, backslashes and control characters
+     * escaped, safe within a quoted JSON string or log field.
+     */
+    LogBuffer appendEscaped(String value)
+    {
+        if (value == null)
+            return append('-');
+
+        escaping = true;
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                if (ensure(2)) {
+                    data[length++] = '\\';
+                    data[length++] = (byte) c;
+                }
+
+            } else if (c < 0x20) {
+                if (ensure(6)) {
+                    data[length++] = '\\';
+                    data[length++] = 'u';
+                    data[length++] = '0';
+                    data[length++] = '0';
+                    data[length++] = HEX[c >> 4];
+                    data[length++] = HEX[c & 0xF];
+                }
+
+            } else {
+                appendChar(c);
+
+            }
+        }
+
+        escaping = false;
+
+        return this;
+    }
+
+    LogBuffer append(long value)
+    {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE)
+                return append(Long.toString(value));
+
+            append('-');
+            value = -value;
+        }
+
+        long divisor = 1;
+
+        while (value / divisor >= 10)
+            divisor *= 10;
+
+        for (; divisor > 0; divisor /= 10)
+            append((char) ('0' + (value / divisor) % 10));
+
+        return this;
+    }
+
+    /**
+     * Appends a non negative value left padded with zeros to the width.
+     */
+    LogBuffer appendPadded(long value, int width)
+    {
+        for (long limit = 10; width > 1; width--, limit *= 10)
+            if (value < limit)
+                append('0');
+
+        return append(value);
+    }
+
+    /**
+     * Marks the end of a complete part of the entry, the point {@link
+     * #rollback()} returns to. Ignored once the entry is truncated.
+     */
+    void mark()
+    {
+        if (!truncated)
+            mark = length;
+    }
+
+    /**
+     * Drops everything after the last mark.
+     */
+    void rollback()
+    {
+        length = mark;
+    }
+
+    /**
+     * @return true if an append did not fit
+     */
+    boolean isTruncated()
+    {
+        return truncated;
+    }
+
+    /**
+     * @return true if the entry was truncated within an escaped value
+     */
+    boolean isTruncatedInValue()
+    {
+        return truncatedInValue;
+    }
+
+    /**
+     * @return false if the target has no room for the entry
+     */
+    boolean writeTo(ByteBuffer target)
+    {
+        if (target.remaining() < length)
+            return false;
+
+        target.put(data, 0, length);
+
+        return true;
+    }
+
+    private void appendChar(char c)
+    {
+        if (c < 0x80) {
+            append(c);
+
+        } else if (c < 0x800) {
+            if (ensure(2)) {
+                data[length++] = (byte) (0xC0 | c >> 6);
+                data[length++] = (byte) (0x80 | c & 0x3F);
+            }
+
+        } else if (Character.isSurrogate(c)) {
+            // Pairs are not reassembled, access log values are rarely outside the BMP
+            append('?');
+
+        } else if (ensure(3)) {
+            data[length++] = (byte) (0xE0 | c >> 12);
+            data[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+            data[length++] = (byte) (0x80 | c & 0x3F);
+
+        }
+    }
+
+    private boolean ensure(int size)
+    {
+        if (truncated)
+            return false;
+
+        int required = length + size;
+
+        if (required > MAX_SIZE - TAIL_SIZE) {
+            truncated        = true;
+            truncatedInValue = escaping;
+            return false;
+        }
+
+        grow(required);
+
+        return true;
+    }
+
+    private void grow(int required)
+    {
+        if (required <= data.length)
+            return;
+
+        byte[] grown = new byte[Math.min(MAX_SIZE, Math.max(required, data.length * 2))];
+        System.arraycopy(data, 0, grown, 0, length);
+        data = grown;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.admin;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.skanders.jbel.def.Verify;
+import org.glassfish.grizzly.http.Method;
+import org.glassfish.grizzly.http.server.HttpHandler;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.http.util.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.function.Supplier;
+
+/**
+ * Read only admin endpoint answering GET requests with the JSON form of the
+ * supplied object. Meant to be registered on an admin listener through
+ * {@link com.skanders.rms.service.RapidMicroService#registerAdminHandler(HttpHandler, String)}.
+ */
+public class AdminJsonHandler extends HttpHandler
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AdminJsonHandler.class);
+
+    private static final ObjectMapper MAPPER       = new ObjectMapper();
+    private static final String       CONTENT_TYPE = "application/json";
+
+    private final Supplier<?> supplier;
+
+    /**
+     * Constructs an instance of AdminJsonHandler.
+     *
+     * @param supplier called on each request for the object to serialize
+     */
+    public AdminJsonHandler(@Nonnull Supplier<?> supplier)
+    {
+        Verify.notNull(supplier, "supplier cannot be null");
+
+        this.supplier = supplier;
+    }
+
+    @Override
+    public void service(Request request, Response response) throws Exception
+    {
+        if (request.getMethod() != Method.GET) {
+            response.setStatus(HttpStatus.METHOD_NOT_ALLOWED_405);
+            return;
+        }
+
+        byte[] body;
+
+        try {
+            body = MAPPER.writeValueAsBytes(supplier.get());
+
+        } catch (Exception e) {
+            LOG.error("Admin handler raised an '{}' exception, caused by '{}'.", e.getClass(), e.getMessage());
+            response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR_500);
+            return;
+
+        }
+
+        response.setContentType(CONTENT_TYPE);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+}
@@ -0,0 +1,589 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.batch;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.skanders.jbel.def.Verify;
+import com.skanders.rms.config.RMSConfig;
+import com.skanders.rms.def.RMSException;
+import com.skanders.rms.service.deadline.RequestDeadline;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.process.Inflector;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batch endpoint: takes a JSON array of sub-requests in one POST and runs
+ * them through the service's Jersey application in-process, as if each had
+ * arrived on its own, saving the client a round trip per call.
+ * <pre>
+ *   POST /api/batch
+ *   [{"id": "user", "method": "GET", "path": "/users/7"},
+ *    {"method": "GET", "path": "/users/7/orders", "dependsOn": ["user"]}]
+ * </pre>
+ * Sub-requests run up to batch.maxParallel at a time on a pool shared by
+ * every batch, each once its dependencies succeeded. Results are streamed
+ * back as a JSON array in the order they complete:
+ * <pre>
+ *   [{"index": 0, "id": "user", "status": 200, "headers": {...}, "body": {...}}, ...]
+ * </pre>
+ * A JSON body is embedded as is, a text body as a string and any other body
+ * as base64 with "bodyEncoding": "base64". Sub-requests carry the batch's
+ * headers, apart from its entity headers, under their own, and share its
+ * deadline.
+ * <p>
+ * The batch body size, the number of sub-requests, each response's size and
+ * the time taken are limited so a small batch cannot make the service do
+ * an unbounded amount of work. Batches cannot be nested, sub-requests carry
+ * a request property the endpoint refuses them by.
+ */
+public final class BatchEndpoint
+{
+    private static final Logger LOG = LoggerFactory.getLogger(BatchEndpoint.class);
+
+    private static final int    FAILED_DEPENDENCY = 424;
+    private static final String SUB_REQUEST       = BatchEndpoint.class.getName() + ".subRequest";
+
+    private static final Set<String> SKIPPED_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        SKIPPED_HEADERS.addAll(Arrays.asList(HttpHeaders.CONTENT_TYPE, HttpHeaders.CONTENT_LENGTH,
+                HttpHeaders.CONTENT_ENCODING, HttpHeaders.ACCEPT_ENCODING, "Transfer-Encoding", "Connection",
+                "Expect", "Upgrade"));
+    }
+
+    private final ObjectMapper       mapper;
+    private final ThreadPoolExecutor executor;
+
+    private final String path;
+    private final int    maxRequests;
+    private final int    maxBodySize;
+    private final int    maxResponseSize;
+    private final int    maxParallel;
+    private final long   timeout;
+    private final String deadlineHeader;
+
+    private volatile ApplicationHandler appHandler;
+
+    /**
+     * Constructs an instance of BatchEndpoint.
+     *
+     * @param config a RMSConfig instance
+     * @param mapper the service's JSON mapper
+     * @see RMSConfig
+     */
+    public BatchEndpoint(@Nonnull RMSConfig config, @Nonnull ObjectMapper mapper)
+    {
+        Verify.notNull(config, "config cannot be null");
+        Verify.notNull(mapper, "mapper cannot be null");
+
+        this.mapper          = mapper;
+        this.executor        = newExecutor(config.getBatchThreads(), config.getBatchQueueSize());
+        this.path            = config.getBatchPath();
+        this.maxRequests     = config.getBatchMaxRequests();
+        this.maxBodySize     = config.getBatchMaxBodySize();
+        this.maxResponseSize = config.getBatchMaxResponseSize();
+        this.maxParallel     = config.getBatchMaxParallel();
+        this.timeout         = config.getBatchTimeout();
+        this.deadlineHeader  = config.isDeadlineService() ? config.getDeadlineHeader() : null;
+    }
+
+    /**
+     * @return the Jersey resource serving batches at batch.path
+     */
+    public Resource getResource()
+    {
+        Resource.Builder resource = Resource.builder(path);
+
+        resource.addMethod(HttpMethod.POST)
+                .consumes(MediaType.APPLICATION_JSON_TYPE)
+                .produces(MediaType.APPLICATION_JSON_TYPE)
+                .handledBy(new Inflector<ContainerRequestContext, Response>()
+                {
+                    // An anonymous class keeps the type Jersey reads to pass the request, not the body
+                    @Override
+                    public Response apply(ContainerRequestContext requestContext)
+                    {
+                        return handle(requestContext);
+                    }
+                });
+
+        return resource.build();
+    }
+
+    /**
+     * Sets the Jersey application sub-requests are dispatched to, once its
+     * container is created.
+     *
+     * @param appHandler the service's application handler
+     */
+    public void setApplicationHandler(@Nonnull ApplicationHandler appHandler)
+    {
+        this.appHandler = appHandler;
+    }
+
+    /**
+     * Stops the sub-request threads. Called on shutdown.
+     */
+    public void close()
+    {
+        executor.shutdownNow();
+    }
+
+    private Response handle(ContainerRequestContext requestContext)
+    {
+        ApplicationHandler handler = appHandler;
+
+        if (handler == null)
+            return Response.status(Status.SERVICE_UNAVAILABLE).build();
+
+        if (requestContext.getProperty(SUB_REQUEST) != null)
+            return error(Status.BAD_REQUEST, "Batches cannot be nested.");
+
+        List<BatchRequest> requests;
+
+        try {
+            byte[] body = readBody(requestContext.getEntityStream());
+
+            if (body == null)
+                return error(Status.REQUEST_ENTITY_TOO_LARGE, "Batch body is larger than " + maxBodySize + " bytes.");
+
+            JsonNode batch = mapper.readTree(body);
+
+            // Checked before the sub-requests are read
+            if (batch.isArray() && batch.size() > maxRequests)
+                return error(Status.REQUEST_ENTITY_TOO_LARGE, "Batch has more than " + maxRequests + " sub-requests.");
+
+            requests = parse(batch);
+
+        } catch (JsonProcessingException e) {
+            return error(Status.BAD_REQUEST, "Batch body is not valid JSON.");
+
+        } catch (RMSException e) {
+            return error(Status.BAD_REQUEST, e.getMessage());
+
+        } catch (IOException e) {
+            LOG.debug("Batch body could not be read, caused by '{}'.", e.getMessage());
+            return Response.status(Status.BAD_REQUEST).build();
+
+        }
+
+        RequestDeadline deadline = RequestDeadline.current();
+
+        long budget = deadline == null ? timeout : Math.min(timeout, deadline.getRemainingMillis());
+
+        Batch batch = new Batch(handler, requestContext, requests,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget));
+
+        return Response.ok((StreamingOutput) batch::run, MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
+    private byte[] readBody(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream body   = new ByteArrayOutputStream();
+        byte[]                buffer = new byte[8192];
+
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (body.size() + read > maxBodySize)
+                return null;
+
+            body.write(buffer, 0, read);
+        }
+
+        return body.toByteArray();
+    }
+
+    private List<BatchRequest> parse(JsonNode batch)
+    {
+        if (!batch.isArray() || batch.size() == 0)
+            throw new RMSException("Batch body must be a non empty array of sub-requests.");
+
+        Map<String, Integer> ids      = new HashMap<>();
+        List<BatchRequest>   requests = new ArrayList<>(batch.size());
+
+        for (JsonNode node : batch)
+            requests.add(BatchRequest.parse(node, requests.size(), ids, mapper));
+
+        return requests;
+    }
+
+    private Response error(Status status, String message)
+    {
+        Map<String, String> error = new LinkedHashMap<>();
+        error.put("error", message);
+
+        return Response.status(status).entity(error).type(MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
+    /**
+     * A batch being run: starts sub-requests as their dependencies complete
+     * and writes each result as it comes in, on the batch request's thread.
+     */
+    private final class Batch
+    {
+        private final ApplicationHandler  handler;
+        private final List<BatchRequest>  requests;
+        private final URI                 baseUri;
+        private final SecurityContext     securityContext;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+        private final long                endNanos;
+
+        private final BlockingQueue<Result> completed = new LinkedBlockingQueue<>();
+
+        private final int[]     statuses;
+        private final boolean[] started;
+
+        Batch(ApplicationHandler handler, ContainerRequestContext requestContext, List<BatchRequest> requests,
+                long endNanos)
+        {
+            this.handler         = handler;
+            this.requests        = requests;
+            this.baseUri         = requestContext.getUriInfo().getBaseUri();
+            this.securityContext = requestContext.getSecurityContext();
+            this.endNanos        = endNanos;
+            this.statuses        = new int[requests.size()];
+            this.started         = new boolean[requests.size()];
+
+            for (Map.Entry<String, List<String>> header : requestContext.getHeaders().entrySet())
+                if (!SKIPPED_HEADERS.contains(header.getKey()) &&
+                        (deadlineHeader == null || !deadlineHeader.equalsIgnoreCase(header.getKey())))
+                    headers.put(header.getKey(), String.join(",", header.getValue()));
+        }
+
+        void run(OutputStream out) throws IOException
+        {
+            JsonGenerator generator = mapper.getFactory().createGenerator(out);
+            Set<Integer>  waiting   = new HashSet<>();
+            int           running   = 0;
+            int           written   = 0;
+
+            for (BatchRequest request : requests)
+                waiting.add(request.getIndex());
+
+            generator.writeStartArray();
+
+            while (written < requests.size()) {
+                for (BatchRequest request : requests) {
+                    if (running >= maxParallel)
+                        break;
+
+                    if (!waiting.contains(request.getIndex()) || !isReady(request))
+                        continue;
+
+                    waiting.remove(request.getIndex());
+
+                    Integer failed = failedDependency(request);
+
+                    if (request.getInvalid() != null) {
+                        completed.add(Result.error(request, Status.BAD_REQUEST.getStatusCode(),
+                                request.getInvalid()));
+                    } else if (failed != null) {
+                        completed.add(Result.error(request, FAILED_DEPENDENCY,
+                                "Sub-request " + failed + " it depends on failed."));
+                    } else {
+                        start(request);
+                        started[request.getIndex()] = true;
+                        running++;
+                    }
+                }
+
+                Result result = poll();
+
+                if (result == null) {
+                    for (BatchRequest request : requests)
+                        if (statuses[request.getIndex()] == 0)
+                            write(generator, Result.error(request, Status.GATEWAY_TIMEOUT.getStatusCode(),
+                                    "Batch timed out before the sub-request completed."));
+
+                    break;
+                }
+
+                if (started[result.request.getIndex()])
+                    running--;
+
+                write(generator, result);
+                written++;
+            }
+
+            generator.writeEndArray();
+            generator.flush();
+        }
+
+        private boolean isReady(BatchRequest request)
+        {
+            for (int dependency : request.getDependsOn())
+                if (statuses[dependency] == 0)
+                    return false;
+
+            return true;
+        }
+
+        private Integer failedDependency(BatchRequest request)
+        {
+            for (int dependency : request.getDependsOn())
+                if (statuses[dependency] >= 400)
+                    return dependency;
+
+            return null;
+        }
+
+        private void start(BatchRequest request)
+        {
+            try {
+                executor.execute(() -> completed.add(executeSafely(request)));
+
+            } catch (RejectedExecutionException e) {
+                completed.add(Result.error(request, Status.SERVICE_UNAVAILABLE.getStatusCode(),
+                        "Batch sub-request queue is full."));
+
+            }
+        }
+
+        private Result poll()
+        {
+            try {
+                return completed.poll(endNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+
+            }
+        }
+
+        /**
+         * Runs a sub-request, turning anything it throws into its result so
+         * the batch never waits on a sub-request that has no result.
+         */
+        private Result executeSafely(BatchRequest request)
+        {
+            try {
+                return execute(request);
+
+            } catch (RuntimeException e) {
+                LOG.error("Batch sub-request raised an '{}' exception, caused by '{}'.", e.getClass(), e.getMessage());
+                return Result.error(request, Status.INTERNAL_SERVER_ERROR.getStatusCode(), null);
+
+            }
+        }
+
+        private Result execute(BatchRequest request)
+        {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(endNanos - System.nanoTime());
+
+            if (remaining <= 0)
+                return Result.error(request, Status.GATEWAY_TIMEOUT.getStatusCode(),
+                        "Batch timed out before the sub-request started.");
+
+            ContainerRequest containerRequest = new ContainerRequest(
+                    baseUri, URI.create(baseUri.toString().replaceAll("/+$", "") + request.getPath()),
+                    request.getMethod(), securityContext, new MapPropertiesDelegate(), handler.getConfiguration());
+
+            containerRequest.setProperty(SUB_REQUEST, Boolean.TRUE);
+
+            for (Map.Entry<String, String> header : headers.entrySet())
+                if (BatchRequest.header(request.getHeaders(), header.getKey()) == null)
+                    containerRequest.header(header.getKey(), header.getValue());
+
+            for (Map.Entry<String, String> header : request.getHeaders().entrySet())
+                containerRequest.header(header.getKey(), header.getValue());
+
+            if (deadlineHeader != null)
+                containerRequest.header(deadlineHeader, remaining);
+
+            byte[] body = request.getBody();
+            containerRequest.setEntityStream(new ByteArrayInputStream(body == null ? new byte[0] : body));
+
+            BoundedOutputStream out = new BoundedOutputStream(maxResponseSize);
+
+            try {
+                ContainerResponse response = handler.apply(containerRequest, out).get(remaining, TimeUnit.MILLISECONDS);
+
+                if (out.isExceeded())
+                    return Result.error(request, Status.BAD_GATEWAY.getStatusCode(),
+                            "Sub-request response is larger than " + maxResponseSize + " bytes.");
+
+                return new Result(request, response.getStatus(), response.getStringHeaders(), out.toByteArray());
+
+            } catch (TimeoutException e) {
+                return Result.error(request, Status.GATEWAY_TIMEOUT.getStatusCode(),
+                        "Batch timed out before the sub-request completed.");
+
+            } catch (ExecutionException e) {
+                LOG.error("Batch sub-request raised an '{}' exception, caused by '{}'.",
+                        e.getCause().getClass(), e.getCause().getMessage());
+                return Result.error(request, Status.INTERNAL_SERVER_ERROR.getStatusCode(), null);
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Result.error(request, Status.SERVICE_UNAVAILABLE.getStatusCode(), "Batch was stopped.");
+
+            }
+        }
+
+        private void write(JsonGenerator generator, Result result) throws IOException
+        {
+            statuses[result.request.getIndex()] = result.status;
+
+            generator.writeStartObject();
+            generator.writeNumberField("index", result.request.getIndex());
+
+            if (result.request.getId() != null)
+                generator.writeStringField("id", result.request.getId());
+
+            generator.writeNumberField("status", result.status);
+
+            if (result.error != null)
+                generator.writeStringField("error", result.error);
+
+            if (result.headers != null) {
+                generator.writeObjectFieldStart("headers");
+
+                for (Map.Entry<String, List<String>> header : result.headers.entrySet())
+                    generator.writeStringField(header.getKey(), String.join(",", header.getValue()));
+
+                generator.writeEndObject();
+            }
+
+            if (result.body != null && result.body.length > 0)
+                writeBody(generator, result);
+
+            generator.writeEndObject();
+            generator.flush();
+        }
+
+        private void writeBody(JsonGenerator generator, Result result) throws IOException
+        {
+            String contentType = result.contentType();
+
+            generator.writeFieldName("body");
+
+            if (contentType != null && BatchRequest.isJson(contentType)) {
+                generator.writeRawValue(new String(result.body, StandardCharsets.UTF_8));
+
+            } else if (contentType != null && contentType.toLowerCase().startsWith("text/")) {
+                generator.writeString(new String(result.body, StandardCharsets.UTF_8));
+
+            } else {
+                generator.writeBinary(result.body);
+                generator.writeStringField("bodyEncoding", "base64");
+
+            }
+        }
+    }
+
+    /**
+     * Outcome of a sub-request, or the reason it did not run.
+     */
+    private static final class Result
+    {
+        private final BatchRequest              request;
+        private final int                       status;
+        private final Map<String, List<String>> headers;
+        private final byte[]                    body;
+        private final String                    error;
+
+        private Result(BatchRequest request, int status, Map<String, List<String>> headers, byte[] body)
+        {
+            this.request = request;
+            this.status  = status;
+            this.headers = headers;
+            this.body    = body;
+            this.error   = null;
+        }
+
+        private Result(BatchRequest request, int status, String error)
+        {
+            this.request = request;
+            this.status  = status;
+            this.headers = null;
+            this.body    = null;
+            this.error   = error;
+        }
+
+        static Result error(BatchRequest request, int status, String error)
+        {
+            return new Result(request, status, error);
+        }
+
+        String contentType()
+        {
+            List<String> contentType = headers == null ? null : headers.get(HttpHeaders.CONTENT_TYPE);
+
+            return contentType == null || contentType.isEmpty() ? null : contentType.get(0);
+        }
+    }
+
+    private static ThreadPoolExecutor newExecutor(int threads, int queueSize)
+    {
+        AtomicInteger count = new AtomicInteger();
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, "rms-batch-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+}
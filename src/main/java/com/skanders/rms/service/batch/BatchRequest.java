@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.batch;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.skanders.rms.def.RMSException;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One sub-request of a batch:
+ * <pre>
+ *   {"id": "user", "method": "GET", "path": "/users/7", "headers": {"Accept": "application/json"}}
+ *   {"method": "POST", "path": "/audit", "body": {"seen": 7}, "dependsOn": ["user"]}
+ * </pre>
+ * The path is relative to the service's base uri. A sub-request whose path
+ * is missing or not a valid uri path is answered with a 400 of its own
+ * rather than failing the batch. A JSON body is sent as
+ * JSON unless a Content-Type header says otherwise, a string body of
+ * another content type is sent as is. A sub-request only starts once the
+ * earlier sub-requests named in dependsOn have succeeded.
+ */
+final class BatchRequest
+{
+    private final int                 index;
+    private final String              id;
+    private final String              method;
+    private final String              path;
+    private final Map<String, String> headers;
+    private final byte[]              body;
+    private final List<Integer>       dependsOn;
+    private final String              invalid;
+
+    private BatchRequest(
+            int index, String id, String method, String path, Map<String, String> headers, byte[] body,
+            List<Integer> dependsOn, String invalid)
+    {
+        this.index     = index;
+        this.id        = id;
+        this.method    = method;
+        this.path      = path;
+        this.headers   = headers;
+        this.body      = body;
+        this.dependsOn = dependsOn;
+        this.invalid   = invalid;
+    }
+
+    /**
+     * Reads a sub-request of the batch.
+     *
+     * @param node   the sub-request's JSON object
+     * @param index  its position in the batch
+     * @param ids    the ids of the earlier sub-requests by position, added to
+     * @param mapper writes JSON bodies
+     * @return the sub-request
+     * @throws RMSException if the sub-request is malformed, other than its
+     *                      path
+     */
+    static BatchRequest parse(JsonNode node, int index, Map<String, Integer> ids, ObjectMapper mapper)
+    {
+        if (!node.isObject())
+            throw new RMSException("Sub-request " + index + " is not an object.");
+
+        String id     = text(node, "id", index);
+        String method = text(node, "method", index);
+        String path   = text(node, "path", index);
+
+        if (method == null || !method.matches("[A-Z]+"))
+            throw new RMSException("Sub-request " + index + " needs an upper case method.");
+
+        if (id != null && ids.putIfAbsent(id, index) != null)
+            throw new RMSException("Sub-request " + index + " repeats the id '" + id + "'.");
+
+        Map<String, String> headers = new LinkedHashMap<>();
+        JsonNode            given   = node.path("headers");
+
+        for (Iterator<Map.Entry<String, JsonNode>> it = given.fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> header = it.next();
+
+            if (!header.getValue().isValueNode())
+                throw new RMSException("Sub-request " + index + " header '" + header.getKey() + "' is not a value.");
+
+            headers.put(header.getKey(), header.getValue().asText());
+        }
+
+        return new BatchRequest(index, id, method, path, headers, body(node.get("body"), headers, mapper),
+                dependencies(node.path("dependsOn"), index, ids), validate(path, index));
+    }
+
+    /**
+     * @return why the path cannot be dispatched, null if it can
+     */
+    private static String validate(String path, int index)
+    {
+        if (path == null || !path.startsWith("/") || path.startsWith("//"))
+            return "Sub-request " + index + " needs a path starting with a single /.";
+
+        try {
+            URI uri = new URI(path);
+
+            if (uri.isAbsolute() || uri.getRawAuthority() != null || uri.getRawFragment() != null)
+                return "Sub-request " + index + " path must be a path and query only.";
+
+        } catch (URISyntaxException e) {
+            return "Sub-request " + index + " path is not a valid uri path: " + e.getMessage();
+
+        }
+
+        return null;
+    }
+
+    private static String text(JsonNode node, String field, int index)
+    {
+        JsonNode value = node.get(field);
+
+        if (value == null || value.isNull())
+            return null;
+
+        if (!value.isTextual())
+            throw new RMSException("Sub-request " + index + " " + field + " is not a string.");
+
+        return value.textValue();
+    }
+
+    private static byte[] body(JsonNode body, Map<String, String> headers, ObjectMapper mapper)
+    {
+        if (body == null || body.isNull())
+            return null;
+
+        String contentType = header(headers, HttpHeaders.CONTENT_TYPE);
+
+        if (contentType == null)
+            headers.put(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
+
+        else if (body.isTextual() && !isJson(contentType))
+            return body.textValue().getBytes(StandardCharsets.UTF_8);
+
+        try {
+            return mapper.writeValueAsBytes(body);
+
+        } catch (JsonProcessingException e) {
+            throw new RMSException("Sub-request body could not be written: " + e.getMessage());
+
+        }
+    }
+
+    private static List<Integer> dependencies(JsonNode dependsOn, int index, Map<String, Integer> ids)
+    {
+        if (dependsOn.isMissingNode() || dependsOn.isNull())
+            return Collections.emptyList();
+
+        if (!dependsOn.isArray())
+            throw new RMSException("Sub-request " + index + " dependsOn is not an array.");
+
+        List<Integer> dependencies = new ArrayList<>(dependsOn.size());
+
+        for (JsonNode dependency : dependsOn) {
+            Integer earlier = ids.get(dependency.asText());
+
+            // Only earlier sub-requests can be depended on, so there are no cycles
+            if (earlier == null || earlier == index)
+                throw new RMSException("Sub-request " + index + " depends on '" + dependency.asText() +
+                        "', which is not an earlier sub-request.");
+
+            dependencies.add(earlier);
+        }
+
+        return dependencies;
+    }
+
+    static boolean isJson(String contentType)
+    {
+        String type = contentType.toLowerCase();
+
+        return type.startsWith(MediaType.APPLICATION_JSON) || type.contains("+json");
+    }
+
+    /**
+     * @return the value of a header, matched ignoring case, null if absent
+     */
+    static String header(Map<String, String> headers, String name)
+    {
+        for (Map.Entry<String, String> header : headers.entrySet())
+            if (header.getKey().equalsIgnoreCase(name))
+                return header.getValue();
+
+        return null;
+    }
+
+    int getIndex()
+    {
+        return index;
+    }
+
+    String getId()
+    {
+        return id;
+    }
+
+    String getMethod()
+    {
+        return method;
+    }
+
+    String getPath()
+    {
+        return path;
+    }
+
+    Map<String, String> getHeaders()
+    {
+        return headers;
+    }
+
+    byte[] getBody()
+    {
+        return body;
+    }
+
+    List<Integer> getDependsOn()
+    {
+        return dependsOn;
+    }
+
+    /**
+     * @return why the sub-request cannot be dispatched, null if it can
+     */
+    String getInvalid()
+    {
+        return invalid;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.batch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Collects a sub-request's response body, failing the write that would take
+ * it past the limit so one sub-request cannot fill the batch's memory.
+ */
+final class BoundedOutputStream extends OutputStream
+{
+    private final ByteArrayOutputStream buffer;
+    private final int                   limit;
+
+    private volatile boolean exceeded = false;
+
+    BoundedOutputStream(int limit)
+    {
+        this.buffer = new ByteArrayOutputStream(Math.min(limit, 8192));
+        this.limit  = limit;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        verify(1);
+        buffer.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        verify(len);
+        buffer.write(b, off, len);
+    }
+
+    /**
+     * @return true if a write went past the limit
+     */
+    boolean isExceeded()
+    {
+        return exceeded;
+    }
+
+    /**
+     * @return the bytes written
+     */
+    byte[] toByteArray()
+    {
+        return buffer.toByteArray();
+    }
+
+    private void verify(int len) throws IOException
+    {
+        if (buffer.size() + len > limit) {
+            exceeded = true;
+            throw new IOException("Response body is larger than " + limit + " bytes.");
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.bulkhead;
+
+import com.skanders.rms.config.BulkheadPool;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The thread pool of one bulkhead, measuring how long requests wait for a
+ * thread and how busy its threads are. Requests are admitted with {@link
+ * #tryAcquire()} before they are handed over, up to its threads plus queue
+ * size, and leave once they ran.
+ */
+final class BulkheadExecutor implements Executor
+{
+    private final BulkheadPool       pool;
+    private final ThreadPoolExecutor executor;
+    private final int                capacity;
+
+    private final AtomicInteger admitted = new AtomicInteger();
+
+    private final LongAdder  completed  = new LongAdder();
+    private final LongAdder  rejected   = new LongAdder();
+    private final LongAdder  callerRuns = new LongAdder();
+    private final LongAdder  busyNanos  = new LongAdder();
+    private final LongAdder  waitNanos  = new LongAdder();
+    private final LongAdder  waits      = new LongAdder();
+    private final AtomicLong maxWait    = new AtomicLong();
+
+    private long lastSnapshot = System.nanoTime();
+    private long lastBusy;
+    private long lastWait;
+    private long lastWaits;
+
+    BulkheadExecutor(BulkheadPool pool)
+    {
+        AtomicInteger count = new AtomicInteger();
+
+        this.pool     = pool;
+        this.capacity = pool.getThreads() + pool.getQueueSize();
+        this.executor = new ThreadPoolExecutor(pool.getThreads(), pool.getThreads(), 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "rms-bulkhead-" + pool.getName() + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Admits a request if a thread or a queue slot is free for it.
+     *
+     * @return true if the request is to be run on the pool
+     */
+    boolean tryAcquire()
+    {
+        int current;
+
+        do {
+            current = admitted.get();
+
+            if (current >= capacity)
+                return false;
+
+        } while (!admitted.compareAndSet(current, current + 1));
+
+        return true;
+    }
+
+    /**
+     * Runs an admitted request on the pool.
+     *
+     * @param task the request's processing
+     */
+    @Override
+    public void execute(Runnable task)
+    {
+        long queued = System.nanoTime();
+
+        executor.execute(() -> run(task, queued));
+    }
+
+    void close()
+    {
+        executor.shutdownNow();
+    }
+
+    private void run(Runnable task, long queued)
+    {
+        long started = System.nanoTime();
+        long wait    = started - queued;
+
+        waitNanos.add(wait);
+        waits.increment();
+        maxWait.accumulateAndGet(wait, Math::max);
+
+        try {
+            task.run();
+
+        } finally {
+            busyNanos.add(System.nanoTime() - started);
+            completed.increment();
+            admitted.decrementAndGet();
+
+        }
+    }
+
+    /**
+     * @return the pool's settings
+     */
+    BulkheadPool getPool()
+    {
+        return pool;
+    }
+
+    void rejected()
+    {
+        rejected.increment();
+    }
+
+    void callerRuns()
+    {
+        callerRuns.increment();
+    }
+
+    /**
+     * Pool state and counters. Utilization and queue waits cover the time
+     * since the previous snapshot.
+     *
+     * @return the pool's statistics
+     */
+    synchronized Map<String, Object> snapshot()
+    {
+        long now     = System.nanoTime();
+        long busy    = busyNanos.sum();
+        long wait    = waitNanos.sum();
+        long count   = waits.sum();
+        long elapsed = Math.max(1, now - lastSnapshot);
+
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+
+        snapshot.put("threads", pool.getThreads());
+        snapshot.put("queueSize", pool.getQueueSize());
+        snapshot.put("rejection", pool.getRejection().name());
+        snapshot.put("active", executor.getActiveCount());
+        snapshot.put("queued", executor.getQueue().size());
+        snapshot.put("completed", completed.sum());
+        snapshot.put("rejected", rejected.sum());
+        snapshot.put("callerRuns", callerRuns.sum());
+        snapshot.put("utilization", Math.min(1.0, (double) (busy - lastBusy) / elapsed / pool.getThreads()));
+        snapshot.put("queueWaitMeanMillis", count == lastWaits ? 0 : (wait - lastWait) / 1e6 / (count - lastWaits));
+        snapshot.put("queueWaitMaxMillis", maxWait.getAndSet(0) / 1e6);
+
+        lastSnapshot = now;
+        lastBusy     = busy;
+        lastWait     = wait;
+        lastWaits    = count;
+
+        return snapshot;
+    }
+}
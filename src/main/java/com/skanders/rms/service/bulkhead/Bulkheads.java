@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.bulkhead;
+
+import com.skanders.jbel.def.Verify;
+import com.skanders.rms.config.BulkheadPool;
+import com.skanders.rms.config.BulkheadRejection;
+import com.skanders.rms.config.RMSConfig;
+import com.skanders.rms.def.RMSException;
+import org.glassfish.jersey.server.ManagedAsyncExecutor;
+import org.glassfish.jersey.server.model.ModelProcessor;
+import org.glassfish.jersey.server.model.Resource;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.model.ResourceModel;
+import org.glassfish.jersey.spi.ExecutorServiceProvider;
+
+import javax.annotation.Nonnull;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Configuration;
+import javax.ws.rs.core.FeatureContext;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The bulkhead pools of a service and the Jersey plumbing moving the
+ * resources annotated with {@link Bulkhead} onto them.
+ * <p>
+ * Bulkheaded resource methods are made managed async, so Jersey suspends
+ * their request and hands it to the managed async executor, freeing the
+ * server's worker. A filter running just before the method admits the
+ * request to its pool, or answers 503 if the pool is full, and the executor
+ * runs the request on the pool it was admitted to. Other managed async
+ * methods run on a shared pool as before.
+ */
+public final class Bulkheads implements DynamicFeature
+{
+    private static final ThreadLocal<Executor> NEXT = new ThreadLocal<>();
+
+    private final Map<String, BulkheadExecutor> pools = new LinkedHashMap<>();
+
+    private final ExecutorService managedAsync;
+
+    /**
+     * Constructs an instance of Bulkheads with the pools of the config.
+     *
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    public Bulkheads(@Nonnull RMSConfig config)
+    {
+        Verify.notNull(config, "config cannot be null");
+
+        for (BulkheadPool pool : config.getBulkheadPools())
+            pools.put(pool.getName(), new BulkheadExecutor(pool));
+
+        AtomicInteger count = new AtomicInteger();
+
+        this.managedAsync = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "rms-managed-async-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return the model processor making bulkheaded methods managed async
+     */
+    public ModelProcessor getModelProcessor()
+    {
+        return new BulkheadModelProcessor();
+    }
+
+    /**
+     * @return the managed async executor routing requests to their pools
+     */
+    public ExecutorServiceProvider getExecutorProvider()
+    {
+        return new BulkheadExecutorProvider();
+    }
+
+    @Override
+    public void configure(ResourceInfo resourceInfo, FeatureContext context)
+    {
+        BulkheadExecutor pool = poolOf(resourceInfo.getResourceMethod(), resourceInfo.getResourceClass());
+
+        // Last of the request filters, so no filter aborts an admitted request
+        if (pool != null)
+            context.register((ContainerRequestFilter) requestContext -> admit(pool, requestContext),
+                    Integer.MAX_VALUE);
+    }
+
+    /**
+     * Statistics of every pool.
+     *
+     * @return threads, queue, utilization and queue waits per pool
+     */
+    public Map<String, Object> snapshot()
+    {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+
+        for (Map.Entry<String, BulkheadExecutor> entry : pools.entrySet())
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+
+        return snapshot;
+    }
+
+    /**
+     * Stops every pool. Called on shutdown.
+     */
+    public void close()
+    {
+        for (BulkheadExecutor pool : pools.values())
+            pool.close();
+
+        managedAsync.shutdownNow();
+    }
+
+    private static void admit(BulkheadExecutor pool, ContainerRequestContext requestContext)
+    {
+        if (pool.tryAcquire()) {
+            NEXT.set(pool);
+
+        } else if (pool.getPool().getRejection() == BulkheadRejection.CALLER_RUNS) {
+            pool.callerRuns();
+            NEXT.set(Runnable::run);
+
+        } else {
+            pool.rejected();
+            requestContext.abortWith(Response.status(Status.SERVICE_UNAVAILABLE).build());
+
+        }
+    }
+
+    private BulkheadExecutor poolOf(Method method, Class<?> resourceClass)
+    {
+        Bulkhead bulkhead = method.getAnnotation(Bulkhead.class);
+
+        if (bulkhead == null && resourceClass != null)
+            bulkhead = resourceClass.getAnnotation(Bulkhead.class);
+
+        if (bulkhead == null)
+            return null;
+
+        BulkheadExecutor pool = pools.get(bulkhead.value());
+
+        if (pool == null)
+            throw new RMSException("Bulkhead '" + bulkhead.value() + "' of " + method + " is not in bulkheads.pools.");
+
+        return pool;
+    }
+
+    private final class BulkheadModelProcessor implements ModelProcessor
+    {
+        @Override
+        public ResourceModel processResourceModel(ResourceModel resourceModel, Configuration configuration)
+        {
+            ResourceModel.Builder model = new ResourceModel.Builder(false);
+
+            for (Resource resource : resourceModel.getResources())
+                model.addResource(process(resource));
+
+            return model.build();
+        }
+
+        @Override
+        public ResourceModel processSubResource(ResourceModel subResourceModel, Configuration configuration)
+        {
+            return subResourceModel;
+        }
+
+        private Resource process(Resource resource)
+        {
+            Resource.Builder builder = resource.getPath() == null
+                    ? Resource.builder()
+                    : Resource.builder(resource.getPath());
+
+            builder.name(resource.getName()).extended(resource.isExtended());
+
+            for (ResourceMethod method : resource.getResourceMethods()) {
+                ResourceMethod.Builder copy = builder.addMethod(method);
+
+                if (poolOf(method.getInvocable().getHandlingMethod(),
+                        method.getInvocable().getHandler().getHandlerClass()) != null)
+                    copy.managedAsync();
+            }
+
+            if (resource.getResourceLocator() != null)
+                builder.addMethod(resource.getResourceLocator());
+
+            for (Resource child : resource.getChildResources())
+                builder.addChildResource(process(child));
+
+            return builder.build();
+        }
+    }
+
+    @ManagedAsyncExecutor
+    private final class BulkheadExecutorProvider implements ExecutorServiceProvider
+    {
+        private final ExecutorService executor = new AbstractExecutorService()
+        {
+            @Override
+            public void execute(Runnable task)
+            {
+                Executor pool = NEXT.get();
+                NEXT.remove();
+
+                if (pool == null)
+                    managedAsync.execute(task);
+                else
+                    pool.execute(task);
+            }
+
+            @Override
+            public void shutdown()
+            {
+                // Pools are stopped by Bulkheads.close
+            }
+
+            @Override
+            public List<Runnable> shutdownNow()
+            {
+                return Collections.emptyList();
+            }
+
+            @Override
+            public boolean isShutdown()
+            {
+                return false;
+            }
+
+            @Override
+            public boolean isTerminated()
+            {
+                return false;
+            }
+
+            @Override
+            public boolean awaitTermination(long timeout, TimeUnit unit)
+            {
+                return false;
+            }
+        };
+
+        @Override
+        public ExecutorService getExecutorService()
+        {
+            return executor;
+        }
+
+        @Override
+        public void dispose(ExecutorService executorService)
+        {
+            // Pools are stopped by Bulkheads.close
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.client;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Outbound call statistics of one host and the window of its recent
+ * latencies the hedging delay is taken from. The percentile is recomputed
+ * every {@link #REFRESH} calls rather than on each one.
+ */
+final class HostStats
+{
+    private static final int WINDOW      = 1024;
+    private static final int MIN_SAMPLES = 64;
+    private static final int REFRESH     = 64;
+
+    private final LongAdder calls     = new LongAdder();
+    private final LongAdder errors    = new LongAdder();
+    private final LongAdder timeouts  = new LongAdder();
+    private final LongAdder hedged    = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    private final double percentile;
+    private final long[] window = new long[WINDOW];
+
+    private int  recorded;
+    private long percentileNanos = -1;
+
+    /**
+     * @param percentile the latency percentile to track, 0 for none
+     */
+    HostStats(double percentile)
+    {
+        this.percentile = percentile;
+    }
+
+    /**
+     * Records the latency of a completed attempt.
+     *
+     * @param nanos time from sending the attempt to its response
+     */
+    void record(long nanos)
+    {
+        if (percentile <= 0)
+            return;
+
+        synchronized (this) {
+            window[recorded++ % WINDOW] = nanos;
+
+            if (recorded >= MIN_SAMPLES && recorded % REFRESH == 0) {
+                long[] sorted = Arrays.copyOf(window, Math.min(recorded, WINDOW));
+                Arrays.sort(sorted);
+
+                percentileNanos = sorted[(int) Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+            }
+
+            // Keeps the index from overflowing while staying past the window
+            if (recorded == Integer.MAX_VALUE - WINDOW)
+                recorded = WINDOW;
+        }
+    }
+
+    /**
+     * @return the tracked latency percentile in nanos, -1 until enough calls
+     * were recorded
+     */
+    synchronized long getPercentileNanos()
+    {
+        return percentileNanos;
+    }
+
+    void call()
+    {
+        calls.increment();
+    }
+
+    void error()
+    {
+        errors.increment();
+    }
+
+    void timeout()
+    {
+        timeouts.increment();
+    }
+
+    void hedge()
+    {
+        hedged.increment();
+    }
+
+    void hedgeWin()
+    {
+        hedgeWins.increment();
+    }
+
+    Map<String, Object> snapshot()
+    {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+
+        snapshot.put("calls", calls.sum());
+        snapshot.put("errors", errors.sum());
+        snapshot.put("timeouts", timeouts.sum());
+        snapshot.put("hedged", hedged.sum());
+        snapshot.put("hedgeWins", hedgeWins.sum());
+
+        long nanos = getPercentileNanos();
+        snapshot.put("hedgeDelayMillis", nanos < 0 ? null : nanos / 1e6);
+
+        return snapshot;
+    }
+}
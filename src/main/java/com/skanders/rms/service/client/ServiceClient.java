@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.skanders.jbel.def.Verify;
+import com.skanders.rms.config.BinaryFormat;
+import com.skanders.rms.config.RMSConfig;
+import com.skanders.rms.service.deadline.DeadlineExceededException;
+import com.skanders.rms.service.deadline.RequestDeadline;
+import com.skanders.rms.service.format.BinaryProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
+
+import javax.annotation.Nonnull;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Outbound HTTP client for calls to other services, shared by every
+ * resource of a service and closed with it.
+ * <p>
+ * Requests are built with Jersey's client API on targets from {@link
+ * #target(String)}, which read and write entities with the service's own
+ * JSON and binary mappers. Connections are pooled by the client's own
+ * connector, at most client.maxConnectionsPerHost per host, and a call
+ * waits up to client.connectTimeout for one of them.
+ * Calls are made on a target with a function building the request, so a
+ * hedged call can build it twice. They are bounded by a deadline: their
+ * own or the request being served's remaining budget, whichever is
+ * shorter. The budget is passed on in the deadline header so
+ * the called service stops when the caller does.
+ * <pre>
+ *   Response response = client.get(client.target("http://stock:8080/api/items/7"), t -> t.request(JSON));
+ * </pre>
+ * With client.hedgePercentile set, a GET unanswered after that percentile of
+ * the host's recent latencies is sent again, the first response is used.
+ * This trades a few percent more calls for a shorter tail. The hedge
+ * carries the budget left when it is sent.
+ */
+public final class ServiceClient
+{
+    private final Client          client;
+    private final ExecutorService executor;
+
+    private final ConcurrentMap<String, HostStats> hosts = new ConcurrentHashMap<>();
+
+    private final long   defaultTimeout;
+    private final int    connectTimeout;
+    private final double hedgePercentile;
+    private final long   hedgeMinDelayNanos;
+    private final String deadlineHeader;
+
+    /**
+     * Constructs an instance of ServiceClient.
+     *
+     * @param config     a RMSConfig instance
+     * @param jsonMapper the service's JSON mapper
+     * @param binary     the service's binary format mappers
+     * @see RMSConfig
+     */
+    public ServiceClient(
+            @Nonnull RMSConfig config, @Nonnull ObjectMapper jsonMapper,
+            @Nonnull Map<BinaryFormat, ObjectMapper> binary)
+    {
+        Verify.notNull(config, "config cannot be null");
+        Verify.notNull(jsonMapper, "jsonMapper cannot be null");
+        Verify.notNull(binary, "binary cannot be null");
+
+        PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+        connections.setDefaultMaxPerRoute(config.getClientMaxConnectionsPerHost());
+        connections.setMaxTotal(Integer.MAX_VALUE);
+
+        // Connect and read timeouts are set per request, waiting for a pooled connection is not
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(config.getClientConnectTimeout())
+                .build();
+
+        ClientConfig clientConfig = new ClientConfig()
+                .connectorProvider(new ApacheConnectorProvider())
+                .register(new JacksonJsonProvider(jsonMapper))
+                .property(ApacheClientProperties.CONNECTION_MANAGER, connections)
+                .property(ApacheClientProperties.REQUEST_CONFIG, requestConfig)
+                .property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.BUFFERED)
+                .property(ClientProperties.CONNECT_TIMEOUT, config.getClientConnectTimeout())
+                .property(ClientProperties.READ_TIMEOUT, config.getClientReadTimeout());
+
+        if (!binary.isEmpty())
+            clientConfig.register(new BinaryProvider(binary));
+
+        this.client             = ClientBuilder.newClient(clientConfig);
+        this.executor           = newExecutor(config.getClientThreads());
+        this.defaultTimeout     = config.getClientReadTimeout();
+        this.connectTimeout     = config.getClientConnectTimeout();
+        this.hedgePercentile    = config.getClientHedgePercentile();
+        this.hedgeMinDelayNanos = TimeUnit.MILLISECONDS.toNanos(config.getClientHedgeMinDelay());
+        this.deadlineHeader     = config.isDeadlineService() ? config.getDeadlineHeader() : null;
+    }
+
+    /**
+     * @param uri the uri of the called resource
+     * @return a target on the shared client
+     */
+    public WebTarget target(@Nonnull String uri)
+    {
+        return client.target(uri);
+    }
+
+    /**
+     * @param uri the uri of the called resource
+     * @return a target on the shared client
+     */
+    public WebTarget target(@Nonnull URI uri)
+    {
+        return client.target(uri);
+    }
+
+    /**
+     * Sends a GET with the default deadline, hedged if hedging is enabled.
+     *
+     * @param target  the called resource
+     * @param request builds the request on the target
+     * @return the response, to be read or closed by the caller
+     * @throws DeadlineExceededException if no response came in time
+     * @throws ProcessingException       if the call failed
+     */
+    public Response get(@Nonnull WebTarget target, @Nonnull Function<WebTarget, Invocation.Builder> request)
+    {
+        return invoke(target, request, HttpMethod.GET, null, defaultTimeout);
+    }
+
+    /**
+     * Sends a request with the default deadline.
+     *
+     * @param target  the called resource
+     * @param request builds the request on the target
+     * @param method  the HTTP method
+     * @param entity  the entity to send, null for none
+     * @return the response, to be read or closed by the caller
+     * @throws DeadlineExceededException if no response came in time
+     * @throws ProcessingException       if the call failed
+     */
+    public Response invoke(
+            @Nonnull WebTarget target, @Nonnull Function<WebTarget, Invocation.Builder> request,
+            @Nonnull String method, Entity<?> entity)
+    {
+        return invoke(target, request, method, entity, defaultTimeout);
+    }
+
+    /**
+     * Sends a request that must be answered within the given time, or the
+     * remaining budget of the request being served if that is shorter. GET
+     * and HEAD requests are hedged if hedging is enabled.
+     *
+     * @param target  the called resource
+     * @param request builds the request on the target
+     * @param method  the HTTP method
+     * @param entity  the entity to send, null for none
+     * @param timeout the call's deadline in milliseconds
+     * @return the response, to be read or closed by the caller
+     * @throws DeadlineExceededException if no response came in time
+     * @throws ProcessingException       if the call failed
+     */
+    public Response invoke(
+            @Nonnull WebTarget target, @Nonnull Function<WebTarget, Invocation.Builder> request,
+            @Nonnull String method, Entity<?> entity, long timeout)
+    {
+        Verify.notNull(target, "target cannot be null");
+        Verify.notNull(request, "request cannot be null");
+        Verify.notNull(method, "method cannot be null");
+
+        RequestDeadline deadline = RequestDeadline.current();
+
+        long budget = deadline == null ? timeout : Math.min(timeout, deadline.getRemainingMillis());
+
+        if (budget <= 0)
+            throw new DeadlineExceededException("Request deadline passed before the outbound " + method);
+
+        Invocation invocation = build(target, request, method, entity, budget);
+        HostStats  stats      = hostStats(target.getUri());
+        long       endNanos   = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget);
+
+        // Only idempotent reads are timed and hedged
+        boolean hedgeable = HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method);
+
+        stats.call();
+
+        CompletableFuture<Response> first = attempt(invocation, hedgeable ? stats : null);
+
+        long hedgeDelay = hedgeable ? stats.getPercentileNanos() : -1;
+
+        if (hedgeDelay < 0)
+            return await(first, endNanos, method, stats);
+
+        hedgeDelay = Math.max(hedgeDelay, hedgeMinDelayNanos);
+
+        if (System.nanoTime() + hedgeDelay - endNanos >= 0)
+            return await(first, endNanos, method, stats);
+
+        try {
+            return first.get(hedgeDelay, TimeUnit.NANOSECONDS);
+
+        } catch (TimeoutException e) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(endNanos - System.nanoTime());
+
+            if (remaining <= 0)
+                return await(first, endNanos, method, stats);
+
+            return hedge(first, build(target, request, method, entity, remaining), endNanos, method, stats);
+
+        } catch (ExecutionException e) {
+            throw failure(e.getCause(), method, stats);
+
+        } catch (InterruptedException e) {
+            first.thenAccept(Response::close);
+            Thread.currentThread().interrupt();
+            throw new DeadlineExceededException("Outbound " + method + " was interrupted", e);
+
+        }
+    }
+
+    /**
+     * Statistics of outbound calls per host.
+     *
+     * @return calls, errors, timeouts and hedges per host
+     */
+    public Map<String, Object> snapshot()
+    {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+
+        for (Map.Entry<String, HostStats> entry : hosts.entrySet())
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+
+        return snapshot;
+    }
+
+    /**
+     * Closes the client and its connections. Called on shutdown.
+     */
+    public void close()
+    {
+        executor.shutdownNow();
+        client.close();
+    }
+
+    private Response hedge(
+            CompletableFuture<Response> first, Invocation invocation, long endNanos, String method, HostStats stats)
+    {
+        stats.hedge();
+        stats.call();
+
+        CompletableFuture<Response> second = attempt(invocation, stats);
+        CompletableFuture<Response> winner = new CompletableFuture<>();
+
+        BiConsumer<Response, Throwable> complete = (response, throwable) -> {
+            if (throwable == null) {
+                if (!winner.complete(response))
+                    response.close();
+
+            } else if (first.isCompletedExceptionally() && second.isCompletedExceptionally()) {
+                winner.completeExceptionally(throwable);
+
+            }
+        };
+
+        first.whenComplete(complete);
+        second.whenComplete(complete);
+
+        Response response = await(winner, endNanos, method, stats);
+
+        if (second.isDone() && !second.isCompletedExceptionally() && second.join() == response)
+            stats.hedgeWin();
+
+        return response;
+    }
+
+    private CompletableFuture<Response> attempt(Invocation invocation, HostStats stats)
+    {
+        return CompletableFuture.supplyAsync(() -> {
+            long     started  = System.nanoTime();
+            Response response = invocation.invoke();
+
+            if (stats != null)
+                stats.record(System.nanoTime() - started);
+
+            return response;
+        }, executor);
+    }
+
+    private Response await(CompletableFuture<Response> future, long endNanos, String method, HostStats stats)
+    {
+        try {
+            return future.get(endNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+
+        } catch (TimeoutException e) {
+            stats.timeout();
+
+            future.thenAccept(Response::close);
+            throw new DeadlineExceededException("Outbound " + method + " exceeded its deadline");
+
+        } catch (ExecutionException e) {
+            throw failure(e.getCause(), method, stats);
+
+        } catch (InterruptedException e) {
+            future.thenAccept(Response::close);
+            Thread.currentThread().interrupt();
+            throw new DeadlineExceededException("Outbound " + method + " was interrupted", e);
+
+        }
+    }
+
+    private static RuntimeException failure(Throwable cause, String method, HostStats stats)
+    {
+        stats.error();
+
+        if (cause instanceof ProcessingException && cause.getCause() instanceof SocketTimeoutException)
+            return new DeadlineExceededException("Outbound " + method + " exceeded its deadline", cause);
+
+        return cause instanceof RuntimeException ? (RuntimeException) cause : new ProcessingException(cause);
+    }
+
+    private Invocation build(
+            WebTarget target, Function<WebTarget, Invocation.Builder> request, String method, Entity<?> entity,
+            long budget)
+    {
+        Invocation.Builder builder = request.apply(target)
+                .property(ClientProperties.CONNECT_TIMEOUT, (int) Math.min(connectTimeout, budget))
+                .property(ClientProperties.READ_TIMEOUT, (int) Math.min(Integer.MAX_VALUE, budget));
+
+        if (deadlineHeader != null)
+            builder.header(deadlineHeader, budget);
+
+        return entity == null ? builder.build(method) : builder.build(method, entity);
+    }
+
+    private HostStats hostStats(URI uri)
+    {
+        String host = uri.getHost() + ":" + uri.getPort();
+
+        return hosts.computeIfAbsent(host, h -> new HostStats(hedgePercentile));
+    }
+
+    private static ExecutorService newExecutor(int threads)
+    {
+        AtomicInteger count = new AtomicInteger();
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "rms-client-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.coalesce;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Coalesces concurrent identical GET requests of a resource method: while
+ * one request runs the method the others with the same path, query
+ * parameters and vary headers wait and receive a copy of its serialized
+ * response.
+ * <p>
+ * Nothing is kept once the running request completes, the next request runs
+ * the method again. Headers the response depends on, such as Authorization,
+ * must be listed in {@link #vary()}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Coalesce
+{
+    /**
+     * @return names of the query parameters selecting the response, every
+     * query parameter if empty
+     */
+    String[] query() default {};
+
+    /**
+     * @return names of the request headers selecting the response
+     */
+    String[] vary() default {"Accept"};
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.coalesce;
+
+import com.skanders.rms.config.RMSConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.ws.rs.GET;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+import javax.ws.rs.ext.WriterInterceptor;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Binds a {@link CoalescingFilter} to every GET resource method annotated
+ * with {@link Coalesce}, other resource methods are left untouched.
+ */
+public class CoalescingFeature implements DynamicFeature
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CoalescingFeature.class);
+
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    private final int  maxBodySize;
+    private final long timeout;
+
+    /**
+     * Constructs an instance of CoalescingFeature.
+     *
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    public CoalescingFeature(@Nonnull RMSConfig config)
+    {
+        this.maxBodySize = config.getCoalesceMaxBodySize();
+        this.timeout     = config.getCoalesceTimeout();
+    }
+
+    @Override
+    public void configure(ResourceInfo resourceInfo, FeatureContext context)
+    {
+        Method   method   = resourceInfo.getResourceMethod();
+        Coalesce coalesce = method.getAnnotation(Coalesce.class);
+
+        if (coalesce == null)
+            return;
+
+        if (method.getAnnotation(GET.class) == null) {
+            LOG.warn("Ignoring @Coalesce on non GET method '{}'.", method);
+            return;
+        }
+
+        String methodKey = resourceInfo.getResourceClass().getName() + "#" + method.getName();
+
+        Map<Class<?>, Integer> contracts = new HashMap<>();
+        contracts.put(ContainerRequestFilter.class, Priorities.USER);
+        contracts.put(ContainerResponseFilter.class, Integer.MAX_VALUE);
+        contracts.put(WriterInterceptor.class, Priorities.USER);
+
+        context.register(new CoalescingFilter(flights, methodKey, coalesce, maxBodySize, timeout), contracts);
+    }
+}
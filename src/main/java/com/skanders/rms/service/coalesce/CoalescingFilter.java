@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.coalesce;
+
+import com.skanders.rms.service.deadline.RequestDeadline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Coalesces the requests of one {@link Coalesce} resource method. The first
+ * request of a key becomes the leader and runs the method, its resource
+ * headers and serialized entity are captured and handed to the requests
+ * that arrived with the same key meanwhile. The flight is removed as soon as
+ * the leader completes, errors included.
+ * <p>
+ * Registered by {@link CoalescingFeature} with the request filter running
+ * after authentication, the response filter before every other response
+ * filter and the writer interceptor inside any content coding.
+ */
+class CoalescingFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CoalescingFilter.class);
+
+    private static final String PROPERTY = Flight.class.getName();
+
+    private static final List<String> EXCLUDED = Arrays.asList(
+            HttpHeaders.CONTENT_LENGTH, "Transfer-Encoding", "Connection", HttpHeaders.DATE);
+
+    private final ConcurrentMap<String, Flight> flights;
+    private final String                        methodKey;
+    private final List<String>                  query;
+    private final List<String>                  vary;
+    private final int                           maxBodySize;
+    private final long                          timeout;
+
+    CoalescingFilter(
+            ConcurrentMap<String, Flight> flights, String methodKey, Coalesce coalesce, int maxBodySize,
+            long timeout)
+    {
+        this.flights     = flights;
+        this.methodKey   = methodKey;
+        this.query       = Arrays.asList(coalesce.query());
+        this.vary        = Arrays.asList(coalesce.vary());
+        this.maxBodySize = maxBodySize;
+        this.timeout     = timeout;
+    }
+
+    static boolean isExcluded(String header)
+    {
+        for (String excluded : EXCLUDED)
+            if (excluded.equalsIgnoreCase(header))
+                return true;
+
+        return false;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext)
+    {
+        if (!HttpMethod.GET.equals(requestContext.getMethod()))
+            return;
+
+        String key    = keyOf(requestContext);
+        Flight flight = new Flight(key);
+        Flight leader = flights.putIfAbsent(key, flight);
+
+        if (leader == null) {
+            requestContext.setProperty(PROPERTY, flight);
+            return;
+        }
+
+        Response response = awaitLeader(leader, requestContext);
+
+        if (response != null)
+            requestContext.abortWith(response);
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext)
+    {
+        Flight flight = (Flight) requestContext.getProperty(PROPERTY);
+
+        if (flight == null)
+            return;
+
+        flight.setResponse(responseContext.getStatus(), responseContext.getStringHeaders());
+
+        if (!responseContext.hasEntity())
+            finish(flight, new byte[0]);
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException
+    {
+        Flight flight = (Flight) context.getProperty(PROPERTY);
+
+        if (flight == null) {
+            context.proceed();
+            return;
+        }
+
+        CapturingOutputStream capture = new CapturingOutputStream(context.getOutputStream(), maxBodySize);
+        context.setOutputStream(capture);
+
+        boolean written = false;
+
+        try {
+            context.proceed();
+            written = true;
+
+        } finally {
+            if (written && !capture.isOverflown())
+                finish(flight, capture.toByteArray());
+            else
+                abandon(flight);
+
+        }
+    }
+
+    private Response awaitLeader(Flight leader, ContainerRequestContext requestContext)
+    {
+        RequestDeadline deadline = RequestDeadline.of(requestContext);
+        long            wait     = deadline != null ? Math.min(timeout, deadline.getRemainingMillis()) : timeout;
+
+        try {
+            Response response = leader.await(wait);
+
+            if (response == null)
+                flights.remove(leader.getKey(), leader);
+
+            return response;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+
+        }
+    }
+
+    private void finish(Flight flight, byte[] body)
+    {
+        flights.remove(flight.getKey(), flight);
+        flight.complete(body);
+    }
+
+    private void abandon(Flight flight)
+    {
+        LOG.debug("Coalesced response of '{}' not shared.", flight.getKey());
+
+        flights.remove(flight.getKey(), flight);
+        flight.abandon();
+    }
+
+    private String keyOf(ContainerRequestContext requestContext)
+    {
+        StringBuilder key = new StringBuilder(128)
+                .append(methodKey).append(' ')
+                .append(requestContext.getUriInfo().getRequestUri().getRawPath());
+
+        MultivaluedMap<String, String> parameters = requestContext.getUriInfo().getQueryParameters();
+
+        Map<String, List<String>> selected = new TreeMap<>();
+
+        if (query.isEmpty())
+            selected.putAll(parameters);
+        else
+            for (String name : query)
+                if (parameters.containsKey(name))
+                    selected.put(name, parameters.get(name));
+
+        for (Map.Entry<String, List<String>> parameter : selected.entrySet())
+            key.append('\n').append(parameter.getKey()).append('=').append(parameter.getValue());
+
+        for (String header : vary)
+            key.append('\n').append(header).append(':').append(requestContext.getHeaderString(header));
+
+        return key.toString();
+    }
+
+    /**
+     * Copies the entity into a buffer as it is written, giving up on the copy
+     * once it passes the limit.
+     */
+    private static final class CapturingOutputStream extends FilterOutputStream
+    {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+        private final int                   limit;
+
+        private boolean overflown;
+
+        private CapturingOutputStream(OutputStream out, int limit)
+        {
+            super(out);
+
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            out.write(b);
+
+            if (reserve(1))
+                buffer.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+            capture(b, off, len);
+        }
+
+        private void capture(byte[] b, int off, int len)
+        {
+            if (reserve(len))
+                buffer.write(b, off, len);
+        }
+
+        private boolean reserve(int len)
+        {
+            if (overflown)
+                return false;
+
+            if (buffer.size() + len > limit) {
+                overflown = true;
+                buffer.reset();
+                return false;
+            }
+
+            return true;
+        }
+
+        private boolean isOverflown()
+        {
+            return overflown;
+        }
+
+        private byte[] toByteArray()
+        {
+            return buffer.toByteArray();
+        }
+    }
+}
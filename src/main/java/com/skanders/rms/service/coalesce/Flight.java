@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.coalesce;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One execution of a coalesced resource method, awaited by the requests
+ * that arrived while it ran.
+ */
+final class Flight
+{
+    private final String         key;
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private int                            status;
+    private MultivaluedMap<String, String> headers;
+    private byte[]                         body;
+    private boolean                        shared;
+
+    Flight(String key)
+    {
+        this.key = key;
+    }
+
+    String getKey()
+    {
+        return key;
+    }
+
+    /**
+     * Keeps the status and the headers set by the resource, before any other
+     * response filter ran.
+     */
+    void setResponse(int status, MultivaluedMap<String, String> headers)
+    {
+        this.status  = status;
+        this.headers = new MultivaluedHashMap<>();
+
+        for (Map.Entry<String, List<String>> header : headers.entrySet())
+            if (!CoalescingFilter.isExcluded(header.getKey()))
+                this.headers.put(header.getKey(), header.getValue());
+    }
+
+    /**
+     * Releases the waiting requests with the response.
+     *
+     * @param body the serialized entity
+     */
+    void complete(byte[] body)
+    {
+        this.body   = body;
+        this.shared = headers != null;
+
+        done.countDown();
+    }
+
+    /**
+     * Releases the waiting requests without a response, they run the
+     * resource themselves.
+     */
+    void abandon()
+    {
+        done.countDown();
+    }
+
+    /**
+     * @param timeoutMillis how long to wait
+     * @return the shared response, null if the flight was abandoned or did
+     * not complete in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    Response await(long timeoutMillis) throws InterruptedException
+    {
+        if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS) || !shared)
+            return null;
+
+        Response.ResponseBuilder builder = Response.status(status);
+
+        for (Map.Entry<String, List<String>> header : headers.entrySet())
+            for (String value : header.getValue())
+                builder.header(header.getKey(), value);
+
+        return builder.entity(body.length == 0 ? null : body).build();
+    }
+}
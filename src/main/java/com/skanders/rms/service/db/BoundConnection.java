@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.db;
+
+import com.skanders.rms.service.deadline.RequestDeadline;
+
+import javax.annotation.Nonnull;
+import javax.ws.rs.container.ContainerRequestContext;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The connection bound to a request by {@link ConnectionBinder}. The
+ * connection is acquired from the pool on the first {@link #get()}, so a
+ * request that does not use it costs nothing, and held until the response
+ * completes, so the request's statements share one pool checkout.
+ * <p>
+ * In a transaction the connection does not auto-commit. The transaction is
+ * committed if the response, as returned by the resource or as mapped from
+ * its exception, is not an error, and rolled back otherwise.
+ * <p>
+ * The connection bound to the request whose resource method runs on the
+ * current thread is returned by {@link #current()}, async code reaches it
+ * through the request with {@link #of(ContainerRequestContext)}.
+ * <p>
+ * Statements created on the connection of a request with a
+ * {@link RequestDeadline} are handed to {@link RequestDeadline#applyTo(Statement)},
+ * so they time out with the request and are cancelled if it is.
+ */
+public final class BoundConnection
+{
+    static final String PROPERTY = BoundConnection.class.getName();
+
+    private static final ThreadLocal<BoundConnection> CURRENT = new ThreadLocal<>();
+
+    private final ConnectionBinder binder;
+    private final boolean          transaction;
+    private final RequestDeadline  deadline;
+
+    private Connection connection;
+    private Connection handle;
+    private boolean    completed;
+    private boolean    released;
+
+    BoundConnection(ConnectionBinder binder, boolean transaction, RequestDeadline deadline)
+    {
+        this.binder      = binder;
+        this.transaction = transaction;
+        this.deadline    = deadline;
+    }
+
+    /**
+     * @return the connection bound to the request whose resource method runs
+     * on this thread, null if none
+     */
+    public static BoundConnection current()
+    {
+        return CURRENT.get();
+    }
+
+    /**
+     * @param requestContext the request
+     * @return the connection bound to the request, null if none
+     */
+    public static BoundConnection of(@Nonnull ContainerRequestContext requestContext)
+    {
+        return (BoundConnection) requestContext.getProperty(PROPERTY);
+    }
+
+    static void bind(BoundConnection bound)
+    {
+        CURRENT.set(bound);
+    }
+
+    static void unbind()
+    {
+        CURRENT.remove();
+    }
+
+    /**
+     * @return true if the request runs in a transaction on the connection
+     */
+    public boolean isTransaction()
+    {
+        return transaction;
+    }
+
+    /**
+     * Gets the request's connection, acquiring it through the
+     * {@link DatabaseBreaker} on first use. Closing the returned connection
+     * and, in a transaction, committing or rolling it back is left to the
+     * binding, the calls are ignored.
+     *
+     * @return the request's connection
+     * @throws SQLException                 if no connection could be acquired,
+     *                                      the transaction already ended or the
+     *                                      response was written
+     * @throws DatabaseUnavailableException if the breaker rejected the acquire
+     */
+    public synchronized Connection get() throws SQLException
+    {
+        if (released || completed && transaction)
+            throw new SQLException("The request's bound connection was already released.");
+
+        if (handle == null) {
+            Connection acquired = binder.acquire();
+
+            try {
+                if (transaction)
+                    acquired.setAutoCommit(false);
+
+            } catch (SQLException e) {
+                try {
+                    acquired.close();
+
+                } finally {
+                    binder.released();
+
+                }
+
+                throw e;
+
+            }
+
+            connection = acquired;
+            handle     = unmanaged(acquired);
+        }
+
+        return handle;
+    }
+
+    /**
+     * @param breaker a breaker
+     * @return true if the connection is held and was acquired through the
+     * breaker
+     */
+    synchronized boolean holds(DatabaseBreaker breaker)
+    {
+        return connection != null && !released && binder.uses(breaker);
+    }
+
+    /**
+     * Wraps the connection, ignoring its close and, in a transaction, its
+     * commit and rollback, which are left to the binding, and bounding the
+     * statements it creates by the request's deadline.
+     */
+    private Connection unmanaged(Connection acquired)
+    {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    String name = method.getName();
+
+                    if (args == null && (name.equals("close") ||
+                            transaction && (name.equals("commit") || name.equals("rollback"))))
+                        return null;
+
+                    Object result;
+
+                    try {
+                        result = method.invoke(acquired, args);
+
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+
+                    }
+
+                    if (deadline != null && result instanceof Statement)
+                        bound((Statement) result);
+
+                    return result;
+                });
+    }
+
+    private void bound(Statement statement) throws SQLException
+    {
+        try {
+            deadline.applyTo(statement);
+
+        } catch (SQLException | RuntimeException e) {
+            statement.close();
+            throw e;
+
+        }
+    }
+
+    /**
+     * Ends the request's transaction, if any.
+     *
+     * @param commit true to commit, false to roll back
+     * @return true if a transaction was ended
+     * @throws SQLException if the commit or rollback failed
+     */
+    synchronized boolean complete(boolean commit) throws SQLException
+    {
+        if (completed)
+            return false;
+
+        completed = true;
+
+        if (connection == null || !transaction)
+            return false;
+
+        if (commit)
+            connection.commit();
+        else
+            connection.rollback();
+
+        return true;
+    }
+
+    /**
+     * Returns the connection to the pool, rolling back a transaction not
+     * completed.
+     *
+     * @throws SQLException if the rollback or close failed
+     */
+    synchronized void release() throws SQLException
+    {
+        if (released)
+            return;
+
+        released = true;
+
+        if (connection == null)
+            return;
+
+        try {
+            if (transaction && !completed)
+                connection.rollback();
+
+            if (transaction)
+                connection.setAutoCommit(true);
+
+        } finally {
+            completed = true;
+
+            try {
+                connection.close();
+
+            } finally {
+                binder.released();
+
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.db;
+
+import com.skanders.jbel.def.Verify;
+import com.skanders.rms.config.RMSConfig;
+import com.skanders.rms.service.deadline.RequestDeadline;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.model.Invocable;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.ws.rs.core.Response.Status;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Binds a {@link BoundConnection} to each request of a resource method
+ * annotated with {@link BindConnection}, or with db.binding.all to every
+ * request, in a transaction if db.binding.transaction is set.
+ * <p>
+ * The request's connection is taken from the pool by the call set with
+ * {@link #setConnectionSource(SQLCall)}, run through the
+ * {@link DatabaseBreaker}, which keeps the request's in flight and gate
+ * places until the connection is returned. Once the response filters start
+ * the transaction is committed, or rolled back if the response is an error,
+ * and once the response is written the connection is returned to the pool.
+ * A failed commit turns the response into a 500.
+ * <p>
+ * A bound request should run all of its statements on the bound connection.
+ * AtSQL calls made through the breaker while it is held are not gated again,
+ * but still take a second connection from the pool, so with every
+ * connection bound they wait for the pool's timeout. Mixing the two on a
+ * pool sized to the bound requests is not supported.
+ */
+public final class ConnectionBinder implements ApplicationEventListener
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectionBinder.class);
+
+    private enum Mode
+    {NONE, CONNECTION, TRANSACTION}
+
+    private final ConcurrentMap<Method, Mode> modes = new ConcurrentHashMap<>();
+
+    private final DatabaseBreaker breaker;
+    private final Mode            defaultMode;
+
+    private final LongAdder bound          = new LongAdder();
+    private final LongAdder acquired       = new LongAdder();
+    private final LongAdder committed      = new LongAdder();
+    private final LongAdder rolledBack     = new LongAdder();
+    private final LongAdder commitFailures = new LongAdder();
+
+    private volatile SQLCall<Connection> source;
+
+    /**
+     * Constructs an instance of ConnectionBinder.
+     *
+     * @param breaker the breaker guarding the pool
+     * @param config  a RMSConfig instance
+     * @see RMSConfig
+     */
+    public ConnectionBinder(@Nonnull DatabaseBreaker breaker, @Nonnull RMSConfig config)
+    {
+        this.breaker     = breaker;
+        this.defaultMode = !config.isDbBindingAll() ? Mode.NONE :
+                config.isDbBindingTransaction() ? Mode.TRANSACTION : Mode.CONNECTION;
+    }
+
+    /**
+     * Sets the call acquiring a connection from the pool, returned to it by
+     * closing the connection.
+     *
+     * @param source the call acquiring a connection
+     */
+    public void setConnectionSource(@Nonnull SQLCall<Connection> source)
+    {
+        Verify.notNull(source, "source cannot be null");
+
+        this.source = source;
+    }
+
+    /**
+     * @return the binding counts
+     */
+    public Map<String, Object> snapshot()
+    {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("bound", bound.sum());
+        snapshot.put("acquired", acquired.sum());
+        snapshot.put("committed", committed.sum());
+        snapshot.put("rolledBack", rolledBack.sum());
+        snapshot.put("commitFailures", commitFailures.sum());
+
+        return snapshot;
+    }
+
+    @Override
+    public void onEvent(ApplicationEvent event)
+    {
+        // Application events are not needed
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent)
+    {
+        return new Listener();
+    }
+
+    Connection acquire() throws SQLException
+    {
+        SQLCall<Connection> call = source;
+
+        if (call == null)
+            throw new SQLException("No connection source was set on the ConnectionBinder.");
+
+        Connection connection = breaker.hold(call);
+        acquired.increment();
+
+        return connection;
+    }
+
+    /**
+     * Returns the places taken by {@link #acquire()} once the connection is
+     * closed.
+     */
+    void released()
+    {
+        breaker.unhold();
+    }
+
+    /**
+     * @param breaker a breaker
+     * @return true if connections are acquired through the breaker
+     */
+    boolean uses(DatabaseBreaker breaker)
+    {
+        return this.breaker == breaker;
+    }
+
+    private Mode modeOf(ResourceMethod method)
+    {
+        if (method == null || method.getInvocable().getHandlingMethod() == null)
+            return Mode.NONE;
+
+        Invocable invocable = method.getInvocable();
+
+        return modes.computeIfAbsent(invocable.getHandlingMethod(), handling -> {
+            BindConnection binding = handling.getAnnotation(BindConnection.class);
+
+            if (binding == null)
+                binding = invocable.getHandler().getHandlerClass().getAnnotation(BindConnection.class);
+
+            if (binding == null)
+                return defaultMode;
+
+            return binding.transaction() ? Mode.TRANSACTION : Mode.CONNECTION;
+        });
+    }
+
+    private void complete(BoundConnection connection, ContainerResponse response)
+    {
+        boolean commit = response.getStatus() < 400;
+
+        try {
+            if (connection.complete(commit))
+                (commit ? committed : rolledBack).increment();
+
+        } catch (SQLException e) {
+            LOG.error("Request transaction failed to complete, caused by '{}'.", e.getMessage());
+            commitFailures.increment();
+
+            response.setStatus(Status.INTERNAL_SERVER_ERROR.getStatusCode());
+            response.setEntity(null);
+
+        }
+    }
+
+    private void release(BoundConnection connection)
+    {
+        try {
+            connection.release();
+
+        } catch (SQLException e) {
+            LOG.warn("Request connection failed to release, caused by '{}'.", e.getMessage());
+
+        }
+    }
+
+    private class Listener implements RequestEventListener
+    {
+        private BoundConnection connection;
+
+        @Override
+        public void onEvent(RequestEvent event)
+        {
+            switch (event.getType()) {
+                case RESOURCE_METHOD_START:
+                    Mode mode = modeOf(event.getUriInfo().getMatchedResourceMethod());
+
+                    if (mode == Mode.NONE)
+                        return;
+
+                    connection = new BoundConnection(ConnectionBinder.this, mode == Mode.TRANSACTION,
+                            RequestDeadline.of(event.getContainerRequest()));
+                    bound.increment();
+
+                    event.getContainerRequest().setProperty(BoundConnection.PROPERTY, connection);
+                    BoundConnection.bind(connection);
+                    break;
+
+                case RESOURCE_METHOD_FINISHED:
+                    if (connection != null)
+                        BoundConnection.unbind();
+                    break;
+
+                case RESP_FILTERS_START:
+                    if (connection != null)
+                        complete(connection, event.getContainerResponse());
+                    break;
+
+                case FINISHED:
+                    if (connection != null)
+                        release(connection);
+                    break;
+
+                default:
+                    // Not needed
+            }
+        }
+    }
+}
@@ -0,0 +1,520 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.db;
+
+import com.skanders.jbel.atsql.AtSQL;
+import com.skanders.rms.config.RMSConfig;
+import com.skanders.rms.service.deadline.DeadlineExceededException;
+import com.skanders.rms.service.deadline.RequestDeadline;
+import com.skanders.rms.service.jfr.RMSEvents;
+import com.skanders.rms.service.timing.Phase;
+import com.skanders.rms.service.timing.RequestTiming;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Circuit breaker around the service's connection pool.
+ * <p>
+ * Calls are counted in a sliding window of one second buckets. Once the
+ * window holds at least minimumCalls and the share of failed or slow calls
+ * reaches its rate the breaker opens and calls are rejected with a
+ * {@link DatabaseUnavailableException} without touching the pool. After
+ * openDuration the breaker lets halfOpenProbes calls through, closing again
+ * if they all succeed in time and reopening on the first that does not.
+ * <p>
+ * AtSQL does not expose the pool's acquire, a call's time covers waiting for
+ * its connection and running on it. A pool timeout fails the call, the slow
+ * threshold is best kept below the pool's connection timeout so a stalled
+ * database opens the breaker before requests start timing out.
+ * <p>
+ * A closed breaker admits and records calls without a lock. A bucket is
+ * replaced when its second comes round again, a call recorded on the
+ * replaced bucket at that moment may be lost from the window. Only opening,
+ * the half open probes and closing take the breaker's lock.
+ * <p>
+ * Independent of the window, once the pool size plus maxWaiting calls are in
+ * flight further calls are rejected instead of queueing on the pool.
+ * <p>
+ * With db.breaker.enabled false calls pass straight through, still bounded
+ * by their request's deadline.
+ * <p>
+ * With db.pool.adaptive set, admitted calls then wait at a {@link PoolGate}
+ * limiting the calls holding a connection to the pool's adaptive size.
+ * <p>
+ * A connection bound to a request by the {@link ConnectionBinder} keeps its
+ * in flight and gate places until the request releases it. Calls made while
+ * the request holds it are not gated again, they would otherwise wait on the
+ * place the request already holds.
+ */
+public class DatabaseBreaker
+{
+    private static final Logger LOG = LoggerFactory.getLogger(DatabaseBreaker.class);
+
+    /**
+     * The states of the breaker.
+     */
+    public enum State
+    {CLOSED, OPEN, HALF_OPEN}
+
+    private final AtSQL    atSQL;
+    private final boolean  enabled;
+    private final PoolGate gate;
+    private final int      poolSize;
+
+    private final int      minimumCalls;
+    private final int      failureRate;
+    private final int      slowCallRate;
+    private final long     slowCallNanos;
+    private final long     openNanos;
+    private final int      halfOpenProbes;
+    private final int      maxInFlight;
+
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder     rejected = new LongAdder();
+    private final LongAdder     opened   = new LongAdder();
+
+    private volatile State state = State.CLOSED;
+
+    private long openUntil;
+    private int  probesStarted;
+    private int  probesPassed;
+
+    /**
+     * Constructs an instance of DatabaseBreaker.
+     *
+     * @param atSQL  the connection pool to guard
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    public DatabaseBreaker(@Nonnull AtSQL atSQL, @Nonnull RMSConfig config)
+    {
+        this(atSQL, config, config.getDbMaxPoolSize(),
+                config.isDbPoolAdaptiveService() ? new PoolGate(config) : null);
+    }
+
+    /**
+     * Constructs an instance of DatabaseBreaker guarding a pool other than
+     * the service's, such as a tenant's, with the breaker settings of the
+     * config and without an adaptive gate.
+     *
+     * @param atSQL    the connection pool to guard
+     * @param config   a RMSConfig instance
+     * @param poolSize the size of the pool
+     * @see RMSConfig
+     */
+    public DatabaseBreaker(@Nonnull AtSQL atSQL, @Nonnull RMSConfig config, int poolSize)
+    {
+        this(atSQL, config, poolSize, null);
+    }
+
+    private DatabaseBreaker(AtSQL atSQL, RMSConfig config, int poolSize, PoolGate gate)
+    {
+        this.atSQL          = atSQL;
+        this.enabled        = config.isDbBreakerService();
+        this.buckets        = new AtomicReferenceArray<>(config.getDbBreakerWindow());
+        this.minimumCalls   = config.getDbBreakerMinimumCalls();
+        this.failureRate    = config.getDbBreakerFailureRate();
+        this.slowCallRate   = config.getDbBreakerSlowCallRate();
+        this.slowCallNanos  = TimeUnit.MILLISECONDS.toNanos(config.getDbBreakerSlowCallThreshold());
+        this.openNanos      = TimeUnit.MILLISECONDS.toNanos(config.getDbBreakerOpenDuration());
+        this.halfOpenProbes = config.getDbBreakerHalfOpenProbes();
+        this.maxInFlight    = poolSize + config.getDbBreakerMaxWaiting();
+        this.gate           = gate;
+        this.poolSize       = poolSize;
+
+        clearWindow();
+    }
+
+    /**
+     * Runs the call against the connection pool unless the breaker rejects
+     * it, recording its time and outcome.
+     * <p>
+     * Within a request that has a {@link RequestDeadline} the call is
+     * rejected once the deadline has passed, and waits at the adaptive gate
+     * no longer than the time remaining. The call's thread is not
+     * interrupted, AtSQL's own wait on the pool and its statements are
+     * bounded by the pool's connection timeout and the database, statements
+     * on a {@link BoundConnection} by the deadline.
+     *
+     * @param call the database work
+     * @param <T>  the result of the call
+     * @return the result of the call
+     * @throws SQLException                 if the call failed
+     * @throws DatabaseUnavailableException if the call was rejected
+     * @throws DeadlineExceededException    if the request's deadline passed
+     */
+    public <T> T execute(@Nonnull SQLCall<T> call) throws SQLException
+    {
+        return execute(call, false);
+    }
+
+    /**
+     * Runs the call like {@link #execute(SQLCall)}, but once it succeeded
+     * keeps its in flight and gate places until {@link #unhold()}, for a
+     * connection held past the call.
+     */
+    <T> T hold(SQLCall<T> call) throws SQLException
+    {
+        return execute(call, true);
+    }
+
+    /**
+     * Releases the places of a call run with {@link #hold(SQLCall)}.
+     */
+    void unhold()
+    {
+        if (gate != null)
+            gate.exit();
+
+        inFlight.decrementAndGet();
+    }
+
+    private <T> T execute(SQLCall<T> call, boolean hold) throws SQLException
+    {
+        RequestDeadline deadline = RequestDeadline.current();
+        BoundConnection bound    = BoundConnection.current();
+        boolean         nested   = !hold && bound != null && bound.holds(this);
+
+        if (deadline != null)
+            deadline.verifyRemaining();
+
+        Object        event   = RMSEvents.beginDatabaseCall();
+        boolean       probe   = acquire(event);
+        RequestTiming timing  = RequestTiming.current();
+        boolean       gated   = false;
+        boolean       failed  = true;
+        boolean       expired = false;
+        long          started = System.nanoTime();
+
+        if (timing != null)
+            timing.start(Phase.DB);
+
+        try {
+            if (gate != null && !nested) {
+                gate.enter(deadline == null ? Long.MAX_VALUE :
+                        TimeUnit.MILLISECONDS.toNanos(deadline.getRemainingMillis()));
+                gated = true;
+            }
+
+            T result = call.call(atSQL);
+            failed = false;
+            return result;
+
+        } catch (SQLException | RuntimeException e) {
+            if (deadline == null || !deadline.isExpired())
+                throw e;
+
+            expired = true;
+            throw new DeadlineExceededException("Database call cut short, " + deadline.getReason(), e);
+
+        } finally {
+            boolean release = failed || !hold;
+
+            if (gated && release)
+                gate.exit();
+
+            if (release)
+                inFlight.decrementAndGet();
+
+            record(probe, System.nanoTime() - started, failed && !expired);
+
+            RMSEvents.endDatabaseCall(event, expired ? "expired" : failed ? "failed" : "ok", probe);
+
+            if (timing != null)
+                timing.stop(Phase.DB);
+
+        }
+    }
+
+    /**
+     * @return the current state of the breaker
+     */
+    public State getState()
+    {
+        return state;
+    }
+
+    /**
+     * @return the state, window counts and rejections of the breaker
+     */
+    public synchronized Map<String, Object> snapshot()
+    {
+        Window window = sumWindow(System.nanoTime());
+        long   calls  = window.calls;
+
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("state", state.name());
+        snapshot.put("calls", calls);
+        snapshot.put("failures", window.failures);
+        snapshot.put("slowCalls", window.slow);
+        snapshot.put("failureRate", calls == 0 ? 0.0 : window.failures * 100.0 / calls);
+        snapshot.put("slowCallRate", calls == 0 ? 0.0 : window.slow * 100.0 / calls);
+        snapshot.put("inFlight", inFlight.get());
+        snapshot.put("maxInFlight", maxInFlight);
+        snapshot.put("rejected", rejected.sum());
+        snapshot.put("opened", opened.sum());
+
+        if (gate != null)
+            gate.snapshot(snapshot);
+
+        return snapshot;
+    }
+
+    /**
+     * Moves the adaptive gate's upper limit, for a config reload. The pool
+     * itself keeps the size it was built with, the limit cannot go above it.
+     *
+     * @param maxPoolSize the new upper limit
+     * @return false without an adaptive gate or above the built size
+     */
+    public boolean setMaxPoolSize(int maxPoolSize)
+    {
+        if (gate == null || maxPoolSize > poolSize)
+            return false;
+
+        gate.setMaxSize(maxPoolSize);
+        return true;
+    }
+
+    /**
+     * @return the calls holding a connection of the pool
+     */
+    int getInFlight()
+    {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the pool this breaker guards
+     */
+    AtSQL getAtSQL()
+    {
+        return atSQL;
+    }
+
+    /**
+     * @return the adaptive limit on the pool, null unless db.pool.adaptive
+     */
+    PoolGate getGate()
+    {
+        return gate;
+    }
+
+    /**
+     * Admits a call or rejects it without blocking, ending its event as
+     * rejected.
+     *
+     * @param event the call's flight recorder event
+     * @return true if the call is a half open probe
+     */
+    private boolean acquire(Object event)
+    {
+        try {
+            return acquire();
+
+        } catch (DatabaseUnavailableException e) {
+            RMSEvents.endDatabaseCall(event, "rejected", false);
+            throw e;
+
+        }
+    }
+
+    private boolean acquire()
+    {
+        if (!enabled) {
+            inFlight.incrementAndGet();
+            return false;
+        }
+
+        if (state == State.CLOSED) {
+            if (inFlight.incrementAndGet() <= maxInFlight)
+                return false;
+
+            inFlight.decrementAndGet();
+            throw reject("Database pool exhausted", 1);
+        }
+
+        synchronized (this) {
+            long now = System.nanoTime();
+
+            if (state == State.OPEN && now - openUntil >= 0) {
+                state         = State.HALF_OPEN;
+                probesStarted = 0;
+                probesPassed  = 0;
+
+                LOG.info("Database circuit breaker half open, probing with {} calls.", halfOpenProbes);
+            }
+
+            if (state == State.HALF_OPEN && probesStarted < halfOpenProbes) {
+                probesStarted++;
+                inFlight.incrementAndGet();
+                return true;
+            }
+
+            if (state == State.CLOSED) {
+                inFlight.incrementAndGet();
+                return false;
+            }
+
+            long retryAfter = state == State.OPEN ? TimeUnit.NANOSECONDS.toSeconds(openUntil - now) + 1 : 1;
+
+            throw reject("Database circuit breaker " + state.name().toLowerCase(), retryAfter);
+        }
+    }
+
+    private DatabaseUnavailableException reject(String message, long retryAfter)
+    {
+        rejected.increment();
+
+        return new DatabaseUnavailableException(message, retryAfter);
+    }
+
+    private void record(boolean probe, long nanos, boolean failed)
+    {
+        if (!enabled)
+            return;
+
+        boolean slow = nanos >= slowCallNanos;
+
+        if (probe) {
+            recordProbe(failed, slow);
+            return;
+        }
+
+        if (state != State.CLOSED)
+            return;
+
+        long   now    = System.nanoTime();
+        long   second = TimeUnit.NANOSECONDS.toSeconds(now);
+        int    index  = (int) Math.floorMod(second, (long) buckets.length());
+        Bucket bucket = buckets.get(index);
+
+        if (bucket.second != second) {
+            Bucket next = new Bucket(second);
+            bucket = buckets.compareAndSet(index, bucket, next) ? next : buckets.get(index);
+        }
+
+        bucket.calls.increment();
+
+        if (failed)
+            bucket.failures.increment();
+
+        if (slow)
+            bucket.slow.increment();
+
+        Window window = sumWindow(now);
+
+        if (window.calls < minimumCalls)
+            return;
+
+        if (window.failures * 100L >= (long) failureRate * window.calls)
+            open(window.failures + " of " + window.calls + " calls failed", State.CLOSED);
+
+        else if (window.slow * 100L >= (long) slowCallRate * window.calls)
+            open(window.slow + " of " + window.calls + " calls were slow", State.CLOSED);
+    }
+
+    private synchronized void recordProbe(boolean failed, boolean slow)
+    {
+        if (state != State.HALF_OPEN)
+            return;
+
+        if (failed || slow) {
+            open("probe " + (failed ? "failed" : "was slow"), State.HALF_OPEN);
+            return;
+        }
+
+        if (++probesPassed >= halfOpenProbes) {
+            clearWindow();
+            state = State.CLOSED;
+
+            LOG.info("Database circuit breaker closed.");
+        }
+    }
+
+    private Window sumWindow(long now)
+    {
+        long   second = TimeUnit.NANOSECONDS.toSeconds(now);
+        Window window = new Window();
+
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+
+            if (second - bucket.second < buckets.length()) {
+                window.calls    += bucket.calls.sum();
+                window.failures += bucket.failures.sum();
+                window.slow     += bucket.slow.sum();
+            }
+        }
+
+        return window;
+    }
+
+    private void clearWindow()
+    {
+        for (int i = 0; i < buckets.length(); i++)
+            buckets.set(i, new Bucket(Long.MIN_VALUE / 2));
+    }
+
+    /**
+     * Opens the breaker unless another call already moved it out of the
+     * expected state.
+     */
+    private synchronized void open(String reason, State expected)
+    {
+        if (state != expected)
+            return;
+
+        state     = State.OPEN;
+        openUntil = System.nanoTime() + openNanos;
+
+        opened.increment();
+
+        LOG.warn("Database circuit breaker opened, {}.", reason);
+    }
+
+    private static class Bucket
+    {
+        private final long      second;
+        private final LongAdder calls    = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder slow     = new LongAdder();
+
+        private Bucket(long second)
+        {
+            this.second = second;
+        }
+    }
+
+    private static class Window
+    {
+        private long calls;
+        private long failures;
+        private long slow;
+    }
+}
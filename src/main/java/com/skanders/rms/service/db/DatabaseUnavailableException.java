@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.db;
+
+import com.skanders.rms.def.RMSException;
+
+/**
+ * Raised by {@link DatabaseBreaker} instead of waiting on the connection
+ * pool, either because the breaker is open or because too many calls are
+ * already waiting for a connection.
+ */
+public class DatabaseUnavailableException extends RMSException
+{
+    private final long retryAfter;
+
+    /**
+     * @param message    why the call was rejected
+     * @param retryAfter seconds after which the call may be retried
+     */
+    public DatabaseUnavailableException(String message, long retryAfter)
+    {
+        super(message, null, false, false);
+
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return seconds after which the call may be retried
+     */
+    public long getRetryAfter()
+    {
+        return retryAfter;
+    }
+}
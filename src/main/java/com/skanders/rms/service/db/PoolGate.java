@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.db;
+
+import com.skanders.rms.config.RMSConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Adaptive limit on the calls holding a connection of the pool, which is
+ * built at db.maxPoolSize. Calls beyond the limit wait at the gate, up to
+ * maxWait, and their waits are sampled. A config reload may lower
+ * db.maxPoolSize, and raise it back up to the size the pool was built
+ * with, by moving the gate's upper limit.
+ * <p>
+ * The limit starts at db.maxPoolSize, so the pool the warm-up opened serves
+ * at once. Each adjustment compares the configured percentile of the waits
+ * since the last one with the target wait. A call that gave up waiting is
+ * sampled with the time it waited, and any such call makes the interval
+ * count as above the target. Above it the limit grows by half, up to
+ * db.maxPoolSize. Well below it, with fewer calls in flight at their peak
+ * than the limit allows, the limit shrinks by one, down to minSize. Growth
+ * is fast so a burst is served, shrinking slow so a lull does not starve
+ * the next one.
+ * <p>
+ * Calls hold a permit of a fair semaphore whose permits follow the limit and
+ * record their wait in a lock-free reservoir, so entering and leaving never
+ * take a lock shared with the other calls. A wait recorded while an
+ * adjustment reads the reservoir may count towards either interval.
+ * Shrinking takes permits back even while they are held; the calls over the
+ * new limit finish and the ones waiting stay parked until it is met.
+ */
+final class PoolGate
+{
+    private static final Logger LOG = LoggerFactory.getLogger(PoolGate.class);
+
+    private static final int SAMPLES = 1024;
+
+    private final int  minSize;
+    private final long targetWaitNanos;
+    private final int  percentile;
+    private final long maxWaitNanos;
+
+    private final Permits         permits;
+    private final AtomicInteger   limit      = new AtomicInteger();
+    private final AtomicInteger   active     = new AtomicInteger();
+    private final AtomicInteger   waiting    = new AtomicInteger();
+    private final AtomicInteger   peakActive = new AtomicInteger();
+    private final AtomicLong      timeouts   = new AtomicLong();
+    private final AtomicInteger   waitCount  = new AtomicInteger();
+    private final AtomicLongArray waits      = new AtomicLongArray(SAMPLES);
+
+    private long          lastTimeouts;
+    private volatile int  maxSize;
+    private volatile long lastWait;
+    private volatile long grown;
+    private volatile long shrunk;
+
+    PoolGate(RMSConfig config)
+    {
+        this.minSize         = config.getDbPoolMinSize();
+        this.maxSize         = config.getDbMaxPoolSize();
+        this.targetWaitNanos = TimeUnit.MILLISECONDS.toNanos(config.getDbPoolTargetWait());
+        this.percentile      = config.getDbPoolWaitPercentile();
+        this.maxWaitNanos    = TimeUnit.MILLISECONDS.toNanos(config.getDbPoolMaxWait());
+        this.permits         = new Permits(maxSize);
+
+        this.limit.set(maxSize);
+    }
+
+    /**
+     * Waits until the call may take a connection.
+     *
+     * @param limitNanos the most the call may wait, below maxWait when the
+     *                   request's deadline is nearer
+     * @throws SQLException if maxWait or the limit passed or the thread was
+     *                      interrupted
+     */
+    void enter(long limitNanos) throws SQLException
+    {
+        long    started = System.nanoTime();
+        boolean acquired;
+
+        waiting.incrementAndGet();
+
+        try {
+            acquired = permits.tryAcquire(Math.max(0, Math.min(maxWaitNanos, limitNanos)), TimeUnit.NANOSECONDS);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted waiting on the adaptive pool", e);
+
+        } finally {
+            waiting.decrementAndGet();
+
+        }
+
+        if (!acquired) {
+            long waited = System.nanoTime() - started;
+
+            timeouts.incrementAndGet();
+            sample(waited);
+
+            throw new SQLTransientConnectionException("Connection not available, waited " +
+                    TimeUnit.NANOSECONDS.toMillis(waited) + "ms on the adaptive pool");
+        }
+
+        peakActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+
+        sample(System.nanoTime() - started);
+    }
+
+    /**
+     * Releases the place of a call that entered.
+     */
+    void exit()
+    {
+        active.decrementAndGet();
+        permits.release();
+    }
+
+    /**
+     * Moves the upper limit, taking back the permits above it.
+     *
+     * @param maxSize the new upper limit, at least minSize
+     */
+    synchronized void setMaxSize(int maxSize)
+    {
+        int current = limit.get();
+
+        this.maxSize = maxSize;
+
+        if (current <= maxSize)
+            return;
+
+        limit.set(maxSize);
+        permits.reduce(current - maxSize);
+
+        LOG.info("Adaptive pool limit {} -> {}, db.maxPoolSize lowered.", current, maxSize);
+    }
+
+    /**
+     * Grows or shrinks the limit by the waits sampled since the last call.
+     */
+    synchronized void adjust()
+    {
+        long[] sampled = new long[Math.min(waitCount.getAndSet(0), SAMPLES)];
+
+        for (int i = 0; i < sampled.length; i++)
+            sampled[i] = waits.get(i);
+
+        long total    = timeouts.get();
+        long timedOut = total - lastTimeouts;
+
+        lastTimeouts = total;
+
+        int peak    = peakActive.getAndSet(active.get());
+        int current = limit.get();
+        int max     = maxSize;
+
+        long wait = 0;
+
+        if (sampled.length > 0) {
+            Arrays.sort(sampled);
+            wait = sampled[(int) Math.ceil(sampled.length * percentile / 100.0) - 1];
+        }
+
+        lastWait = wait;
+
+        int next = current;
+
+        if ((timedOut > 0 || wait > targetWaitNanos) && current < max)
+            next = Math.min(max, current + Math.max(1, current / 2));
+        else if (timedOut == 0 && wait <= targetWaitNanos / 4 && peak < current && current > minSize)
+            next = current - 1;
+
+        if (next == current)
+            return;
+
+        limit.set(next);
+
+        if (next > current) {
+            permits.release(next - current);
+            grown++;
+
+        } else {
+            permits.reduce(current - next);
+            shrunk++;
+
+        }
+
+        LOG.debug("Adaptive pool limit {} -> {}, p{} wait {}ms, peak {}, {} timed out.", current, next,
+                percentile, TimeUnit.NANOSECONDS.toMillis(wait), peak, timedOut);
+    }
+
+    /**
+     * Adds the gate's limit, calls and adjustments to a snapshot.
+     *
+     * @param snapshot the snapshot to add to
+     */
+    void snapshot(Map<String, Object> snapshot)
+    {
+        snapshot.put("poolLimit", limit.get());
+        snapshot.put("poolMinSize", minSize);
+        snapshot.put("poolMaxSize", maxSize);
+        snapshot.put("poolActive", active.get());
+        snapshot.put("poolWaiting", waiting.get());
+        snapshot.put("poolWaitMillis", lastWait / 1e6);
+        snapshot.put("poolWaitPercentile", percentile);
+        snapshot.put("poolTimeouts", timeouts.get());
+        snapshot.put("poolGrown", grown);
+        snapshot.put("poolShrunk", shrunk);
+    }
+
+    /**
+     * Keeps a uniform sample of the waits since the last adjustment.
+     */
+    private void sample(long wait)
+    {
+        int count = waitCount.getAndIncrement();
+
+        if (count < SAMPLES) {
+            waits.set(count, wait);
+            return;
+        }
+
+        int slot = ThreadLocalRandom.current().nextInt(count + 1);
+
+        if (slot < SAMPLES)
+            waits.set(slot, wait);
+    }
+
+    /**
+     * Fair semaphore whose permits can be taken back while held.
+     */
+    private static final class Permits extends Semaphore
+    {
+        Permits(int permits)
+        {
+            super(permits, true);
+        }
+
+        void reduce(int reduction)
+        {
+            reducePermits(reduction);
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.db;
+
+import com.skanders.jbel.def.Verify;
+import com.skanders.rms.config.RMSConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the connection pool warm and sized.
+ * <p>
+ * AtSQL does not expose its pool, the keeper works through a validation
+ * call, e.g. a {@code SELECT 1}, set by the service:
+ * <ul>
+ * <li>Before the service starts, rounds of db.pool.minIdle concurrent
+ * validation calls run until, after the first round, a round's slowest call
+ * is under db.pool.targetWait or twice its fastest. The pool then has the
+ * connections the calls of earlier rounds were waiting on. The warm-up gives
+ * up after db.pool.warmupTimeout.</li>
+ * <li>Every db.pool.keepAliveInterval, while no call holds a connection,
+ * db.pool.minIdle connections are taken from the pool together with the
+ * call set by {@link #setConnectionSource(SQLCall)}, checked and returned,
+ * keeping an idle pool's connections from being dropped by the database or
+ * a firewall. Taking them together is what reaches distinct connections,
+ * calls one after another would all be served by the most recently returned
+ * one. Without a connection source a single validation call runs through
+ * the {@link DatabaseBreaker} instead, keeping only one connection alive.</li>
+ * <li>With db.pool.adaptive set, the breaker's {@link PoolGate} is adjusted
+ * every db.pool.adjustInterval.</li>
+ * </ul>
+ * Without a validation call the warm-up is skipped, and the keep-alive too
+ * unless a connection source is set.
+ */
+public final class PoolKeeper
+{
+    private static final Logger LOG = LoggerFactory.getLogger(PoolKeeper.class);
+
+    private static final int VALID_TIMEOUT = 5;
+
+    private final DatabaseBreaker breaker;
+    private final int             minIdle;
+    private final long            warmupNanos;
+    private final long            warmNanos;
+    private final long            keepAliveInterval;
+    private final long            adjustInterval;
+
+    private volatile SQLCall<?>          validation;
+    private volatile SQLCall<Connection> source;
+    private ScheduledExecutorService     scheduler;
+
+    /**
+     * Constructs an instance of PoolKeeper.
+     *
+     * @param breaker the breaker guarding the pool
+     * @param config  a RMSConfig instance
+     * @see RMSConfig
+     */
+    public PoolKeeper(@Nonnull DatabaseBreaker breaker, @Nonnull RMSConfig config)
+    {
+        this.breaker           = breaker;
+        this.minIdle           = config.getDbPoolMinIdle();
+        this.warmupNanos       = TimeUnit.MILLISECONDS.toNanos(config.getDbPoolWarmupTimeout());
+        this.warmNanos         = TimeUnit.MILLISECONDS.toNanos(config.getDbPoolTargetWait());
+        this.keepAliveInterval = config.getDbPoolKeepAliveInterval();
+        this.adjustInterval    = config.getDbPoolAdjustInterval();
+    }
+
+    /**
+     * Shortens a connection lifetime by a random share of up to jitter
+     * percent, once for the whole pool. This staggers separate instances of
+     * a service started together, which would otherwise reconnect together.
+     * Within one pool every connection still shares the lifetime, apart from
+     * the pool's own slight variance per connection.
+     *
+     * @param lifetime the configured lifetime
+     * @param jitter   percentage the lifetime may be shortened by
+     * @return the lifetime to build the pool with
+     */
+    public static long jitterLifetime(long lifetime, int jitter)
+    {
+        if (jitter <= 0 || lifetime <= 0)
+            return lifetime;
+
+        return lifetime - (long) (lifetime * jitter / 100.0 * ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * Sets the call used to warm up and keep alive the pool. It should be
+     * cheap and touch the database, e.g. a {@code SELECT 1}.
+     *
+     * @param validation the validation call
+     */
+    public void setValidation(@Nonnull SQLCall<?> validation)
+    {
+        Verify.notNull(validation, "validation cannot be null");
+
+        this.validation = validation;
+    }
+
+    /**
+     * Sets the call taking a connection from the pool for the keep-alive,
+     * returned to it by closing the connection. The same call can be set on
+     * the {@link ConnectionBinder}.
+     *
+     * @param source the call acquiring a connection
+     */
+    public void setConnectionSource(@Nonnull SQLCall<Connection> source)
+    {
+        Verify.notNull(source, "source cannot be null");
+
+        this.source = source;
+    }
+
+    /**
+     * Runs the warm-up, blocking until the pool is warm or
+     * db.pool.warmupTimeout passed. A failed warm-up is logged, the service
+     * still starts.
+     *
+     * @return true if the pool was warmed up
+     */
+    public boolean warmUp()
+    {
+        if (minIdle == 0)
+            return true;
+
+        SQLCall<?> call = validation;
+
+        if (call == null) {
+            LOG.warn("Connection pool warm-up skipped, no validation call was set.");
+            return false;
+        }
+
+        long            started = System.nanoTime();
+        ExecutorService warmers = Executors.newFixedThreadPool(minIdle, threadFactory("rms-db-warmup-"));
+        int             rounds  = 0;
+
+        try {
+            while (true) {
+                if (System.nanoTime() - started >= warmupNanos)
+                    throw new TimeoutException();
+
+                rounds++;
+
+                if (warmRound(warmers, call, started + warmupNanos) && rounds > 1) {
+                    LOG.info("Connection pool warmed up to {} connections in {}ms, {} rounds.", minIdle,
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), rounds);
+                    return true;
+                }
+            }
+
+        } catch (TimeoutException e) {
+            LOG.warn("Connection pool warm-up timed out after {}ms, {} rounds.",
+                    TimeUnit.NANOSECONDS.toMillis(warmupNanos), rounds);
+            return false;
+
+        } catch (ExecutionException e) {
+            LOG.warn("Connection pool warm-up failed, caused by '{}'.", e.getCause().getMessage());
+            return false;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+
+        } finally {
+            warmers.shutdownNow();
+
+        }
+    }
+
+    /**
+     * Starts the keep-alive and adaptive sizing, if configured.
+     */
+    public synchronized void start()
+    {
+        PoolGate gate = breaker.getGate();
+
+        if (scheduler != null || (keepAliveInterval == 0 && gate == null))
+            return;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory("rms-db-keeper-"));
+
+        if (keepAliveInterval > 0)
+            scheduler.scheduleWithFixedDelay(this::keepAlive, keepAliveInterval, keepAliveInterval,
+                    TimeUnit.MILLISECONDS);
+
+        if (gate != null)
+            scheduler.scheduleWithFixedDelay(gate::adjust, adjustInterval, adjustInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the keep-alive and adaptive sizing.
+     */
+    public synchronized void close()
+    {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+    }
+
+    /**
+     * Runs minIdle validation calls at once straight on the pool.
+     *
+     * @return true if the round's slowest call was warm
+     */
+    private boolean warmRound(ExecutorService warmers, SQLCall<?> call, long deadline)
+            throws InterruptedException, ExecutionException, TimeoutException
+    {
+        List<Future<Long>> calls = new ArrayList<>(minIdle);
+
+        for (int i = 0; i < minIdle; i++)
+            calls.add(warmers.submit(() -> {
+                long started = System.nanoTime();
+                call.call(breaker.getAtSQL());
+                return System.nanoTime() - started;
+            }));
+
+        long slowest = 0;
+        long fastest = Long.MAX_VALUE;
+
+        for (Future<Long> future : calls) {
+            long took = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+
+            slowest = Math.max(slowest, took);
+            fastest = Math.min(fastest, took);
+        }
+
+        return slowest <= Math.max(warmNanos, 2 * fastest);
+    }
+
+    private void keepAlive()
+    {
+        SQLCall<Connection> connections = source;
+
+        if (connections != null && minIdle > 0) {
+            keepAliveIdle(connections);
+            return;
+        }
+
+        SQLCall<?> call = validation;
+
+        if (call == null)
+            return;
+
+        try {
+            breaker.execute(call);
+
+        } catch (DatabaseUnavailableException e) {
+            LOG.debug("Connection pool keep-alive skipped, caused by '{}'.", e.getMessage());
+
+        } catch (SQLException | RuntimeException e) {
+            LOG.warn("Connection pool keep-alive failed, caused by '{}'.", e.getMessage());
+
+        }
+    }
+
+    /**
+     * Holds minIdle connections at once and checks each, skipped while the
+     * breaker is not closed or calls hold connections, which keeps them
+     * alive already.
+     */
+    private void keepAliveIdle(SQLCall<Connection> connections)
+    {
+        if (breaker.getState() != DatabaseBreaker.State.CLOSED || breaker.getInFlight() > 0)
+            return;
+
+        List<Connection> held   = new ArrayList<>(minIdle);
+        int              broken = 0;
+
+        try {
+            for (int i = 0; i < minIdle; i++)
+                held.add(connections.call(breaker.getAtSQL()));
+
+            for (Connection connection : held)
+                if (!connection.isValid(VALID_TIMEOUT))
+                    broken++;
+
+        } catch (SQLException | RuntimeException e) {
+            LOG.warn("Connection pool keep-alive failed after {} connections, caused by '{}'.", held.size(),
+                    e.getMessage());
+
+        } finally {
+            for (Connection connection : held)
+                closeQuietly(connection);
+
+        }
+
+        if (broken > 0)
+            LOG.warn("Connection pool keep-alive found {} of {} connections broken.", broken, held.size());
+    }
+
+    private static void closeQuietly(Connection connection)
+    {
+        try {
+            connection.close();
+
+        } catch (SQLException e) {
+            LOG.warn("Connection pool keep-alive failed to return a connection, caused by '{}'.", e.getMessage());
+
+        }
+    }
+
+    private static ThreadFactory threadFactory(String prefix)
+    {
+        AtomicInteger count = new AtomicInteger();
+
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.db;
+
+import com.skanders.jbel.atsql.AtSQL;
+
+import java.sql.SQLException;
+
+/**
+ * A unit of database work run through {@link DatabaseBreaker}.
+ *
+ * @param <T> the result of the call
+ */
+@FunctionalInterface
+public interface SQLCall<T>
+{
+    /**
+     * @param atSQL the service's connection pool
+     * @return the result of the call
+     * @throws SQLException if the call failed
+     */
+    T call(AtSQL atSQL) throws SQLException;
+}
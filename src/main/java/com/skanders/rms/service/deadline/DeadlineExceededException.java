@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.deadline;
+
+import com.skanders.rms.def.RMSException;
+
+/**
+ * Raised when work is started or still running after the request's deadline
+ * passed or its client disconnected.
+ */
+public class DeadlineExceededException extends RMSException
+{
+    /**
+     * @param message what was cut short
+     */
+    public DeadlineExceededException(String message)
+    {
+        super(message, null, false, false);
+    }
+
+    /**
+     * @param message what was cut short
+     * @param cause   the failure the cancellation caused
+     */
+    public DeadlineExceededException(String message, Throwable cause)
+    {
+        super(message, cause, false, false);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.deadline;
+
+import com.skanders.rms.config.RMSConfig;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.model.Invocable;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jersey side of request deadlines. Reads the client's budget from the
+ * deadline header when the request arrives, narrows it to the resource's
+ * default once the request is matched and rejects requests whose deadline
+ * already passed with a 504 before their resource runs.
+ * <p>
+ * The header carries the budget in milliseconds. Values that do not parse
+ * are ignored.
+ */
+@Priority(Priorities.AUTHENTICATION - 100)
+public class DeadlineFilter implements ApplicationEventListener, ContainerRequestFilter
+{
+    private static final Logger LOG = LoggerFactory.getLogger(DeadlineFilter.class);
+
+    private static final long NONE = Long.MAX_VALUE;
+
+    private final String header;
+    private final long   defaultNanos;
+
+    private final Map<Method, Long> resourceBudgets = new ConcurrentHashMap<>();
+
+    @Inject
+    private Provider<Request> grizzlyRequest;
+
+    /**
+     * Constructs an instance of DeadlineFilter.
+     *
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    public DeadlineFilter(@Nonnull RMSConfig config)
+    {
+        this.header       = config.getDeadlineHeader();
+        this.defaultNanos = config.getDeadlineDefaultTimeout() > 0
+                ? TimeUnit.MILLISECONDS.toNanos(config.getDeadlineDefaultTimeout())
+                : NONE;
+    }
+
+    @Override
+    public void onEvent(ApplicationEvent event)
+    {
+        // Application events carry no deadline
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent)
+    {
+        ContainerRequest request  = requestEvent.getContainerRequest();
+        RequestDeadline  deadline = new RequestDeadline(parseBudget(request.getHeaderString(header)));
+
+        request.setProperty(RequestDeadline.PROPERTY, deadline);
+
+        return deadline;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext)
+    {
+        RequestDeadline deadline = RequestDeadline.of(requestContext);
+
+        if (deadline == null)
+            return;
+
+        long budget = getResourceBudget(((ContainerRequest) requestContext).getUriInfo().getMatchedResourceMethod());
+
+        if (budget != NONE)
+            deadline.narrow(budget);
+
+        if (deadline.isExpired()) {
+            requestContext.abortWith(Response.status(Status.GATEWAY_TIMEOUT).build());
+            return;
+        }
+
+        if (deadline.isBounded() && grizzlyRequest != null) {
+            Request request = grizzlyRequest.get();
+
+            if (request != null)
+                deadline.watch(request.getContext().getConnection());
+        }
+    }
+
+    private long parseBudget(String value)
+    {
+        if (value == null)
+            return NONE;
+
+        try {
+            long millis = Long.parseLong(value.trim());
+
+            return millis < 0 ? 0 : TimeUnit.MILLISECONDS.toNanos(millis);
+
+        } catch (NumberFormatException e) {
+            LOG.debug("Ignoring invalid {} header '{}'.", header, value);
+            return NONE;
+
+        }
+    }
+
+    private long getResourceBudget(ResourceMethod resourceMethod)
+    {
+        if (resourceMethod == null)
+            return defaultNanos;
+
+        Invocable invocable = resourceMethod.getInvocable();
+
+        return resourceBudgets.computeIfAbsent(invocable.getHandlingMethod(), method -> {
+            Deadline annotation = method.getAnnotation(Deadline.class);
+
+            if (annotation == null)
+                annotation = invocable.getHandler().getHandlerClass().getAnnotation(Deadline.class);
+
+            return annotation == null ? defaultNanos : TimeUnit.MILLISECONDS.toNanos(annotation.value());
+        });
+    }
+}
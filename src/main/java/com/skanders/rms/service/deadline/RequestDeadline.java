@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.deadline;
+
+import org.glassfish.grizzly.CloseListener;
+import org.glassfish.grizzly.CloseType;
+import org.glassfish.grizzly.Closeable;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.ws.rs.container.ContainerRequestContext;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time budget of a request, taken from the deadline header when it
+ * arrives, or from the resource's {@link Deadline} or deadline.defaultTimeout
+ * when shorter or when the client sent none.
+ * <p>
+ * While the resource method runs the deadline is reachable through {@link
+ * #current()} on the serving thread:
+ * <pre>
+ * RequestDeadline deadline = RequestDeadline.current();
+ * if (deadline != null) deadline.applyTo(statement);
+ * </pre>
+ * Statements handed to {@link #applyTo(Statement)} get the remaining time as
+ * their query timeout, and are cancelled once the deadline passes or the
+ * client disconnects. Statements created on a
+ * {@link com.skanders.rms.service.db.BoundConnection} are handed to it by
+ * the binding. Threads are never interrupted, an interrupt during JDBC I/O
+ * closes the connection's channel and the broken connection would go back
+ * to the pool.
+ * <p>
+ * Grizzly notices a disconnect when it next reads from the connection, for
+ * a request held by a worker thread that may only be once its response is
+ * written, the deadline still bounds such requests.
+ */
+public final class RequestDeadline implements RequestEventListener
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RequestDeadline.class);
+
+    static final String PROPERTY = RequestDeadline.class.getName();
+
+    private static final long NONE = Long.MAX_VALUE;
+
+    private static final ThreadLocal<RequestDeadline> CURRENT = new ThreadLocal<>();
+
+    private static volatile ScheduledThreadPoolExecutor watchdog;
+
+    private final List<Statement> statements = new ArrayList<>(2);
+    private final long            received   = System.nanoTime();
+
+    private volatile long    deadline;
+    private volatile boolean cancelled;
+
+    private Connection<?>                       connection;
+    private CloseListener<Closeable, CloseType> closeListener;
+
+    private String             reason;
+    private boolean            finished;
+    private ScheduledFuture<?> expiry;
+
+    /**
+     * @param budgetNanos the budget from now, {@link Long#MAX_VALUE} for none
+     */
+    RequestDeadline(long budgetNanos)
+    {
+        this.deadline = budgetNanos == NONE ? NONE : received + budgetNanos;
+    }
+
+    /**
+     * @return the deadline of the request being served on this thread, null
+     * if deadlines are disabled or no resource method is running
+     */
+    public static RequestDeadline current()
+    {
+        return CURRENT.get();
+    }
+
+    /**
+     * @param requestContext the Jersey request
+     * @return the deadline of the request, null if deadlines are disabled
+     */
+    public static RequestDeadline of(ContainerRequestContext requestContext)
+    {
+        return (RequestDeadline) requestContext.getProperty(PROPERTY);
+    }
+
+    /**
+     * @return true if the request has a budget
+     */
+    public boolean isBounded()
+    {
+        return deadline != NONE;
+    }
+
+    /**
+     * @return milliseconds left until the deadline, 0 once passed or
+     * cancelled, {@link Long#MAX_VALUE} if the request has no budget
+     */
+    public long getRemainingMillis()
+    {
+        if (cancelled)
+            return 0;
+
+        if (deadline == NONE)
+            return Long.MAX_VALUE;
+
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    /**
+     * @return the remaining time as a JDBC query timeout in whole seconds,
+     * rounded up so it is never 0, which JDBC reads as no timeout. 0 if the
+     * request has no budget.
+     */
+    public int getQueryTimeout()
+    {
+        if (deadline == NONE && !cancelled)
+            return 0;
+
+        long millis = getRemainingMillis();
+
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, (millis + 999) / 1000));
+    }
+
+    /**
+     * @return true if the deadline passed or the request was cancelled
+     */
+    public boolean isExpired()
+    {
+        return cancelled || deadline != NONE && deadline - System.nanoTime() <= 0;
+    }
+
+    /**
+     * @throws DeadlineExceededException if the deadline passed or the request
+     *                                   was cancelled
+     */
+    public void verifyRemaining()
+    {
+        if (isExpired())
+            throw new DeadlineExceededException("Request cancelled, " + getReason());
+    }
+
+    /**
+     * Sets the statement's query timeout to the remaining time and cancels it
+     * should the request be cancelled while it runs.
+     *
+     * @param statement a statement about to be executed
+     * @throws SQLException              if the timeout could not be set
+     * @throws DeadlineExceededException if the deadline already passed
+     */
+    public void applyTo(@Nonnull Statement statement) throws SQLException
+    {
+        verifyRemaining();
+
+        int queryTimeout = getQueryTimeout();
+
+        if (queryTimeout > 0)
+            statement.setQueryTimeout(queryTimeout);
+
+        synchronized (this) {
+            if (finished)
+                return;
+
+            statements.add(statement);
+            scheduleExpiry();
+        }
+    }
+
+    /**
+     * Cancels the request and its statements.
+     *
+     * @param reason why the request was cancelled
+     */
+    void cancel(String reason)
+    {
+        List<Statement> running;
+
+        synchronized (this) {
+            if (cancelled || finished)
+                return;
+
+            this.cancelled = true;
+            this.reason    = reason;
+
+            running = new ArrayList<>(statements);
+        }
+
+        LOG.debug("Request {}, cancelling {} statements.", reason, running.size());
+
+        for (Statement statement : running)
+            try {
+                statement.cancel();
+
+            } catch (SQLException | RuntimeException e) {
+                LOG.debug("Statement cancel raised an '{}' exception, caused by '{}'.", e.getClass(), e.getMessage());
+
+            }
+    }
+
+    /**
+     * Narrows the budget to the resource's default if that is shorter.
+     *
+     * @param budgetNanos the resource's budget from when the request arrived
+     */
+    void narrow(long budgetNanos)
+    {
+        long resourceDeadline = received + budgetNanos;
+
+        if (deadline == NONE || resourceDeadline - deadline < 0)
+            deadline = resourceDeadline;
+    }
+
+    /**
+     * @return why the request was cancelled, the deadline passing unless the
+     * client disconnected
+     */
+    public synchronized String getReason()
+    {
+        return reason != null ? reason : "deadline passed";
+    }
+
+    private void scheduleExpiry()
+    {
+        if (expiry != null || deadline == NONE)
+            return;
+
+        expiry = watchdog().schedule(
+                () -> cancel("deadline passed"), deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Cancels the request should its connection close before it finishes.
+     *
+     * @param connection the Grizzly connection of the request
+     */
+    @SuppressWarnings("unchecked")
+    synchronized void watch(Connection<?> connection)
+    {
+        if (finished)
+            return;
+
+        this.connection    = connection;
+        this.closeListener = (closeable, type) -> cancel("client disconnected");
+
+        connection.addCloseListener(closeListener);
+    }
+
+    private synchronized void finish()
+    {
+        finished = true;
+        statements.clear();
+
+        if (expiry != null)
+            expiry.cancel(false);
+
+        if (connection != null)
+            connection.removeCloseListener(closeListener);
+    }
+
+    @Override
+    public void onEvent(RequestEvent event)
+    {
+        switch (event.getType()) {
+            case RESOURCE_METHOD_START:
+                CURRENT.set(this);
+                break;
+
+            case RESOURCE_METHOD_FINISHED:
+                if (CURRENT.get() == this)
+                    CURRENT.remove();
+                break;
+
+            case FINISHED:
+                finish();
+                break;
+
+            default:
+                // Not needed
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor watchdog()
+    {
+        ScheduledThreadPoolExecutor executor = watchdog;
+
+        if (executor != null)
+            return executor;
+
+        synchronized (RequestDeadline.class) {
+            if (watchdog == null) {
+                executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                    Thread thread = new Thread(runnable, "rms-deadline");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                executor.setRemoveOnCancelPolicy(true);
+
+                watchdog = executor;
+            }
+
+            return watchdog;
+        }
+    }
+}
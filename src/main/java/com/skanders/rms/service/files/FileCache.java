@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.files;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of small static files, bounded by the total
+ * bytes held. An entry is only served while the file's size and
+ * modification time still match, a changed file is read again. A file that
+ * changes while it is read is not returned, the caller reads it itself.
+ */
+final class FileCache
+{
+    private final long maxSize;
+    private final int  maxFileSize;
+
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    private long size;
+
+    /**
+     * @param maxSize     maximum bytes held, 0 to disable the cache
+     * @param maxFileSize maximum size of a cached file
+     */
+    FileCache(long maxSize, int maxFileSize)
+    {
+        this.maxSize     = maxSize;
+        this.maxFileSize = (int) Math.min(maxFileSize, maxSize);
+    }
+
+    /**
+     * @param length size of a file
+     * @return true if a file of this size is kept in the cache
+     */
+    boolean isCacheable(long length)
+    {
+        return maxSize > 0 && length <= maxFileSize;
+    }
+
+    /**
+     * Returns the content of a cacheable file, reading and caching it if it
+     * is not cached or has changed.
+     *
+     * @param file         the file
+     * @param length       its current size
+     * @param lastModified its current modification time
+     * @return the file content, null if the file no longer has the given
+     * size and modification time
+     * @throws IOException if the file cannot be read
+     */
+    byte[] get(Path file, long length, long lastModified) throws IOException
+    {
+        synchronized (this) {
+            Entry entry = entries.get(file);
+
+            if (entry != null && entry.content.length == length && entry.lastModified == lastModified)
+                return entry.content;
+        }
+
+        byte[] content = Files.readAllBytes(file);
+
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+
+        // Changed since it was looked up or while being read
+        if (content.length != length || attributes.size() != length ||
+                attributes.lastModifiedTime().toMillis() != lastModified)
+            return null;
+
+        synchronized (this) {
+            Entry previous = entries.put(file, new Entry(content, lastModified));
+
+            size += content.length - (previous == null ? 0 : previous.content.length);
+
+            Iterator<Map.Entry<Path, Entry>> eldest = entries.entrySet().iterator();
+
+            while (size > maxSize && eldest.hasNext()) {
+                size -= eldest.next().getValue().content.length;
+                eldest.remove();
+            }
+        }
+
+        return content;
+    }
+
+    private static final class Entry
+    {
+        private final byte[] content;
+        private final long   lastModified;
+
+        private Entry(byte[] content, long lastModified)
+        {
+            this.content      = content;
+            this.lastModified = lastModified;
+        }
+    }
+}
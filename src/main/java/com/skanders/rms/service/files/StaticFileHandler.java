@@ -0,0 +1,455 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.files;
+
+import com.skanders.jbel.def.Verify;
+import com.skanders.rms.config.RMSConfig;
+import com.skanders.rms.config.StaticMount;
+import org.glassfish.grizzly.EmptyCompletionHandler;
+import org.glassfish.grizzly.WriteResult;
+import org.glassfish.grizzly.http.Method;
+import org.glassfish.grizzly.http.server.HttpHandler;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.http.util.HttpStatus;
+import org.glassfish.grizzly.http.util.MimeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.CharConversionException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serves the files of a {@link StaticMount} for GET and HEAD requests.
+ * <p>
+ * Small files are served from a shared in-memory LRU cache, large files are
+ * transferred with sendfile on non-secure listeners and streamed otherwise.
+ * A .br or .gz file next to a file is served in its place to clients
+ * accepting that encoding. Responses carry an ETag, Last-Modified and a
+ * long-lived Cache-Control, conditional requests are answered with 304 and
+ * a single byte range with 206.
+ */
+public class StaticFileHandler extends HttpHandler
+{
+    private static final Logger LOG = LoggerFactory.getLogger(StaticFileHandler.class);
+
+    private static final String ACCEPT_RANGES    = "Accept-Ranges";
+    private static final String CACHE_CONTROL    = "Cache-Control";
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    private static final String CONTENT_RANGE    = "Content-Range";
+    private static final String ETAG             = "ETag";
+    private static final String LAST_MODIFIED    = "Last-Modified";
+    private static final String VARY             = "Vary";
+
+    private static final String ACCEPT_ENCODING   = "Accept-Encoding";
+    private static final String IF_NONE_MATCH     = "If-None-Match";
+    private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String IF_RANGE          = "If-Range";
+    private static final String RANGE             = "Range";
+
+    private static final String BYTES        = "bytes";
+    private static final String DEFAULT_TYPE = "application/octet-stream";
+    private static final int    BUFFER_SIZE  = 64 * 1024;
+
+    private static final String[][] ENCODINGS = {{"br", ".br"}, {"gzip", ".gz"}};
+
+    private final StaticMount mount;
+    private final FileCache   cache;
+    private final long        sendFileThreshold;
+    private final String      cacheControl;
+    private final boolean     precompressed;
+
+    private StaticFileHandler(StaticMount mount, FileCache cache, RMSConfig config)
+    {
+        this.mount             = mount;
+        this.cache             = cache;
+        this.sendFileThreshold = config.getStaticSendFileThreshold();
+        this.cacheControl      = "public, max-age=" + config.getStaticMaxAge() +
+                (config.isStaticImmutable() ? ", immutable" : "");
+        this.precompressed     = config.isStaticPrecompressed();
+    }
+
+    /**
+     * Creates a handler for each static mount of the config. The handlers
+     * share one file cache.
+     *
+     * @param config a RMSConfig instance
+     * @return a handler per mount, to be registered at the mount's path
+     * @see RMSConfig
+     */
+    public static List<StaticFileHandler> create(@Nonnull RMSConfig config)
+    {
+        Verify.notNull(config, "config cannot be null");
+
+        FileCache               cache    = new FileCache(config.getStaticCacheSize(),
+                config.getStaticCacheMaxFileSize());
+        List<StaticFileHandler> handlers = new ArrayList<>();
+
+        for (StaticMount mount : config.getStaticMounts())
+            handlers.add(new StaticFileHandler(mount, cache, config));
+
+        return handlers;
+    }
+
+    /**
+     * @return the mount served by this handler
+     */
+    public StaticMount getMount()
+    {
+        return mount;
+    }
+
+    @Override
+    public void service(Request request, Response response) throws Exception
+    {
+        Method method = request.getMethod();
+
+        if (method != Method.GET && method != Method.HEAD) {
+            response.setHeader("Allow", "GET, HEAD");
+            response.setStatus(HttpStatus.METHOD_NOT_ALLOWED_405);
+            return;
+        }
+
+        Path file = resolve(request);
+
+        if (file == null) {
+            response.setStatus(HttpStatus.NOT_FOUND_404);
+            return;
+        }
+
+        String contentType = MimeType.getByFilename(file.getFileName().toString());
+        String encoding    = null;
+
+        if (precompressed) {
+            response.setHeader(VARY, ACCEPT_ENCODING);
+
+            String accepted = request.getHeader(ACCEPT_ENCODING);
+
+            for (String[] variant : ENCODINGS) {
+                Path compressed = file.resolveSibling(file.getFileName() + variant[1]);
+
+                if (accepts(accepted, variant[0]) && isFresh(compressed, file)) {
+                    file     = compressed;
+                    encoding = variant[0];
+                    break;
+                }
+            }
+        }
+
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+
+        long   length       = attributes.size();
+        long   lastModified = attributes.lastModifiedTime().toMillis();
+        String etag         = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) +
+                (encoding == null ? "" : "-" + encoding) + "\"";
+
+        response.setHeader(ACCEPT_RANGES, BYTES);
+        response.setHeader(CACHE_CONTROL, cacheControl);
+        response.setHeader(ETAG, etag);
+        response.setDateHeader(LAST_MODIFIED, lastModified);
+
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpStatus.NOT_MODIFIED_304);
+            return;
+        }
+
+        response.setContentType(contentType != null ? contentType : DEFAULT_TYPE);
+
+        if (encoding != null)
+            response.setHeader(CONTENT_ENCODING, encoding);
+
+        long offset = 0;
+        long count  = length;
+
+        String range = request.getHeader(RANGE);
+
+        if (range != null && isRangeCurrent(request, etag, lastModified)) {
+            long[] bounds = parseRange(range, length);
+
+            if (bounds == null) {
+                response.setHeader(CONTENT_RANGE, BYTES + " */" + length);
+                response.setStatus(HttpStatus.REQUEST_RANGE_NOT_SATISFIABLE_416);
+                return;
+            }
+
+            if (bounds.length == 2) {
+                offset = bounds[0];
+                count  = bounds[1] - bounds[0] + 1;
+
+                response.setStatus(HttpStatus.PARTIAL_CONTENT_206);
+                response.setHeader(CONTENT_RANGE, BYTES + " " + bounds[0] + "-" + bounds[1] + "/" + length);
+            }
+        }
+
+        response.setContentLengthLong(count);
+
+        if (method == Method.HEAD || count == 0)
+            return;
+
+        byte[] cached = cache.isCacheable(length) ? cache.get(file, length, lastModified) : null;
+
+        if (cached != null)
+            response.getOutputStream().write(cached, (int) offset, (int) count);
+        else if (count >= sendFileThreshold && response.isSendFileEnabled() && !request.isSecure())
+            sendFile(response, file, offset, count);
+        else
+            stream(response, file, offset, count);
+    }
+
+    /**
+     * Maps the request path to a regular file below the mount's root, the
+     * index file for a directory.
+     *
+     * @return the file, null if there is none or the path leaves the root
+     */
+    private Path resolve(Request request)
+    {
+        String relative;
+
+        try {
+            relative = request.getDecodedRequestURI().substring(request.getContextPath().length());
+
+        } catch (CharConversionException | IndexOutOfBoundsException e) {
+            return null;
+
+        }
+
+        if (relative.indexOf('\0') >= 0)
+            return null;
+
+        while (relative.startsWith("/"))
+            relative = relative.substring(1);
+
+        Path root = mount.getRoot();
+        Path file = root.resolve(relative).normalize();
+
+        if (!file.startsWith(root))
+            return null;
+
+        if (Files.isDirectory(file))
+            file = file.resolve(mount.getIndex());
+
+        return Files.isRegularFile(file) && Files.isReadable(file) ? file : null;
+    }
+
+    private static boolean isFresh(Path compressed, Path file)
+    {
+        try {
+            return Files.isRegularFile(compressed) &&
+                    Files.getLastModifiedTime(compressed).compareTo(Files.getLastModifiedTime(file)) >= 0;
+
+        } catch (IOException e) {
+            return false;
+
+        }
+    }
+
+    /**
+     * @return true if the Accept-Encoding header accepts the coding with a
+     * non-zero quality
+     */
+    private static boolean accepts(String accepted, String coding)
+    {
+        if (accepted == null)
+            return false;
+
+        for (String token : accepted.split(",")) {
+            String[] parts = token.trim().split(";");
+
+            if (!parts[0].trim().equalsIgnoreCase(coding))
+                continue;
+
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+
+                if (parameter.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(parameter.substring(2)) > 0;
+
+                    } catch (NumberFormatException e) {
+                        return false;
+
+                    }
+                }
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    private static boolean isNotModified(Request request, String etag, long lastModified)
+    {
+        String ifNoneMatch = request.getHeader(IF_NONE_MATCH);
+
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                String trimmed = tag.trim();
+
+                if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.equals("W/" + etag))
+                    return true;
+            }
+
+            return false;
+        }
+
+        long ifModifiedSince = dateHeader(request, IF_MODIFIED_SINCE);
+
+        return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * @return true if the range applies to the current file, if there is no
+     * If-Range or it names the current file
+     */
+    private static boolean isRangeCurrent(Request request, String etag, long lastModified)
+    {
+        String ifRange = request.getHeader(IF_RANGE);
+
+        if (ifRange == null)
+            return true;
+
+        if (ifRange.trim().startsWith("\""))
+            return ifRange.trim().equals(etag);
+
+        return dateHeader(request, IF_RANGE) / 1000 == lastModified / 1000;
+    }
+
+    private static long dateHeader(Request request, String name)
+    {
+        try {
+            return request.getDateHeader(name);
+
+        } catch (IllegalArgumentException e) {
+            return -1;
+
+        }
+    }
+
+    /**
+     * Parses a single byte range. Multiple ranges and malformed ranges are
+     * ignored, the whole file is served for them.
+     *
+     * @return first and last byte of the range, an empty array to serve the
+     * whole file, null if the range cannot be satisfied
+     */
+    private static long[] parseRange(String range, long length)
+    {
+        if (!range.startsWith(BYTES + "=") || range.indexOf(',') >= 0)
+            return new long[0];
+
+        String spec = range.substring(BYTES.length() + 1).trim();
+        int    dash = spec.indexOf('-');
+
+        if (dash < 0)
+            return new long[0];
+
+        try {
+            long first;
+            long last;
+
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+
+                if (suffix <= 0 || length == 0)
+                    return null;
+
+                first = Math.max(0, length - suffix);
+                last  = length - 1;
+
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last  = dash == spec.length() - 1 ? length - 1 : Long.parseLong(spec.substring(dash + 1));
+
+                if (first >= length)
+                    return null;
+
+                if (last < first)
+                    return new long[0];
+
+                last = Math.min(last, length - 1);
+
+            }
+
+            return new long[]{first, last};
+
+        } catch (NumberFormatException e) {
+            return new long[0];
+
+        }
+    }
+
+    /**
+     * Transfers the file straight from the file system to the socket. The
+     * response is suspended until the transfer completes.
+     */
+    private static void sendFile(Response response, Path file, long offset, long count)
+    {
+        response.suspend();
+
+        response.getOutputBuffer().sendfile(file.toFile(), offset, count, new EmptyCompletionHandler<WriteResult>()
+        {
+            @Override
+            public void completed(WriteResult result)
+            {
+                response.resume();
+            }
+
+            @Override
+            public void failed(Throwable throwable)
+            {
+                LOG.debug("Sendfile of '{}' failed, caused by '{}'.", file, throwable.getMessage());
+                response.resume();
+            }
+        });
+    }
+
+    private static void stream(Response response, Path file, long offset, long count) throws IOException
+    {
+        OutputStream out    = response.getOutputStream();
+        ByteBuffer   buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, count));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = offset;
+            long end      = offset + count;
+
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+
+                int read = channel.read(buffer, position);
+
+                if (read < 0)
+                    throw new IOException("File truncated while being served: " + file);
+
+                out.write(buffer.array(), 0, read);
+                position += read;
+            }
+
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.format;
+
+import com.skanders.rms.config.BinaryFormat;
+import org.glassfish.jersey.server.model.ModelProcessor;
+import org.glassfish.jersey.server.model.Resource;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.model.ResourceModel;
+
+import javax.ws.rs.core.Configuration;
+import javax.ws.rs.core.MediaType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Offers the configured binary formats on every resource method that
+ * consumes or produces JSON, so existing resources negotiate them through
+ * Accept and Content-Type without changing their annotations.
+ * <p>
+ * Binary types are produced with a lower server quality than JSON, a client
+ * only gets a binary response when it asks for one.
+ */
+public class BinaryNegotiation implements ModelProcessor
+{
+    private static final String QUALITY        = "qs";
+    private static final String BINARY_QUALITY = "0.5";
+
+    private final List<MediaType> consumed = new ArrayList<>();
+    private final List<MediaType> produced = new ArrayList<>();
+
+    /**
+     * Constructs an instance of BinaryNegotiation.
+     *
+     * @param formats the binary formats to offer
+     */
+    public BinaryNegotiation(Collection<BinaryFormat> formats)
+    {
+        for (BinaryFormat format : formats) {
+            MediaType mediaType = MediaType.valueOf(format.getMediaType());
+
+            consumed.add(mediaType);
+            produced.add(new MediaType(mediaType.getType(), mediaType.getSubtype(),
+                    Collections.singletonMap(QUALITY, BINARY_QUALITY)));
+        }
+    }
+
+    @Override
+    public ResourceModel processResourceModel(ResourceModel resourceModel, Configuration configuration)
+    {
+        return process(resourceModel);
+    }
+
+    @Override
+    public ResourceModel processSubResource(ResourceModel subResourceModel, Configuration configuration)
+    {
+        return process(subResourceModel);
+    }
+
+    private ResourceModel process(ResourceModel resourceModel)
+    {
+        ResourceModel.Builder builder = new ResourceModel.Builder(false);
+
+        for (Resource resource : resourceModel.getResources())
+            builder.addResource(process(resource));
+
+        return builder.build();
+    }
+
+    private Resource process(Resource resource)
+    {
+        Resource.Builder builder = Resource.builder(resource);
+
+        for (ResourceMethod method : resource.getResourceMethods()) {
+            boolean consumesJson = hasJson(method.getConsumedTypes());
+            boolean producesJson = hasJson(method.getProducedTypes());
+
+            if (!consumesJson && !producesJson)
+                continue;
+
+            ResourceMethod.Builder methodBuilder = builder.updateMethod(method);
+
+            if (consumesJson)
+                methodBuilder.consumes(consumed);
+
+            if (producesJson)
+                methodBuilder.produces(produced);
+        }
+
+        for (Resource child : resource.getChildResources())
+            builder.replaceChildResource(child, process(child));
+
+        return builder.build();
+    }
+
+    private static boolean hasJson(List<MediaType> mediaTypes)
+    {
+        for (MediaType mediaType : mediaTypes)
+            if (MediaType.APPLICATION_JSON_TYPE.isCompatible(mediaType) && !mediaType.isWildcardType() &&
+                    !mediaType.isWildcardSubtype())
+                return true;
+
+        return false;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.format;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.skanders.jbel.def.Verify;
+import com.skanders.rms.config.BinaryFormat;
+import com.skanders.rms.def.RMSException;
+
+import javax.annotation.Nonnull;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+/**
+ * Reads and writes entities in a Jackson binary {@link BinaryFormat}, the
+ * same way the JSON provider does with the mapper's configuration, only in
+ * another encoding.
+ * <p>
+ * The dataformat modules are optional dependencies and are loaded by name,
+ * so a format that is not configured needs nothing on the classpath.
+ */
+public class BinaryProvider implements MessageBodyReader<Object>, MessageBodyWriter<Object>
+{
+    private static final Class<?>[] UNTOUCHABLES = {
+            String.class, byte[].class, char[].class, InputStream.class, Reader.class, OutputStream.class,
+            Writer.class, StreamingOutput.class, Response.class};
+
+    private final MediaType[]    mediaTypes;
+    private final ObjectMapper[] mappers;
+
+    /**
+     * Constructs an instance of BinaryProvider. Jersey keeps one provider
+     * instance per class, so a single BinaryProvider serves every format.
+     *
+     * @param mappers each format with a mapper created by {@link #newMapper(BinaryFormat)}
+     */
+    public BinaryProvider(@Nonnull Map<BinaryFormat, ObjectMapper> mappers)
+    {
+        Verify.notNull(mappers, "mappers cannot be null");
+
+        this.mediaTypes = new MediaType[mappers.size()];
+        this.mappers    = new ObjectMapper[mappers.size()];
+
+        int i = 0;
+
+        for (Map.Entry<BinaryFormat, ObjectMapper> entry : mappers.entrySet()) {
+            this.mediaTypes[i] = MediaType.valueOf(entry.getKey().getMediaType());
+            this.mappers[i++]  = entry.getValue();
+        }
+    }
+
+    /**
+     * Creates an ObjectMapper writing the given format.
+     *
+     * @param format the binary format
+     * @return a new ObjectMapper over the format's JsonFactory
+     * @throws RMSException if the format's dataformat module is missing
+     */
+    public static ObjectMapper newMapper(@Nonnull BinaryFormat format)
+    {
+        return new ObjectMapper(newFactory(format));
+    }
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType)
+    {
+        return handles(type) && mapperFor(mediaType) != null;
+    }
+
+    @Override
+    public Object readFrom(
+            Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException
+    {
+        ObjectMapper mapper = mapperFor(mediaType);
+
+        return mapper.readerFor(mapper.constructType(genericType))
+                .without(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+                .readValue(entityStream);
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType)
+    {
+        return handles(type) && mapperFor(mediaType) != null;
+    }
+
+    @Override
+    public void writeTo(
+            Object value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException
+    {
+        mapperFor(mediaType).writer()
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .writeValue(entityStream, value);
+    }
+
+    private ObjectMapper mapperFor(MediaType requested)
+    {
+        if (requested == null)
+            return null;
+
+        for (int i = 0; i < mediaTypes.length; i++)
+            if (mediaTypes[i].getType().equalsIgnoreCase(requested.getType()) &&
+                    mediaTypes[i].getSubtype().equalsIgnoreCase(requested.getSubtype()))
+                return mappers[i];
+
+        return null;
+    }
+
+    private static boolean handles(Class<?> type)
+    {
+        for (Class<?> untouchable : UNTOUCHABLES)
+            if (untouchable.isAssignableFrom(type))
+                return false;
+
+        return true;
+    }
+
+    private static JsonFactory newFactory(BinaryFormat format)
+    {
+        String factoryClass;
+        String artifact;
+
+        switch (format) {
+            case SMILE:
+                factoryClass = "com.fasterxml.jackson.dataformat.smile.SmileFactory";
+                artifact     = "com.fasterxml.jackson.dataformat:jackson-dataformat-smile";
+                break;
+
+            case CBOR:
+                factoryClass = "com.fasterxml.jackson.dataformat.cbor.CBORFactory";
+                artifact     = "com.fasterxml.jackson.dataformat:jackson-dataformat-cbor";
+                break;
+
+            default:
+                factoryClass = "org.msgpack.jackson.dataformat.MessagePackFactory";
+                artifact     = "org.msgpack:jackson-dataformat-msgpack";
+        }
+
+        try {
+            return (JsonFactory) Class.forName(factoryClass).getConstructor().newInstance();
+
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new RMSException("Binary format " + format.name() + " requires " + artifact + " on the classpath.");
+
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.format;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.ws.rs.ext.ContextResolver;
+
+/**
+ * Hands the JSON ObjectMapper RMS configured to providers that look one up,
+ * such as the {@link com.skanders.rms.service.stream.RecordStreamReader}.
+ */
+public class ObjectMapperResolver implements ContextResolver<ObjectMapper>
+{
+    private final ObjectMapper mapper;
+
+    public ObjectMapperResolver(ObjectMapper mapper)
+    {
+        this.mapper = mapper;
+    }
+
+    @Override
+    public ObjectMapper getContext(Class<?> type)
+    {
+        return mapper;
+    }
+}
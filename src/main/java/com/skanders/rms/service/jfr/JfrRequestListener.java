@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.jfr;
+
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import java.lang.reflect.Method;
+
+/**
+ * Emits the rms.HttpRequest event of each request Jersey serves. While the
+ * event is disabled no listener is handed to Jersey for the request.
+ */
+public final class JfrRequestListener implements ApplicationEventListener
+{
+    @Override
+    public void onEvent(ApplicationEvent event)
+    {
+        // Application events are not recorded
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent)
+    {
+        Object event = RMSEvents.beginHttpRequest();
+
+        return event == null ? null : new Listener(event);
+    }
+
+    private static class Listener implements RequestEventListener
+    {
+        private final Object event;
+
+        private String resource;
+
+        private Listener(Object event)
+        {
+            this.event = event;
+        }
+
+        @Override
+        public void onEvent(RequestEvent requestEvent)
+        {
+            switch (requestEvent.getType()) {
+                case RESOURCE_METHOD_START:
+                    resource = resourceOf(requestEvent.getUriInfo().getMatchedResourceMethod());
+                    break;
+
+                case FINISHED:
+                    ContainerRequest  request  = requestEvent.getContainerRequest();
+                    ContainerResponse response = requestEvent.getContainerResponse();
+
+                    RMSEvents.endHttpRequest(event, request.getMethod(), request.getPath(true), resource,
+                            response == null ? 500 : response.getStatus());
+                    break;
+
+                default:
+                    // Not recorded
+            }
+        }
+
+        private static String resourceOf(ResourceMethod method)
+        {
+            if (method == null || method.getInvocable().getHandlingMethod() == null)
+                return null;
+
+            Method handling = method.getInvocable().getHandlingMethod();
+
+            return handling.getDeclaringClass().getName() + "#" + handling.getName();
+        }
+    }
+}
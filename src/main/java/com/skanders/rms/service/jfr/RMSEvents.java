@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.jfr;
+
+/**
+ * Java Flight Recorder events of RMS. This is the Java 8 build, where every
+ * method does nothing and is inlined away. On Java 11 and later the
+ * multi-release jar replaces this class with one emitting the events:
+ * <pre>
+ * rms.HttpRequest       a request with its resource method and status (20 ms threshold)
+ * rms.CorsDecision      how CORSFilter classified a request (off by default)
+ * rms.DatabaseCall      an AtSQL call through DatabaseBreaker, with its outcome (10 ms threshold)
+ * rms.WebSocketMessage  a WebSocket message received or bytes sent (off by default)
+ * rms.ExceptionMapped   an exception turned into a response by an RMS mapper
+ * </pre>
+ * Thresholds and enablement are set in the recording's settings like any
+ * JDK event. Timed events are begun with a begin method returning a handle,
+ * null while the event is disabled, which is passed to the end method.
+ */
+public final class RMSEvents
+{
+    private RMSEvents()
+    {
+    }
+
+    /**
+     * @return true if this build emits events
+     */
+    public static boolean isSupported()
+    {
+        return false;
+    }
+
+    /**
+     * @return the handle of an HTTP request event, null if disabled
+     */
+    public static Object beginHttpRequest()
+    {
+        return null;
+    }
+
+    /**
+     * @param event    the handle from {@link #beginHttpRequest()}
+     * @param method   the HTTP method
+     * @param path     the request path
+     * @param resource the matched resource method, null if none matched
+     * @param status   the response status
+     */
+    public static void endHttpRequest(Object event, String method, String path, String resource, int status)
+    {
+    }
+
+    /**
+     * @return the handle of a CORS decision event, null if disabled
+     */
+    public static Object beginCorsDecision()
+    {
+        return null;
+    }
+
+    /**
+     * @param event    the handle from {@link #beginCorsDecision()}
+     * @param origin   the request's Origin header
+     * @param method   the HTTP method
+     * @param decision the CORS type the request was classified as
+     */
+    public static void endCorsDecision(Object event, String origin, String method, String decision)
+    {
+    }
+
+    /**
+     * @return the handle of a database call event, null if disabled
+     */
+    public static Object beginDatabaseCall()
+    {
+        return null;
+    }
+
+    /**
+     * @param event   the handle from {@link #beginDatabaseCall()}
+     * @param outcome ok, failed, expired or rejected
+     * @param probe   true if the call was a half-open probe of the breaker
+     */
+    public static void endDatabaseCall(Object event, String outcome, boolean probe)
+    {
+    }
+
+    /**
+     * @param sent true for bytes sent, false for a message received
+     * @param path the WebSocket's request path
+     * @param type text, binary or frames for bytes sent
+     * @param size the size in bytes, or characters for received text
+     */
+    public static void webSocketMessage(boolean sent, String path, String type, long size)
+    {
+    }
+
+    /**
+     * @param exception the mapped exception
+     * @param status    the status of the response it was mapped to
+     * @param mapper    the mapper class
+     */
+    public static void exceptionMapped(Throwable exception, int status, Class<?> mapper)
+    {
+    }
+}
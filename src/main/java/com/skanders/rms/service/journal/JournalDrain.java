@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.journal;
+
+import com.skanders.jbel.atsql.AtSQL;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Writes a batch of journaled records to the database. A batch that fails
+ * is retried, and records drained just before a crash are drained again on
+ * restart, so the write should be idempotent, e.g. keyed by an id carried in
+ * the record.
+ */
+@FunctionalInterface
+public interface JournalDrain
+{
+    /**
+     * @param atSQL   the service's connection pool
+     * @param records the records, in the order they were appended
+     * @throws SQLException if the batch could not be written
+     */
+    void write(AtSQL atSQL, List<byte[]> records) throws SQLException;
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.journal;
+
+import com.skanders.rms.service.db.DatabaseUnavailableException;
+
+/**
+ * Raised by {@link WriteBehindJournal} when an append waited
+ * journal.backpressureTimeout for the drain to catch up. Mapped to a 503
+ * with Retry-After like the database being unavailable.
+ */
+public class JournalFullException extends DatabaseUnavailableException
+{
+    /**
+     * @param message    why the append was rejected
+     * @param retryAfter seconds after which the append may be retried
+     */
+    public JournalFullException(String message, long retryAfter)
+    {
+        super(message, retryAfter);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads records of the journal's segments from a position, mapping one
+ * segment at a time.
+ * <p>
+ * A record is its length, the CRC32 of its bytes and its bytes. A length of
+ * 0 ends the data of a segment, segments are created zero filled and
+ * records never span two.
+ */
+final class JournalReader
+{
+    private static final Logger LOG = LoggerFactory.getLogger(JournalReader.class);
+
+    static final int HEADER = 8;
+
+    private final Path directory;
+    private final int  segmentSize;
+
+    private long             segment = -1;
+    private MappedByteBuffer buffer;
+    private long             position;
+
+    JournalReader(Path directory, int segmentSize, long position)
+    {
+        this.directory   = directory;
+        this.segmentSize = segmentSize;
+        this.position    = position;
+    }
+
+    /**
+     * @return the position after the last record read
+     */
+    long getPosition()
+    {
+        return position;
+    }
+
+    /**
+     * Reads up to max records, stopping at limit.
+     *
+     * @param max   the most records to read
+     * @param limit the position the journal is written up to
+     * @return the records read, empty if none
+     * @throws IOException if a segment could not be mapped or a record is
+     *                     corrupt
+     */
+    List<byte[]> read(int max, long limit) throws IOException
+    {
+        List<byte[]> records = new ArrayList<>();
+
+        while (records.size() < max && position < limit) {
+            long index  = position / segmentSize;
+            int  offset = (int) (position % segmentSize);
+
+            if (index != segment)
+                map(index);
+
+            int length = offset + HEADER <= segmentSize ? buffer.getInt(offset) : 0;
+
+            if (length == 0) {
+                position = (index + 1) * segmentSize;
+                continue;
+            }
+
+            byte[] record = readRecord(buffer, offset, length, segmentSize);
+
+            if (record == null)
+                throw new IOException("Journal record at " + position + " is corrupt");
+
+            records.add(record);
+            position += HEADER + length;
+        }
+
+        return records;
+    }
+
+    /**
+     * @param buffer      a mapped segment
+     * @param offset      the offset of a record
+     * @param length      the length read at the offset
+     * @param segmentSize the size of a segment
+     * @return the record, null if it is cut short or fails its checksum
+     */
+    static byte[] readRecord(ByteBuffer buffer, int offset, int length, int segmentSize)
+    {
+        if (length <= 0 || length > segmentSize - offset - HEADER)
+            return null;
+
+        byte[] record = new byte[length];
+
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + HEADER);
+        view.get(record);
+
+        return buffer.getInt(offset + 4) == checksum(record) ? record : null;
+    }
+
+    static int checksum(byte[] record)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Releases the segment mapped last.
+     */
+    void close()
+    {
+        release(buffer);
+        buffer  = null;
+        segment = -1;
+    }
+
+    /**
+     * Unmaps a segment rather than leaving it mapped until the buffer is
+     * collected. The buffer must not be used after.
+     *
+     * @param buffer a mapped segment, ignored if null
+     */
+    static void release(MappedByteBuffer buffer)
+    {
+        if (buffer == null)
+            return;
+
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+
+            try {
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field  theUnsafe     = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+
+            } catch (NoSuchMethodException e) {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+
+            }
+
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("Journal segment left mapped until collected, caused by '{}'.", e.getMessage());
+
+        }
+    }
+
+    private void map(long index) throws IOException
+    {
+        close();
+
+        try (FileChannel channel = FileChannel.open(WriteBehindJournal.segmentPath(directory, index),
+                StandardOpenOption.READ)) {
+            buffer  = channel.map(FileChannel.MapMode.READ_ONLY, 0, segmentSize);
+            segment = index;
+
+        }
+    }
+}
@@ -0,0 +1,771 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.journal;
+
+import com.skanders.jbel.def.Verify;
+import com.skanders.rms.config.JournalSync;
+import com.skanders.rms.config.RMSConfig;
+import com.skanders.rms.def.RMSException;
+import com.skanders.rms.service.db.DatabaseBreaker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A durable write-behind queue in front of the database.
+ * <p>
+ * Records are appended to memory-mapped segment files of
+ * journal.segmentSize under journal.directory and acknowledged once durable
+ * under journal.fsync:
+ * <ul>
+ * <li>ALWAYS, {@link #append(byte[])} returns once its record was forced to
+ * disk. Appends arriving while a force runs share the next one.</li>
+ * <li>INTERVAL, as ALWAYS but the flusher forces at most every
+ * journal.fsyncInterval, sharing each force between more appends.</li>
+ * <li>NONE, append returns once the record is in the mapped segment and
+ * survives the process but not the machine failing.</li>
+ * </ul>
+ * A background thread drains up to journal.batchSize records at a time
+ * through the {@link JournalDrain} set by the service, run through the
+ * {@link DatabaseBreaker}. Only records that are durable are drained, so a
+ * checkpoint never passes a record the machine failing could still take
+ * back. After a batch is written its position is
+ * checkpointed and fully drained segments deleted, a failed batch is retried
+ * with a backoff. On start the records after the checkpoint are replayed, so
+ * a record is drained at least once, and more than once if the service
+ * stopped between writing a batch and its checkpoint.
+ * <p>
+ * Once the records not yet drained take more than journal.maxBacklog,
+ * appends wait up to journal.backpressureTimeout for the drain to catch up
+ * and are then rejected with a {@link JournalFullException}.
+ */
+public final class WriteBehindJournal
+{
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindJournal.class);
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT     = "checkpoint";
+    private static final long   MAX_BACKOFF    = 10000;
+
+    private final Path            directory;
+    private final int             segmentSize;
+    private final JournalSync     fsync;
+    private final long            fsyncInterval;
+    private final int             batchSize;
+    private final long            drainInterval;
+    private final long            maxBacklog;
+    private final long            backpressureNanos;
+    private final Database        database;
+
+    private final ReentrantLock lock     = new ReentrantLock();
+    private final Condition     appended = lock.newCondition();
+    private final Condition     synced   = lock.newCondition();
+    private final Condition     drained  = lock.newCondition();
+    private final Condition     stopped  = lock.newCondition();
+    private final Condition     drainable;
+
+    private final List<MappedByteBuffer> retired = new ArrayList<>();
+
+    private MappedByteBuffer writeBuffer;
+    private long             writeSegment;
+    private int              writeOffset;
+    private long             oldestSegment;
+    private long             syncedPosition;
+    private boolean          closed;
+
+    private volatile long writePosition;
+    private volatile long drainedPosition;
+
+    private volatile JournalDrain drain;
+    private final Thread          flusher;
+    private Thread                drainer;
+
+    private long   appends;
+    private long   appendedBytes;
+    private long   forces;
+    private long   rejected;
+    private long   batches;
+    private long   drainedRecords;
+    private long   drainFailures;
+    private String lastError;
+
+    /**
+     * Constructs an instance of WriteBehindJournal, opening the journal and
+     * recovering its records. A record cut short by the process or machine
+     * failing mid-append was not acknowledged and is dropped.
+     *
+     * @param breaker the breaker guarding the pool the journal drains to
+     * @param config  a RMSConfig instance
+     * @throws RMSException if the journal could not be opened
+     * @see RMSConfig
+     */
+    public WriteBehindJournal(@Nonnull DatabaseBreaker breaker, @Nonnull RMSConfig config)
+    {
+        this((writer, batch) -> breaker.execute(atSQL -> {
+                    writer.write(atSQL, batch);
+                    return null;
+                }),
+                Paths.get(config.getJournalDirectory()), config.getJournalSegmentSize(), config.getJournalFsync(),
+                config.getJournalFsyncInterval(), config.getJournalBatchSize(), config.getJournalDrainInterval(),
+                config.getJournalMaxBacklog(), config.getJournalBackpressureTimeout());
+    }
+
+    WriteBehindJournal(Database database, Path directory, int segmentSize, JournalSync fsync, long fsyncInterval,
+            int batchSize, long drainInterval, long maxBacklog, long backpressureTimeout)
+    {
+        this.database          = database;
+        this.directory         = directory;
+        this.segmentSize       = segmentSize;
+        this.fsync             = fsync;
+        this.fsyncInterval     = fsyncInterval;
+        this.batchSize         = batchSize;
+        this.drainInterval     = drainInterval;
+        this.maxBacklog        = maxBacklog;
+        this.backpressureNanos = TimeUnit.MILLISECONDS.toNanos(backpressureTimeout);
+        this.drainable         = fsync != JournalSync.NONE ? synced : appended;
+
+        try {
+            recover();
+
+        } catch (IOException e) {
+            throw new RMSException("Journal '" + directory + "' could not be opened: " + e.getMessage());
+
+        }
+
+        flusher = fsync != JournalSync.NONE ? startThread(this::flush, "rms-journal-flusher") : null;
+    }
+
+    /**
+     * Sets the drain writing batches of records to the database. Records are
+     * kept in the journal until it is set.
+     *
+     * @param drain the journal's drain
+     */
+    public void setDrain(@Nonnull JournalDrain drain)
+    {
+        Verify.notNull(drain, "drain cannot be null");
+
+        this.drain = drain;
+    }
+
+    /**
+     * Starts the drainer thread, draining any records replayed from the
+     * journal first.
+     */
+    public void start()
+    {
+        lock.lock();
+        try {
+            if (drainer != null || closed)
+                return;
+
+            drainer = startThread(this::drain, "rms-journal-drainer");
+
+        } finally {
+            lock.unlock();
+
+        }
+    }
+
+    /**
+     * Appends a record, returning once it is durable under journal.fsync.
+     *
+     * @param record the record, not empty and fitting a segment
+     * @throws JournalFullException if the drain did not catch up within
+     *                              journal.backpressureTimeout
+     * @throws RMSException         if the journal is closed or could not be
+     *                              written
+     */
+    public void append(@Nonnull byte[] record)
+    {
+        Verify.notNull(record, "record cannot be null");
+        Verify.isTrue(record.length > 0, "record cannot be empty");
+
+        if (record.length > segmentSize - JournalReader.HEADER)
+            throw new RMSException("Journal record of " + record.length + " bytes does not fit a segment.");
+
+        int checksum = JournalReader.checksum(record);
+
+        lock.lock();
+        try {
+            awaitBacklog();
+
+            if (writeOffset + JournalReader.HEADER + record.length > segmentSize)
+                rotate();
+
+            writeBuffer.position(writeOffset);
+            writeBuffer.putInt(record.length).putInt(checksum).put(record);
+
+            writeOffset  += JournalReader.HEADER + record.length;
+            writePosition = writeSegment * segmentSize + writeOffset;
+
+            appends++;
+            appendedBytes += record.length;
+            appended.signalAll();
+
+            if (fsync != JournalSync.NONE)
+                awaitSynced(writePosition);
+
+        } catch (IOException e) {
+            throw new RMSException("Journal append failed: " + e.getMessage());
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RMSException("Journal append was interrupted.");
+
+        } finally {
+            lock.unlock();
+
+        }
+    }
+
+    /**
+     * Stops appends, forces the journal and stops the drain once its current
+     * batch is written. Records not yet drained are replayed on the next
+     * start.
+     */
+    public void close()
+    {
+        Thread draining;
+
+        lock.lock();
+        try {
+            if (closed)
+                return;
+
+            closed   = true;
+            draining = drainer;
+
+            appended.signalAll();
+            synced.signalAll();
+            drained.signalAll();
+            stopped.signalAll();
+
+        } finally {
+            lock.unlock();
+
+        }
+
+        try {
+            if (flusher != null)
+                flusher.join();
+
+            if (draining != null)
+                draining.join();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+        }
+
+        lock.lock();
+        try {
+            writeBuffer.force();
+            releaseRetired();
+            JournalReader.release(writeBuffer);
+
+        } finally {
+            lock.unlock();
+
+        }
+
+        LOG.info("Journal closed with {} bytes not yet drained.", writePosition - drainedPosition);
+    }
+
+    /**
+     * @return the journal's positions, backlog and counters
+     */
+    public Map<String, Object> snapshot()
+    {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+
+        lock.lock();
+        try {
+            snapshot.put("directory", directory.toAbsolutePath().toString());
+            snapshot.put("fsync", fsync.name());
+            snapshot.put("writePosition", writePosition);
+            snapshot.put("syncedPosition", fsync == JournalSync.NONE ? writePosition : syncedPosition);
+            snapshot.put("drainedPosition", drainedPosition);
+            snapshot.put("backlogBytes", writePosition - drainedPosition);
+            snapshot.put("segments", writeSegment - oldestSegment + 1);
+            snapshot.put("appends", appends);
+            snapshot.put("appendedBytes", appendedBytes);
+            snapshot.put("forces", forces);
+            snapshot.put("rejected", rejected);
+            snapshot.put("batches", batches);
+            snapshot.put("drainedRecords", drainedRecords);
+            snapshot.put("drainFailures", drainFailures);
+            snapshot.put("lastError", lastError);
+
+        } finally {
+            lock.unlock();
+
+        }
+
+        return snapshot;
+    }
+
+    static Path segmentPath(Path directory, long segment)
+    {
+        return directory.resolve(String.format("%016d", segment) + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Finds the segments and checkpoint, and the end of the records in the
+     * last segment, zeroing anything after it. The records are looked for
+     * from the checkpoint on, so appends continue after it even if the
+     * records before it did not survive the machine failing.
+     */
+    private void recover() throws IOException
+    {
+        Files.createDirectories(directory);
+
+        TreeSet<Long> segments = new TreeSet<>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            }
+
+        } catch (NumberFormatException e) {
+            throw new IOException("unexpected segment file name, " + e.getMessage());
+
+        }
+
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        long position   = Files.exists(checkpoint) ? ByteBuffer.wrap(Files.readAllBytes(checkpoint)).getLong() : 0;
+
+        long checkpointSegment = position / segmentSize;
+
+        if (segments.isEmpty())
+            segments.add(checkpointSegment);
+
+        oldestSegment   = segments.first();
+        writeSegment    = Math.max(segments.last(), checkpointSegment);
+        drainedPosition = Math.max(position, oldestSegment * segmentSize);
+        writeBuffer     = mapSegment(writeSegment);
+        writeOffset     = writeSegment == checkpointSegment ? (int) (position % segmentSize) : 0;
+
+        while (writeOffset + JournalReader.HEADER <= segmentSize) {
+            int length = writeBuffer.getInt(writeOffset);
+
+            if (length == 0 || JournalReader.readRecord(writeBuffer, writeOffset, length, segmentSize) == null)
+                break;
+
+            writeOffset += JournalReader.HEADER + length;
+        }
+
+        int torn = 0;
+
+        for (int i = writeOffset; i < segmentSize; i++) {
+            if (writeBuffer.get(i) != 0) {
+                writeBuffer.put(i, (byte) 0);
+                torn++;
+            }
+        }
+
+        if (torn > 0)
+            LOG.warn("Journal dropped a record cut short at position {}.", writeSegment * segmentSize + writeOffset);
+
+        writeBuffer.force();
+
+        writePosition  = writeSegment * segmentSize + writeOffset;
+        syncedPosition = writePosition;
+
+        if (writePosition > drainedPosition)
+            LOG.info("Journal replaying {} bytes from position {}.", writePosition - drainedPosition,
+                    drainedPosition);
+    }
+
+    private MappedByteBuffer mapSegment(long segment) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(segmentPath(directory, segment), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            channel.force(true);
+            return buffer;
+
+        }
+    }
+
+    /**
+     * Forces the current segment and starts the next. Called holding the
+     * lock, the forced segment counts as synced. The flusher may still be
+     * forcing it, if running it releases the mapping after its force.
+     */
+    private void rotate() throws IOException
+    {
+        writeBuffer.force();
+
+        syncedPosition = Math.max(syncedPosition, writePosition);
+        synced.signalAll();
+
+        if (flusher != null)
+            retired.add(writeBuffer);
+        else
+            JournalReader.release(writeBuffer);
+
+        writeBuffer  = mapSegment(writeSegment + 1);
+        writeSegment = writeSegment + 1;
+        writeOffset  = 0;
+    }
+
+    private void awaitBacklog() throws InterruptedException
+    {
+        long remaining = backpressureNanos;
+
+        while (!closed && writePosition - drainedPosition > maxBacklog) {
+            if (remaining <= 0) {
+                rejected++;
+                throw new JournalFullException("Journal backlog of " + (writePosition - drainedPosition) +
+                        " bytes exceeds " + maxBacklog + ".", 1);
+            }
+
+            remaining = drained.awaitNanos(remaining);
+        }
+
+        if (closed)
+            throw new RMSException("Journal is closed.");
+    }
+
+    /**
+     * Waits for the flusher, which keeps running after close until every
+     * append is synced.
+     */
+    private void awaitSynced(long position) throws InterruptedException
+    {
+        while (syncedPosition < position)
+            synced.await();
+    }
+
+    /**
+     * Waits millis or until the journal is closed.
+     */
+    private void pause(long millis) throws InterruptedException
+    {
+        lock.lock();
+        try {
+            if (!closed)
+                stopped.await(millis, TimeUnit.MILLISECONDS);
+
+        } finally {
+            lock.unlock();
+
+        }
+    }
+
+    /**
+     * Forces the current segment whenever appends are waiting on it.
+     */
+    private void flush()
+    {
+        try {
+            while (true) {
+                lock.lock();
+                try {
+                    while (!closed && syncedPosition >= writePosition)
+                        appended.await();
+
+                    if (syncedPosition >= writePosition) {
+                        releaseRetired();
+                        return;
+                    }
+
+                } finally {
+                    lock.unlock();
+
+                }
+
+                if (fsync == JournalSync.INTERVAL && !closed)
+                    TimeUnit.MILLISECONDS.sleep(fsyncInterval);
+
+                MappedByteBuffer buffer;
+                long             target;
+
+                lock.lock();
+                try {
+                    buffer = writeBuffer;
+                    target = writePosition;
+
+                } finally {
+                    lock.unlock();
+
+                }
+
+                buffer.force();
+
+                lock.lock();
+                try {
+                    syncedPosition = Math.max(syncedPosition, target);
+                    forces++;
+                    synced.signalAll();
+                    releaseRetired();
+
+                } finally {
+                    lock.unlock();
+
+                }
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+        }
+    }
+
+    /**
+     * Reads batches from the drained position up to the synced position and
+     * writes them through the drain, lingering journal.drainInterval once
+     * caught up so the next batch gathers more records.
+     */
+    private void drain()
+    {
+        JournalReader reader  = new JournalReader(directory, segmentSize, drainedPosition);
+        List<byte[]>  batch   = null;
+        int           retries = 0;
+
+        try {
+            while (true) {
+                JournalDrain writer = drain;
+
+                if (writer == null) {
+                    if (isClosed())
+                        return;
+
+                    pause(drainInterval);
+                    continue;
+                }
+
+                if (batch == null) {
+                    boolean waited = false;
+
+                    lock.lock();
+                    try {
+                        while (!closed && reader.getPosition() >= drainLimit()) {
+                            drainable.await();
+                            waited = true;
+                        }
+
+                        if (closed)
+                            return;
+
+                    } finally {
+                        lock.unlock();
+
+                    }
+
+                    if (waited)
+                        pause(drainInterval);
+
+                    batch = reader.read(batchSize, syncedLimit());
+                }
+
+                if (write(writer, batch)) {
+                    checkpoint(reader.getPosition(), batch.size());
+                    batch   = null;
+                    retries = 0;
+
+                } else if (isClosed()) {
+                    return;
+
+                } else {
+                    pause(Math.min(MAX_BACKOFF, drainInterval << Math.min(retries++, 10)));
+
+                }
+            }
+
+        } catch (IOException e) {
+            LOG.error("Journal drain stopped, caused by '{}'.", e.getMessage());
+            failed(e);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+        } finally {
+            reader.close();
+
+        }
+    }
+
+    private boolean write(JournalDrain writer, List<byte[]> batch)
+    {
+        if (batch.isEmpty())
+            return true;
+
+        try {
+            database.write(writer, batch);
+
+            return true;
+
+        } catch (Exception e) {
+            LOG.warn("Journal drain of {} records failed, caused by '{}'.", batch.size(), e.getMessage());
+            failed(e);
+            return false;
+
+        }
+    }
+
+    private void failed(Exception e)
+    {
+        lock.lock();
+        try {
+            drainFailures++;
+            lastError = e.getMessage();
+
+        } finally {
+            lock.unlock();
+
+        }
+    }
+
+    /**
+     * Persists the drained position, then deletes the segments before it
+     * and wakes appends waiting on the backlog.
+     */
+    private void checkpoint(long position, int records) throws IOException
+    {
+        Path temp = directory.resolve(CHECKPOINT + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(position);
+            buffer.flip();
+
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+
+            channel.force(true);
+
+        }
+
+        Files.move(temp, directory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+
+        long oldest;
+        long current = Math.min(position / segmentSize, writeSegment());
+
+        lock.lock();
+        try {
+            oldest          = oldestSegment;
+            oldestSegment   = Math.max(oldestSegment, current);
+            drainedPosition = position;
+            batches++;
+            drainedRecords += records;
+            drained.signalAll();
+
+        } finally {
+            lock.unlock();
+
+        }
+
+        for (long segment = oldest; segment < current; segment++)
+            Files.deleteIfExists(segmentPath(directory, segment));
+    }
+
+    /**
+     * @return the position the drain may read up to, called holding the lock
+     */
+    private long drainLimit()
+    {
+        return fsync != JournalSync.NONE ? syncedPosition : writePosition;
+    }
+
+    private long syncedLimit()
+    {
+        lock.lock();
+        try {
+            return drainLimit();
+
+        } finally {
+            lock.unlock();
+
+        }
+    }
+
+    /**
+     * Releases the mappings of rotated segments, called holding the lock.
+     */
+    private void releaseRetired()
+    {
+        for (MappedByteBuffer buffer : retired)
+            JournalReader.release(buffer);
+
+        retired.clear();
+    }
+
+    private boolean isClosed()
+    {
+        lock.lock();
+        try {
+            return closed;
+
+        } finally {
+            lock.unlock();
+
+        }
+    }
+
+    private long writeSegment()
+    {
+        lock.lock();
+        try {
+            return writeSegment;
+
+        } finally {
+            lock.unlock();
+
+        }
+    }
+
+    /**
+     * Writes a batch through the drain, through the breaker outside of
+     * tests.
+     */
+    interface Database
+    {
+        void write(JournalDrain writer, List<byte[]> batch) throws Exception;
+    }
+
+    private static Thread startThread(Runnable runnable, String name)
+    {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+
+        return thread;
+    }
+}
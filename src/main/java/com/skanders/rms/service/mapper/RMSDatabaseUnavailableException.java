@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.mapper;
+
+import com.skanders.rms.service.db.DatabaseUnavailableException;
+import com.skanders.rms.service.jfr.RMSEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.ext.ExceptionMapper;
+
+public class RMSDatabaseUnavailableException implements ExceptionMapper<DatabaseUnavailableException>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RMSDatabaseUnavailableException.class);
+
+    @Override
+    public Response toResponse(DatabaseUnavailableException e)
+    {
+        LOG.debug("Incoming Request raised an '{}' exception, caused by '{}'.", e.getClass(), e.getMessage());
+        RMSEvents.exceptionMapped(e, Status.SERVICE_UNAVAILABLE.getStatusCode(), getClass());
+
+        return Response.status(Status.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, e.getRetryAfter()).build();
+    }
+}
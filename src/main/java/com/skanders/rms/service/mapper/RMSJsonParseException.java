@@ -19,6 +19,7 @@ package com.skanders.rms.service.mapper;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.skanders.jbel.def.SkandersResult;
 import com.skanders.jbel.model.ResponseModel;
+import com.skanders.rms.service.jfr.RMSEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,6 +43,8 @@ public class RMSJsonParseException implements ExceptionMapper<JsonParseException
     public Response toResponse(JsonParseException e)
     {
         LOG.error("Incoming Request raised an '{}' exception, caused by '{}'.", e.getClass(), e.getMessage());
+        RMSEvents.exceptionMapped(e, Status.BAD_REQUEST.getStatusCode(), getClass());
+
         return Response.status(Status.BAD_REQUEST).entity(new JsonParseResult()).build();
     }
 }
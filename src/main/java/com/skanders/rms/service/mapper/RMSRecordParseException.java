@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.mapper;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.skanders.rms.service.stream.RecordParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+
+/**
+ * Maps a record of a streamed body that failed to parse or bind the same way
+ * as a whole body failing, through {@link RMSJsonParseException} and {@link
+ * RMSJsonMappingException}.
+ */
+public class RMSRecordParseException implements ExceptionMapper<RecordParseException>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RMSRecordParseException.class);
+
+    private final RMSJsonParseException   parseMapper   = new RMSJsonParseException();
+    private final RMSJsonMappingException mappingMapper = new RMSJsonMappingException();
+
+    @Override
+    public Response toResponse(RecordParseException e)
+    {
+        LOG.error("Incoming Request failed at record {}.", e.getRecord());
+
+        if (e.getCause() instanceof JsonMappingException)
+            return mappingMapper.toResponse((JsonMappingException) e.getCause());
+
+        if (e.getCause() instanceof JsonParseException)
+            return parseMapper.toResponse((JsonParseException) e.getCause());
+
+        return parseMapper.toResponse(new JsonParseException(null, e.getCause().getOriginalMessage()));
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.skanders.rms.service.mapper;
 
+import com.skanders.rms.service.jfr.RMSEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,6 +32,8 @@ public class RMSThrowable implements ExceptionMapper<Throwable>
     public Response toResponse(Throwable e)
     {
         LOG.error("Incoming Request raised an '{}' exception, caused by '{}'.", e.getClass(), e.getMessage());
+        RMSEvents.exceptionMapped(e, Status.INTERNAL_SERVER_ERROR.getStatusCode(), getClass());
+
         return Response.status(Status.INTERNAL_SERVER_ERROR).build();
     }
 }
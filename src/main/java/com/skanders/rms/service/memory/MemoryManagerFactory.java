@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.memory;
+
+import com.skanders.jbel.def.Verify;
+import com.skanders.rms.config.MemoryType;
+import com.skanders.rms.config.RMSConfig;
+import com.skanders.rms.def.RMSException;
+import org.glassfish.grizzly.memory.HeapMemoryManager;
+import org.glassfish.grizzly.memory.MemoryManager;
+import org.glassfish.grizzly.memory.PooledMemoryManager;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Builds the Grizzly {@link MemoryManager} selected by server.memory.type.
+ * <ul>
+ *     <li>HEAP: heap buffers sliced out of a per worker thread cache of
+ *     threadCacheSize bytes</li>
+ *     <li>POOLED: heap buffers recycled through striped pools of growing
+ *     buffer sizes</li>
+ *     <li>POOLED_DIRECT: the same pools holding direct buffers</li>
+ * </ul>
+ */
+public final class MemoryManagerFactory
+{
+    private MemoryManagerFactory()
+    {
+    }
+
+    /**
+     * Creates the memory manager declared in the config.
+     *
+     * @param config a RMSConfig instance with a memory type other than
+     *               DEFAULT
+     * @return a new MemoryManager
+     * @throws RMSException if the pool settings are invalid
+     */
+    public static MemoryManager<?> create(@Nonnull RMSConfig config)
+    {
+        Verify.notNull(config, "config cannot be null");
+
+        MemoryType type = config.getMemoryType();
+
+        if (type == MemoryType.HEAP)
+            return new HeapMemoryManager(config.getMemoryThreadCacheSize());
+
+        Verify.isTrue(type != MemoryType.DEFAULT, "the default memory manager is not created by RMS");
+
+        try {
+            return new PooledMemoryManager(
+                    config.getMemoryBufferSize(), config.getMemoryPools(), config.getMemoryGrowthFactor(),
+                    config.getMemorySlices(), config.getMemoryHeapPercent(), config.getMemoryPreallocatePercent(),
+                    type == MemoryType.POOLED_DIRECT);
+
+        } catch (IllegalArgumentException e) {
+            throw new RMSException("Invalid server.memory settings: " + e.getMessage());
+
+        }
+    }
+}
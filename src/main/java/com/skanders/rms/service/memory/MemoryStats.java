@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.memory;
+
+import com.skanders.rms.config.MemoryType;
+import org.glassfish.grizzly.memory.MemoryManager;
+import org.glassfish.grizzly.memory.MemoryProbe;
+
+import javax.annotation.Nonnull;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the buffer traffic of a {@link MemoryManager}. A hit is a buffer
+ * served from a pool or thread cache, a miss is a buffer the manager had to
+ * allocate, which is what ends up as young generation garbage.
+ */
+public class MemoryStats extends MemoryProbe.Adapter
+{
+    private final MemoryType type;
+
+    private final LongAdder hits          = new LongAdder();
+    private final LongAdder hitBytes      = new LongAdder();
+    private final LongAdder misses        = new LongAdder();
+    private final LongAdder missBytes     = new LongAdder();
+    private final LongAdder releases      = new LongAdder();
+    private final LongAdder releasedBytes = new LongAdder();
+
+    /**
+     * Constructs an instance of MemoryStats.
+     *
+     * @param type the type of the manager being counted
+     */
+    public MemoryStats(@Nonnull MemoryType type)
+    {
+        this.type = type;
+    }
+
+    /**
+     * Adds this probe to the given memory manager. Buffers preallocated
+     * before the probe is attached are not counted.
+     *
+     * @param memoryManager the manager to count
+     */
+    public void attach(@Nonnull MemoryManager<?> memoryManager)
+    {
+        memoryManager.getMonitoringConfig().addProbes(this);
+    }
+
+    @Override
+    public void onBufferAllocateEvent(int size)
+    {
+        misses.increment();
+        missBytes.add(size);
+    }
+
+    @Override
+    public void onBufferAllocateFromPoolEvent(int size)
+    {
+        hits.increment();
+        hitBytes.add(size);
+    }
+
+    @Override
+    public void onBufferReleaseToPoolEvent(int size)
+    {
+        releases.increment();
+        releasedBytes.add(size);
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * @return hits over all allocations, 0 if nothing was allocated yet
+     */
+    public double getHitRatio()
+    {
+        long hits  = this.hits.sum();
+        long total = hits + misses.sum();
+
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return the counters as a map, for the admin endpoint
+     */
+    public Map<String, Object> snapshot()
+    {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("type", type.name());
+        snapshot.put("hits", hits.sum());
+        snapshot.put("hitBytes", hitBytes.sum());
+        snapshot.put("misses", misses.sum());
+        snapshot.put("missBytes", missBytes.sum());
+        snapshot.put("releases", releases.sum());
+        snapshot.put("releasedBytes", releasedBytes.sum());
+        snapshot.put("hitRatio", getHitRatio());
+        return snapshot;
+    }
+}
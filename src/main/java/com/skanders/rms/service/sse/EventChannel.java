@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.sse;
+
+import javax.annotation.Nonnull;
+import javax.ws.rs.core.Response;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * A named stream of server-sent events. Each event is encoded once when it
+ * is published and queued on every connected client's stream, publishing
+ * never waits on a client.
+ * <p>
+ * The channel keeps its last events in a ring buffer, a client reconnecting
+ * with a Last-Event-ID header is sent the events it missed before the new
+ * ones. A resource serves a channel by returning its subscription:
+ * <pre>
+ *   &#64;GET
+ *   &#64;Path("orders/events")
+ *   public Response orderEvents(&#64;HeaderParam(EventChannel.LAST_EVENT_ID) String lastEventId)
+ *   {
+ *       return channels.channel("orders").subscribe(lastEventId);
+ *   }
+ * </pre>
+ */
+public final class EventChannel
+{
+    public static final String LAST_EVENT_ID = "Last-Event-ID";
+    public static final String MEDIA_TYPE    = "text/event-stream";
+
+    private static final Pattern LINE_BREAK = Pattern.compile("\r\n|\r|\n");
+
+    private final String   name;
+    private final Executor writers;
+    private final int      maxQueued;
+    private final byte[]   opening;
+
+    private final long[]   replayIds;
+    private final byte[][] replayFrames;
+
+    private final Set<EventSink> sinks     = ConcurrentHashMap.newKeySet();
+    private final AtomicLong     evicted   = new AtomicLong();
+    private final AtomicLong     published = new AtomicLong();
+
+    private long lastId;
+
+    EventChannel(String name, Executor writers, int replaySize, int maxQueued, long retry)
+    {
+        this.name         = name;
+        this.writers      = writers;
+        this.maxQueued    = maxQueued;
+        this.opening      = (retry > 0 ? "retry: " + retry + "\n\n" : ":\n\n").getBytes(StandardCharsets.UTF_8);
+        this.replayIds    = new long[replaySize];
+        this.replayFrames = new byte[replaySize][];
+    }
+
+    /**
+     * @return name of the channel
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Publishes an unnamed event, a "message" event to the client.
+     *
+     * @param data the event data, may span lines
+     * @return id of the event
+     */
+    public long publish(@Nonnull String data)
+    {
+        return publish(null, data);
+    }
+
+    /**
+     * Publishes an event to every connected client and keeps it for replay.
+     *
+     * @param event the event name, null for an unnamed event
+     * @param data  the event data, may span lines
+     * @return id of the event
+     */
+    public long publish(String event, @Nonnull String data)
+    {
+        long            id;
+        List<EventSink> behind = null;
+
+        synchronized (this) {
+            id = ++lastId;
+
+            byte[] frame = encode(id, event, data);
+
+            if (replayIds.length > 0) {
+                int slot = (int) (id % replayIds.length);
+
+                replayIds[slot]    = id;
+                replayFrames[slot] = frame;
+            }
+
+            for (EventSink sink : sinks)
+                if (!sink.offer(frame))
+                    behind = add(behind, sink);
+        }
+
+        published.incrementAndGet();
+        evictAll(behind);
+
+        return id;
+    }
+
+    /**
+     * Connects a client to the channel. Events after the given id still kept
+     * by the channel are sent first, then every event published from now on.
+     *
+     * @param lastEventId the client's Last-Event-ID header, null for none
+     * @return a 200 response streaming the events, to be returned by a GET
+     * resource method
+     */
+    public Response subscribe(String lastEventId)
+    {
+        EventSink sink     = new EventSink(this, writers, maxQueued);
+        long      resume   = parseId(lastEventId);
+        boolean   accepted = sink.offer(opening);
+
+        synchronized (this) {
+            if (resume >= 0 && replayIds.length > 0) {
+                // A client ahead of the channel saw a previous run, it is sent what is kept
+                long first = resume <= lastId ? resume + 1 : lastId - replayIds.length + 1;
+
+                for (long id = Math.max(first, lastId - replayIds.length + 1); id <= lastId; id++) {
+                    int slot = (int) (id % replayIds.length);
+
+                    if (id > 0 && replayIds[slot] == id)
+                        accepted &= sink.offer(replayFrames[slot]);
+                }
+            }
+
+            sinks.add(sink);
+        }
+
+        if (!accepted)
+            evict(sink);
+
+        return Response.ok(sink.getOutput(), MEDIA_TYPE)
+                .header("Cache-Control", "no-cache")
+                .header("X-Accel-Buffering", "no")
+                .build();
+    }
+
+    /**
+     * @return number of connected clients
+     */
+    public int getSubscriberCount()
+    {
+        return sinks.size();
+    }
+
+    /**
+     * @return id of the last published event, 0 if there is none
+     */
+    public synchronized long getLastEventId()
+    {
+        return lastId;
+    }
+
+    /**
+     * Queues a heartbeat comment on every stream that had no event for the
+     * given time and drops streams the client has closed.
+     *
+     * @param idleNanos the time since a stream's last event
+     * @param heartbeat the encoded comment
+     */
+    void heartbeat(long idleNanos, byte[] heartbeat)
+    {
+        long now = System.nanoTime();
+
+        for (EventSink sink : sinks) {
+            if (sink.isClosed())
+                remove(sink);
+            else if (now - sink.getLastOffered() >= idleNanos && !sink.offer(heartbeat))
+                evict(sink);
+        }
+    }
+
+    /**
+     * Evicts the streams whose current write has blocked for the given time.
+     *
+     * @param timeoutNanos the time a write may block
+     */
+    void expireWrites(long timeoutNanos)
+    {
+        long now = System.nanoTime();
+
+        for (EventSink sink : sinks)
+            if (sink.expireWrite(timeoutNanos, now) && sinks.remove(sink))
+                evicted.incrementAndGet();
+    }
+
+    void remove(EventSink sink)
+    {
+        if (sinks.remove(sink))
+            sink.close();
+    }
+
+    void evict(EventSink sink)
+    {
+        if (sinks.remove(sink))
+            evicted.incrementAndGet();
+
+        sink.close();
+    }
+
+    private void evictAll(List<EventSink> behind)
+    {
+        if (behind != null)
+            for (EventSink sink : behind)
+                evict(sink);
+    }
+
+    private static List<EventSink> add(List<EventSink> list, EventSink sink)
+    {
+        if (list == null)
+            list = new ArrayList<>();
+
+        list.add(sink);
+
+        return list;
+    }
+
+    void close()
+    {
+        for (EventSink sink : sinks)
+            remove(sink);
+    }
+
+    Map<String, Object> snapshot()
+    {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+
+        snapshot.put("subscribers", sinks.size());
+        snapshot.put("published", published.get());
+        snapshot.put("lastEventId", getLastEventId());
+        snapshot.put("evicted", evicted.get());
+
+        return snapshot;
+    }
+
+    private static long parseId(String lastEventId)
+    {
+        if (lastEventId == null)
+            return -1;
+
+        try {
+            return Long.parseLong(lastEventId.trim());
+
+        } catch (NumberFormatException e) {
+            return -1;
+
+        }
+    }
+
+    static byte[] encode(long id, String event, String data)
+    {
+        StringBuilder frame = new StringBuilder(data.length() + 32);
+
+        frame.append("id: ").append(id).append('\n');
+
+        if (event != null)
+            frame.append("event: ").append(LINE_BREAK.matcher(event).replaceAll(" ")).append('\n');
+
+        for (String line : LINE_BREAK.split(data, -1))
+            frame.append("data: ").append(line).append('\n');
+
+        return frame.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
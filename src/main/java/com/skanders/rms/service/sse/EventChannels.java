@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.sse;
+
+import com.skanders.jbel.def.Verify;
+import com.skanders.rms.config.RMSConfig;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The server-sent event channels of a service, created on first use by
+ * name. Registered by RMSResourceConfig when sse.enabled is set, resources
+ * receive it through injection:
+ * <pre>
+ *   &#64;Inject
+ *   private EventChannels channels;
+ * </pre>
+ * Event streams are written by a shared pool of writer threads, a heartbeat
+ * thread keeps idle streams open through proxies, drops closed ones and
+ * abandons writes blocked past sse.writeTimeout.
+ */
+public final class EventChannels
+{
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final ConcurrentMap<String, EventChannel> channels = new ConcurrentHashMap<>();
+
+    private final ExecutorService          writers;
+    private final ScheduledExecutorService heartbeats;
+
+    private final int  replaySize;
+    private final int  maxQueued;
+    private final long retry;
+
+    /**
+     * Constructs an instance of EventChannels.
+     *
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    public EventChannels(@Nonnull RMSConfig config)
+    {
+        Verify.notNull(config, "config cannot be null");
+
+        this.replaySize = config.getSseReplaySize();
+        this.maxQueued  = config.getSseMaxQueued();
+        this.retry      = config.getSseRetry();
+        this.writers    = Executors.newFixedThreadPool(config.getSseWriterThreads(), threadFactory("rms-sse-"));
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(threadFactory("rms-sse-heartbeat-"));
+
+        long heartbeat = config.getSseHeartbeat();
+
+        if (heartbeat > 0)
+            heartbeats.scheduleWithFixedDelay(() -> {
+                long idleNanos = TimeUnit.MILLISECONDS.toNanos(heartbeat);
+
+                for (EventChannel channel : channels.values())
+                    channel.heartbeat(idleNanos, HEARTBEAT);
+            }, heartbeat, heartbeat, TimeUnit.MILLISECONDS);
+
+        long writeTimeout = config.getSseWriteTimeout();
+        long checkPeriod  = Math.max(writeTimeout / 4, 1);
+
+        heartbeats.scheduleWithFixedDelay(() -> {
+            long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeout);
+
+            for (EventChannel channel : channels.values())
+                channel.expireWrites(timeoutNanos);
+        }, checkPeriod, checkPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the channel of the given name, creating it on first use.
+     *
+     * @param name the channel name
+     * @return the channel
+     */
+    public EventChannel channel(@Nonnull String name)
+    {
+        Verify.notNull(name, "name cannot be null");
+
+        return channels.computeIfAbsent(name, n -> new EventChannel(n, writers, replaySize, maxQueued, retry));
+    }
+
+    /**
+     * @return subscribers, published events and evictions per channel
+     */
+    public Map<String, Object> snapshot()
+    {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+
+        for (EventChannel channel : channels.values())
+            snapshot.put(channel.getName(), channel.snapshot());
+
+        return snapshot;
+    }
+
+    /**
+     * Closes every event stream and stops the writer and heartbeat threads.
+     * Called on shutdown, open streams would otherwise hold a graceful
+     * shutdown until its grace period ends.
+     */
+    public void close()
+    {
+        heartbeats.shutdownNow();
+
+        for (EventChannel channel : channels.values())
+            channel.close();
+
+        writers.shutdown();
+    }
+
+    private static ThreadFactory threadFactory(String prefix)
+    {
+        AtomicInteger count = new AtomicInteger();
+
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
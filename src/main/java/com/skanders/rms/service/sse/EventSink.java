@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.sse;
+
+import org.glassfish.grizzly.Connection;
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One client's event stream. Publishers only queue encoded events, a writer
+ * thread drains the queue to the client, at most one at a time per sink.
+ * A sink falling more than maxQueued events behind is evicted by its
+ * channel. A write blocked past the write timeout is failed by closing the
+ * client's connection, or by interrupting the writer when the stream has
+ * no Grizzly connection, so a stalled client holds a writer thread for
+ * about the timeout.
+ */
+final class EventSink
+{
+    private static final Logger LOG = LoggerFactory.getLogger(EventSink.class);
+
+    private final Stream                output   = new Stream(this);
+    private final Queue<byte[]>         queue    = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger         queued   = new AtomicInteger();
+    private final AtomicBoolean         draining = new AtomicBoolean();
+
+    private final EventChannel channel;
+    private final Executor     writers;
+    private final int          maxQueued;
+
+    private volatile boolean       closed;
+    private volatile long          lastOffered = System.nanoTime();
+    private volatile Connection<?> connection;
+
+    // Guarded by this, an interrupt may only reach the writer during its write
+    private Thread  writer;
+    private long    writeStarted;
+    private boolean expired;
+    private boolean interrupted;
+
+    EventSink(EventChannel channel, Executor writers, int maxQueued)
+    {
+        this.channel   = channel;
+        this.writers   = writers;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * @return the stream returned to Jersey as the response entity
+     */
+    Stream getOutput()
+    {
+        return output;
+    }
+
+    /**
+     * @param connection the Grizzly connection of the client
+     */
+    void attach(Connection<?> connection)
+    {
+        this.connection = connection;
+    }
+
+    /**
+     * Queues an encoded event without blocking.
+     *
+     * @param frame the encoded event
+     * @return false if the sink is closed or fell behind, the caller then
+     * evicts it outside of any lock
+     */
+    boolean offer(byte[] frame)
+    {
+        if (closed)
+            return false;
+
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            LOG.debug("Event stream of channel '{}' fell {} events behind, closing it.", channel.getName(), maxQueued);
+            return false;
+        }
+
+        queue.add(frame);
+        lastOffered = System.nanoTime();
+
+        if (draining.compareAndSet(false, true))
+            writers.execute(this::drain);
+
+        return true;
+    }
+
+    /**
+     * @return nanoTime of the last queued event
+     */
+    long getLastOffered()
+    {
+        return lastOffered;
+    }
+
+    /**
+     * Abandons the current write if it has blocked for the given time. The
+     * connection is closed, failing the write, and the writer closes the
+     * stream. Closing the stream here would wait on the blocked write.
+     *
+     * @param timeoutNanos the time a write may block
+     * @param now          the current nanoTime
+     * @return true if the write was abandoned
+     */
+    synchronized boolean expireWrite(long timeoutNanos, long now)
+    {
+        if (writer == null || expired || now - writeStarted < timeoutNanos)
+            return false;
+
+        LOG.debug("Write to event stream of channel '{}' blocked for {}ms, closing it.",
+                channel.getName(), TimeUnit.NANOSECONDS.toMillis(now - writeStarted));
+
+        expired = true;
+        closed  = true;
+        queue.clear();
+
+        Connection<?> connection = this.connection;
+
+        if (connection != null) {
+            connection.terminateSilently();
+        } else {
+            interrupted = true;
+            writer.interrupt();
+        }
+
+        return true;
+    }
+
+    boolean isClosed()
+    {
+        return closed || output.isClosed();
+    }
+
+    void close()
+    {
+        closed = true;
+        queue.clear();
+
+        try {
+            output.close();
+
+        } catch (IOException e) {
+            LOG.trace("Closing event stream failed", e);
+
+        }
+    }
+
+    private void drain()
+    {
+        try {
+            byte[] frame;
+
+            while (!closed && (frame = queue.poll()) != null) {
+                queued.decrementAndGet();
+                write(frame);
+            }
+
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("Event stream of channel '{}' closed, caused by '{}'.", channel.getName(), e.getMessage());
+            channel.remove(this);
+
+        } finally {
+            draining.set(false);
+
+        }
+
+        if (expired)
+            close();
+        else if (!closed && !queue.isEmpty() && draining.compareAndSet(false, true))
+            writers.execute(this::drain);
+    }
+
+    private void write(byte[] frame) throws IOException
+    {
+        synchronized (this) {
+            if (expired)
+                throw new IOException("Write timeout exceeded");
+
+            writer       = Thread.currentThread();
+            writeStarted = System.nanoTime();
+        }
+
+        try {
+            output.write(frame);
+
+        } finally {
+            synchronized (this) {
+                writer = null;
+
+                // Clears an interrupt the write did not consume before the thread is reused
+                if (interrupted)
+                    Thread.interrupted();
+            }
+
+        }
+    }
+
+    /**
+     * The response entity of a sink, found by EventStreamFilter to attach
+     * the client's connection.
+     */
+    static final class Stream extends ChunkedOutput<byte[]>
+    {
+        private final EventSink sink;
+
+        private Stream(EventSink sink)
+        {
+            super(byte[].class);
+
+            this.sink = sink;
+        }
+
+        EventSink getSink()
+        {
+            return sink;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.rms.service.sse;
+
+import org.glassfish.grizzly.http.server.Request;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+
+/**
+ * Hands an event stream the Grizzly connection of its client when the
+ * subscription is returned, so a write blocked on a stalled client can be
+ * failed by closing the connection. Registered by RMSResourceConfig with
+ * EventChannels.
+ */
+public class EventStreamFilter implements ContainerResponseFilter
+{
+    @Inject
+    private Provider<Request> grizzlyRequest;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext)
+    {
+        Object entity = responseContext.getEntity();
+
+        if (!(entity instanceof EventSink.Stream) || grizzlyRequest == null)
+            return;
+
+        Request request = grizzlyRequest.get();
+
+        if (request != null)
+            ((EventSink.Stream) entity).getSink().attach(request.getContext().getConnection());
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.startup;
+
+import com.skanders.jbel.def.Verify;
+import com.skanders.rms.config.RMSConfig;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.ExtendedResourceContext;
+import org.glassfish.jersey.server.model.Resource;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.SecurityContext;
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JIT warm-up of a service before it is ready: replays the warm-up requests
+ * in-process through Jersey on startup.jit.threads threads, until each was
+ * replayed startup.jit.iterations times or startup.jit.timeBudget passed, so
+ * the code serving them is compiled before the first client request.
+ * <p>
+ * Requests run through the application handler like the listeners' own,
+ * with filters, resource methods, exception mappers and Jackson but without
+ * the network, responses are discarded. With startup.jit.generate a GET of
+ * each resource method without path parameters, suspension or event stream
+ * is replayed too.
+ */
+public class JitWarmup
+{
+    private static final Logger LOG = LoggerFactory.getLogger(JitWarmup.class);
+
+    private static final double STEADY_WEIGHT = 0.05;
+
+    private static final OutputStream DISCARD = new OutputStream()
+    {
+        @Override
+        public void write(int b)
+        {
+            // Discard
+        }
+
+        @Override
+        public void write(@Nonnull byte[] b, int off, int len)
+        {
+            // Discard
+        }
+    };
+
+    private final String  serverUri;
+    private final int     iterations;
+    private final long    timeBudgetNanos;
+    private final int     threads;
+    private final boolean generate;
+
+    private volatile Map<String, Object> results = Collections.singletonMap("done", false);
+
+    /**
+     * Constructs an instance of JitWarmup.
+     *
+     * @param config a RMSConfig instance
+     * @see RMSConfig
+     */
+    public JitWarmup(@Nonnull RMSConfig config)
+    {
+        URI uri = config.buildServiceUri();
+
+        this.serverUri       = uri.getScheme() + "://" + uri.getRawAuthority();
+        this.iterations      = config.getStartupJitIterations();
+        this.timeBudgetNanos = TimeUnit.MILLISECONDS.toNanos(config.getStartupJitTimeBudget());
+        this.threads         = config.getStartupJitThreads();
+        this.generate        = config.isStartupJitGenerate();
+    }
+
+    /**
+     * Replays the requests, blocking until the iterations or the time budget
+     * are used up. A failing request is counted and does not stop the
+     * warm-up.
+     *
+     * @param handler     the service's application handler
+     * @param contextPath the path the service is served under
+     * @param requests    the registered warm-up requests
+     * @return number of replays that failed or answered with a 5xx status
+     */
+    public int warmUp(@Nonnull ApplicationHandler handler, @Nonnull String contextPath,
+            @Nonnull List<WarmupRequest> requests)
+    {
+        Verify.notNull(handler, "handler cannot be null");
+        Verify.notNull(contextPath, "contextPath cannot be null");
+        Verify.notNull(requests, "requests cannot be null");
+
+        List<Replay> replays = new ArrayList<>();
+
+        for (WarmupRequest request : requests)
+            replays.add(new Replay(request));
+
+        if (generate)
+            for (WarmupRequest request : generate(handler, contextPath))
+                replays.add(new Replay(request));
+
+        if (replays.isEmpty()) {
+            LOG.warn("JIT warm-up has no requests, register warm-up requests or set startup.jit.generate.");
+            results = report(replays, 0, false, 0);
+            return 0;
+        }
+
+        URI        baseUri     = URI.create(serverUri + contextPath + "/");
+        AtomicLong next        = new AtomicLong();
+        long       total       = (long) replays.size() * iterations;
+        long       compilation = compilationMillis();
+        long       started     = System.nanoTime();
+        long       deadline    = started + timeBudgetNanos;
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads, threadFactory());
+
+        try {
+            List<Future<?>> futures = new ArrayList<>(threads);
+
+            for (int i = 0; i < threads; i++)
+                futures.add(workers.submit(() -> {
+                    long index;
+
+                    while ((index = next.getAndIncrement()) < total && System.nanoTime() < deadline)
+                        replays.get((int) (index % replays.size())).run(handler, baseUri, deadline);
+                }));
+
+            for (Future<?> future : futures)
+                future.get();
+
+        } catch (ExecutionException e) {
+            LOG.warn("JIT warm-up raised an '{}' exception, caused by '{}'.",
+                    e.getCause().getClass(), e.getCause().getMessage());
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+        } finally {
+            workers.shutdownNow();
+
+        }
+
+        Map<String, Object> report = report(replays, System.nanoTime() - started, next.get() < total,
+                compilation < 0 ? -1 : compilationMillis() - compilation);
+
+        results = report;
+
+        return (int) (long) report.get("failed");
+    }
+
+    /**
+     * @return the results of the last warm-up
+     */
+    public Map<String, Object> snapshot()
+    {
+        return results;
+    }
+
+    /**
+     * Generates a GET request of each resource method that can be requested
+     * without knowing anything of the resource: no path parameters, not
+     * suspended and not an event stream.
+     *
+     * @param handler     the service's application handler
+     * @param contextPath the path the service is served under
+     * @return the generated requests
+     */
+    public static List<WarmupRequest> generate(@Nonnull ApplicationHandler handler, @Nonnull String contextPath)
+    {
+        List<WarmupRequest> requests = new ArrayList<>();
+
+        ExtendedResourceContext context = handler.getInjectionManager().getInstance(ExtendedResourceContext.class);
+
+        for (Resource resource : context.getResourceModel().getResources())
+            generate(resource, contextPath, requests);
+
+        return requests;
+    }
+
+    private static void generate(Resource resource, String parent, List<WarmupRequest> requests)
+    {
+        String path = parent + "/" + resource.getPath().replaceAll("^/+|/+$", "");
+
+        if (path.contains("{"))
+            return;
+
+        for (ResourceMethod method : resource.getResourceMethods())
+            if (HttpMethod.GET.equals(method.getHttpMethod()) && !method.isSuspendDeclared() && !method.isSse()) {
+                requests.add(new WarmupRequest(HttpMethod.GET, path, null, null));
+                break;
+            }
+
+        for (Resource child : resource.getChildResources())
+            generate(child, path, requests);
+    }
+
+    private Map<String, Object> report(List<Replay> replays, long elapsed, boolean timedOut, long compilation)
+    {
+        List<Map<String, Object>> perRequest = new ArrayList<>();
+
+        long replayed = 0;
+        long failed   = 0;
+
+        for (Replay replay : replays) {
+            Map<String, Object> stats = replay.snapshot();
+
+            replayed += (long) stats.get("replayed");
+            failed   += (long) stats.get("failed");
+
+            perRequest.add(stats);
+
+            LOG.info("JIT warm-up '{}' replayed {} times, first {} us, steady {} us.", replay.request,
+                    stats.get("replayed"), stats.get("firstMicros"), stats.get("steadyMicros"));
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("done", true);
+        report.put("threads", threads);
+        report.put("replayed", replayed);
+        report.put("failed", failed);
+        report.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(elapsed));
+        report.put("stoppedBy", timedOut ? "timeBudget" : "iterations");
+        report.put("compilationMillis", compilation);
+        report.put("requests", perRequest);
+
+        LOG.info("JIT warm-up replayed {} requests in {}ms on {} threads, {} failed, stopped by {}.", replayed,
+                report.get("elapsedMillis"), threads, failed, report.get("stoppedBy"));
+
+        return report;
+    }
+
+    /**
+     * @return milliseconds the JIT spent compiling, -1 if not monitored
+     */
+    private static long compilationMillis()
+    {
+        CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+
+        if (compiler == null || !compiler.isCompilationTimeMonitoringSupported())
+            return -1;
+
+        return compiler.getTotalCompilationTime();
+    }
+
+    private static ThreadFactory threadFactory()
+    {
+        AtomicInteger count = new AtomicInteger();
+
+        return runnable -> {
+            Thread thread = new Thread(runnable, "rms-jit-warmup-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * A warm-up request and the latencies of its replays.
+     */
+    private class Replay
+    {
+        private final WarmupRequest request;
+
+        private long   replayed;
+        private long   failed;
+        private long   firstNanos = -1;
+        private double steadyNanos;
+
+        private Replay(WarmupRequest request)
+        {
+            this.request = request;
+        }
+
+        private void run(ApplicationHandler handler, URI baseUri, long deadline)
+        {
+            ContainerRequest containerRequest = new ContainerRequest(baseUri,
+                    URI.create(serverUri + request.getPath()), request.getMethod(),
+                    new Anonymous(baseUri), new MapPropertiesDelegate(), handler.getConfiguration());
+
+            if (request.getContentType() != null)
+                containerRequest.header(HttpHeaders.CONTENT_TYPE, request.getContentType());
+
+            byte[] body = request.getBody();
+            containerRequest.setEntityStream(new ByteArrayInputStream(body == null ? new byte[0] : body));
+
+            long    started = System.nanoTime();
+            boolean ok      = false;
+
+            try {
+                ContainerResponse response = handler.apply(containerRequest, DISCARD)
+                        .get(deadline - started, TimeUnit.NANOSECONDS);
+
+                ok = response.getStatus() < 500;
+
+            } catch (ExecutionException | TimeoutException e) {
+                LOG.debug("JIT warm-up '{}' failed, caused by '{}'.", request, e.getMessage());
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+            }
+
+            record(System.nanoTime() - started, ok);
+        }
+
+        private synchronized void record(long nanos, boolean ok)
+        {
+            replayed++;
+
+            if (!ok)
+                failed++;
+
+            if (firstNanos < 0) {
+                firstNanos  = nanos;
+                steadyNanos = nanos;
+            } else {
+                steadyNanos += STEADY_WEIGHT * (nanos - steadyNanos);
+            }
+        }
+
+        private synchronized Map<String, Object> snapshot()
+        {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("request", request.toString());
+            snapshot.put("replayed", replayed);
+            snapshot.put("failed", failed);
+            snapshot.put("firstMicros", firstNanos < 0 ? null : TimeUnit.NANOSECONDS.toMicros(firstNanos));
+            snapshot.put("steadyMicros", firstNanos < 0 ? null : (long) (steadyNanos / 1000));
+
+            return snapshot;
+        }
+    }
+
+    private static class Anonymous implements SecurityContext
+    {
+        private final boolean secure;
+
+        private Anonymous(URI baseUri)
+        {
+            this.secure = "https".equalsIgnoreCase(baseUri.getScheme());
+        }
+
+        @Override
+        public Principal getUserPrincipal()
+        {
+            return null;
+        }
+
+        @Override
+        public boolean isUserInRole(String role)
+        {
+            return false;
+        }
+
+        @Override
+        public boolean isSecure()
+        {
+            return secure;
+        }
+
+        @Override
+        public String getAuthenticationScheme()
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.startup;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records how long each phase of a RapidMicroService's startup takes, in the
+ * order the phases first ran. A phase recorded more than once adds up.
+ * <ul>
+ *     <li>config: reading the Config into the RMSConfig</li>
+ *     <li>db: building the connection pool</li>
+ *     <li>dbwarmup: warming up the connection pool</li>
+ *     <li>jersey: building the resource model and application</li>
+ *     <li>server: creating the server, listeners, memory manager, timing
+ *     and access log, including ssl</li>
+ *     <li>ssl: creating the SSL context</li>
+ *     <li>jit: replaying the JIT warm-up requests</li>
+ *     <li>bind: starting the listeners</li>
+ * </ul>
+ */
+public class StartupProfiler
+{
+    private static final Logger LOG = LoggerFactory.getLogger(StartupProfiler.class);
+
+    private final Map<String, Long> phases  = new LinkedHashMap<>();
+    private final long              created = System.nanoTime();
+
+    private volatile long readyNanos;
+
+    /**
+     * Adds a phase's duration.
+     *
+     * @param phase the phase name
+     * @param nanos duration in nanoseconds
+     */
+    public synchronized void record(String phase, long nanos)
+    {
+        phases.merge(phase, nanos, Long::sum);
+    }
+
+    /**
+     * Adds the time passed since startNanos to a phase.
+     *
+     * @param phase      the phase name
+     * @param startNanos {@link System#nanoTime()} when the phase began
+     */
+    public void recordSince(String phase, long startNanos)
+    {
+        record(phase, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Marks the service as ready and logs the phases.
+     */
+    public void ready()
+    {
+        readyNanos = System.nanoTime() - created;
+
+        for (Map.Entry<String, Double> phase : getPhases().entrySet())
+            LOG.info("Startup phase '{}' took {} ms", phase.getKey(), String.format("%.3f", phase.getValue()));
+
+        LOG.info("Startup ready in {} ms, JVM uptime {} ms", String.format("%.3f", getReadyMillis()),
+                ManagementFactory.getRuntimeMXBean().getUptime());
+    }
+
+    /**
+     * @return the phases in milliseconds, in the order they first ran
+     */
+    public synchronized Map<String, Double> getPhases()
+    {
+        Map<String, Double> millis = new LinkedHashMap<>();
+
+        for (Map.Entry<String, Long> phase : phases.entrySet())
+            millis.put(phase.getKey(), phase.getValue() / 1_000_000.0);
+
+        return millis;
+    }
+
+    /**
+     * @return milliseconds from the service's construction to the end of
+     * start(), 0 if not started yet
+     */
+    public double getReadyMillis()
+    {
+        return readyNanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.startup;
+
+import com.skanders.jbel.def.Verify;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Training run of a started service: sends the warm-up requests so the
+ * classes serving them are loaded, then has the JVM write an AppCDS archive
+ * that production launches start from with
+ * {@code -XX:SharedArchiveFile=<archive>}.
+ * <p>
+ * The archive is written by whichever the JVM supports:
+ * <ul>
+ *     <li>{@code -XX:ArchiveClassesAtExit=<archive>} (JDK 13+) or {@code
+ *     -XX:DumpLoadedClassList=<list>} (JDK 8u40+) given to the training
+ *     launch, the JVM writes them when the run exits</li>
+ *     <li>otherwise a dynamic dump through the DiagnosticCommand MBean
+ *     (JDK 17+, launched with {@code -XX:+RecordDynamicDumpInfo})</li>
+ * </ul>
+ * The requests are sent over HTTP, without a uri the service cannot be
+ * reached that way and only the classes loaded so far are archived.
+ */
+public class TrainingRun
+{
+    private static final Logger LOG = LoggerFactory.getLogger(TrainingRun.class);
+
+    private static final String   DIAGNOSTIC_COMMAND = "com.sun.management:type=DiagnosticCommand";
+    private static final String[] EXIT_DUMP_FLAGS    = {"-XX:ArchiveClassesAtExit", "-XX:DumpLoadedClassList"};
+
+    private static final int TIMEOUT = 30_000;
+
+    private final URI                 serviceUri;
+    private final List<WarmupRequest> requests;
+    private final int                 iterations;
+    private final String              archive;
+
+    /**
+     * Constructs an instance of TrainingRun.
+     *
+     * @param serviceUri the uri the service is listening on, null if it
+     *                   cannot be reached over HTTP
+     * @param requests   the warm-up requests
+     * @param iterations how many times each request is sent
+     * @param archive    the archive file written
+     */
+    public TrainingRun(URI serviceUri, @Nonnull List<WarmupRequest> requests, int iterations,
+            @Nonnull String archive)
+    {
+        Verify.notNull(requests, "requests cannot be null");
+        Verify.notNull(archive, "archive cannot be null");
+
+        this.serviceUri = serviceUri;
+        this.requests   = requests;
+        this.iterations = iterations;
+        this.archive    = archive;
+    }
+
+    /**
+     * Sends every warm-up request iterations times. Responses are read and
+     * discarded, a failing request is logged and does not stop the run.
+     *
+     * @return number of requests that failed or answered with a 5xx status
+     */
+    public int warmUp()
+    {
+        if (serviceUri == null) {
+            LOG.warn("Training run cannot reach the service over HTTP, its {} warm-up requests are skipped.",
+                    requests.size());
+            return 0;
+        }
+
+        if (requests.isEmpty())
+            LOG.warn("Training run has no warm-up requests, only startup classes will be archived.");
+
+        int failures = 0;
+
+        for (int i = 0; i < iterations; i++)
+            for (WarmupRequest request : requests)
+                if (!send(request))
+                    failures++;
+
+        LOG.info("Training run sent {} warm-up requests, {} failed.", requests.size() * iterations, failures);
+
+        return failures;
+    }
+
+    /**
+     * Has the JVM write the class data sharing archive.
+     *
+     * @return true if the archive is written, now or when the JVM exits
+     */
+    public boolean writeArchive()
+    {
+        List<String> jvmArgs = ManagementFactory.getRuntimeMXBean().getInputArguments();
+
+        for (String jvmArg : jvmArgs)
+            for (String flag : EXIT_DUMP_FLAGS)
+                if (jvmArg.startsWith(flag + "=")) {
+                    LOG.info("Training run class data is written by the JVM on exit: " + jvmArg);
+                    return true;
+                }
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+            Object output = server.invoke(new ObjectName(DIAGNOSTIC_COMMAND), "vmCds",
+                    new Object[]{new String[]{"dynamic_dump", archive}}, new String[]{String[].class.getName()});
+
+            if (!Files.isRegularFile(Paths.get(archive))) {
+                LOG.warn("Training run archive was not written: " + String.valueOf(output).trim().replace('\n', ' '));
+                logLaunchHint();
+                return false;
+            }
+
+            LOG.info("Training run archive written, launch with -XX:SharedArchiveFile=" + archive);
+            return true;
+
+        } catch (JMException | RuntimeException e) {
+            LOG.warn("Training run archive raised an '{}' exception, caused by '{}'.", e.getClass(), e.getMessage());
+            logLaunchHint();
+            return false;
+
+        }
+    }
+
+    private void logLaunchHint()
+    {
+        LOG.warn("Launch the training run with -XX:ArchiveClassesAtExit={} (JDK 13+) or " +
+                "-XX:DumpLoadedClassList=<file> (JDK 8u40+) to have the JVM write it on exit.", archive);
+    }
+
+    private boolean send(WarmupRequest request)
+    {
+        HttpURLConnection connection = null;
+
+        try {
+            String base = serviceUri.toString();
+            String path = request.getPath();
+
+            if (base.endsWith("/") && path.startsWith("/"))
+                path = path.substring(1);
+
+            connection = (HttpURLConnection) URI.create(base + path).toURL().openConnection();
+            connection.setRequestMethod(request.getMethod());
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+
+            if (request.getBody() != null) {
+                connection.setDoOutput(true);
+
+                if (request.getContentType() != null)
+                    connection.setRequestProperty("Content-Type", request.getContentType());
+
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(request.getBody());
+                }
+            }
+
+            int status = connection.getResponseCode();
+
+            drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+
+            if (status >= 500) {
+                LOG.warn("Warm-up request '{}' answered with status {}.", request, status);
+                return false;
+            }
+
+            return true;
+
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Warm-up request '{}' raised an '{}' exception, caused by '{}'.",
+                    request, e.getClass(), e.getMessage());
+            return false;
+
+        } finally {
+            if (connection != null)
+                connection.disconnect();
+
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException
+    {
+        if (in == null)
+            return;
+
+        try (InputStream stream = in) {
+            byte[] buffer = new byte[4096];
+
+            while (stream.read(buffer) != -1) {
+                // Discard
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.startup;
+
+import com.skanders.jbel.def.Verify;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A request sent to the service during a training run, so the classes it
+ * loads end up in the class data sharing archive.
+ */
+public class WarmupRequest
+{
+    private final String method;
+    private final String path;
+    private final String contentType;
+    private final byte[] body;
+
+    /**
+     * Constructs an instance of WarmupRequest.
+     *
+     * @param method      the HTTP method
+     * @param path        the path below the service uri, with any query
+     * @param contentType content type of the body, null if there is none
+     * @param body        the request body, null if there is none
+     */
+    public WarmupRequest(@Nonnull String method, @Nonnull String path, String contentType, String body)
+    {
+        Verify.notNull(method, "method cannot be null");
+        Verify.notNull(path, "path cannot be null");
+
+        this.method      = method;
+        this.path        = path;
+        this.contentType = contentType;
+        this.body        = body == null ? null : body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public String getMethod()
+    {
+        return method;
+    }
+
+    public String getPath()
+    {
+        return path;
+    }
+
+    public String getContentType()
+    {
+        return contentType;
+    }
+
+    public byte[] getBody()
+    {
+        return body;
+    }
+
+    @Override
+    public String toString()
+    {
+        return method + " " + path;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.stream;
+
+import com.skanders.rms.def.RMSException;
+
+/**
+ * Raised while reading a streamed request body once it exceeds the
+ * configured maximum body or record size.
+ */
+public class BodyLimitException extends RMSException
+{
+    private final long limit;
+
+    /**
+     * @param message what limit was exceeded
+     * @param limit   the limit in bytes
+     */
+    public BodyLimitException(String message, long limit)
+    {
+        super(message + " exceeds the limit of " + limit + " bytes");
+
+        this.limit = limit;
+    }
+
+    /**
+     * @return the limit in bytes
+     */
+    public long getLimit()
+    {
+        return limit;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.stream;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * JSON array body, each element a record. The array is walked with a
+ * streaming parser and each element bound as it is reached, the array itself
+ * is never materialized. A failing element leaves the parser in an unknown
+ * state so it always ends the stream.
+ *
+ * @param <T> the record type
+ */
+final class JsonArrayRecordStream<T> extends RecordStream<T>
+{
+    private final JsonParser parser;
+
+    private boolean started;
+
+    JsonArrayRecordStream(ObjectReader reader, InputStream in) throws IOException
+    {
+        super(reader, in);
+
+        this.parser = reader.getFactory().createParser(in);
+    }
+
+    @Override
+    Object readRecord() throws IOException
+    {
+        if (!started) {
+            started = true;
+
+            JsonToken token = parser.nextToken();
+
+            if (token == null)
+                return END;
+
+            if (token != JsonToken.START_ARRAY)
+                throw new JsonParseException(parser, "Expected a JSON array of records");
+        }
+
+        JsonToken token = parser.nextToken();
+
+        if (token == JsonToken.END_ARRAY)
+            return END;
+
+        if (token == null)
+            throw new JsonParseException(parser, "Unexpected end of JSON array");
+
+        return reader.readValue(parser);
+    }
+
+    @Override
+    boolean isRecoverable()
+    {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        parser.close();
+        super.close();
+    }
+}
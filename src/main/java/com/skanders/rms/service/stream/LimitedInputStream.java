@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.stream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from a request body and raises a {@link
+ * BodyLimitException} as soon as the limit is passed, before the rest of the
+ * body is read.
+ */
+final class LimitedInputStream extends FilterInputStream
+{
+    private final long limit;
+
+    private long count;
+
+    LimitedInputStream(InputStream in, long limit)
+    {
+        super(in);
+
+        this.limit = limit;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        int b = super.read();
+
+        if (b != -1)
+            count(1);
+
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        int read = super.read(b, off, len);
+
+        if (read > 0)
+            count(read);
+
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        long skipped = super.skip(n);
+        count(skipped);
+
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+
+    private void count(long read)
+    {
+        count += read;
+
+        if (count > limit)
+            throw new BodyLimitException("Request body", limit);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.stream;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Newline delimited JSON body, one record per line. Lines are read into a
+ * reused buffer bounded by the maximum record size and bound straight from
+ * the bytes, anything after the record on its line is an error. Blank lines
+ * are ignored and a record that fails to bind does not affect the lines
+ * after it.
+ *
+ * @param <T> the record type
+ */
+final class NdjsonRecordStream<T> extends RecordStream<T>
+{
+    private final int    maxRecordSize;
+    private final byte[] chunk = new byte[8192];
+
+    private byte[] line = new byte[1024];
+    private int    length;
+    private int    position;
+    private int    limit;
+
+    NdjsonRecordStream(ObjectReader reader, InputStream in, int maxRecordSize)
+    {
+        super(reader.with(DeserializationFeature.FAIL_ON_TRAILING_TOKENS), in);
+
+        this.maxRecordSize = maxRecordSize;
+    }
+
+    @Override
+    Object readRecord() throws IOException
+    {
+        while (readLine()) {
+            int start = 0;
+            int end   = length;
+
+            while (start < end && isWhitespace(line[start]))
+                start++;
+
+            while (end > start && isWhitespace(line[end - 1]))
+                end--;
+
+            if (start < end)
+                return reader.readValue(line, start, end - start);
+        }
+
+        return END;
+    }
+
+    @Override
+    boolean isRecoverable()
+    {
+        return true;
+    }
+
+    /**
+     * Reads up to the next newline into the line buffer.
+     *
+     * @return false if the body ended before any byte was read
+     */
+    private boolean readLine() throws IOException
+    {
+        length = 0;
+
+        boolean read = false;
+
+        while (true) {
+            if (position == limit) {
+                limit    = in.read(chunk, 0, chunk.length);
+                position = 0;
+
+                if (limit == -1) {
+                    limit = 0;
+                    return read;
+                }
+            }
+
+            read = true;
+
+            int newline = position;
+
+            while (newline < limit && chunk[newline] != '\n')
+                newline++;
+
+            append(position, newline - position);
+
+            if (newline < limit) {
+                position = newline + 1;
+                return true;
+            }
+
+            position = limit;
+        }
+    }
+
+    private void append(int offset, int count)
+    {
+        if (length + count > maxRecordSize)
+            throw new BodyLimitException("Record", maxRecordSize);
+
+        if (length + count > line.length) {
+            byte[] grown = new byte[Math.min(maxRecordSize, Math.max(length + count, line.length * 2))];
+            System.arraycopy(line, 0, grown, 0, length);
+            line = grown;
+        }
+
+        System.arraycopy(chunk, offset, line, length, count);
+        length += count;
+    }
+
+    private static boolean isWhitespace(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+}
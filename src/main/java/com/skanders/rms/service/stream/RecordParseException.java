@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.stream;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.skanders.rms.def.RMSException;
+
+/**
+ * Raised while pulling a {@link RecordStream} when a record cannot be parsed
+ * or bound. Carries the position of the failing record, the Jackson error is
+ * the cause.
+ */
+public class RecordParseException extends RMSException
+{
+    private final long record;
+
+    /**
+     * @param record the 1-based position of the failing record
+     * @param cause  the Jackson parse or mapping error
+     */
+    public RecordParseException(long record, JsonProcessingException cause)
+    {
+        super("Record " + record + " could not be read: " + cause.getOriginalMessage(), cause);
+
+        this.record = record;
+    }
+
+    /**
+     * @return the 1-based position of the failing record
+     */
+    public long getRecord()
+    {
+        return record;
+    }
+
+    @Override
+    public synchronized JsonProcessingException getCause()
+    {
+        return (JsonProcessingException) super.getCause();
+    }
+}
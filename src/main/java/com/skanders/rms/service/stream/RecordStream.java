@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.stream;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Request body of many records exposed to a resource as a lazily pulled
+ * sequence, so only the record being handled is held in memory. Resources
+ * take it as their entity parameter:
+ * <pre>
+ * &#64;POST
+ * &#64;Consumes({"application/x-ndjson", "application/json"})
+ * public Response ingest(RecordStream&lt;Item&gt; items)
+ * {
+ *     for (Item item : items)
+ *         ...
+ * }
+ * </pre>
+ * Records are parsed from the request input stream as they are pulled. A
+ * record that fails to parse raises a {@link RecordParseException} from
+ * {@link #next()}, which resources may catch or leave to the exception
+ * mappers. Newline delimited bodies can also skip the failing records with
+ * {@link #onInvalid(Consumer)}.
+ * <p>
+ * A RecordStream can only be iterated once.
+ *
+ * @param <T> the record type
+ */
+public abstract class RecordStream<T> implements Iterator<T>, Iterable<T>, Closeable
+{
+    static final Object END = new Object();
+
+    final ObjectReader reader;
+    final InputStream  in;
+
+    private Consumer<RecordParseException> invalidHandler;
+
+    private T       next;
+    private boolean pending;
+    private boolean done;
+    private long    record;
+
+    RecordStream(ObjectReader reader, InputStream in)
+    {
+        this.reader = reader;
+        this.in     = in;
+    }
+
+    /**
+     * Skips records that fail to bind instead of raising, handing their error
+     * to the handler. Only records of a newline delimited body can be
+     * skipped, a broken JSON array still raises.
+     *
+     * @param handler called with the error of each skipped record
+     * @return this
+     */
+    public RecordStream<T> onInvalid(Consumer<RecordParseException> handler)
+    {
+        this.invalidHandler = handler;
+
+        return this;
+    }
+
+    /**
+     * @return number of records pulled so far, including skipped ones
+     */
+    public long getRecordCount()
+    {
+        return record;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean hasNext()
+    {
+        while (!pending && !done) {
+            try {
+                record++;
+                Object value = readRecord();
+
+                if (value == END) {
+                    record--;
+                    done = true;
+
+                } else {
+                    next    = (T) value;
+                    pending = true;
+
+                }
+
+            } catch (JsonProcessingException e) {
+                RecordParseException error = new RecordParseException(record, e);
+
+                if (invalidHandler == null || !isRecoverable())
+                    throw error;
+
+                invalidHandler.accept(error);
+
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+
+            }
+        }
+
+        return pending;
+    }
+
+    @Override
+    public T next()
+    {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        T record = next;
+        next    = null;
+        pending = false;
+
+        return record;
+    }
+
+    @Override
+    public Iterator<T> iterator()
+    {
+        return this;
+    }
+
+    /**
+     * @return the records as a sequential stream
+     */
+    public Stream<T> stream()
+    {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false)
+                .onClose(this::closeQuietly);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        done = true;
+        in.close();
+    }
+
+    /**
+     * @return the next record, {@link #END} at the end of the body
+     */
+    abstract Object readRecord() throws IOException;
+
+    /**
+     * @return true if the body can continue past a record that failed
+     */
+    abstract boolean isRecoverable();
+
+    private void closeQuietly()
+    {
+        try {
+            close();
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+
+        }
+    }
+}
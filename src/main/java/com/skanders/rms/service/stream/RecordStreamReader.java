@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.Providers;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+
+/**
+ * Reads {@code application/x-ndjson} and JSON array bodies into a {@link
+ * RecordStream} instead of binding the whole body up front. The maximum body
+ * size is enforced as the body is read, a declared Content-Length over it is
+ * refused before reading.
+ * <p>
+ * Records are bound with the ObjectMapper resolved for the media type, the
+ * same one the JSON provider uses, or a default one if none is registered.
+ */
+@Consumes({RecordStreamReader.NDJSON, MediaType.APPLICATION_JSON})
+public class RecordStreamReader implements MessageBodyReader<RecordStream<?>>
+{
+    public static final String    NDJSON      = "application/x-ndjson";
+    public static final MediaType NDJSON_TYPE = MediaType.valueOf(NDJSON);
+
+    private static final ObjectMapper DEFAULT_MAPPER = new ObjectMapper();
+
+    private final long maxBodySize;
+    private final int  maxRecordSize;
+
+    @Context
+    private Providers providers;
+
+    /**
+     * Constructs an instance of RecordStreamReader.
+     *
+     * @param maxBodySize   maximum size in bytes of a body, 0 if unlimited
+     * @param maxRecordSize maximum size in bytes of a single ndjson record
+     */
+    public RecordStreamReader(long maxBodySize, int maxRecordSize)
+    {
+        this.maxBodySize   = maxBodySize;
+        this.maxRecordSize = maxRecordSize;
+    }
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType)
+    {
+        return RecordStream.class.isAssignableFrom(type) && genericType instanceof ParameterizedType;
+    }
+
+    @Override
+    public RecordStream<?> readFrom(
+            Class<RecordStream<?>> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException
+    {
+        if (maxBodySize > 0 && contentLength(httpHeaders) > maxBodySize)
+            throw new BodyLimitException("Request body", maxBodySize);
+
+        Type         recordType = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+        ObjectMapper mapper     = resolveMapper(mediaType);
+        ObjectReader reader     = mapper.readerFor(mapper.constructType(recordType));
+
+        InputStream in = maxBodySize > 0 ? new LimitedInputStream(entityStream, maxBodySize) : entityStream;
+
+        if (NDJSON_TYPE.isCompatible(mediaType))
+            return new NdjsonRecordStream<>(reader, in, maxRecordSize);
+        else
+            return new JsonArrayRecordStream<>(reader, in);
+    }
+
+    private ObjectMapper resolveMapper(MediaType mediaType)
+    {
+        if (providers == null)
+            return DEFAULT_MAPPER;
+
+        ContextResolver<ObjectMapper> resolver = providers.getContextResolver(ObjectMapper.class, mediaType);
+        ObjectMapper                  mapper   = resolver != null ? resolver.getContext(RecordStream.class) : null;
+
+        return mapper != null ? mapper : DEFAULT_MAPPER;
+    }
+
+    private static long contentLength(MultivaluedMap<String, String> httpHeaders)
+    {
+        String contentLength = httpHeaders.getFirst(HttpHeaders.CONTENT_LENGTH);
+
+        try {
+            return contentLength != null ? Long.parseLong(contentLength) : -1;
+
+        } catch (NumberFormatException e) {
+            return -1;
+
+        }
+    }
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.tenant;
+
+import com.skanders.jbel.atsql.AtSQL;
+import com.skanders.jbel.def.Verify;
+import com.skanders.rms.config.RMSConfig;
+import com.skanders.rms.service.db.DatabaseBreaker;
+import com.skanders.rms.service.db.DatabaseUnavailableException;
+import com.skanders.rms.service.db.SQLCall;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Connection pools per tenant, in place of the service's single pool.
+ * <p>
+ * A tenant's pool is built from the db section on its first call, with the
+ * tenant in place of {tenant} in db.url or db.name, and tenants.poolSize
+ * connections. Its calls run through a {@link DatabaseBreaker} of its own, a
+ * stalled tenant database opening only that tenant's breaker.
+ * <p>
+ * All pools share tenants.maxConnections. A pool needed beyond the budget
+ * takes the place of the least recently used pool without calls in flight,
+ * when every pool is busy the call is rejected with a {@link
+ * DatabaseUnavailableException}. Pools unused for tenants.idleTimeout are
+ * closed. A removed pool counts against the budget until it is closed, a
+ * pool that fails to close is retried by the sweeper and keeps its share
+ * meanwhile.
+ * <p>
+ * Within a resource method the request's tenant, resolved by the {@link
+ * TenantResolver} set here, is used:
+ * <pre>
+ * service.getTenantDataSources().execute(atSQL -> ...);
+ * </pre>
+ */
+public final class TenantDataSources
+{
+    private static final Logger LOG = LoggerFactory.getLogger(TenantDataSources.class);
+
+    private final RMSConfig               config;
+    private final Function<String, AtSQL> poolFactory;
+    private final Pattern                 pattern;
+    private final int                     poolSize;
+    private final int                     maxConnections;
+    private final int                     maxPools;
+    private final long                    idleNanos;
+
+    private final Map<String, TenantPool> pools    = new LinkedHashMap<>(16, 0.75f, true);
+    private final List<TenantPool>        unclosed = new ArrayList<>();
+    private final ScheduledExecutorService sweeper;
+
+    private volatile TenantResolver resolver;
+
+    private long    created;
+    private long    evicted;
+    private long    expired;
+    private long    rejected;
+    private int     closing;
+    private boolean closed;
+
+    /**
+     * Constructs an instance of TenantDataSources.
+     *
+     * @param config      a RMSConfig instance
+     * @param poolFactory builds the pool of a tenant
+     * @see RMSConfig
+     */
+    public TenantDataSources(@Nonnull RMSConfig config, @Nonnull Function<String, AtSQL> poolFactory)
+    {
+        this.config         = config;
+        this.poolFactory    = poolFactory;
+        this.pattern        = Pattern.compile(config.getTenantPattern());
+        this.poolSize       = config.getTenantPoolSize();
+        this.maxConnections = config.getTenantMaxConnections();
+        this.maxPools       = maxConnections / poolSize;
+        this.idleNanos      = TimeUnit.MILLISECONDS.toNanos(config.getTenantIdleTimeout());
+        this.resolver       = TenantResolver.header(config.getTenantHeader());
+
+        long sweepInterval = Math.max(1000, config.getTenantIdleTimeout() / 4);
+
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rms-tenant-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sweeper.scheduleWithFixedDelay(this::sweep, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the tenant of the request whose resource method runs on this
+     * thread, null if none
+     */
+    public static String current()
+    {
+        return TenantFilter.current();
+    }
+
+    /**
+     * Sets how the tenant of a request is resolved, by default from the
+     * tenants.header header.
+     *
+     * @param resolver the tenant resolver
+     */
+    public void setResolver(@Nonnull TenantResolver resolver)
+    {
+        Verify.notNull(resolver, "resolver cannot be null");
+
+        this.resolver = resolver;
+    }
+
+    /**
+     * @return the tenant resolver
+     */
+    public TenantResolver getResolver()
+    {
+        return resolver;
+    }
+
+    /**
+     * @param tenant a tenant
+     * @return true if the tenant matches tenants.pattern
+     */
+    public boolean isValid(String tenant)
+    {
+        return tenant != null && pattern.matcher(tenant).matches();
+    }
+
+    /**
+     * Runs the call against the pool of the current request's tenant.
+     *
+     * @param call the database work
+     * @param <T>  the result of the call
+     * @return the result of the call
+     * @throws SQLException                 if the call failed
+     * @throws TenantRequiredException      if the request has no tenant
+     * @throws DatabaseUnavailableException if the call was rejected
+     * @see DatabaseBreaker#execute(SQLCall)
+     */
+    public <T> T execute(@Nonnull SQLCall<T> call) throws SQLException
+    {
+        String tenant = current();
+
+        if (tenant == null)
+            throw new TenantRequiredException("No tenant was resolved for the request");
+
+        return execute(tenant, call);
+    }
+
+    /**
+     * Runs the call against a tenant's pool, building the pool if needed.
+     *
+     * @param tenant the tenant
+     * @param call   the database work
+     * @param <T>    the result of the call
+     * @return the result of the call
+     * @throws SQLException                 if the call failed
+     * @throws TenantRequiredException      if the tenant is not valid
+     * @throws DatabaseUnavailableException if the call was rejected
+     * @see DatabaseBreaker#execute(SQLCall)
+     */
+    public <T> T execute(@Nonnull String tenant, @Nonnull SQLCall<T> call) throws SQLException
+    {
+        if (!isValid(tenant))
+            throw new TenantRequiredException("Tenant '" + tenant + "' is not valid");
+
+        TenantPool pool = acquire(tenant);
+
+        try {
+            return pool.breaker.execute(call);
+
+        } finally {
+            release(pool);
+
+        }
+    }
+
+    /**
+     * @return the budget, pool counts and per tenant usage, the busiest
+     * tenants first
+     */
+    public Map<String, Object> snapshot()
+    {
+        Map<String, Object>              snapshot = new LinkedHashMap<>();
+        Map<String, Map<String, Object>> tenants  = new LinkedHashMap<>();
+        Map<String, DatabaseBreaker>     breakers = new LinkedHashMap<>();
+        long                             now      = System.nanoTime();
+
+        synchronized (this) {
+            snapshot.put("pools", pools.size());
+            snapshot.put("maxPools", maxPools);
+            snapshot.put("poolSize", poolSize);
+            snapshot.put("connections", (pools.size() + closing + unclosed.size()) * poolSize);
+            snapshot.put("maxConnections", maxConnections);
+            snapshot.put("created", created);
+            snapshot.put("evicted", evicted);
+            snapshot.put("expired", expired);
+            snapshot.put("rejected", rejected);
+            snapshot.put("unclosed", unclosed.size());
+
+            List<TenantPool> busiest = new ArrayList<>(pools.values());
+            busiest.sort((a, b) -> Long.compare(b.calls, a.calls));
+
+            for (TenantPool pool : busiest) {
+                Map<String, Object> usage = new LinkedHashMap<>();
+                usage.put("calls", pool.calls);
+                usage.put("inFlight", pool.inFlight);
+                usage.put("idleMillis", TimeUnit.NANOSECONDS.toMillis(now - pool.lastUsed));
+                usage.put("ageMillis", TimeUnit.NANOSECONDS.toMillis(now - pool.createdAt));
+
+                tenants.put(pool.tenant, usage);
+
+                if (pool.breaker != null)
+                    breakers.put(pool.tenant, pool.breaker);
+            }
+        }
+
+        breakers.forEach((tenant, breaker) -> tenants.get(tenant).put("breaker", breaker.snapshot()));
+
+        snapshot.put("tenants", tenants);
+        return snapshot;
+    }
+
+    /**
+     * Closes every tenant pool, calls in flight fail.
+     */
+    public void close()
+    {
+        List<TenantPool> remaining;
+
+        synchronized (this) {
+            if (closed)
+                return;
+
+            closed    = true;
+            remaining = new ArrayList<>(pools.values());
+            remaining.addAll(unclosed);
+            closing  += remaining.size();
+            pools.clear();
+            unclosed.clear();
+        }
+
+        sweeper.shutdownNow();
+        closePools(remaining);
+    }
+
+    /**
+     * Counts a call against the tenant's pool, building it, in place of an
+     * idle pool if the budget is spent, on first use.
+     */
+    private TenantPool acquire(String tenant)
+    {
+        List<TenantPool> evictions = null;
+        TenantPool       pool;
+        boolean          build     = false;
+
+        synchronized (this) {
+            if (closed)
+                throw new DatabaseUnavailableException("Tenant pools are closed", 1);
+
+            pool = pools.get(tenant);
+
+            if (pool == null) {
+                evictions = reserve();
+                pool      = new TenantPool(tenant);
+                build     = true;
+
+                pools.put(tenant, pool);
+            }
+
+            pool.inFlight++;
+            pool.calls++;
+            pool.lastUsed = System.nanoTime();
+        }
+
+        if (evictions != null)
+            closePools(evictions);
+
+        try {
+            if (build)
+                build(pool);
+            else
+                pool.opened.join();
+
+            return pool;
+
+        } catch (CompletionException e) {
+            release(pool);
+            throw (RuntimeException) e.getCause();
+
+        } catch (RuntimeException e) {
+            release(pool);
+            throw e;
+
+        }
+    }
+
+    private void build(TenantPool pool)
+    {
+        long started = System.nanoTime();
+
+        try {
+            AtSQL atSQL = poolFactory.apply(pool.tenant);
+
+            pool.atSQL   = atSQL;
+            pool.breaker = new DatabaseBreaker(atSQL, config, poolSize);
+            pool.opened.complete(null);
+
+        } catch (RuntimeException e) {
+            LOG.warn("Tenant pool '{}' could not be built, caused by '{}'.", pool.tenant, e.getMessage());
+
+            synchronized (this) {
+                pools.remove(pool.tenant, pool);
+            }
+
+            DatabaseUnavailableException failure = new DatabaseUnavailableException(
+                    "Pool of tenant '" + pool.tenant + "' could not be built", 1);
+
+            pool.opened.completeExceptionally(failure);
+            throw failure;
+
+        }
+
+        synchronized (this) {
+            created++;
+        }
+
+        LOG.info("Tenant pool '{}' built in {}ms.", pool.tenant,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    private synchronized void release(TenantPool pool)
+    {
+        pool.inFlight--;
+        pool.lastUsed = System.nanoTime();
+    }
+
+    /**
+     * Makes room for a pool within the budget, evicting the least recently
+     * used idle pools. Pools still closing hold their share of the budget.
+     *
+     * @return the evicted pools, to be closed outside the lock
+     */
+    private List<TenantPool> reserve()
+    {
+        int              needed    = pools.size() + closing + unclosed.size() - maxPools + 1;
+        List<TenantPool> evictions = new ArrayList<>();
+
+        for (TenantPool pool : pools.values()) {
+            if (evictions.size() >= needed)
+                break;
+
+            if (pool.isIdle())
+                evictions.add(pool);
+        }
+
+        if (evictions.size() < needed) {
+            rejected++;
+            throw new DatabaseUnavailableException("Tenant connection budget of " + maxConnections +
+                    " exhausted", 1);
+        }
+
+        for (TenantPool pool : evictions)
+            pools.remove(pool.tenant);
+
+        evicted += evictions.size();
+        closing += evictions.size();
+        return evictions;
+    }
+
+    private void sweep()
+    {
+        List<TenantPool> idle = new ArrayList<>();
+        long             now  = System.nanoTime();
+
+        synchronized (this) {
+            Iterator<TenantPool> lru = pools.values().iterator();
+
+            while (lru.hasNext()) {
+                TenantPool pool = lru.next();
+
+                if (pool.isIdle() && now - pool.lastUsed > idleNanos) {
+                    lru.remove();
+                    idle.add(pool);
+                }
+            }
+
+            expired += idle.size();
+
+            // Pools that failed to close are retried
+            idle.addAll(unclosed);
+            closing += idle.size();
+            unclosed.clear();
+        }
+
+        closePools(idle);
+    }
+
+    /**
+     * Closes the pools, returning each one's share of the budget once it is
+     * closed. A pool failing to close keeps its share until a later sweep
+     * closes it.
+     */
+    private void closePools(List<TenantPool> removed)
+    {
+        for (TenantPool pool : removed) {
+            boolean released = true;
+
+            if (pool.atSQL != null) {
+                try {
+                    pool.atSQL.close();
+
+                    LOG.info("Tenant pool '{}' closed.", pool.tenant);
+
+                } catch (Exception e) {
+                    LOG.warn("Tenant pool '{}' could not be closed, caused by '{}'.", pool.tenant, e.toString());
+                    released = false;
+
+                }
+            }
+
+            synchronized (this) {
+                closing--;
+
+                if (!released && !closed)
+                    unclosed.add(pool);
+            }
+        }
+    }
+
+    private static class TenantPool
+    {
+        private final String                  tenant;
+        private final long                    createdAt = System.nanoTime();
+        private final CompletableFuture<Void> opened    = new CompletableFuture<>();
+
+        private volatile AtSQL           atSQL;
+        private volatile DatabaseBreaker breaker;
+
+        private int  inFlight;
+        private long calls;
+        private long lastUsed;
+
+        private TenantPool(String tenant)
+        {
+            this.tenant = tenant;
+        }
+
+        /**
+         * @return true if the pool is built and has no calls in flight
+         */
+        private boolean isIdle()
+        {
+            return inFlight == 0 && opened.isDone() && !opened.isCompletedExceptionally();
+        }
+    }
+}
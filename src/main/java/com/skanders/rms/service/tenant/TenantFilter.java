@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.tenant;
+
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+/**
+ * Resolves the tenant of each request through the {@link TenantDataSources}'
+ * resolver and binds it to the thread running the resource method, where
+ * {@link TenantDataSources#current()} returns it. A tenant not matching
+ * tenants.pattern is rejected with a 400, a request without one passes.
+ */
+@Priority(Priorities.AUTHORIZATION)
+public final class TenantFilter implements ApplicationEventListener, ContainerRequestFilter
+{
+    static final String PROPERTY = TenantFilter.class.getName();
+
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private static final RequestEventListener BINDER = event -> {
+        switch (event.getType()) {
+            case RESOURCE_METHOD_START:
+                CURRENT.set((String) event.getContainerRequest().getProperty(PROPERTY));
+                break;
+
+            case RESOURCE_METHOD_FINISHED:
+                CURRENT.remove();
+                break;
+
+            default:
+                // Not needed
+        }
+    };
+
+    private final TenantDataSources dataSources;
+
+    /**
+     * Constructs an instance of TenantFilter.
+     *
+     * @param dataSources the tenant pools whose resolver is used
+     */
+    public TenantFilter(@Nonnull TenantDataSources dataSources)
+    {
+        this.dataSources = dataSources;
+    }
+
+    /**
+     * @return the tenant of the request whose resource method runs on this
+     * thread, null if none
+     */
+    static String current()
+    {
+        return CURRENT.get();
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext)
+    {
+        String tenant = dataSources.getResolver().resolve(requestContext);
+
+        if (tenant == null)
+            return;
+
+        if (!dataSources.isValid(tenant)) {
+            requestContext.abortWith(Response.status(Status.BAD_REQUEST).build());
+            return;
+        }
+
+        requestContext.setProperty(PROPERTY, tenant);
+    }
+
+    @Override
+    public void onEvent(ApplicationEvent event)
+    {
+        // Application events are not needed
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent)
+    {
+        return BINDER;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.tenant;
+
+import com.skanders.rms.def.RMSException;
+
+/**
+ * Raised by {@link TenantDataSources} when a call has no tenant or one not
+ * matching tenants.pattern.
+ */
+public class TenantRequiredException extends RMSException
+{
+    /**
+     * @param message why the tenant was refused
+     */
+    public TenantRequiredException(String message)
+    {
+        super(message, null, false, false);
+    }
+}
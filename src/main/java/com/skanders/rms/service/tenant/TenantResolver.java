@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.tenant;
+
+import javax.annotation.Nonnull;
+import javax.ws.rs.container.ContainerRequestContext;
+
+/**
+ * Resolves the tenant a request is served for, e.g. from a header, the host
+ * name or a claim of the authenticated principal. Runs as a request filter
+ * after authentication.
+ */
+@FunctionalInterface
+public interface TenantResolver
+{
+    /**
+     * @param requestContext the Jersey request
+     * @return the tenant, null if the request has none
+     */
+    String resolve(ContainerRequestContext requestContext);
+
+    /**
+     * @param header the name of the header
+     * @return a resolver reading the tenant from a header
+     */
+    static TenantResolver header(@Nonnull String header)
+    {
+        return requestContext -> requestContext.getHeaderString(header);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.rms.service.timing;
+
+/**
+ * The phases of a request measured by {@link RequestTiming}.
+ */
+public enum Phase
+{
+    /** Waiting in the Grizzly worker queue after the request was read */
+    QUEUE("queue"),
+    /** Spent in the CORS request and response filters */
+    CORS("cors"),
+    /** Spent in the resource method, including any database time */
+    RESOURCE("app"),
+    /** Waiting on or running AtSQL calls through a DatabaseBreaker or as marked by the resource */
+    DB("db"),
+    /** Spent in Jackson or other MessageBodyWriters */
+    SERIALIZE("serialize"),
+    /** From the end of serialization until the response is written */
+    WRITE("write");
+
+    private final String metricName;
+
+    Phase(String metricName)
+    {
+        this.metricName = metricName;
+    }
+
+    /**
+     * @return the name used for the phase in Server-Timing and admin output
+     */
+    public String getMetricName()
+    {
+        return metricName;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.timing;
+
+import com.skanders.jbel.def.Verify;
+import com.skanders.rms.config.RMSConfig;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.http.Note;
+import org.glassfish.grizzly.http.server.HttpHandler;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.HttpServerFilter;
+import org.glassfish.grizzly.http.server.HttpServerProbe;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.threadpool.AbstractThreadPool;
+import org.glassfish.grizzly.threadpool.ThreadPoolProbe;
+import org.glassfish.jersey.server.ResourceConfig;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Owns the request timing of a RapidMicroService: the pool of preallocated
+ * {@link RequestTiming} slots, the Grizzly probe binding a slot to each
+ * request, the Jersey components filling it in and the {@link
+ * SlowRequestSampler}.
+ */
+public class RequestTimer
+{
+    private static final int POOL_SIZE = 256;
+
+    private static final Note<RequestTiming> NOTE = Request.createNote(RequestTiming.PROPERTY);
+
+    private final ArrayBlockingQueue<RequestTiming> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private final SlowRequestSampler sampler;
+    private final boolean            serverTiming;
+
+    /**
+     * Constructs an instance of RequestTimer.
+     *
+     * @param config a RMSConfig instance with timing enabled
+     * @see RMSConfig
+     */
+    public RequestTimer(@Nonnull RMSConfig config)
+    {
+        Verify.notNull(config, "config cannot be null");
+
+        this.sampler = new SlowRequestSampler(
+                config.getTimingSampleSize(), config.getTimingSlowThreshold(), config.getTimingSampleRate());
+        this.serverTiming = config.isTimingServerTiming();
+
+        for (int i = 0; i < POOL_SIZE; i++)
+            pool.offer(new RequestTiming());
+    }
+
+    /**
+     * Adds the probe binding slots to requests to the given server.
+     *
+     * @param server the server whose requests are timed
+     */
+    public void attach(@Nonnull HttpServer server)
+    {
+        server.getServerConfiguration().getMonitoringConfig().getWebServerConfig().addProbes(new TimingProbe());
+
+        for (NetworkListener listener : server.getListeners())
+            listener.getTransport().getThreadPoolMonitoringConfig().addProbes(new UnbindProbe());
+    }
+
+    /**
+     * Registers the Jersey components measuring the resource, filter and
+     * serialization phases.
+     *
+     * @param resourceConfig the ResourceConfig to register with
+     */
+    public void register(@Nonnull ResourceConfig resourceConfig)
+    {
+        resourceConfig.register(new RequestTimingFilter(serverTiming));
+    }
+
+    /**
+     * @return the sampler holding the slowest requests
+     */
+    public SlowRequestSampler getSampler()
+    {
+        return sampler;
+    }
+
+    private RequestTiming acquire()
+    {
+        RequestTiming timing = pool.poll();
+
+        return timing != null ? timing : new RequestTiming();
+    }
+
+    private void release(RequestTiming timing)
+    {
+        timing.reset();
+        pool.offer(timing);
+    }
+
+    /**
+     * Unbinds the slot from a worker thread once its task, serving a
+     * request, returns. A suspended request completes on another thread and
+     * would otherwise leave its slot bound to the worker after the slot is
+     * reused.
+     */
+    private static class UnbindProbe extends ThreadPoolProbe.Adapter
+    {
+        @Override
+        public void onTaskCompleteEvent(AbstractThreadPool threadPool, Runnable task)
+        {
+            RequestTiming.unbind();
+        }
+    }
+
+    /**
+     * Binds a slot when Grizzly reads a request, marks when a worker picks it
+     * up and records and releases the slot once the response is written.
+     */
+    private class TimingProbe extends HttpServerProbe.Adapter
+    {
+        @Override
+        public void onRequestReceiveEvent(HttpServerFilter filter, Connection connection, Request request)
+        {
+            RequestTiming timing = acquire();
+            timing.onReceived();
+
+            request.setNote(NOTE, timing);
+        }
+
+        @Override
+        public void onBeforeServiceEvent(
+                HttpServerFilter filter, Connection connection, Request request, HttpHandler httpHandler)
+        {
+            RequestTiming timing = request.getNote(NOTE);
+
+            if (timing != null)
+                timing.onService();
+        }
+
+        @Override
+        public void onRequestCompleteEvent(HttpServerFilter filter, Connection connection, Response response)
+        {
+            Request       request = response.getRequest();
+            RequestTiming timing  = request.removeNote(NOTE);
+
+            if (timing == null)
+                return;
+
+            timing.onComplete();
+
+            if (sampler.select(timing))
+                sampler.record(timing, request.getMethod().getMethodString(), request.getRequestURI(),
+                        response.getStatus());
+
+            release(timing);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.timing;
+
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import javax.ws.rs.container.ContainerRequestContext;
+
+/**
+ * Per-request slot holding the time spent in each {@link Phase}, measured
+ * with {@link System#nanoTime()}.
+ * <p>
+ * Slots are preallocated and reused by {@link RequestTimer}, a slot is bound
+ * to a request when Grizzly reads it and returned once the response is
+ * written. While a request is being served its slot is reachable through
+ * {@link #current()} on the serving thread. Calls through a DatabaseBreaker
+ * are recorded as {@link Phase#DB}, resources can use the slot to mark other
+ * database time:
+ * <pre>
+ * RequestTiming timing = RequestTiming.current();
+ * if (timing != null) timing.start(Phase.DB);
+ * ...
+ * if (timing != null) timing.stop(Phase.DB);
+ * </pre>
+ * The slot is also the Jersey {@link RequestEventListener} of its request so
+ * no listener is allocated per request.
+ */
+public final class RequestTiming implements RequestEventListener
+{
+    static final String PROPERTY = RequestTiming.class.getName();
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private static final ThreadLocal<RequestTiming> CURRENT = new ThreadLocal<>();
+
+    private final long[] durations = new long[PHASES.length];
+    private final long[] starts    = new long[PHASES.length];
+    private final int[]  depths    = new int[PHASES.length];
+
+    private long received;
+    private long serializeEnd;
+    private long completed;
+
+    RequestTiming()
+    {
+    }
+
+    /**
+     * @return the slot of the request being served on this thread, null if
+     * timing is disabled or no request is being served
+     */
+    public static RequestTiming current()
+    {
+        return CURRENT.get();
+    }
+
+    /**
+     * @param requestContext the Jersey request
+     * @return the slot of the request, null if timing is disabled
+     */
+    public static RequestTiming of(ContainerRequestContext requestContext)
+    {
+        return (RequestTiming) requestContext.getProperty(PROPERTY);
+    }
+
+    /**
+     * Marks the start of a phase. A phase may be started and stopped several
+     * times per request, the durations add up. Starting a phase already
+     * running nests, it runs until the matching outermost stop.
+     *
+     * @param phase the phase
+     */
+    public void start(Phase phase)
+    {
+        int index = phase.ordinal();
+
+        if (depths[index]++ == 0)
+            starts[index] = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of a phase started with {@link #start(Phase)}.
+     *
+     * @param phase the phase
+     */
+    public void stop(Phase phase)
+    {
+        int index = phase.ordinal();
+
+        if (depths[index] > 0 && --depths[index] == 0) {
+            durations[index] += System.nanoTime() - starts[index];
+            starts[index] = 0;
+        }
+    }
+
+    /**
+     * @param phase the phase
+     * @return nanoseconds spent in the phase so far
+     */
+    public long getDuration(Phase phase)
+    {
+        return durations[phase.ordinal()];
+    }
+
+    /**
+     * @return nanoseconds from the request being read until it completed, or
+     * until now if it has not completed
+     */
+    public long getTotal()
+    {
+        return (completed != 0 ? completed : System.nanoTime()) - received;
+    }
+
+    @Override
+    public void onEvent(RequestEvent event)
+    {
+        switch (event.getType()) {
+            case RESOURCE_METHOD_START:
+                start(Phase.RESOURCE);
+                break;
+
+            case RESOURCE_METHOD_FINISHED:
+                stop(Phase.RESOURCE);
+                break;
+
+            default:
+                // Continue
+        }
+    }
+
+    void onReceived()
+    {
+        received = System.nanoTime();
+    }
+
+    void onService()
+    {
+        durations[Phase.QUEUE.ordinal()] = System.nanoTime() - received;
+        CURRENT.set(this);
+    }
+
+    void onSerialized()
+    {
+        serializeEnd = System.nanoTime();
+    }
+
+    void onComplete()
+    {
+        completed = System.nanoTime();
+
+        if (serializeEnd != 0)
+            durations[Phase.WRITE.ordinal()] = completed - serializeEnd;
+
+        if (CURRENT.get() == this)
+            CURRENT.remove();
+    }
+
+    static void unbind()
+    {
+        CURRENT.remove();
+    }
+
+    void copyDurations(long[] target)
+    {
+        System.arraycopy(durations, 0, target, 0, durations.length);
+    }
+
+    void reset()
+    {
+        for (int i = 0; i < durations.length; i++) {
+            durations[i] = 0;
+            starts[i]    = 0;
+            depths[i]    = 0;
+        }
+
+        received     = 0;
+        serializeEnd = 0;
+        completed    = 0;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.timing;
+
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+
+/**
+ * Jersey side of request timing. Hands Jersey the request's {@link
+ * RequestTiming} as its event listener, times the MessageBodyWriters and adds
+ * the Server-Timing header.
+ * <p>
+ * Server-Timing is written with the headers, before serialization, so it
+ * carries the queue, cors, app and db phases only. The full breakdown is kept
+ * by the {@link SlowRequestSampler}.
+ */
+@Priority(Priorities.USER)
+class RequestTimingFilter implements ApplicationEventListener, WriterInterceptor, ContainerResponseFilter
+{
+    static final String SERVER_TIMING = "Server-Timing";
+
+    private static final Phase[] HEADER_PHASES = {Phase.QUEUE, Phase.CORS, Phase.RESOURCE, Phase.DB};
+
+    private final boolean serverTiming;
+
+    RequestTimingFilter(boolean serverTiming)
+    {
+        this.serverTiming = serverTiming;
+    }
+
+    @Override
+    public void onEvent(ApplicationEvent event)
+    {
+        // Application events are not timed
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent)
+    {
+        RequestTiming timing = RequestTiming.current();
+
+        if (timing != null)
+            requestEvent.getContainerRequest().setProperty(RequestTiming.PROPERTY, timing);
+
+        return timing;
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException
+    {
+        RequestTiming timing = (RequestTiming) context.getProperty(RequestTiming.PROPERTY);
+
+        if (timing == null) {
+            context.proceed();
+            return;
+        }
+
+        timing.start(Phase.SERIALIZE);
+
+        try {
+            context.proceed();
+
+        } finally {
+            timing.stop(Phase.SERIALIZE);
+            timing.onSerialized();
+
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext)
+    {
+        if (!serverTiming)
+            return;
+
+        RequestTiming timing = RequestTiming.of(requestContext);
+
+        if (timing != null)
+            responseContext.getHeaders().add(SERVER_TIMING, format(timing));
+    }
+
+    /**
+     * Formats the phases as Server-Timing metrics with millisecond durations,
+     * e.g. {@code queue;dur=0.042, cors;dur=0.003, app;dur=1.250, db;dur=0.800}
+     */
+    static String format(RequestTiming timing)
+    {
+        StringBuilder header = new StringBuilder(96);
+
+        for (Phase phase : HEADER_PHASES) {
+            if (header.length() > 0)
+                header.append(", ");
+
+            long micros = timing.getDuration(phase) / 1000;
+
+            header.append(phase.getMetricName()).append(";dur=").append(micros / 1000).append('.');
+
+            long fraction = micros % 1000;
+
+            if (fraction < 100)
+                header.append('0');
+            if (fraction < 10)
+                header.append('0');
+
+            header.append(fraction);
+        }
+
+        return header.toString();
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.timing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed size ring buffer of the full phase breakdown of slow requests.
+ * <p>
+ * Requests at or above the slow threshold are sampled one in every
+ * sampleRate and written over the oldest entry. Entries are preallocated so
+ * recording does not allocate, only {@link #snapshot()} does.
+ */
+public class SlowRequestSampler
+{
+    private static final Phase[] PHASES = Phase.values();
+
+    private final Entry[]    entries;
+    private final AtomicLong slowCount = new AtomicLong();
+    private final AtomicLong cursor    = new AtomicLong();
+
+    private volatile long thresholdNanos;
+    private volatile int  sampleRate;
+
+    /**
+     * Constructs an instance of SlowRequestSampler.
+     *
+     * @param size            number of requests kept
+     * @param thresholdMillis minimum total time for a request to be sampled
+     * @param sampleRate      one in how many slow requests is sampled
+     */
+    public SlowRequestSampler(int size, long thresholdMillis, int sampleRate)
+    {
+        this.entries        = new Entry[Math.max(1, size)];
+        this.thresholdNanos = thresholdMillis * 1_000_000L;
+        this.sampleRate     = Math.max(1, sampleRate);
+
+        for (int i = 0; i < entries.length; i++)
+            entries[i] = new Entry();
+    }
+
+    /**
+     * Changes the slow threshold, takes effect for the next request.
+     *
+     * @param thresholdMillis minimum total time for a request to be sampled
+     */
+    public void setThreshold(long thresholdMillis)
+    {
+        this.thresholdNanos = thresholdMillis * 1_000_000L;
+    }
+
+    /**
+     * Changes the sample rate, takes effect for the next request.
+     *
+     * @param sampleRate one in how many slow requests is sampled
+     */
+    public void setSampleRate(int sampleRate)
+    {
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    /**
+     * Checks the request against the slow threshold and the sample rate.
+     *
+     * @param timing the completed request timing
+     * @return true if the request is to be recorded
+     */
+    boolean select(RequestTiming timing)
+    {
+        if (timing.getTotal() < thresholdNanos)
+            return false;
+
+        return slowCount.getAndIncrement() % sampleRate == 0;
+    }
+
+    /**
+     * Records a request selected by {@link #select(RequestTiming)} over the
+     * oldest entry.
+     *
+     * @param timing the completed request timing
+     * @param method the request method
+     * @param path   the request path
+     * @param status the response status
+     */
+    void record(RequestTiming timing, String method, String path, int status)
+    {
+        Entry entry = entries[(int) (cursor.getAndIncrement() % entries.length)];
+
+        synchronized (entry) {
+            entry.method    = method;
+            entry.path      = path;
+            entry.status    = status;
+            entry.timestamp = System.currentTimeMillis();
+            entry.total     = timing.getTotal();
+
+            timing.copyDurations(entry.durations);
+        }
+    }
+
+    /**
+     * @return number of requests that met the slow threshold
+     */
+    public long getSlowCount()
+    {
+        return slowCount.get();
+    }
+
+    /**
+     * @return the sampled requests, slowest first
+     */
+    public List<Sample> snapshot()
+    {
+        List<Sample> samples = new ArrayList<>(entries.length);
+
+        for (Entry entry : entries)
+            synchronized (entry) {
+                if (entry.method != null)
+                    samples.add(new Sample(entry));
+            }
+
+        samples.sort((a, b) -> Double.compare(b.getTotalMillis(), a.getTotalMillis()));
+
+        return samples;
+    }
+
+    private static double toMillis(long nanos)
+    {
+        return nanos / 1_000_000.0;
+    }
+
+    private static class Entry
+    {
+        private final long[] durations = new long[PHASES.length];
+
+        private String method;
+        private String path;
+        private int    status;
+        private long   timestamp;
+        private long   total;
+    }
+
+    /**
+     * Immutable copy of a sampled request, in milliseconds.
+     */
+    public static class Sample
+    {
+        private final String              method;
+        private final String              path;
+        private final int                 status;
+        private final long                timestamp;
+        private final double              totalMillis;
+        private final Map<String, Double> phases;
+
+        private Sample(Entry entry)
+        {
+            this.method      = entry.method;
+            this.path        = entry.path;
+            this.status      = entry.status;
+            this.timestamp   = entry.timestamp;
+            this.totalMillis = toMillis(entry.total);
+
+            Map<String, Double> phases = new LinkedHashMap<>();
+
+            for (Phase phase : PHASES)
+                phases.put(phase.getMetricName(), toMillis(entry.durations[phase.ordinal()]));
+
+            this.phases = Collections.unmodifiableMap(phases);
+        }
+
+        public String getMethod()
+        {
+            return method;
+        }
+
+        public String getPath()
+        {
+            return path;
+        }
+
+        public int getStatus()
+        {
+            return status;
+        }
+
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        public double getTotalMillis()
+        {
+            return totalMillis;
+        }
+
+        public Map<String, Double> getPhases()
+        {
+            return phases;
+        }
+    }
+}
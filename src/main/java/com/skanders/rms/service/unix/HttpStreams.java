@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.unix;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP/1.1 message body streams used by {@link UnixSocketConnection}.
+ */
+final class HttpStreams
+{
+    static final byte[] CRLF = {'\r', '\n'};
+
+    private static final int MAX_LINE = 8192;
+
+    private HttpStreams()
+    {
+    }
+
+    /**
+     * Reads a CRLF terminated line as ISO-8859-1.
+     *
+     * @param in the stream to read from
+     * @return the line without its terminator, null on end of stream before
+     * any byte was read
+     * @throws IOException if the line is too long or the stream fails
+     */
+    static String readLine(InputStream in) throws IOException
+    {
+        StringBuilder line = new StringBuilder();
+
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int length = line.length();
+
+                if (length > 0 && line.charAt(length - 1) == '\r')
+                    line.setLength(length - 1);
+
+                return line.toString();
+            }
+
+            if (line.length() >= MAX_LINE)
+                throw new IOException("HTTP line exceeds " + MAX_LINE + " bytes");
+
+            line.append((char) b);
+        }
+
+        if (line.length() == 0)
+            return null;
+
+        throw new IOException("Unexpected end of stream");
+    }
+
+    /**
+     * Reads all remaining bytes of a request body so the next request on the
+     * connection can be read.
+     *
+     * @param body the body stream
+     * @throws IOException if the stream fails
+     */
+    static void drain(InputStream body) throws IOException
+    {
+        byte[] buffer = new byte[4096];
+
+        while (body.read(buffer) != -1) {
+            // discard
+        }
+    }
+
+    private static boolean isHexDigit(int c)
+    {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    /**
+     * Body with a known Content-Length.
+     */
+    static class FixedLengthInputStream extends InputStream
+    {
+        private final InputStream in;
+        private       long        remaining;
+
+        FixedLengthInputStream(InputStream in, long length)
+        {
+            this.in        = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (remaining <= 0)
+                return -1;
+
+            int b = in.read();
+
+            if (b == -1)
+                throw new IOException("Unexpected end of request body");
+
+            remaining--;
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (remaining <= 0)
+                return -1;
+
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+
+            if (read == -1)
+                throw new IOException("Unexpected end of request body");
+
+            remaining -= read;
+
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close()
+        {
+            // the connection stream stays open for keep-alive
+        }
+    }
+
+    /**
+     * Body sent with Transfer-Encoding: chunked.
+     */
+    static class ChunkedInputStream extends InputStream
+    {
+        private final InputStream in;
+        private       long        chunkRemaining = 0;
+        private       boolean     inChunk        = false;
+        private       boolean     finished       = false;
+
+        ChunkedInputStream(InputStream in)
+        {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            byte[] one = new byte[1];
+
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (!nextChunk())
+                return -1;
+
+            int read = in.read(b, off, (int) Math.min(len, chunkRemaining));
+
+            if (read == -1)
+                throw new IOException("Unexpected end of chunked request body");
+
+            chunkRemaining -= read;
+
+            return read;
+        }
+
+        @Override
+        public void close()
+        {
+            // the connection stream stays open for keep-alive
+        }
+
+        private boolean nextChunk() throws IOException
+        {
+            if (finished)
+                return false;
+
+            if (chunkRemaining > 0)
+                return true;
+
+            // the CRLF closing the previous chunk
+            if (inChunk && !"".equals(readLine(in)))
+                throw new IOException("Chunk is not followed by CRLF");
+
+            String size = readLine(in);
+
+            if (size == null)
+                throw new IOException("Unexpected end of chunked request body");
+
+            int    extension = size.indexOf(';');
+            String digits    = (extension < 0 ? size : size.substring(0, extension)).trim();
+
+            // parseLong alone would take a sign, hiding the size from a parser in front
+            if (digits.isEmpty() || digits.length() > 15 || !digits.chars().allMatch(HttpStreams::isHexDigit))
+                throw new IOException("Invalid chunk size: " + size);
+
+            chunkRemaining = Long.parseLong(digits, 16);
+            inChunk        = chunkRemaining > 0;
+
+            if (chunkRemaining == 0) {
+                String trailer;
+
+                do {
+                    trailer = readLine(in);
+                } while (trailer != null && !trailer.isEmpty());
+
+                finished = true;
+                return false;
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Response body written with Transfer-Encoding: chunked, used when Jersey
+     * does not know the content length up front.
+     */
+    static class ChunkedOutputStream extends FilterOutputStream
+    {
+        private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+        private boolean finished = false;
+
+        ChunkedOutputStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0)
+                return;
+
+            out.write(Integer.toHexString(len).getBytes(StandardCharsets.ISO_8859_1));
+            out.write(CRLF);
+            out.write(b, off, len);
+            out.write(CRLF);
+        }
+
+        /**
+         * Writes the terminating chunk, the underlying stream is left open.
+         *
+         * @throws IOException if the stream fails
+         */
+        void finish() throws IOException
+        {
+            if (finished)
+                return;
+
+            finished = true;
+            out.write(LAST_CHUNK);
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            finish();
+        }
+    }
+
+    /**
+     * Response body with a known Content-Length, closing it leaves the
+     * connection open.
+     */
+    static class UnclosableOutputStream extends FilterOutputStream
+    {
+        UnclosableOutputStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            out.flush();
+        }
+    }
+}
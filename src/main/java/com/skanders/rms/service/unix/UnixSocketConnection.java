@@ -0,0 +1,477 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.unix;
+
+import com.skanders.rms.service.unix.HttpStreams.ChunkedInputStream;
+import com.skanders.rms.service.unix.HttpStreams.ChunkedOutputStream;
+import com.skanders.rms.service.unix.HttpStreams.FixedLengthInputStream;
+import com.skanders.rms.service.unix.HttpStreams.UnclosableOutputStream;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerException;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.spi.ContainerResponseWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.SecurityContext;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single HTTP/1.1 keep-alive connection accepted by {@link
+ * UnixSocketListener}. Requests are read one at a time and each is dispatched
+ * to Jersey before the next is read.
+ */
+class UnixSocketConnection implements Runnable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(UnixSocketConnection.class);
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_HEADERS = 100;
+
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final SecurityContext SECURITY_CONTEXT = new SecurityContext()
+    {
+        @Override
+        public Principal getUserPrincipal()
+        {
+            return null;
+        }
+
+        @Override
+        public boolean isUserInRole(String role)
+        {
+            return false;
+        }
+
+        @Override
+        public boolean isSecure()
+        {
+            return false;
+        }
+
+        @Override
+        public String getAuthenticationScheme()
+        {
+            return null;
+        }
+    };
+
+    private final UnixSocketListener listener;
+    private final SocketChannel      channel;
+    private final ApplicationHandler appHandler;
+    private final URI                baseUri;
+
+    UnixSocketConnection(
+            UnixSocketListener listener, SocketChannel channel, ApplicationHandler appHandler, URI baseUri)
+    {
+        this.listener   = listener;
+        this.channel    = channel;
+        this.appHandler = appHandler;
+        this.baseUri    = baseUri;
+    }
+
+    @Override
+    public void run()
+    {
+        try (SocketChannel ignored = channel) {
+            InputStream  in  = new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE);
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+
+            boolean keepAlive = true;
+
+            while (keepAlive && listener.isRunning())
+                keepAlive = serve(in, out);
+
+        } catch (IOException e) {
+            LOG.debug("Unix socket connection closed, caused by '{}'.", e.getMessage());
+
+        }
+    }
+
+    /**
+     * Reads one request from the connection and writes its response. A
+     * request whose target, headers or body framing cannot be trusted is
+     * answered with an error and the connection closed, the start of the
+     * next request could not be found reliably.
+     *
+     * @return true if the connection is to be kept open for another request
+     */
+    boolean serve(InputStream in, OutputStream out) throws IOException
+    {
+        String requestLine = HttpStreams.readLine(in);
+
+        if (requestLine == null)
+            return false;
+
+        try {
+            return serve(requestLine, in, out);
+
+        } catch (BadRequest e) {
+            writeError(out, e.status, e.reason);
+            return false;
+
+        }
+    }
+
+    private boolean serve(String requestLine, InputStream in, OutputStream out) throws IOException, BadRequest
+    {
+        String[] parts = requestLine.split(" ");
+
+        if (parts.length != 3 || !parts[1].startsWith("/"))
+            throw new BadRequest(400, "Bad Request");
+
+        String method  = parts[0];
+        String version = parts[2];
+
+        ContainerRequest request = new ContainerRequest(
+                baseUri, requestUri(parts[1]), method, SECURITY_CONTEXT, new MapPropertiesDelegate(),
+                appHandler.getConfiguration());
+
+        boolean keepAlive      = !"HTTP/1.0".equalsIgnoreCase(version);
+        boolean expectContinue = false;
+        String  encoding       = null;
+        long    length         = -1;
+
+        for (String[] header : readHeaders(in)) {
+            request.header(header[0], header[1]);
+
+            if ("Connection".equalsIgnoreCase(header[0]))
+                keepAlive = !"close".equalsIgnoreCase(header[1]) &&
+                        (keepAlive || "keep-alive".equalsIgnoreCase(header[1]));
+
+            else if ("Transfer-Encoding".equalsIgnoreCase(header[0]))
+                encoding = encoding == null ? header[1] : encoding + "," + header[1];
+
+            else if ("Content-Length".equalsIgnoreCase(header[0]))
+                length = parseLength(header[1], length);
+
+            else if ("Expect".equalsIgnoreCase(header[0]) && "100-continue".equalsIgnoreCase(header[1]))
+                expectContinue = true;
+        }
+
+        // A body framed both ways may be read differently by a proxy in front, neither is trusted
+        if (encoding != null && length >= 0)
+            throw new BadRequest(400, "Bad Request");
+
+        boolean chunked = encoding != null;
+
+        if (chunked)
+            verifyChunked(encoding);
+
+        if (expectContinue) {
+            out.write(CONTINUE);
+            out.flush();
+        }
+
+        InputStream body = chunked ? new ChunkedInputStream(in) :
+                length > 0 ? new FixedLengthInputStream(in, length) : new ByteArrayInputStream(new byte[0]);
+
+        request.setEntityStream(body);
+
+        ResponseWriter writer = new ResponseWriter(out, keepAlive);
+        request.setWriter(writer);
+
+        appHandler.handle(request);
+
+        if (!writer.await())
+            return false;
+
+        HttpStreams.drain(body);
+
+        return writer.keepAlive;
+    }
+
+    private URI requestUri(String target) throws BadRequest
+    {
+        try {
+            return new URI(baseUri.getScheme() + "://" + baseUri.getRawAuthority() + target);
+
+        } catch (URISyntaxException e) {
+            throw new BadRequest(400, "Bad Request");
+
+        }
+    }
+
+    private static List<String[]> readHeaders(InputStream in) throws IOException, BadRequest
+    {
+        List<String[]> headers = new ArrayList<>();
+
+        String line;
+        while ((line = HttpStreams.readLine(in)) != null && !line.isEmpty()) {
+            if (headers.size() >= MAX_HEADERS)
+                throw new BadRequest(431, "Request Header Fields Too Large");
+
+            int colon = line.indexOf(':');
+
+            // Whitespace before the colon or a folded line hides the header from some parsers
+            if (colon <= 0 || Character.isWhitespace(line.charAt(0)) ||
+                    Character.isWhitespace(line.charAt(colon - 1)))
+                throw new BadRequest(400, "Bad Request");
+
+            headers.add(new String[]{line.substring(0, colon), line.substring(colon + 1).trim()});
+        }
+
+        if (line == null)
+            throw new IOException("Unexpected end of stream");
+
+        return headers;
+    }
+
+    /**
+     * Parses a Content-Length header, a list of equal values counting as one.
+     *
+     * @param value    the header value
+     * @param previous the length of an earlier Content-Length header, -1 if
+     *                 none
+     * @return the length
+     * @throws BadRequest if the value is not a length or differs from
+     *                    another
+     */
+    private static long parseLength(String value, long previous) throws BadRequest
+    {
+        long length = previous;
+
+        for (String element : value.split(",", -1)) {
+            String digits = element.trim();
+
+            if (digits.isEmpty() || digits.length() > 18 || !digits.chars().allMatch(Character::isDigit))
+                throw new BadRequest(400, "Bad Request");
+
+            long parsed = Long.parseLong(digits);
+
+            if (length >= 0 && length != parsed)
+                throw new BadRequest(400, "Bad Request");
+
+            length = parsed;
+        }
+
+        return length;
+    }
+
+    /**
+     * Verifies chunked is the only transfer coding of the body.
+     *
+     * @param encoding the Transfer-Encoding header values
+     * @throws BadRequest if chunked is not the final coding, the body's end
+     *                    could not be found, or another coding is applied
+     */
+    private static void verifyChunked(String encoding) throws BadRequest
+    {
+        String[] codings = encoding.split(",");
+
+        if (!"chunked".equalsIgnoreCase(codings[codings.length - 1].trim()))
+            throw new BadRequest(400, "Bad Request");
+
+        if (codings.length > 1)
+            throw new BadRequest(501, "Not Implemented");
+    }
+
+    private static void writeError(OutputStream out, int status, String reason) throws IOException
+    {
+        out.write(("HTTP/1.1 " + status + " " + reason + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    /**
+     * A request answered with an error before it reaches Jersey.
+     */
+    private static class BadRequest extends Exception
+    {
+        private final int    status;
+        private final String reason;
+
+        BadRequest(int status, String reason)
+        {
+            super(reason, null, false, false);
+
+            this.status = status;
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * Writes Jersey's response to the connection and signals the connection
+     * loop once the response is complete, which may happen on another thread
+     * for suspended requests.
+     */
+    private static class ResponseWriter implements ContainerResponseWriter
+    {
+        private final OutputStream   out;
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile boolean             keepAlive;
+        private volatile boolean             committed      = false;
+        private volatile long                suspendTimeout = 0;
+        private volatile TimeoutHandler      timeoutHandler;
+        private          ChunkedOutputStream chunked;
+
+        ResponseWriter(OutputStream out, boolean keepAlive)
+        {
+            this.out       = out;
+            this.keepAlive = keepAlive;
+        }
+
+        @Override
+        public OutputStream writeResponseStatusAndHeaders(long contentLength, ContainerResponse response)
+                throws ContainerException
+        {
+            committed = true;
+
+            StringBuilder head = new StringBuilder(256);
+
+            head.append("HTTP/1.1 ").append(response.getStatus()).append(' ')
+                    .append(response.getStatusInfo().getReasonPhrase()).append("\r\n");
+
+            for (Map.Entry<String, List<String>> header : response.getStringHeaders().entrySet())
+                for (String value : header.getValue())
+                    head.append(header.getKey()).append(": ").append(value).append("\r\n");
+
+            if (contentLength >= 0)
+                head.append("Content-Length: ").append(contentLength).append("\r\n");
+            else
+                head.append("Transfer-Encoding: chunked\r\n");
+
+            if (!keepAlive)
+                head.append("Connection: close\r\n");
+
+            head.append("\r\n");
+
+            try {
+                out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+            } catch (IOException e) {
+                throw new ContainerException(e);
+
+            }
+
+            if (contentLength >= 0)
+                return new UnclosableOutputStream(out);
+
+            return chunked = new ChunkedOutputStream(out);
+        }
+
+        @Override
+        public boolean suspend(long timeOut, TimeUnit timeUnit, TimeoutHandler timeoutHandler)
+        {
+            this.timeoutHandler = timeoutHandler;
+            setSuspendTimeout(timeOut, timeUnit);
+
+            return true;
+        }
+
+        @Override
+        public void setSuspendTimeout(long timeOut, TimeUnit timeUnit)
+        {
+            suspendTimeout = timeOut <= 0 ? 0 : System.nanoTime() + timeUnit.toNanos(timeOut);
+        }
+
+        @Override
+        public void commit()
+        {
+            try {
+                if (chunked != null)
+                    chunked.finish();
+
+                out.flush();
+
+            } catch (IOException e) {
+                keepAlive = false;
+
+            } finally {
+                done.countDown();
+
+            }
+        }
+
+        @Override
+        public void failure(Throwable error)
+        {
+            LOG.error("Unix socket request raised an '{}' exception, caused by '{}'.",
+                    error.getClass(), error.getMessage());
+
+            keepAlive = false;
+
+            try {
+                if (!committed)
+                    writeError(out, 500, "Internal Server Error");
+                else
+                    out.flush();
+
+            } catch (IOException ignored) {
+                // connection is closed below
+
+            } finally {
+                done.countDown();
+
+            }
+        }
+
+        @Override
+        public boolean enableResponseBuffering()
+        {
+            return true;
+        }
+
+        /**
+         * Waits for the response to complete, firing the suspend timeout
+         * handler of async requests if it expires first.
+         *
+         * @return false if the connection must be closed
+         */
+        boolean await()
+        {
+            try {
+                while (!done.await(100, TimeUnit.MILLISECONDS)) {
+                    long deadline = suspendTimeout;
+
+                    if (deadline != 0 && System.nanoTime() - deadline > 0 && timeoutHandler != null) {
+                        suspendTimeout = 0;
+                        timeoutHandler.onTimeout(this);
+                    }
+                }
+
+                return keepAlive;
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                return false;
+
+            }
+        }
+    }
+}
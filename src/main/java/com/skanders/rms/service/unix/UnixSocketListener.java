@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.unix;
+
+import com.skanders.jbel.def.LogPattern;
+import com.skanders.jbel.def.Verify;
+import com.skanders.rms.config.ListenerConfig;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.URI;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the Jersey application of a RapidMicroService over a unix domain
+ * socket, for deployments where a local sidecar proxy is the only client and
+ * loopback TCP only adds overhead.
+ * <p>
+ * Grizzly's transport is TCP only, so requests are read with a small blocking
+ * HTTP/1.1 connector, one worker per connection, and handed to the same
+ * {@link ApplicationHandler} the Grizzly container uses. Sidecars keep a few
+ * long lived keep-alive connections open, which suits a thread per
+ * connection. The listener's workerThreads caps the number of open
+ * connections, connections beyond it are closed.
+ * <p>
+ * Unix domain socket channels were added to the JDK in Java 16 and are looked
+ * up reflectively, on older runtimes {@link #isSupported()} reports false.
+ */
+public class UnixSocketListener
+{
+    private static final Logger LOG = LoggerFactory.getLogger(UnixSocketListener.class);
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 256;
+
+    private static final Method         ADDRESS_OF   = lookupAddressOf();
+    private static final Method         CHANNEL_OPEN = lookupChannelOpen();
+    private static final ProtocolFamily UNIX         = lookupUnixFamily();
+
+    private final ListenerConfig     config;
+    private final ApplicationHandler appHandler;
+    private final URI                baseUri;
+
+    private ServerSocketChannel serverChannel;
+    private ThreadPoolExecutor  workers;
+    private Thread              acceptor;
+    private int                 maxConnections;
+
+    private volatile boolean running = false;
+
+    /**
+     * Constructs an instance of UnixSocketListener.
+     *
+     * @param config     a ListenerConfig with a unix scheme
+     * @param appHandler the Jersey application to serve
+     * @param baseUri    the base URI given to resources
+     */
+    public UnixSocketListener(
+            @Nonnull ListenerConfig config, @Nonnull ApplicationHandler appHandler, @Nonnull URI baseUri)
+    {
+        Verify.notNull(config, "config cannot be null");
+        Verify.notNull(appHandler, "appHandler cannot be null");
+        Verify.notNull(baseUri, "baseUri cannot be null");
+        Verify.isTrue(config.isUnixSocket(), "config must be a unix socket listener");
+
+        this.config     = config;
+        this.appHandler = appHandler;
+        this.baseUri    = baseUri.getPath().endsWith("/") ? baseUri : URI.create(baseUri + "/");
+
+        this.maxConnections = config.getWorkerThreads() != ListenerConfig.DEFAULT ?
+                config.getWorkerThreads() : DEFAULT_MAX_CONNECTIONS;
+    }
+
+    /**
+     * @return true if the running JDK supports unix domain socket channels
+     */
+    public static boolean isSupported()
+    {
+        return ADDRESS_OF != null && CHANNEL_OPEN != null && UNIX != null;
+    }
+
+    /**
+     * Binds the socket file and starts accepting connections. A stale socket
+     * file left by a previous run is removed first.
+     *
+     * @throws IOException if the socket cannot be bound
+     */
+    public synchronized void start() throws IOException
+    {
+        Verify.isTrue(isSupported(), "Unix domain sockets require Java 16 or newer");
+
+        if (running)
+            return;
+
+        LOG.trace(LogPattern.ENTER, "Unix Socket Listener Start");
+
+        Files.deleteIfExists(Paths.get(config.getSocketPath()));
+
+        serverChannel = openServerChannel();
+        serverChannel.bind(toAddress(config.getSocketPath()),
+                config.getBacklog() != ListenerConfig.DEFAULT ? config.getBacklog() : 0);
+
+        workers = createWorkers();
+        running = true;
+
+        acceptor = new Thread(this::acceptLoop, config.getName() + "-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        LOG.info("Unix Socket Listener bound: " + config.getSocketPath());
+    }
+
+    /**
+     * Stops accepting, closes open connections and removes the socket file.
+     */
+    public synchronized void shutdownNow()
+    {
+        if (!running)
+            return;
+
+        LOG.trace(LogPattern.ENTER, "Unix Socket Listener Shutdown");
+
+        running = false;
+
+        try {
+            serverChannel.close();
+            Files.deleteIfExists(Paths.get(config.getSocketPath()));
+
+        } catch (IOException e) {
+            LOG.warn("Unix Socket Listener failed to clean up '{}', caused by '{}'.",
+                    config.getSocketPath(), e.getMessage());
+
+        }
+
+        workers.shutdownNow();
+    }
+
+    /**
+     * Changes the maximum number of open connections. Connections already
+     * open beyond the new maximum are served until they close.
+     *
+     * @param maxConnections the maximum number of open connections
+     */
+    public synchronized void setMaxConnections(int maxConnections)
+    {
+        Verify.isTrue(maxConnections > 0, "maxConnections must be positive");
+
+        this.maxConnections = maxConnections;
+
+        if (workers != null)
+            workers.setMaximumPoolSize(maxConnections);
+    }
+
+    /**
+     * @return true if the listener is accepting connections
+     */
+    public boolean isStarted()
+    {
+        return running;
+    }
+
+    /**
+     * @return the listener settings
+     */
+    public ListenerConfig getConfig()
+    {
+        return config;
+    }
+
+    boolean isRunning()
+    {
+        return running;
+    }
+
+    private void acceptLoop()
+    {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+
+                try {
+                    workers.execute(new UnixSocketConnection(this, channel, appHandler, baseUri));
+
+                } catch (RejectedExecutionException e) {
+                    LOG.warn("Unix Socket Listener at max connections, closing new connection.");
+                    channel.close();
+
+                }
+
+            } catch (ClosedChannelException e) {
+                return;
+
+            } catch (IOException e) {
+                LOG.error("Unix Socket Listener accept raised an '{}' exception, caused by '{}'.",
+                        e.getClass(), e.getMessage());
+
+            }
+        }
+    }
+
+    private ThreadPoolExecutor createWorkers()
+    {
+        AtomicInteger count = new AtomicInteger();
+
+        return new ThreadPoolExecutor(0, maxConnections, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), r -> {
+            Thread thread = new Thread(r, config.getName() + "-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static ServerSocketChannel openServerChannel() throws IOException
+    {
+        try {
+            return (ServerSocketChannel) CHANNEL_OPEN.invoke(null, UNIX);
+
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+
+        }
+    }
+
+    private static SocketAddress toAddress(String socketPath) throws IOException
+    {
+        try {
+            return (SocketAddress) ADDRESS_OF.invoke(null, socketPath);
+
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IOException("Invalid socket path: " + socketPath, e);
+
+        }
+    }
+
+    private static Method lookupAddressOf()
+    {
+        try {
+            return Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            return null;
+
+        }
+    }
+
+    private static Method lookupChannelOpen()
+    {
+        try {
+            return ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+
+        } catch (NoSuchMethodException e) {
+            return null;
+
+        }
+    }
+
+    private static ProtocolFamily lookupUnixFamily()
+    {
+        try {
+            return StandardProtocolFamily.valueOf("UNIX");
+
+        } catch (IllegalArgumentException e) {
+            return null;
+
+        }
+    }
+}
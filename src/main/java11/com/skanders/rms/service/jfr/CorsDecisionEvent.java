@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("rms.CorsDecision")
+@Label("CORS Decision")
+@Description("How CORSFilter classified a request")
+@Category({"RMS", "HTTP"})
+@Enabled(false)
+@StackTrace(false)
+class CorsDecisionEvent extends Event
+{
+    @Label("Origin")
+    String origin;
+
+    @Label("Method")
+    String method;
+
+    @Label("Decision")
+    String decision;
+}
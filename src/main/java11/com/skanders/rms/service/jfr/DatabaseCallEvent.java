@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("rms.DatabaseCall")
+@Label("Database Call")
+@Description("An AtSQL call through DatabaseBreaker, acquiring its connection and running on it")
+@Category({"RMS", "Database"})
+@Threshold("10 ms")
+class DatabaseCallEvent extends Event
+{
+    @Label("Outcome")
+    String outcome;
+
+    @Label("Probe")
+    @Description("The call was a half open probe of the breaker")
+    boolean probe;
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("rms.ExceptionMapped")
+@Label("Exception Mapped")
+@Description("An exception turned into a response by an RMS exception mapper")
+@Category({"RMS", "HTTP"})
+class ExceptionMappedEvent extends Event
+{
+    @Label("Exception")
+    Class<?> exception;
+
+    @Label("Message")
+    String message;
+
+    @Label("Status")
+    int status;
+
+    @Label("Mapper")
+    Class<?> mapper;
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.jfr;
+
+/**
+ * Java Flight Recorder events of RMS, the Java 11 build of the multi-release
+ * jar. See the Java 8 build for the events.
+ */
+public final class RMSEvents
+{
+    private RMSEvents()
+    {
+    }
+
+    public static boolean isSupported()
+    {
+        return true;
+    }
+
+    public static Object beginHttpRequest()
+    {
+        return begin(new HttpRequestEvent());
+    }
+
+    public static void endHttpRequest(Object event, String method, String path, String resource, int status)
+    {
+        if (event == null)
+            return;
+
+        HttpRequestEvent request = (HttpRequestEvent) event;
+        request.end();
+
+        if (!request.shouldCommit())
+            return;
+
+        request.method   = method;
+        request.path     = path;
+        request.resource = resource;
+        request.status   = status;
+        request.commit();
+    }
+
+    public static Object beginCorsDecision()
+    {
+        return begin(new CorsDecisionEvent());
+    }
+
+    public static void endCorsDecision(Object event, String origin, String method, String decision)
+    {
+        if (event == null)
+            return;
+
+        CorsDecisionEvent cors = (CorsDecisionEvent) event;
+        cors.end();
+
+        if (!cors.shouldCommit())
+            return;
+
+        cors.origin   = origin;
+        cors.method   = method;
+        cors.decision = decision;
+        cors.commit();
+    }
+
+    public static Object beginDatabaseCall()
+    {
+        return begin(new DatabaseCallEvent());
+    }
+
+    public static void endDatabaseCall(Object event, String outcome, boolean probe)
+    {
+        if (event == null)
+            return;
+
+        DatabaseCallEvent call = (DatabaseCallEvent) event;
+        call.end();
+
+        if (!call.shouldCommit())
+            return;
+
+        call.outcome = outcome;
+        call.probe   = probe;
+        call.commit();
+    }
+
+    public static void webSocketMessage(boolean sent, String path, String type, long size)
+    {
+        WebSocketMessageEvent message = new WebSocketMessageEvent();
+
+        if (!message.shouldCommit())
+            return;
+
+        message.sent = sent;
+        message.path = path;
+        message.type = type;
+        message.size = size;
+        message.commit();
+    }
+
+    public static void exceptionMapped(Throwable exception, int status, Class<?> mapper)
+    {
+        ExceptionMappedEvent mapped = new ExceptionMappedEvent();
+
+        if (!mapped.shouldCommit())
+            return;
+
+        mapped.exception = exception.getClass();
+        mapped.message   = exception.getMessage();
+        mapped.status    = status;
+        mapped.mapper    = mapper;
+        mapped.commit();
+    }
+
+    private static Object begin(jdk.jfr.Event event)
+    {
+        if (!event.isEnabled())
+            return null;
+
+        event.begin();
+        return event;
+    }
+}
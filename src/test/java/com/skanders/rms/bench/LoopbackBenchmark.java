@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.bench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares loopback TCP with a unix domain socket listener of a running
+ * RapidMicroService. Both transports are driven by the same raw HTTP/1.1
+ * keep-alive client so only the transport differs.
+ * <p>
+ * Start a service with a TCP listener and a unix listener serving a small
+ * GET resource, then run:
+ * <pre>
+ * LoopbackBenchmark host:port socketPath requestPath [connections] [seconds]
+ * </pre>
+ * Requires Java 16 or newer for the unix domain socket client.
+ */
+public class LoopbackBenchmark
+{
+    private static final int WARM_UP_SECONDS = 5;
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 3) {
+            System.err.println("usage: LoopbackBenchmark host:port socketPath requestPath [connections] [seconds]");
+            System.exit(1);
+        }
+
+        String[] hostPort    = args[0].split(":");
+        String   socketPath  = args[1];
+        String   requestPath = args[2];
+        int      connections = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        int      seconds     = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+
+        SocketAddress tcp  = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+        SocketAddress unix = unixAddress(socketPath);
+
+        byte[] request = ("GET " + requestPath + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+
+        run(tcp, StandardProtocolFamily.INET, request, connections, WARM_UP_SECONDS);
+        run(unix, unixFamily(), request, connections, WARM_UP_SECONDS);
+
+        report("tcp ", run(tcp, StandardProtocolFamily.INET, request, connections, seconds), seconds);
+        report("unix", run(unix, unixFamily(), request, connections, seconds), seconds);
+    }
+
+    private static long[] run(
+            SocketAddress address, ProtocolFamily family, byte[] request, int connections, int seconds)
+            throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(connections);
+        long            end      = System.nanoTime() + seconds * 1_000_000_000L;
+
+        List<Future<long[]>> results = new ArrayList<>();
+
+        for (int i = 0; i < connections; i++)
+            results.add(executor.submit(new Client(address, family, request, end)));
+
+        List<long[]> latencies = new ArrayList<>();
+        int          total     = 0;
+
+        for (Future<long[]> result : results) {
+            long[] latency = result.get();
+            latencies.add(latency);
+            total += latency.length;
+        }
+
+        executor.shutdown();
+
+        long[] merged = new long[total];
+        int    offset = 0;
+
+        for (long[] latency : latencies) {
+            System.arraycopy(latency, 0, merged, offset, latency.length);
+            offset += latency.length;
+        }
+
+        Arrays.sort(merged);
+
+        return merged;
+    }
+
+    private static void report(String name, long[] latencies, int seconds)
+    {
+        System.out.printf("%s  req/s %10.0f  p50 %8.1fus  p99 %8.1fus  p99.9 %8.1fus  max %8.1fus%n",
+                name, latencies.length / (double) seconds,
+                percentile(latencies, 50.0), percentile(latencies, 99.0),
+                percentile(latencies, 99.9), percentile(latencies, 100.0));
+    }
+
+    private static double percentile(long[] sorted, double percentile)
+    {
+        if (sorted.length == 0)
+            return 0;
+
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1000.0;
+    }
+
+    private static SocketAddress unixAddress(String socketPath) throws Exception
+    {
+        return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                .getMethod("of", String.class).invoke(null, socketPath);
+    }
+
+    private static ProtocolFamily unixFamily()
+    {
+        return StandardProtocolFamily.valueOf("UNIX");
+    }
+
+    private static SocketChannel open(ProtocolFamily family) throws Exception
+    {
+        return (SocketChannel) SocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, family);
+    }
+
+    /**
+     * Sends requests back to back on one keep-alive connection until the end
+     * time, recording the latency of each in nanoseconds.
+     */
+    private static class Client implements Callable<long[]>
+    {
+        private final SocketAddress  address;
+        private final ProtocolFamily family;
+        private final byte[]         request;
+        private final long           end;
+
+        Client(SocketAddress address, ProtocolFamily family, byte[] request, long end)
+        {
+            this.address = address;
+            this.family  = family;
+            this.request = request;
+            this.end     = end;
+        }
+
+        @Override
+        public long[] call() throws Exception
+        {
+            long[]     latencies = new long[1 << 16];
+            int        count     = 0;
+            ByteBuffer in        = ByteBuffer.allocateDirect(64 * 1024);
+            ByteBuffer out       = ByteBuffer.allocateDirect(request.length);
+
+            SocketChannel channel = null;
+
+            try {
+                long now;
+                while ((now = System.nanoTime()) < end) {
+                    if (channel == null) {
+                        channel = open(family);
+                        channel.connect(address);
+                        now = System.nanoTime();
+                    }
+
+                    out.clear();
+                    out.put(request).flip();
+
+                    while (out.hasRemaining())
+                        channel.write(out);
+
+                    if (!readResponse(channel, in)) {
+                        channel.close();
+                        channel = null;
+                    }
+
+                    if (count == latencies.length)
+                        latencies = Arrays.copyOf(latencies, count * 2);
+
+                    latencies[count++] = System.nanoTime() - now;
+                }
+
+            } finally {
+                if (channel != null)
+                    channel.close();
+
+            }
+
+            return Arrays.copyOf(latencies, count);
+        }
+
+        /**
+         * Reads one response with a Content-Length body.
+         *
+         * @return false if the server closes the connection after it
+         */
+        private static boolean readResponse(SocketChannel channel, ByteBuffer in) throws IOException
+        {
+            in.clear();
+
+            int headerEnd = -1;
+            int length    = -1;
+
+            while (true) {
+                if (channel.read(in) == -1)
+                    throw new IOException("Connection closed by server");
+
+                if (headerEnd < 0) {
+                    headerEnd = indexOfHeaderEnd(in);
+
+                    if (headerEnd >= 0)
+                        length = contentLength(in, headerEnd);
+                }
+
+                if (headerEnd >= 0 && in.position() >= headerEnd + length)
+                    return !isClose(in, headerEnd);
+            }
+        }
+
+        private static int indexOfHeaderEnd(ByteBuffer in)
+        {
+            for (int i = 3; i < in.position(); i++)
+                if (in.get(i - 3) == '\r' && in.get(i - 2) == '\n' && in.get(i - 1) == '\r' && in.get(i) == '\n')
+                    return i + 1;
+
+            return -1;
+        }
+
+        private static boolean isClose(ByteBuffer in, int headerEnd)
+        {
+            for (String line : head(in, headerEnd).split("\r\n"))
+                if (line.equalsIgnoreCase("Connection: close"))
+                    return true;
+
+            return false;
+        }
+
+        private static String head(ByteBuffer in, int headerEnd)
+        {
+            byte[] head = new byte[headerEnd];
+
+            for (int i = 0; i < headerEnd; i++)
+                head[i] = in.get(i);
+
+            return new String(head, StandardCharsets.ISO_8859_1);
+        }
+
+        private static int contentLength(ByteBuffer in, int headerEnd) throws IOException
+        {
+            for (String line : head(in, headerEnd).split("\r\n"))
+                if (line.regionMatches(true, 0, "Content-Length:", 0, 15))
+                    return Integer.parseInt(line.substring(15).trim());
+
+            throw new IOException("Benchmark resource must answer with a Content-Length");
+        }
+    }
+}
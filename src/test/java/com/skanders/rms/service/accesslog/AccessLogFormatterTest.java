@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.rms.service.accesslog;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.skanders.rms.config.AccessLogFormat;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AccessLogFormatterTest
+{
+    private static final long MILLIS = 1577934245123L;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final LogBuffer    buffer = new LogBuffer();
+
+    @Test
+    void formatsJsonEntry() throws IOException
+    {
+        String entry = json("/orders/7", "expand=true", "curl/7.68.0");
+
+        assertTrue(entry.endsWith("}\n"));
+
+        JsonNode node = mapper.readTree(entry);
+
+        assertEquals("2020-01-02T03:04:05.123Z", node.get("time").asText());
+        assertEquals("/orders/7", node.get("uri").asText());
+        assertEquals("expand=true", node.get("query").asText());
+        assertEquals(200, node.get("status").asInt());
+        assertEquals(42, node.get("bytes").asLong());
+        assertEquals(1500, node.get("durationUs").asLong());
+        assertEquals("curl/7.68.0", node.get("userAgent").asText());
+    }
+
+    @Test
+    void formatsCommonEntry()
+    {
+        String entry = format(AccessLogFormat.COMBINED, "/orders/7", null, "curl \"7\"");
+
+        assertEquals("10.0.0.1 - - [02/Jan/2020:03:04:05 +0000] \"GET /orders/7 HTTP/1.1\" 200 42" +
+                " \"-\" \"curl \\\"7\\\"\"\n", entry);
+    }
+
+    @Test
+    void closesJsonStringCutShort() throws IOException
+    {
+        String entry = json("/" + repeat("a", LogBuffer.MAX_SIZE), null, "curl/7.68.0");
+
+        assertEquals(LogBuffer.MAX_SIZE, entry.length());
+        assertTrue(entry.endsWith("\"}\n"));
+
+        JsonNode node = mapper.readTree(entry);
+
+        assertTrue(node.get("uri").asText().startsWith("/aaa"));
+        assertNull(node.get("status"));
+    }
+
+    @Test
+    void keepsJsonValidWhereverItIsCut() throws IOException
+    {
+        for (String unit : new String[]{"a", "\"", "\t", "\u00e9", "\u20ac"}) {
+            for (int size = LogBuffer.MAX_SIZE - 400; size <= LogBuffer.MAX_SIZE; size++) {
+                String entry = json("/" + repeat("a", size - 400) + repeat(unit, 40), "q", repeat("b", 200));
+
+                assertTrue(entry.length() <= LogBuffer.MAX_SIZE);
+                assertTrue(entry.endsWith("}\n"), entry);
+
+                mapper.readTree(entry);
+            }
+        }
+    }
+
+    @Test
+    void endsCommonLineCutShort()
+    {
+        String entry = format(AccessLogFormat.COMBINED, "/orders/7", null, repeat("\u20ac", LogBuffer.MAX_SIZE));
+
+        assertTrue(entry.getBytes(StandardCharsets.UTF_8).length <= LogBuffer.MAX_SIZE);
+        assertTrue(entry.endsWith("\u20ac\n"));
+    }
+
+    private String json(String uri, String query, String userAgent)
+    {
+        return format(AccessLogFormat.JSON, uri, query, userAgent);
+    }
+
+    private String format(AccessLogFormat format, String uri, String query, String userAgent)
+    {
+        buffer.reset();
+
+        new AccessLogFormatter(format).format(buffer, "10.0.0.1", "GET", uri, query, "HTTP/1.1", 200, 42, 1500,
+                null, userAgent, MILLIS);
+
+        ByteBuffer target = ByteBuffer.allocate(LogBuffer.MAX_SIZE);
+
+        assertTrue(buffer.writeTo(target));
+
+        return new String(target.array(), 0, target.position(), StandardCharsets.UTF_8);
+    }
+
+    private static String repeat(String unit, int count)
+    {
+        StringBuilder repeated = new StringBuilder(unit.length() * count);
+
+        for (int i = 0; i < count; i++)
+            repeated.append(unit);
+
+        return repeated.toString();
+    }
+}
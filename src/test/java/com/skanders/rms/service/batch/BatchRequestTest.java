@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.batch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.skanders.rms.def.RMSException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BatchRequestTest
+{
+    private final ObjectMapper         mapper = new ObjectMapper();
+    private final Map<String, Integer> ids    = new HashMap<>();
+
+    @Test
+    void readsSubRequest() throws IOException
+    {
+        BatchRequest request = parse("{\"id\": \"user\", \"method\": \"GET\", \"path\": \"/users/7?expand=true\"," +
+                " \"headers\": {\"Accept\": \"application/json\"}}", 0);
+
+        assertEquals("user", request.getId());
+        assertEquals("GET", request.getMethod());
+        assertEquals("/users/7?expand=true", request.getPath());
+        assertEquals("application/json", BatchRequest.header(request.getHeaders(), "accept"));
+        assertNull(request.getBody());
+        assertNull(request.getInvalid());
+        assertEquals(0, ids.get("user"));
+    }
+
+    @Test
+    void writesJsonBodyAsJson() throws IOException
+    {
+        BatchRequest request = parse("{\"method\": \"POST\", \"path\": \"/audit\", \"body\": {\"seen\": 7}}", 0);
+
+        assertEquals("application/json", BatchRequest.header(request.getHeaders(), "Content-Type"));
+        assertArrayEquals("{\"seen\":7}".getBytes(StandardCharsets.UTF_8), request.getBody());
+    }
+
+    @Test
+    void sendsTextBodyAsIs() throws IOException
+    {
+        BatchRequest request = parse("{\"method\": \"POST\", \"path\": \"/notes\"," +
+                " \"headers\": {\"Content-Type\": \"text/plain\"}, \"body\": \"a \\\"note\\\"\"}", 0);
+
+        assertArrayEquals("a \"note\"".getBytes(StandardCharsets.UTF_8), request.getBody());
+    }
+
+    @Test
+    void marksInvalidPathsPerSubRequest() throws IOException
+    {
+        for (String path : Arrays.asList("/a b", "/users/{id}", "/a|b", "//evil.example/x", "users", "/x#y")) {
+            BatchRequest request = parse("{\"method\": \"GET\", \"path\": " + mapper.writeValueAsString(path) + "}",
+                    0);
+
+            assertNotNull(request.getInvalid(), path);
+        }
+
+        assertNotNull(parse("{\"method\": \"GET\"}", 0).getInvalid());
+    }
+
+    @Test
+    void resolvesDependenciesOnEarlierIds() throws IOException
+    {
+        parse("{\"id\": \"user\", \"method\": \"GET\", \"path\": \"/users/7\"}", 0);
+        BatchRequest orders = parse("{\"method\": \"GET\", \"path\": \"/orders\", \"dependsOn\": [\"user\"]}", 1);
+
+        assertEquals(Arrays.asList(0), orders.getDependsOn());
+    }
+
+    @Test
+    void rejectsMalformedSubRequests()
+    {
+        assertThrows(RMSException.class, () -> parse("[]", 0));
+        assertThrows(RMSException.class, () -> parse("{\"method\": \"get\", \"path\": \"/x\"}", 0));
+        assertThrows(RMSException.class, () -> parse("{\"method\": \"GET\", \"path\": 7}", 0));
+        assertThrows(RMSException.class, () -> parse("{\"method\": \"GET\", \"path\": \"/x\", " +
+                "\"dependsOn\": [\"later\"]}", 0));
+        assertThrows(RMSException.class, () -> parse("{\"method\": \"GET\", \"path\": \"/x\", " +
+                "\"headers\": {\"X\": {}}}", 0));
+    }
+
+    @Test
+    void rejectsRepeatedIds() throws IOException
+    {
+        parse("{\"id\": \"a\", \"method\": \"GET\", \"path\": \"/x\"}", 0);
+
+        assertThrows(RMSException.class, () -> parse("{\"id\": \"a\", \"method\": \"GET\", \"path\": \"/y\"}", 1));
+    }
+
+    private BatchRequest parse(String json, int index) throws IOException
+    {
+        JsonNode node = mapper.readTree(json);
+
+        return BatchRequest.parse(node, index, ids, mapper);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.deadline;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestDeadlineTest
+{
+    @Test
+    void unboundedRequestHasNoTimeout()
+    {
+        RequestDeadline deadline = new RequestDeadline(Long.MAX_VALUE);
+
+        assertFalse(deadline.isBounded());
+        assertFalse(deadline.isExpired());
+        assertEquals(Long.MAX_VALUE, deadline.getRemainingMillis());
+        assertEquals(0, deadline.getQueryTimeout());
+    }
+
+    @Test
+    void queryTimeoutRoundsUpToWholeSeconds()
+    {
+        assertEquals(1, new RequestDeadline(TimeUnit.MILLISECONDS.toNanos(300)).getQueryTimeout());
+        assertEquals(3, new RequestDeadline(TimeUnit.MILLISECONDS.toNanos(2500)).getQueryTimeout());
+        assertEquals(60, new RequestDeadline(TimeUnit.SECONDS.toNanos(60)).getQueryTimeout());
+    }
+
+    @Test
+    void remainingTimeCountsDown()
+    {
+        RequestDeadline deadline  = new RequestDeadline(TimeUnit.SECONDS.toNanos(10));
+        long            remaining = deadline.getRemainingMillis();
+
+        assertTrue(deadline.isBounded());
+        assertTrue(remaining > 9000 && remaining <= 10000, "remaining " + remaining);
+    }
+
+    @Test
+    void passedDeadlineIsExpired()
+    {
+        RequestDeadline deadline = new RequestDeadline(0);
+
+        assertTrue(deadline.isExpired());
+        assertEquals(0, deadline.getRemainingMillis());
+        assertEquals(1, deadline.getQueryTimeout());
+        assertThrows(DeadlineExceededException.class, deadline::verifyRemaining);
+    }
+
+    @Test
+    void narrowKeepsTheNearerDeadline()
+    {
+        RequestDeadline client = new RequestDeadline(TimeUnit.SECONDS.toNanos(2));
+        client.narrow(TimeUnit.SECONDS.toNanos(30));
+
+        assertTrue(client.getRemainingMillis() <= 2000);
+
+        RequestDeadline resource = new RequestDeadline(TimeUnit.SECONDS.toNanos(30));
+        resource.narrow(TimeUnit.SECONDS.toNanos(2));
+
+        assertTrue(resource.getRemainingMillis() <= 2000);
+
+        RequestDeadline none = new RequestDeadline(Long.MAX_VALUE);
+        none.narrow(TimeUnit.SECONDS.toNanos(5));
+
+        assertTrue(none.isBounded());
+        assertEquals(5, none.getQueryTimeout());
+    }
+
+    @Test
+    void cancelCancelsAppliedStatements() throws Exception
+    {
+        List<String>    calls     = new ArrayList<>();
+        RequestDeadline deadline  = new RequestDeadline(TimeUnit.SECONDS.toNanos(4));
+        Statement       statement = statement(calls);
+
+        deadline.applyTo(statement);
+        deadline.cancel("client disconnected");
+
+        assertEquals("[setQueryTimeout 4, cancel]", calls.toString());
+        assertTrue(deadline.isExpired());
+        assertEquals("client disconnected", deadline.getReason());
+        assertThrows(DeadlineExceededException.class, () -> deadline.applyTo(statement(calls)));
+    }
+
+    private static Statement statement(List<String> calls)
+    {
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{Statement.class},
+                (proxy, method, args) -> {
+                    calls.add(method.getName() + (args == null ? "" : " " + args[0]));
+                    return null;
+                });
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.rms.service.journal;
+
+import com.skanders.jbel.atsql.AtSQL;
+import com.skanders.rms.config.JournalSync;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteBehindJournalTest
+{
+    private static final int SEGMENT_SIZE = 256;
+
+    private Path         directory;
+    private List<String> drained;
+
+    @BeforeEach
+    void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("rms-journal");
+        drained   = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException
+    {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files)
+                Files.delete(file);
+
+        }
+
+        Files.delete(directory);
+    }
+
+    @Test
+    void replaysRecordsNotYetDrained()
+    {
+        WriteBehindJournal journal = open(JournalSync.ALWAYS);
+
+        for (int i = 0; i < 30; i++)
+            journal.append(record(i));
+
+        journal.close();
+
+        journal = open(JournalSync.ALWAYS);
+        journal.setDrain(this::collect);
+        journal.start();
+
+        await(() -> drained.size() == 30);
+        journal.close();
+
+        for (int i = 0; i < 30; i++)
+            assertEquals("record-" + i, drained.get(i));
+    }
+
+    @Test
+    void dropsRecordCutShortOnRecovery() throws IOException
+    {
+        WriteBehindJournal journal = open(JournalSync.ALWAYS);
+
+        for (int i = 0; i < 3; i++)
+            journal.append(record(i));
+
+        long end = (Long) journal.snapshot().get("writePosition");
+        journal.close();
+
+        try (FileChannel channel = FileChannel.open(segment(0), StandardOpenOption.WRITE)) {
+            ByteBuffer torn = ByteBuffer.allocate(12).putInt(40).putInt(7).putInt(0x7f7f7f7f);
+            torn.flip();
+            channel.write(torn, end);
+
+        }
+
+        journal = open(JournalSync.ALWAYS);
+        assertEquals(end, journal.snapshot().get("writePosition"));
+
+        journal.append(record(3));
+        journal.setDrain(this::collect);
+        journal.start();
+
+        await(() -> drained.size() == 4);
+        journal.close();
+
+        assertEquals("record-3", drained.get(3));
+    }
+
+    @Test
+    void appendsAfterCheckpointWhenRecordsWereLost() throws IOException
+    {
+        WriteBehindJournal journal = open(JournalSync.NONE);
+        journal.setDrain(this::collect);
+        journal.start();
+
+        for (int i = 0; i < 5; i++)
+            journal.append(record(i));
+
+        await(() -> drainedPosition(journal) == 5 * (JournalReader.HEADER + 8));
+        journal.close();
+
+        Files.write(segment(0), new byte[SEGMENT_SIZE]);
+
+        WriteBehindJournal recovered = open(JournalSync.NONE);
+        Map<String, Object> snapshot = recovered.snapshot();
+
+        assertTrue((Long) snapshot.get("writePosition") >= (Long) snapshot.get("drainedPosition"));
+
+        recovered.setDrain(this::collect);
+        recovered.start();
+        recovered.append(record(5));
+        recovered.append(record(6));
+
+        await(() -> drained.size() == 7);
+        recovered.close();
+
+        assertEquals("record-6", drained.get(6));
+    }
+
+    @Test
+    void deletesDrainedSegments() throws IOException
+    {
+        WriteBehindJournal journal = open(JournalSync.INTERVAL);
+        journal.setDrain(this::collect);
+        journal.start();
+
+        for (int i = 0; i < 100; i++)
+            journal.append(record(i));
+
+        await(() -> drained.size() == 100);
+        journal.close();
+
+        int segments = 0;
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.seg")) {
+            for (Path ignored : files)
+                segments++;
+
+        }
+
+        assertTrue(segments <= 2, segments + " segments left");
+        assertEquals("record-99", drained.get(99));
+    }
+
+    private WriteBehindJournal open(JournalSync fsync)
+    {
+        return new WriteBehindJournal((writer, batch) -> writer.write(null, batch), directory, SEGMENT_SIZE,
+                fsync, 5, 16, 5, Long.MAX_VALUE, 1000);
+    }
+
+    private void collect(AtSQL atSQL, List<byte[]> records)
+    {
+        for (byte[] record : records)
+            drained.add(new String(record, StandardCharsets.UTF_8));
+    }
+
+    private Path segment(long index)
+    {
+        return WriteBehindJournal.segmentPath(directory, index);
+    }
+
+    private static byte[] record(int i)
+    {
+        return String.format("record-%d", i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long drainedPosition(WriteBehindJournal journal)
+    {
+        return (Long) journal.snapshot().get("drainedPosition");
+    }
+
+    private static void await(BooleanSupplier condition)
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+
+            try {
+                Thread.sleep(5);
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError(e);
+
+            }
+        }
+    }
+}
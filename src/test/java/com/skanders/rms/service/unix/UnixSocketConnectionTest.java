@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.rms.service.unix;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UnixSocketConnectionTest
+{
+    private final UnixSocketConnection connection = new UnixSocketConnection(null, null,
+            new ApplicationHandler(new ResourceConfig(EchoResource.class)), URI.create("http://localhost/"));
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    @Test
+    void readsChunkedBody() throws IOException
+    {
+        InputStream in = request("POST /echo HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n" +
+                "5;name=value\r\nhello\r\n6\r\n world\r\n0\r\nTrailer: x\r\n\r\n");
+
+        assertTrue(connection.serve(in, out));
+        assertResponse(200, "hello world");
+    }
+
+    @Test
+    void servesPipelinedRequestsInOrder() throws IOException
+    {
+        InputStream in = request("POST /echo HTTP/1.1\r\nContent-Length: 5\r\n\r\nfirst" +
+                "GET /name/second HTTP/1.1\r\n\r\n" +
+                "POST /echo HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nthird\r\n0\r\n\r\n");
+
+        assertTrue(connection.serve(in, out));
+        assertTrue(connection.serve(in, out));
+        assertTrue(connection.serve(in, out));
+        assertFalse(connection.serve(in, out));
+
+        String responses = response();
+
+        assertTrue(responses.indexOf("first") < responses.indexOf("second"));
+        assertTrue(responses.indexOf("second") < responses.indexOf("third"));
+    }
+
+    @Test
+    void closesAfterHttp10Request() throws IOException
+    {
+        assertFalse(connection.serve(request("GET /name/old HTTP/1.0\r\n\r\n"), out));
+        assertResponse(200, "old");
+    }
+
+    @Test
+    void rejectsMalformedTarget() throws IOException
+    {
+        assertFalse(connection.serve(request("GET /name/%zz HTTP/1.1\r\n\r\n"), out));
+        assertResponse(400, "");
+    }
+
+    @Test
+    void rejectsDifferingContentLengths() throws IOException
+    {
+        assertFalse(connection.serve(request("POST /echo HTTP/1.1\r\nContent-Length: 5\r\n" +
+                "Content-Length: 6\r\n\r\nhello!"), out));
+        assertResponse(400, "");
+    }
+
+    @Test
+    void acceptsRepeatedEqualContentLengths() throws IOException
+    {
+        assertTrue(connection.serve(request("POST /echo HTTP/1.1\r\nContent-Length: 5, 5\r\n" +
+                "Content-Length: 5\r\n\r\nhello"), out));
+        assertResponse(200, "hello");
+    }
+
+    @Test
+    void rejectsSignedContentLength() throws IOException
+    {
+        assertFalse(connection.serve(request("POST /echo HTTP/1.1\r\nContent-Length: +5\r\n\r\nhello"), out));
+        assertResponse(400, "");
+    }
+
+    @Test
+    void rejectsContentLengthWithTransferEncoding() throws IOException
+    {
+        assertFalse(connection.serve(request("POST /echo HTTP/1.1\r\nContent-Length: 5\r\n" +
+                "Transfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n0\r\n\r\n"), out));
+        assertResponse(400, "");
+    }
+
+    @Test
+    void rejectsTransferEncodingNotEndingInChunked() throws IOException
+    {
+        assertFalse(connection.serve(request("POST /echo HTTP/1.1\r\nTransfer-Encoding: chunked, gzip\r\n\r\n"), out));
+        assertResponse(400, "");
+    }
+
+    @Test
+    void rejectsWhitespaceBeforeHeaderColon() throws IOException
+    {
+        assertFalse(connection.serve(request("POST /echo HTTP/1.1\r\nContent-Length : 5\r\n\r\nhello"), out));
+        assertResponse(400, "");
+    }
+
+    @Test
+    void failsChunkWithoutTrailingCrlf()
+    {
+        InputStream body = new HttpStreams.ChunkedInputStream(request("5\r\nhello6\r\n world\r\n0\r\n\r\n"));
+
+        assertThrows(IOException.class, () -> HttpStreams.drain(body));
+    }
+
+    @Test
+    void failsSignedChunkSize()
+    {
+        InputStream body = new HttpStreams.ChunkedInputStream(request("-5\r\nhello\r\n0\r\n\r\n"));
+
+        assertThrows(IOException.class, () -> HttpStreams.drain(body));
+    }
+
+    private static InputStream request(String request)
+    {
+        return new ByteArrayInputStream(request.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private String response()
+    {
+        return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    private void assertResponse(int status, String body)
+    {
+        String response = response();
+
+        assertTrue(response.startsWith("HTTP/1.1 " + status + " "), response);
+        assertEquals(body, response.substring(response.indexOf("\r\n\r\n") + 4));
+    }
+
+    @Path("/")
+    public static class EchoResource
+    {
+        @POST
+        @Path("echo")
+        public String echo(String body)
+        {
+            return body;
+        }
+
+        @GET
+        @Path("name/{name}")
+        public String name(@PathParam("name") String name)
+        {
+            return name;
+        }
+    }
+}